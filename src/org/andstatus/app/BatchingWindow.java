@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app;
+
+import org.andstatus.app.MyService.CommandEnum;
+import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds deferrable background commands (see {@link #isDeferrable(CommandData)}), which arrive while
+ * the radio is idle, so commands, which become due within the window, are executed together
+ * in one burst of the radio instead of waking it up for each of them.
+ * The window is opened by the first deferred command. The burst starts when the window closes
+ * or earlier, when other work, which can't wait, turns the radio on anyway.
+ * A burst with an automatic update pulls in automatic updates of other accounts, which become due
+ * within the window, so next syncs of these accounts are skipped, see {@link #takePulledIn(String, long, long)}.
+ * Not thread safe: the {@link MyService} accesses it under its own lock
+ * @author yvolk@yurivolkov.com
+ */
+public class BatchingWindow {
+    private static final String TAG = BatchingWindow.class.getSimpleName();
+
+    private static final MyMetrics.Counter wakeups = MyMetrics.counter("service.batch.wakeups");
+    private static final MyMetrics.Counter wakeupsSaved = MyMetrics.counter("service.batch.wakeups.saved");
+    private static final MyMetrics.Gauge deferredCount = MyMetrics.gauge("service.batch.deferred");
+
+    private final List<CommandData> deferred = new ArrayList<CommandData>();
+    /**
+     * Elapsed realtime, 0 if the window is not opened
+     */
+    private long closesAt = 0;
+    /**
+     * A burst with an automatic update was released, and other accounts were not pulled into it yet
+     */
+    private boolean pullInPending = false;
+    /**
+     * Elapsed realtime of the burst, into which the automatic update of the account was pulled, by the account name
+     */
+    private final Map<String, Long> pulledIn = new HashMap<String, Long>();
+
+    /**
+     * Nobody waits for results of these commands right now
+     */
+    public static boolean isDeferrable(CommandData commandData) {
+        return commandData != null
+                && (commandData.command == CommandEnum.AUTOMATIC_UPDATE || commandData.command == CommandEnum.FILL_GAPS);
+    }
+
+    /**
+     * @param now Elapsed realtime
+     * @param windowMillis Used if this command opens the window
+     * @return false if the same command is deferred already
+     */
+    public boolean defer(CommandData commandData, long now, long windowMillis) {
+        if (deferred.contains(commandData)) {
+            MyLog.d(TAG, "Duplicated " + commandData);
+            return false;
+        }
+        if (deferred.isEmpty()) {
+            closesAt = now + windowMillis;
+        }
+        deferred.add(commandData);
+        deferredCount.set(deferred.size());
+        MyLog.d(TAG, "Deferred for " + (closesAt - now) + " ms " + commandData);
+        return true;
+    }
+
+    /**
+     * The command is not needed, because its work was done along with other work, e.g. an automatic update
+     * of the account, pulled into the previous burst, see {@link #takePulledIn(String, long, long)}
+     */
+    public void skip(CommandData commandData) {
+        wakeupsSaved.increment();
+        MyLog.d(TAG, "Done already " + commandData);
+    }
+
+    public boolean isEmpty() {
+        return deferred.isEmpty();
+    }
+
+    /**
+     * @return Elapsed realtime, when the deferred commands should be executed, 0 if nothing is deferred
+     */
+    public long getClosesAt() {
+        return closesAt;
+    }
+
+    public boolean isDue(long now) {
+        return !deferred.isEmpty() && now >= closesAt;
+    }
+
+    /**
+     * Takes all deferred commands for the burst. Scattered, each of them would wake the radio
+     * @param radioIsOn true if other work is executed anyway, so the burst doesn't need its own wakeup
+     */
+    public List<CommandData> release(boolean radioIsOn) {
+        List<CommandData> commands = takeAll();
+        if (!commands.isEmpty()) {
+            for (CommandData commandData : commands) {
+                if (commandData.command == CommandEnum.AUTOMATIC_UPDATE) {
+                    pullInPending = true;
+                }
+            }
+            if (radioIsOn) {
+                wakeupsSaved.add(commands.size());
+            } else {
+                wakeups.increment();
+                wakeupsSaved.add(commands.size() - 1);
+            }
+            MyLog.d(TAG, "Released " + commands.size() + " commands" + (radioIsOn ? " along with other work" : ""));
+        }
+        return commands;
+    }
+
+    /**
+     * Takes all deferred commands without counting the burst, e.g. in order to persist them
+     */
+    public List<CommandData> takeAll() {
+        List<CommandData> commands = new ArrayList<CommandData>(deferred);
+        deferred.clear();
+        closesAt = 0;
+        deferredCount.set(0);
+        return commands;
+    }
+
+    /**
+     * @return true once after the release of a burst with an automatic update, so automatic updates
+     *   of other accounts, which become due within the window, should be pulled into the burst
+     */
+    public boolean takePullIn() {
+        boolean pullIn = pullInPending;
+        pullInPending = false;
+        return pullIn;
+    }
+
+    /**
+     * The automatic update of the account was pulled into the burst
+     * @param now Elapsed realtime
+     */
+    public void onPulledIn(String accountName, long now) {
+        pulledIn.put(accountName, now);
+        MyLog.d(TAG, "Pulled in " + accountName);
+    }
+
+    /**
+     * Only the first automatic update of the account after its pull in is done already,
+     * so the record is taken
+     * @param now Elapsed realtime
+     * @param maxAgeMillis The pull in is too old, if it was earlier
+     * @return true if the automatic update of the account was pulled into a burst not earlier than maxAgeMillis ago
+     */
+    public boolean takePulledIn(String accountName, long now, long maxAgeMillis) {
+        Long pulledInAt = pulledIn.remove(accountName);
+        return pulledInAt != null && now - pulledInAt <= maxAgeMillis;
+    }
+
+    public static long getWakeups() {
+        return wakeups.get();
+    }
+
+    public static long getWakeupsSaved() {
+        return wakeupsSaved.get();
+    }
+}
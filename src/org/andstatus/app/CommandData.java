@@ -67,6 +67,11 @@ public class CommandData {
      */
     public int retriesLeft = 0;
 
+    /**
+     * When the command was put to the queue, see {@link org.andstatus.app.util.MyMetrics#now()}
+     */
+    long queuedAt = 0;
+
     public CommandResult commandResult = new CommandResult();
     
     public static final CommandData EMPTY_COMMAND = new CommandData(CommandEnum.EMPTY, "");
@@ -27,15 +27,15 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.text.Html;
 import android.text.TextUtils;
-import android.text.util.Linkify;
+import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import org.andstatus.app.MyService.CommandEnum;
 import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.data.BodyEntities;
 import org.andstatus.app.data.MyDatabase.MsgOfUser;
 import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.data.MyDatabase.User;
@@ -62,6 +62,7 @@ public class ConversationActivity extends Activity implements MyServiceListener
             User.AUTHOR_NAME,
             Msg.SENDER_ID,
             Msg.BODY,
+            Msg.BODY_ENTITIES,
             Msg.VIA,
             User.IN_REPLY_TO_NAME,
             Msg.IN_REPLY_TO_MSG_ID,
@@ -130,6 +131,7 @@ public class ConversationActivity extends Activity implements MyServiceListener
              */
             String rebloggersString = "";
             String body = "";
+            String bodyEntities = null;
             String via = "";
             String inReplyToName = "";
             String recipientName = "";
@@ -201,7 +203,8 @@ public class ConversationActivity extends Activity implements MyServiceListener
                             row.createdDate = msg.getLong(msg.getColumnIndex(Msg.CREATED_DATE));
                             row.author = msg.getString(msg.getColumnIndex(User.AUTHOR_NAME));
                             row.body = msg.getString(msg.getColumnIndex(Msg.BODY));
-                            row.via = Html.fromHtml(msg.getString(msg.getColumnIndex(Msg.VIA))).toString().trim();
+                            row.bodyEntities = msg.getString(msg.getColumnIndex(Msg.BODY_ENTITIES));
+                            row.via = msg.getString(msg.getColumnIndex(Msg.VIA));
                             int colIndex = msg.getColumnIndex(User.IN_REPLY_TO_NAME);
                             if (colIndex > -1) {
                                 row.inReplyToName = msg.getString(colIndex);
@@ -308,8 +311,8 @@ public class ConversationActivity extends Activity implements MyServiceListener
             body.setLinksClickable(true);
             body.setFocusable(true);
             body.setFocusableInTouchMode(true);
-            body.setText(row.body);
-            Linkify.addLinks(body, Linkify.ALL);
+            body.setText(BodyEntities.toSpannable(row.body, row.bodyEntities));
+            body.setMovementMethod(LinkMovementMethod.getInstance());
 
             // Everything else goes to messageDetails
             String messageDetails = RelativeTime.getDifference(ConversationActivity.this,
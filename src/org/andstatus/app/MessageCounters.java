@@ -14,6 +14,18 @@ public class MessageCounters {
     public int newMessagesCount = 0;
     public int newMentionsCount = 0;
     public int newRepliesCount = 0;
+    public int pagesDownloaded = 0;
+    public int itemsParsed = 0;
+    public int itemsInserted = 0;
+    public int itemsUpdated = 0;
+    /**
+     * Updates, which were not done, because nothing changed in the stored item
+     */
+    public int writesSkipped = 0;
+    /**
+     * Errors, after which the download continued
+     */
+    public int errors = 0;
     public int totalMessagesDownloaded = 0;
 
     // Accumulated counters to use for user notifications
@@ -47,10 +59,24 @@ public class MessageCounters {
                 break;
             default:
         }
+        resetRawCounters();
+    }
+
+    /**
+     * Called when a run starts, so counts of a previous run, which failed before they were accumulated,
+     * are not added to the new run
+     */
+    public void resetRawCounters() {
         newMessagesCount = 0;
         newMentionsCount = 0;
         newRepliesCount = 0;
         totalMessagesDownloaded = 0;
+        pagesDownloaded = 0;
+        itemsParsed = 0;
+        itemsInserted = 0;
+        itemsUpdated = 0;
+        writesSkipped = 0;
+        errors = 0;
     }
     
     public String accumulatedToString() {
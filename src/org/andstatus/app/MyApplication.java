@@ -38,7 +38,8 @@ public class MyApplication extends Application {
         super.onCreate();
         Log.v(TAG, "onCreate started");
         MyPreferences.initialize(this, this);
-        MyPreferences.triggerDatabaseUpgrade();
+        // Don't block the UI thread while the database is being opened or upgraded
+        MyPreferences.triggerDatabaseUpgradeInBackground();
         if (MyLog.isLoggable(TAG, Log.VERBOSE)) {
             MyLog.v(TAG, "onCreate ended");
         } else {
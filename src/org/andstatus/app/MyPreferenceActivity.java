@@ -47,7 +47,9 @@ import org.andstatus.app.account.AccountSettingsActivity;
 import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.data.MyDatabase;
 import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.net.HttpCapture;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
 import org.andstatus.app.util.SharedPreferencesUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -138,9 +140,38 @@ public class MyPreferenceActivity extends PreferenceActivity implements
                 return false;
             }
         });
+
+        myPref = findPreference("dump_metrics");
+        myPref.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                dumpMetrics();
+                return false;
+            }
+        });
         
     }
 
+    /**
+     * Save metrics of this process to the "logs" folder, see {@link MyMetrics}
+     */
+    private void dumpMetrics() {
+        final String fileName = "metrics.json";
+        String metrics;
+        try {
+            metrics = MyMetrics.toJson().toString(2);
+        } catch (JSONException e) {
+            Log.e(TAG, "dumpMetrics: " + e.toString());
+            return;
+        }
+        MyLog.d(TAG, "Metrics: " + metrics);
+        if (MyLog.writeStringToFile(metrics, fileName)) {
+            Toast.makeText(this, fileName, Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, R.string.error, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -182,6 +213,8 @@ public class MyPreferenceActivity extends PreferenceActivity implements
         showRingtone(MyPreferences.getDefaultSharedPreferences().getString(
                 MyPreferences.KEY_RINGTONE_PREFERENCE, null));
         showMinLogLevel();
+        showPrefetchThresholdRows();
+        showBatchingWindow();
         showUseExternalStorage();
         
         Preference myPref = findPreference("manage_accounts");
@@ -211,6 +244,14 @@ public class MyPreferenceActivity extends PreferenceActivity implements
         SharedPreferencesUtil.showListPreference(this, MyPreferences.KEY_MIN_LOG_LEVEL, R.array.log_level_keys, R.array.log_level_display, R.string.summary_preference_min_log_level);
     }
     
+    protected void showPrefetchThresholdRows() {
+        SharedPreferencesUtil.showListPreference(this, MyPreferences.KEY_PREFETCH_THRESHOLD_ROWS, R.array.prefetch_threshold_rows_keys, R.array.prefetch_threshold_rows_display, R.string.summary_preference_prefetch_threshold_rows);
+    }
+    
+    protected void showBatchingWindow() {
+        SharedPreferencesUtil.showListPreference(this, MyPreferences.KEY_BATCHING_WINDOW, R.array.batching_window_keys, R.array.batching_window_display, R.string.summary_preference_batching_window);
+    }
+    
     protected void showRingtone(Object newValue) {
         String ringtone = (String) newValue;
         Uri uri;
@@ -281,6 +322,15 @@ public class MyPreferenceActivity extends PreferenceActivity implements
             if (key.equals(MyPreferences.KEY_MIN_LOG_LEVEL)) {
                 showMinLogLevel();
             }
+            if (key.equals(MyPreferences.KEY_PREFETCH_THRESHOLD_ROWS)) {
+                showPrefetchThresholdRows();
+            }
+            if (key.equals(MyPreferences.KEY_BATCHING_WINDOW)) {
+                showBatchingWindow();
+            }
+            if (key.equals(MyPreferences.KEY_CAPTURE_HTTP)) {
+                HttpCapture.onPreferenceChanged();
+            }
             if (key.equals(MyPreferences.KEY_USE_EXTERNAL_STORAGE_NEW)) {
                 if (!mUseExternalStorage_busy) {
                     mUseExternalStorage_busy = true;
@@ -17,7 +17,12 @@
 
 package org.andstatus.app;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -27,11 +32,15 @@ import org.andstatus.app.account.MyAccount.CredentialsVerificationStatus;
 import org.andstatus.app.appwidget.MyAppWidgetProvider;
 import org.andstatus.app.data.DataInserter;
 import org.andstatus.app.data.DataPruner;
+import org.andstatus.app.data.LatestTimelineItem;
 import org.andstatus.app.data.MyDatabase;
 import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.data.ReadMarker;
+import org.andstatus.app.data.SyncRun;
+import org.andstatus.app.net.CancellationToken;
 import org.andstatus.app.net.Connection;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.net.ConnectionException.StatusCode;
@@ -41,9 +50,12 @@ import org.andstatus.app.net.MbUser;
 import org.andstatus.app.util.ForegroundCheckTask;
 import org.andstatus.app.util.I18n;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
 import org.andstatus.app.util.SharedPreferencesUtil;
+import org.andstatus.app.util.StartupTrace;
 import org.andstatus.app.util.TriState;
 
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -58,10 +70,13 @@ import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteConstraintException;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.util.Log;
 
@@ -115,6 +130,12 @@ public class MyService extends Service {
      */
     public static final String ACTION_GO = ACTIONPREFIX + "GO";
 
+    /**
+     * Sent by the AlarmManager, when the {@link BatchingWindow} closes. {@link MyServiceManager} receives it
+     * and keeps the device awake, till the Service takes over, see {@link #acquireAlarmWakeLock(Context)}
+     */
+    public static final String ACTION_ALARM = ACTIONPREFIX + "ALARM";
+
     /**
      * Communicate state of this service 
      */
@@ -177,6 +198,10 @@ public class MyService extends Service {
          * Fetch timeline(s) of the specified type for the specified MyAccount. 
          */
         FETCH_TIMELINE("fetch-timeline"),
+        /**
+         * Download messages, missing in the gaps of the timeline(s), see {@link org.andstatus.app.data.TimelineGap}
+         */
+        FILL_GAPS("fill-gaps"),
 
         CREATE_FAVORITE("create-favorite"), DESTROY_FAVORITE("destroy-favorite"),
 
@@ -290,13 +315,27 @@ public class MyService extends Service {
     /**
      * Commands queue to be processed by the Service
      */
-    private Queue<CommandData> mCommands = new ArrayBlockingQueue<CommandData>(100, true);
+    Queue<CommandData> mCommands = new ArrayBlockingQueue<CommandData>(100, true);
 
     /**
      * Retry Commands queue
      */
     private Queue<CommandData> mRetryQueue = new ArrayBlockingQueue<CommandData>(100, true);
 
+    private static final MyMetrics.Latency queueWaitLatency = MyMetrics.latency("service.queue.wait");
+    private static final MyMetrics.Gauge queueSize = MyMetrics.gauge("service.queue.size");
+
+    /**
+     * Deferrable commands, which wait for each other in order to be executed in one burst of the radio
+     */
+    final BatchingWindow mBatchingWindow = new BatchingWindow();
+
+    /**
+     * Restores the queues, persisted on previous stop, in background.
+     * null if the queues are restored already
+     */
+    private volatile Thread mQueuesRestorer = null;
+
     /**
      * The set of threads that are currently executing commands For now let's
      * have only ONE working thread (it seems there is some problem in parallel
@@ -304,11 +343,25 @@ public class MyService extends Service {
      */
     private Set<CommandExecutor> mExecutors = new HashSet<CommandExecutor>();
 
+    /**
+     * Streamers of the accounts, for which streaming is turned on, by the account's User id.
+     * While they run, the Service is not stopped in background
+     */
+    private final Map<Long, TimelineStreamer> mStreamers = new HashMap<Long, TimelineStreamer>();
+
     /**
      * The reference to the wake lock used to keep the CPU from stopping during
      * background operations.
      */
     private volatile PowerManager.WakeLock mWakeLock = null;
+    /**
+     * Held from the {@link #ACTION_ALARM} till the Service acquires its own wake lock
+     */
+    private static PowerManager.WakeLock alarmWakeLock = null;
+    /**
+     * In case the Service doesn't start
+     */
+    private static final long ALARM_WAKE_LOCK_TIMEOUT_MILLIS = 30 * MyPreferences.MILLISECONDS;
 
     /**
      * Time when shared preferences where changed as this knows it.
@@ -361,12 +414,19 @@ public class MyService extends Service {
      * Notify background processes that the service is stopping.
      * Stop if background processes has finished.
      * Persist everything that we'll need on next Service creation and free resources
-     * @param boolean forceNow 
+     * @param boolean forceNow Commands being executed are cancelled, see {@link CommandExecutor#cancelCommand()}
      */
     private synchronized void stopDelayed(boolean forceNow) {
         if (!mInitialized) return;
 
         mIsStopping = true;
+        if (forceNow) {
+            for (CommandExecutor executor : mExecutors) {
+                // Don't wait for the whole command to finish
+                executor.cancelCommand();
+            }
+        }
+        // Otherwise executors stop between timelines, completing downloads in progress
         boolean doStop = (mExecutors.size() == 0);
         if (!doStop) {
             if (forceNow) {
@@ -379,10 +439,17 @@ public class MyService extends Service {
         }
 
         unregisterReceiver(intentReceiver);
+        stopStreamers();
 
         // Clear notifications if any
         notifyOfQueue(true);
         
+        waitForQueuesRestored();
+        // Deferred commands will be executed on next start
+        cancelBatchAlarm();
+        for (CommandData cd : mBatchingWindow.takeAll()) {
+            offerCommand(cd);
+        }
         int count = 0;
         // Save Queues
         count += persistQueue(mCommands, TAG + "_" + "mCommands");
@@ -453,13 +520,10 @@ public class MyService extends Service {
 
 
         if (!mInitialized) {
-            int count = 0;
-            // Restore Queues
-            count += restoreQueue(mCommands, TAG + "_" + "mCommands");
-            count += restoreQueue(mRetryQueue, TAG + "_" + "mRetryQueue");
-            MyLog.d(TAG, "State restored, " + (count>0 ? Integer.toString(count) : "no") + " msg in the Queues");
+            restoreQueuesInBackground();
 
             registerReceiver(intentReceiver, new IntentFilter(ACTION_GO));
+            updateStreamers();
             
             mInitialized = true;
             broadcastState(null);
@@ -480,10 +544,57 @@ public class MyService extends Service {
             }
             preferencesChangeTime = preferencesChangeTimeNew;
             preferencesExamineTime = preferencesExamineTimeNew;
+            // Accounts or their streaming option could change
+            updateStreamers();
             getMyServicePreferences().edit().putLong(MyPreferences.KEY_PREFERENCES_EXAMINE_TIME, preferencesExamineTime).commit();
         }
     }
 
+    /**
+     * Commands, received while the queues are being restored, are accepted as usual,
+     * so restored commands are added after them
+     */
+    private void restoreQueuesInBackground() {
+        final Handler handler = new Handler();
+        final long startedAt = StartupTrace.begin();
+        mQueuesRestorer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int count = 0;
+                count += restoreQueue(mCommands, TAG + "_" + "mCommands");
+                count += restoreQueue(mRetryQueue, TAG + "_" + "mRetryQueue");
+                StartupTrace.end("MyService.restoreQueues", startedAt);
+                MyLog.d(TAG, "State restored, " + (count>0 ? Integer.toString(count) : "no") + " msg in the Queues");
+                if (count > 0) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mInitialized) {
+                                startOrStopExecutor(true, null);
+                            }
+                        }
+                    });
+                }
+            }
+        }, TAG + ".restoreQueues");
+        mQueuesRestorer.start();
+    }
+
+    /**
+     * Don't persist the queues while they are being restored
+     */
+    private void waitForQueuesRestored() {
+        Thread restorer = mQueuesRestorer;
+        if (restorer != null) {
+            try {
+                restorer.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while restoring the queues");
+            }
+            mQueuesRestorer = null;
+        }
+    }
+
     private int restoreQueue(Queue<CommandData> q, String prefsFileName) {
         Context context = MyPreferences.getContext();
         int count = 0;
@@ -494,7 +605,11 @@ public class MyService extends Service {
                 CommandData cd = new CommandData(sp, count);
                 if (cd.command == CommandEnum.UNKNOWN) {
                     done = true;
+                } else if (q.contains(cd)) {
+                    MyLog.v(TAG, "Command was received again: " + cd.toString());
+                    count += 1;
                 } else {
+                    cd.queuedAt = MyMetrics.now();
                     if ( q.offer(cd) ) {
                         MyLog.v(TAG, "Command restored: " + cd.toString());
                         count += 1;
@@ -520,6 +635,8 @@ public class MyService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         MyLog.d(TAG, "onStartCommand: startid=" + startId);
         receiveCommand(intent);
+        // The executor holds our own wake lock now, if there is any work
+        releaseAlarmWakeLock();
         return START_NOT_STICKY;
     }
 
@@ -555,12 +672,18 @@ public class MyService extends Service {
         }
         
         initialize();
+
+        if (deferCommand(commandData)) {
+            return;
+        }
+        boolean radioIsOn = !mExecutors.isEmpty() || !mCommands.isEmpty();
         
         if (mCommands.isEmpty()) {
             // This is a good place to send commands from retry Queue
             while (!mRetryQueue.isEmpty()) {
                 CommandData cd = mRetryQueue.poll();
                 if (!mCommands.contains(cd)) {
+                    cd.queuedAt = MyMetrics.now();
                     if (!mCommands.offer(cd)) {
                         Log.e(TAG, "mCommands is full?");
                     }
@@ -581,15 +704,143 @@ public class MyService extends Service {
             }
         } else {
             MyLog.d(TAG, "Adding to the queue " + commandData);
+            commandData.queuedAt = MyMetrics.now();
             if (!mCommands.offer(commandData)) {
                 Log.e(TAG, "mCommands is full?");
             }
+            radioIsOn = true;
         }
+        releaseDeferredCommands(radioIsOn);
 
         // Start Executor if necessary
         startOrStopExecutor(true, null);
     }
 
+    /**
+     * Deferrable commands, received while the radio is idle, wait in the {@link BatchingWindow}.
+     * A deferred command is broadcast only after it is executed, so the SyncAdapter gets its errors.
+     * The automatic update of the account, which was pulled into the previous burst, is skipped
+     * and is broadcast at once, because the account has just been synced
+     * @return true if the command was deferred or skipped
+     */
+    synchronized boolean deferCommand(CommandData commandData) {
+        long windowMs = MyPreferences.getBatchingWindowMs();
+        if (windowMs == 0 || !BatchingWindow.isDeferrable(commandData)) {
+            return false;
+        }
+        if (commandData.command == CommandEnum.AUTOMATIC_UPDATE && commandData.getAccount() != null
+                && commandData.timelineType == TimelineTypeEnum.ALL
+                && mBatchingWindow.takePulledIn(commandData.getAccount().getAccountName(),
+                        SystemClock.elapsedRealtime(), MyPreferences.getSyncFrequencyMs())) {
+            mBatchingWindow.skip(commandData);
+            broadcastState(commandData);
+            return true;
+        }
+        if (!mExecutors.isEmpty() || !mCommands.isEmpty()) {
+            return false;
+        }
+        if (mBatchingWindow.defer(commandData, SystemClock.elapsedRealtime(), windowMs)) {
+            scheduleBatchAlarm(mBatchingWindow.getClosesAt());
+        }
+        return true;
+    }
+
+    /**
+     * Deferred commands join other work or start the burst on their own.
+     * Other accounts are pulled into a burst with an automatic update by the executor, see {@link #pullInDueAccounts()}
+     */
+    synchronized void releaseDeferredCommands(boolean radioIsOn) {
+        if (mBatchingWindow.isEmpty()) {
+            return;
+        }
+        cancelBatchAlarm();
+        for (CommandData cd : mBatchingWindow.release(radioIsOn)) {
+            offerCommand(cd);
+        }
+    }
+
+    /**
+     * Automatic updates of other accounts, which become due within the window, are pulled into
+     * the released burst, so syncs of these accounts, which come later, don't wake the radio again.
+     * Called by the executor, because it reads the database
+     */
+    void pullInDueAccounts() {
+        synchronized (this) {
+            if (!mBatchingWindow.takePullIn()) {
+                return;
+            }
+        }
+        Map<Long, Long> downloadedDates = LatestTimelineItem.getTimelinesDownloadedDates(
+                TimelineTypeEnum.HOME, TimelineTypeEnum.MENTIONS, TimelineTypeEnum.DIRECT);
+        long dueDate = System.currentTimeMillis() + MyPreferences.getBatchingWindowMs()
+                - MyPreferences.getSyncFrequencyMs();
+        List<MyAccount> dueAccounts = new ArrayList<MyAccount>();
+        for (MyAccount ma : MyAccount.list()) {
+            Long downloadedDate = downloadedDates.get(ma.getUserId());
+            if (ma.getCredentialsVerified() == CredentialsVerificationStatus.SUCCEEDED
+                    && (downloadedDate == null || downloadedDate <= dueDate) && ma.isSyncedAutomatically()) {
+                dueAccounts.add(ma);
+            }
+        }
+        synchronized (this) {
+            for (MyAccount ma : dueAccounts) {
+                CommandData commandData = new CommandData(CommandEnum.AUTOMATIC_UPDATE, ma.getAccountName(),
+                        TimelineTypeEnum.ALL, 0);
+                if (!mCommands.contains(commandData)) {
+                    offerCommand(commandData);
+                    mBatchingWindow.onPulledIn(ma.getAccountName(), SystemClock.elapsedRealtime());
+                }
+            }
+        }
+    }
+
+    private void offerCommand(CommandData commandData) {
+        if (!mCommands.contains(commandData)) {
+            commandData.queuedAt = MyMetrics.now();
+            if (!mCommands.offer(commandData)) {
+                Log.e(TAG, "mCommands is full?");
+            }
+        }
+    }
+
+    /**
+     * Wakes the device up, when the window closes, and sends {@link #ACTION_ALARM} to the {@link MyServiceManager}
+     */
+    private void scheduleBatchAlarm(long triggerAtElapsed) {
+        AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        am.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtElapsed, getBatchAlarmIntent());
+    }
+
+    private void cancelBatchAlarm() {
+        AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        am.cancel(getBatchAlarmIntent());
+    }
+
+    private PendingIntent getBatchAlarmIntent() {
+        return PendingIntent.getBroadcast(this, 0, new Intent(ACTION_ALARM), PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * The device could fall asleep after the {@link #ACTION_ALARM} is received, but before the Service starts,
+     * so the receiver keeps it awake till the Service has got the command, see {@link #onStartCommand(Intent, int, int)}
+     */
+    static synchronized void acquireAlarmWakeLock(Context context) {
+        if (alarmWakeLock == null) {
+            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            alarmWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG + ".alarm");
+            alarmWakeLock.setReferenceCounted(false);
+        }
+        MyLog.d(TAG, "Acquiring alarm wakelock");
+        alarmWakeLock.acquire(ALARM_WAKE_LOCK_TIMEOUT_MILLIS);
+    }
+
+    private static synchronized void releaseAlarmWakeLock() {
+        if (alarmWakeLock != null && alarmWakeLock.isHeld()) {
+            MyLog.d(TAG, "Releasing alarm wakelock");
+            alarmWakeLock.release();
+        }
+    }
+
     /**
      * @param commandData may be null
      * @return true if the command was processed (either successfully or not...)
@@ -745,7 +996,7 @@ public class MyService extends Service {
                     MyLog.v(TAG, "Is stopping and no executors");
                     stopDelayed(false);
                 } else if ( notifyOfQueue(false) == 0) {
-                    if (! ForegroundCheckTask.isAppOnForeground(MyPreferences.getContext())) {
+                    if (mStreamers.isEmpty() && mBatchingWindow.isEmpty() && ! ForegroundCheckTask.isAppOnForeground(MyPreferences.getContext())) {
                         MyLog.d(TAG, "App is on Background so stop this Service");
                         stopDelayed(false);
                     }
@@ -754,6 +1005,66 @@ public class MyService extends Service {
         }
     }
 
+    /**
+     * Stream for the accounts, for which it is turned on, see {@link TimelineStreamer}.
+     * Streamers of removed or changed accounts are stopped, so changed accounts are streamed anew
+     */
+    private synchronized void updateStreamers() {
+        Map<Long, MyAccount> accounts = new HashMap<Long, MyAccount>();
+        for (MyAccount ma : MyAccount.list()) {
+            if (ma.isStreaming() && ma.getCredentialsVerified() == CredentialsVerificationStatus.SUCCEEDED) {
+                accounts.put(ma.getUserId(), ma);
+            }
+        }
+        for (Iterator<TimelineStreamer> iterator = mStreamers.values().iterator(); iterator.hasNext();) {
+            TimelineStreamer streamer = iterator.next();
+            if (accounts.get(streamer.getAccount().getUserId()) != streamer.getAccount()) {
+                MyLog.d(TAG, "Stopping the streamer of " + streamer.getAccount().getAccountName());
+                streamer.stop();
+                iterator.remove();
+            }
+        }
+        for (final MyAccount ma : accounts.values()) {
+            if (mStreamers.containsKey(ma.getUserId())) {
+                continue;
+            }
+            TimelineStreamer streamer = new TimelineStreamer(ma, getApplicationContext()) {
+                @Override
+                protected void onConnected() {
+                    for (TimelineTypeEnum timelineType : new TimelineTypeEnum[] {
+                            TimelineTypeEnum.HOME, TimelineTypeEnum.DIRECT }) {
+                        MyServiceManager.sendCommand(new CommandData(CommandEnum.FETCH_TIMELINE,
+                                ma.getAccountName(), timelineType, 0));
+                    }
+                }
+
+                @Override
+                protected void onStored(MessageCounters counters) {
+                    notifyOfUpdatedTimeline(counters.msgAdded, counters.mentionsAdded, counters.directedAdded);
+                    MyPreferences.getContext().getContentResolver().notifyChange(MyProvider.TIMELINE_URI, null);
+                }
+            };
+            mStreamers.put(ma.getUserId(), streamer);
+            streamer.start();
+        }
+    }
+
+    private synchronized void stopStreamers() {
+        for (TimelineStreamer streamer : mStreamers.values()) {
+            streamer.stop();
+        }
+        mStreamers.clear();
+    }
+
+    /**
+     * @return true if messages of this timeline of the account are being received over the connected stream,
+     *   so there is no need to poll it
+     */
+    private synchronized boolean isStreamed(MyAccount ma, TimelineTypeEnum timelineType) {
+        TimelineStreamer streamer = mStreamers.get(ma.getUserId());
+        return streamer != null && streamer.isConnected() && TimelineStreamer.isStreamed(timelineType);
+    }
+
     /**
      * Notify user of the commands Queue size
      * 
@@ -807,13 +1118,28 @@ public class MyService extends Service {
     }
 
     private class CommandExecutor extends AsyncTask<Void, Void, Boolean> {
+        /**
+         * Of the command being executed
+         */
+        private volatile CancellationToken cancellation = CancellationToken.NONE;
+
+        /**
+         * The command being executed stops as soon as possible, committing its progress,
+         * see {@link CancellationToken}
+         */
+        void cancelCommand() {
+            cancellation.cancel();
+        }
 
         @Override
         protected Boolean doInBackground(Void... arg0) {
             MyLog.d(TAG, "CommandExecutor, " + mCommands.size() + " commands to process");
 
             do {
+                // Created before the check, so a stopping Service is either seen here, or cancels this token
+                cancellation = new CancellationToken();
                 if (mIsStopping) break;
+                pullInDueAccounts();
                 
                 // Get commands from the Queue one by one and execute them
                 // The queue is Blocking, so we can do this
@@ -821,8 +1147,15 @@ public class MyService extends Service {
                 if (commandData == null) {
                     break;
                 }
+                queueWaitLatency.since(commandData.queuedAt);
+                queueSize.set(mCommands.size());
                 commandData.resetCommandResult();
-                executeOneCommand(commandData);
+                cancellation.attach();
+                try {
+                    executeOneCommand(commandData);
+                } finally {
+                    cancellation.detach();
+                }
                 if (shouldWeRetry(commandData)) {
                     synchronized(MyService.this) {
                         // Put the command to the retry queue
@@ -850,6 +1183,7 @@ public class MyService extends Service {
             switch (commandData.command) {
                 case AUTOMATIC_UPDATE:
                 case FETCH_TIMELINE:
+                case FILL_GAPS:
                     loadTimeline(commandData);
                     break;
                 case CREATE_FAVORITE:
@@ -896,6 +1230,7 @@ public class MyService extends Service {
                 switch (commandData.command) {
                     case AUTOMATIC_UPDATE:
                     case FETCH_TIMELINE:
+                    case FILL_GAPS:
                     case RATE_LIMIT_STATUS:
                         break;
                     default:
@@ -1256,6 +1591,7 @@ public class MyService extends Service {
                 // Notify all timelines, 
                 // see http://stackoverflow.com/questions/6678046/when-contentresolver-notifychange-is-called-for-a-given-uri-are-contentobserv
                 MyPreferences.getContext().getContentResolver().notifyChange(MyProvider.TIMELINE_URI, null);
+                TimelineSnapshot.refreshAll(MyService.this.getApplicationContext());
             }
         }
 
@@ -1327,14 +1663,38 @@ public class MyService extends Service {
                     }
                     ok = true;
                     TimelineTypeEnum timelineType = atl[ind];
-                    if (acc.getConnection().isApiSupported(timelineType.getConnectionApiRoutine())) {
+                    if (commandData.command == CommandEnum.AUTOMATIC_UPDATE && isStreamed(acc, timelineType)) {
+                        MyLog.v(TAG, "Streamed " + timelineType.save() + " for "
+                                + acc.getAccountName());
+                    } else if (acc.getConnection().isApiSupported(timelineType.getConnectionApiRoutine())) {
                         MyLog.d(TAG, "Getting " + timelineType.save() + " for "
                                 + acc.getAccountName());
                         TimelineDownloader fl = null;
                         descr = "loading " + timelineType.save();
                         counters.timelineType = timelineType;
-                        fl = TimelineDownloader.newInstance(counters, userId);
-                        fl.download();
+                        SyncRun syncRun = SyncRun.start(counters);
+                        long bytesAtStart = acc.getConnection().getBytesReceived();
+                        try {
+                            fl = TimelineDownloader.newInstance(counters, userId, cancellation);
+                            if (commandData.command == CommandEnum.FILL_GAPS) {
+                                fl.fillGaps(TimelineDownloaderMsg.MAX_TO_DOWNLOAD);
+                            } else {
+                                fl.download();
+                                if (commandData.command == CommandEnum.AUTOMATIC_UPDATE && isOnlineNotMetered()) {
+                                    // Nobody waits for these messages, so the traffic should be cheap
+                                    fl.fillGaps(TimelineDownloaderMsg.MAX_TO_DOWNLOAD);
+                                }
+                            }
+                        } catch (ConnectionException e) {
+                            syncRun.onError(e.getStatusCode());
+                            throw e;
+                        } catch (SQLiteConstraintException e) {
+                            syncRun.onError(null);
+                            throw e;
+                        } finally {
+                            syncRun.onEnded(counters, acc.getConnection().getBytesReceived() - bytesAtStart);
+                            syncRun.save();
+                        }
                         counters.accumulate();
                     } else {
                         MyLog.v(TAG, "Not supported " + timelineType.save() + " for "
@@ -1391,178 +1751,6 @@ public class MyService extends Service {
             MyLog.d(TAG, message);
         }
         
-        /**
-         * TODO: Different notifications for different Accounts
-         * @param msgAdded Number of "Tweets" added
-         * @param mentionsAdded
-         * @param directedAdded
-         */
-        private void notifyOfUpdatedTimeline(int msgAdded, int mentionsAdded, int directedAdded) {
-            boolean notified = false;
-            if (mentionsAdded > 0) {
-                notifyOfNewTweets(mentionsAdded, CommandEnum.NOTIFY_MENTIONS);
-                notified = true;
-            }
-            if (directedAdded > 0) {
-                notifyOfNewTweets(directedAdded, CommandEnum.NOTIFY_DIRECT_MESSAGE);
-                notified = true;
-            }
-            if (msgAdded > 0 || !notified) {
-                notifyOfNewTweets(msgAdded, CommandEnum.NOTIFY_HOME_TIMELINE);
-                notified = true;
-            }
-        }
-        
-        /**
-         * Notify the user of new tweets.
-         * 
-         * @param numHomeTimeline
-         */
-        private void notifyOfNewTweets(int numTweets, CommandEnum msgType) {
-            MyLog.d(TAG, "notifyOfNewTweets n=" + numTweets + "; msgType=" + msgType);
-
-            if (updateWidgetsOnEveryUpdate) {
-                // Notify widgets even about the fact, that update occurred
-                // even if there was nothing new
-                updateWidgets(numTweets, msgType);
-            }
-
-            // If no notifications are enabled, return
-            if (!mNotificationsEnabled || numTweets == 0) {
-                return;
-            }
-
-            boolean notificationsMessages = false;
-            boolean notificationsReplies = false;
-            boolean notificationsTimeline = false;
-            String ringtone = null;
-            SharedPreferences sp = getSp();
-            synchronized (sp) {
-                notificationsMessages = sp.getBoolean("notifications_messages", false);
-                notificationsReplies = sp.getBoolean("notifications_mentions", false);
-                notificationsTimeline = sp.getBoolean("notifications_timeline", false);
-                ringtone = sp.getString(MyPreferences.KEY_RINGTONE_PREFERENCE, null);
-            }
-            sp = null;
-
-            // Make sure that notifications haven't been turned off for the
-            // message
-            // type
-            switch (msgType) {
-                case NOTIFY_MENTIONS:
-                    if (!notificationsReplies)
-                        return;
-                    break;
-                case NOTIFY_DIRECT_MESSAGE:
-                    if (!notificationsMessages)
-                        return;
-                    break;
-                case NOTIFY_HOME_TIMELINE:
-                    if (!notificationsTimeline)
-                        return;
-                    break;
-                default:
-                    break;
-            }
-
-            // Set up the notification to display to the user
-            Notification notification = new Notification(R.drawable.notification_icon,
-                    getText(R.string.notification_title), System.currentTimeMillis());
-
-            notification.vibrate = null;
-            if (mNotificationsVibrate) {
-                notification.vibrate = new long[] {
-                        200, 300, 200, 300
-                };
-            }
-
-            notification.flags = Notification.FLAG_SHOW_LIGHTS | Notification.FLAG_AUTO_CANCEL;
-            notification.ledOffMS = 1000;
-            notification.ledOnMS = 500;
-            notification.ledARGB = Color.GREEN;
-
-            if ("".equals(ringtone) || ringtone == null) {
-                notification.sound = null;
-            } else {
-                Uri ringtoneUri = Uri.parse(ringtone);
-                notification.sound = ringtoneUri;
-            }
-
-            // Set up the pending intent
-            PendingIntent contentIntent;
-
-            int messageTitle;
-            Intent intent;
-            String aMessage = "";
-
-            // Prepare "intent" to launch timeline activities exactly like in
-            // org.andstatus.app.TimelineActivity.onOptionsItemSelected
-            switch (msgType) {
-                case NOTIFY_MENTIONS:
-                    aMessage = I18n.formatQuantityMessage(getApplicationContext(),
-                            R.string.notification_new_mention_format, numTweets,
-                            R.array.notification_mention_patterns,
-                            R.array.notification_mention_formats);
-                    messageTitle = R.string.notification_title_mentions;
-                    intent = new Intent(getApplicationContext(), TimelineActivity.class);
-                    intent.putExtra(IntentExtra.EXTRA_TIMELINE_TYPE.key,
-                            MyDatabase.TimelineTypeEnum.MENTIONS.save());
-                    contentIntent = PendingIntent.getActivity(getApplicationContext(), numTweets,
-                            intent, 0);
-                    break;
-
-                case NOTIFY_DIRECT_MESSAGE:
-                    aMessage = I18n.formatQuantityMessage(getApplicationContext(),
-                            R.string.notification_new_message_format, numTweets,
-                            R.array.notification_message_patterns,
-                            R.array.notification_message_formats);
-                    messageTitle = R.string.notification_title_messages;
-                    intent = new Intent(getApplicationContext(), TimelineActivity.class);
-                    intent.putExtra(IntentExtra.EXTRA_TIMELINE_TYPE.key,
-                            MyDatabase.TimelineTypeEnum.DIRECT.save());
-                    contentIntent = PendingIntent.getActivity(getApplicationContext(), numTweets,
-                            intent, 0);
-                    break;
-
-                case NOTIFY_HOME_TIMELINE:
-                default:
-                    aMessage = I18n
-                            .formatQuantityMessage(getApplicationContext(),
-                                    R.string.notification_new_tweet_format, numTweets,
-                                    R.array.notification_tweet_patterns,
-                                    R.array.notification_tweet_formats);
-                    messageTitle = R.string.notification_title;
-                    intent = new Intent(getApplicationContext(), TimelineActivity.class);
-                    intent.putExtra(IntentExtra.EXTRA_TIMELINE_TYPE.key,
-                            MyDatabase.TimelineTypeEnum.HOME.save());
-                    contentIntent = PendingIntent.getActivity(getApplicationContext(), numTweets,
-                            intent, 0);
-                    break;
-            }
-
-            // Set up the scrolling message of the notification
-            notification.tickerText = aMessage;
-
-            // Set the latest event information and send the notification
-            notification.setLatestEventInfo(MyService.this, getText(messageTitle), aMessage,
-                    contentIntent);
-            NotificationManager nM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-            nM.notify(msgType.ordinal(), notification);
-        }
-
-        /**
-         * Send Update intent to AndStatus Widget(s), if there are some
-         * installed... (e.g. on the Home screen...)
-         * 
-         * @see MyAppWidgetProvider
-         */
-        private void updateWidgets(int numTweets, CommandEnum msgType) {
-            Intent intent = new Intent(ACTION_APPWIDGET_UPDATE);
-            intent.putExtra(IntentExtra.EXTRA_MSGTYPE.key, msgType.save());
-            intent.putExtra(IntentExtra.EXTRA_NUMTWEETS.key, numTweets);
-            sendBroadcast(intent);
-        }
-
         private void rateLimitStatus(CommandData commandData) {
             if (setErrorIfCredentialsNotVerified(commandData, commandData.getAccount())) {
                 return;
@@ -1598,6 +1786,181 @@ public class MyService extends Service {
         }
     }
 
+    /**
+     * Added messages only trigger notifications, the numbers shown are of unread messages
+     * of all accounts, see {@link ReadMarker}
+     * TODO: Different notifications for different Accounts
+     * @param msgAdded Number of "Tweets" added
+     * @param mentionsAdded
+     * @param directedAdded
+     */
+    private void notifyOfUpdatedTimeline(int msgAdded, int mentionsAdded, int directedAdded) {
+        boolean notified = false;
+        if (mentionsAdded > 0) {
+            notifyOfNewTweets(ReadMarker.getUnreadCount(0, TimelineTypeEnum.MENTIONS), CommandEnum.NOTIFY_MENTIONS);
+            notified = true;
+        }
+        if (directedAdded > 0) {
+            notifyOfNewTweets(ReadMarker.getUnreadCount(0, TimelineTypeEnum.DIRECT), CommandEnum.NOTIFY_DIRECT_MESSAGE);
+            notified = true;
+        }
+        if (msgAdded > 0 || !notified) {
+            notifyOfNewTweets(msgAdded > 0 ? ReadMarker.getUnreadCount(0, TimelineTypeEnum.HOME) : 0,
+                    CommandEnum.NOTIFY_HOME_TIMELINE);
+            notified = true;
+        }
+    }
+    
+    /**
+     * Notify the user of new tweets.
+     * 
+     * @param numHomeTimeline
+     */
+    private void notifyOfNewTweets(int numTweets, CommandEnum msgType) {
+        MyLog.d(TAG, "notifyOfNewTweets n=" + numTweets + "; msgType=" + msgType);
+
+        if (updateWidgetsOnEveryUpdate) {
+            // Notify widgets even about the fact, that update occurred
+            // even if there was nothing new
+            updateWidgets(numTweets, msgType);
+        }
+
+        // If no notifications are enabled, return
+        if (!mNotificationsEnabled || numTweets == 0) {
+            return;
+        }
+
+        boolean notificationsMessages = false;
+        boolean notificationsReplies = false;
+        boolean notificationsTimeline = false;
+        String ringtone = null;
+        SharedPreferences sp = getSp();
+        synchronized (sp) {
+            notificationsMessages = sp.getBoolean("notifications_messages", false);
+            notificationsReplies = sp.getBoolean("notifications_mentions", false);
+            notificationsTimeline = sp.getBoolean("notifications_timeline", false);
+            ringtone = sp.getString(MyPreferences.KEY_RINGTONE_PREFERENCE, null);
+        }
+        sp = null;
+
+        // Make sure that notifications haven't been turned off for the
+        // message
+        // type
+        switch (msgType) {
+            case NOTIFY_MENTIONS:
+                if (!notificationsReplies)
+                    return;
+                break;
+            case NOTIFY_DIRECT_MESSAGE:
+                if (!notificationsMessages)
+                    return;
+                break;
+            case NOTIFY_HOME_TIMELINE:
+                if (!notificationsTimeline)
+                    return;
+                break;
+            default:
+                break;
+        }
+
+        // Set up the notification to display to the user
+        Notification notification = new Notification(R.drawable.notification_icon,
+                getText(R.string.notification_title), System.currentTimeMillis());
+
+        notification.vibrate = null;
+        if (mNotificationsVibrate) {
+            notification.vibrate = new long[] {
+                    200, 300, 200, 300
+            };
+        }
+
+        notification.flags = Notification.FLAG_SHOW_LIGHTS | Notification.FLAG_AUTO_CANCEL;
+        notification.ledOffMS = 1000;
+        notification.ledOnMS = 500;
+        notification.ledARGB = Color.GREEN;
+
+        if ("".equals(ringtone) || ringtone == null) {
+            notification.sound = null;
+        } else {
+            Uri ringtoneUri = Uri.parse(ringtone);
+            notification.sound = ringtoneUri;
+        }
+
+        // Set up the pending intent
+        PendingIntent contentIntent;
+
+        int messageTitle;
+        Intent intent;
+        String aMessage = "";
+
+        // Prepare "intent" to launch timeline activities exactly like in
+        // org.andstatus.app.TimelineActivity.onOptionsItemSelected
+        switch (msgType) {
+            case NOTIFY_MENTIONS:
+                aMessage = I18n.formatQuantityMessage(getApplicationContext(),
+                        R.string.notification_new_mention_format, numTweets,
+                        R.array.notification_mention_patterns,
+                        R.array.notification_mention_formats);
+                messageTitle = R.string.notification_title_mentions;
+                intent = new Intent(getApplicationContext(), TimelineActivity.class);
+                intent.putExtra(IntentExtra.EXTRA_TIMELINE_TYPE.key,
+                        MyDatabase.TimelineTypeEnum.MENTIONS.save());
+                contentIntent = PendingIntent.getActivity(getApplicationContext(), numTweets,
+                        intent, 0);
+                break;
+
+            case NOTIFY_DIRECT_MESSAGE:
+                aMessage = I18n.formatQuantityMessage(getApplicationContext(),
+                        R.string.notification_new_message_format, numTweets,
+                        R.array.notification_message_patterns,
+                        R.array.notification_message_formats);
+                messageTitle = R.string.notification_title_messages;
+                intent = new Intent(getApplicationContext(), TimelineActivity.class);
+                intent.putExtra(IntentExtra.EXTRA_TIMELINE_TYPE.key,
+                        MyDatabase.TimelineTypeEnum.DIRECT.save());
+                contentIntent = PendingIntent.getActivity(getApplicationContext(), numTweets,
+                        intent, 0);
+                break;
+
+            case NOTIFY_HOME_TIMELINE:
+            default:
+                aMessage = I18n
+                        .formatQuantityMessage(getApplicationContext(),
+                                R.string.notification_new_tweet_format, numTweets,
+                                R.array.notification_tweet_patterns,
+                                R.array.notification_tweet_formats);
+                messageTitle = R.string.notification_title;
+                intent = new Intent(getApplicationContext(), TimelineActivity.class);
+                intent.putExtra(IntentExtra.EXTRA_TIMELINE_TYPE.key,
+                        MyDatabase.TimelineTypeEnum.HOME.save());
+                contentIntent = PendingIntent.getActivity(getApplicationContext(), numTweets,
+                        intent, 0);
+                break;
+        }
+
+        // Set up the scrolling message of the notification
+        notification.tickerText = aMessage;
+
+        // Set the latest event information and send the notification
+        notification.setLatestEventInfo(MyService.this, getText(messageTitle), aMessage,
+                contentIntent);
+        NotificationManager nM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        nM.notify(msgType.ordinal(), notification);
+    }
+
+    /**
+     * Send Update intent to AndStatus Widget(s), if there are some
+     * installed... (e.g. on the Home screen...)
+     * 
+     * @see MyAppWidgetProvider
+     */
+    private void updateWidgets(int numTweets, CommandEnum msgType) {
+        Intent intent = new Intent(ACTION_APPWIDGET_UPDATE);
+        intent.putExtra(IntentExtra.EXTRA_MSGTYPE.key, msgType.save());
+        intent.putExtra(IntentExtra.EXTRA_NUMTWEETS.key, numTweets);
+        sendBroadcast(intent);
+    }
+
     private synchronized void acquireWakeLock() {
         if (mWakeLock == null) {
             MyLog.d(TAG, "Acquiring wakelock");
@@ -1635,4 +1998,26 @@ public class MyService extends Service {
         } catch (Exception e) {}
         return is;
     }
+
+    /**
+     * Downloads, which may be postponed, are done on a network, which usually is not metered
+     */
+    public boolean isOnlineNotMetered() {
+        boolean is = false;
+        try {
+            ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+            if (networkInfo != null && networkInfo.isConnected()) {
+                switch (networkInfo.getType()) {
+                    case ConnectivityManager.TYPE_WIFI:
+                    case ConnectivityManager.TYPE_ETHERNET:
+                        is = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (Exception e) {}
+        return is;
+    }
 }
@@ -119,6 +119,10 @@ public class MyServiceManager extends BroadcastReceiver {
                 MyLog.d(TAG, "Stopping service on Shutdown");
                 setServiceUnavailable();
                 stopService();
+            } else if (action.equals(MyService.ACTION_ALARM)) {
+                MyLog.d(TAG, "Batching window closed");
+                MyService.acquireAlarmWakeLock(context);
+                sendCommand(new CommandData(CommandEnum.EMPTY, ""));
             }
         }
     }
@@ -156,6 +160,15 @@ public class MyServiceManager extends BroadcastReceiver {
         MyPreferences.getContext().sendBroadcast(element.toIntent());
     }
 
+    /**
+     * Lets the running {@link MyService} notice added, removed or changed accounts,
+     * e.g. in order to start or stop their streamers. Doesn't start the service
+     */
+    public static void onAccountsChanged() {
+        CommandData element = new CommandData(CommandEnum.EMPTY, "");
+        MyPreferences.getContext().sendBroadcast(element.toIntent());
+    }
+
     /**
      * Returns previous service state and queries service for its current state asynchronously.
      * Doesn't start the service, so absence of the reply will mean that service is stopped 
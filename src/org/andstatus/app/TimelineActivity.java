@@ -30,10 +30,13 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.SearchRecentSuggestions;
 import android.text.TextUtils;
 import android.util.Log;
@@ -63,11 +66,14 @@ import org.andstatus.app.MyService.CommandEnum;
 import org.andstatus.app.account.AccountSelector;
 import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.account.MyAccount.CredentialsVerificationStatus;
+import org.andstatus.app.data.BodyEntities;
 import org.andstatus.app.data.LatestTimelineItem;
 import org.andstatus.app.data.MyDatabase;
 import org.andstatus.app.data.MyDatabase.Msg;
 import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.data.PagedCursorAdapter;
+import org.andstatus.app.data.ReadMarker;
+import org.andstatus.app.data.TimelineGap;
 import org.andstatus.app.data.TimelineSearchSuggestionProvider;
 import org.andstatus.app.data.TweetBinder;
 import org.andstatus.app.data.MyDatabase.MsgOfUser;
@@ -77,6 +83,9 @@ import org.andstatus.app.data.MyPreferences;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SelectionAndArgs;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -89,6 +98,11 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
 
     private static final String KEY_IS_LOADING = "isLoading";
     private static final String KEY_LAST_POSITION = "last_position_";
+    /**
+     * Results of the fills may be lost (e.g. if the Service was stopped), so they are not waited for longer
+     * than this after the batching window
+     */
+    private static final long GAP_FILLS_TIMEOUT_MS = 180 * MyPreferences.MILLISECONDS;
 
     /**
      * Visibility of the layout indicates whether Messages are being loaded into the list (asynchronously...)
@@ -111,11 +125,49 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
      * Is saved position restored (or some default positions set)?
      */
     private boolean positionRestored = false;
+    /**
+     * The list shows rows from the {@link TimelineCache}, see {@link #reloadOnChange()}
+     */
+    private boolean isListFromCache = false;
+    private ContentObserver cacheObserver = null;
     
     /**
      * The is no more items in the query, so don't try to load more pages
      */
     private boolean noMoreItems = false;
+
+    /**
+     * Start querying the next page when the last visible row is this close 
+     * to the end of the list. 0 - don't query ahead
+     */
+    private int prefetchThresholdRows = MyPreferences.PREFETCH_THRESHOLD_ROWS_DEFAULT;
+    /**
+     * The next page of the list, queried ahead of time.
+     * It is used only by the query with the same {@link #prefetchedKey}
+     */
+    private Cursor prefetchedCursor = null;
+    private String prefetchedKey = "";
+    /**
+     * The query of the next page, which is in progress
+     */
+    private AsyncTask<Void, Void, Void> prefetchTask = null;
+
+    /**
+     * The timeline of the current list, to save its top rows. null for search results, which are not saved
+     */
+    private TimelineSnapshot listSnapshot = null;
+
+    /**
+     * Moving the read marker, see {@link #markRead(long)}. The next move waits for it
+     */
+    private MarkReadTask markReadTask = null;
+    private MarkReadTask markReadNext = null;
+    /**
+     * Number of unread messages of the timeline, counted by the {@link UnreadCountLoader}
+     * for the timeline with this {@link #unreadCountKey()}
+     */
+    private int mUnreadCount = 0;
+    private String mUnreadCountKey = "";
     
     /**
      * For testing purposes
@@ -158,6 +210,23 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
      */
     private boolean mIsSearchMode = false;
 
+    /**
+     * Id of the last visible message, for which gaps of the timeline were checked
+     */
+    private long gapsCheckedItemId = 0;
+    /**
+     * Gaps are not checked again, while they are being checked or filled
+     */
+    private GapsCheckTask gapsCheckTask = null;
+    /**
+     * {@link CommandEnum#FILL_GAPS} commands, which were sent, but not executed yet
+     */
+    private int gapFillsPending = 0;
+    /**
+     * {@link SystemClock#elapsedRealtime()} when the last of the pending fills was sent
+     */
+    private long gapFillsSentAt = 0;
+
     /**
      * The string is not empty if this timeline is filtered using query string
      * ("Mentions" are not counted here because they have separate TimelineType)
@@ -189,12 +258,52 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
      * Table columns to use for the messages content
      */
     private static final String[] PROJECTION = new String[] {
-            Msg._ID, User.AUTHOR_NAME, Msg.BODY, Msg.IN_REPLY_TO_MSG_ID, User.IN_REPLY_TO_NAME,
+            Msg._ID, User.AUTHOR_NAME, Msg.BODY, Msg.BODY_ENTITIES, Msg.IN_REPLY_TO_MSG_ID, User.IN_REPLY_TO_NAME,
             User.RECIPIENT_NAME,
             MsgOfUser.FAVORITED, Msg.CREATED_DATE,
             User.LINKED_USER_ID
     };
 
+    /**
+     * Selection of the messages of the timeline, which is not done by the {@link MyProvider} itself
+     */
+    static void addTimelineSelection(SelectionAndArgs sa, TimelineTypeEnum timelineType, boolean isCombined) {
+        // TODO: Move these selections to the {@link MyProvider} ?!
+        switch (timelineType) {
+            case HOME:
+                // In the Home of the combined timeline we see ALL loaded
+                // messages, even those that we downloaded
+                // not as Home timeline of any Account
+                if (!isCombined) {
+                    sa.addSelection(MyDatabase.MsgOfUser.SUBSCRIBED + " = ?", new String[] {
+                            "1"
+                    });
+                }
+                break;
+            case MENTIONS:
+                sa.addSelection(MyDatabase.MsgOfUser.MENTIONED + " = ?", new String[] {
+                        "1"
+                });
+                /*
+                 * We already figured this out and set {@link MyDatabase.MsgOfUser.MENTIONED}:
+                 * sa.addSelection(MyDatabase.Msg.BODY + " LIKE ?" ...
+                 */
+                break;
+            case FAVORITES:
+                sa.addSelection(MyDatabase.MsgOfUser.FAVORITED + " = ?", new String[] {
+                        "1"
+                });
+                break;
+            case DIRECT:
+                sa.addSelection(MyDatabase.MsgOfUser.DIRECTED + " = ?", new String[] {
+                        "1"
+                });
+                break;
+            default:
+                break;
+        }
+    }
+
     boolean isLoading() {
         //MyLog.v(TAG, "isLoading checked " + mIsLoading + ", instance " + instanceId);
         return (loadingLayout.getVisibility() == View.VISIBLE);
@@ -389,12 +498,19 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
      */
     @Override
     public boolean onSearchRequested() {
+        startTimelineSearch(mTimelineType, null);
+        return true;
+    }
+
+    /**
+     * @param initialQuery e.g. "#" for the {@link TimelineTypeEnum#TAG} timeline, may be null
+     */
+    private void startTimelineSearch(TimelineTypeEnum timelineType, String initialQuery) {
         Bundle appSearchData = new Bundle();
-        appSearchData.putString(IntentExtra.EXTRA_TIMELINE_TYPE.key, mTimelineType.save());
+        appSearchData.putString(IntentExtra.EXTRA_TIMELINE_TYPE.key, timelineType.save());
         appSearchData.putBoolean(IntentExtra.EXTRA_TIMELINE_IS_COMBINED.key, mIsTimelineCombined);
         appSearchData.putLong(IntentExtra.EXTRA_SELECTEDUSERID.key, mSelectedUserId);
-        startSearch(null, false, appSearchData, false);
-        return true;
+        startSearch(initialQuery, false, appSearchData, false);
     }
 
     @Override
@@ -415,7 +531,10 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             }
         }
         if (!mIsFinishing) {
+            prefetchThresholdRows = MyPreferences.getPrefetchThresholdRows();
             serviceConnector.registerReceiver(this);
+            // Results of the fills, executed while paused, were not received
+            gapFillsPending = 0;
             updateTitle();
             if (!isLoading()) {
                 restoreListPosition();
@@ -482,6 +601,152 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                     + firstVisibleItemId + "; index=" + firstScrollPos + "; lastId="
                     + lastRetrievedItemId + "; index=" + lastScrollPos);
         }
+        markRead(firstVisibleItemId);
+    }
+
+    /**
+     * The first visible message and older messages of the timeline are read, see {@link ReadMarker}.
+     * AppWidget(s) are updated with the new numbers of unread messages
+     */
+    private void markRead(long firstVisibleItemId) {
+        if (mIsSearchMode || !ReadMarker.isCounted(mTimelineType)) {
+            return;
+        }
+        List<Long> userIds = new ArrayList<Long>();
+        if (mIsTimelineCombined) {
+            for (MyAccount ma : MyAccount.list()) {
+                userIds.add(ma.getUserId());
+            }
+        } else {
+            userIds.add(mCurrentMyAccountUserId);
+        }
+        MarkReadTask task = new MarkReadTask(mTimelineType, userIds, firstVisibleItemId);
+        if (markReadTask == null) {
+            markReadTask = task;
+            task.execute();
+        } else {
+            // Only the latest position matters
+            markReadNext = task;
+        }
+    }
+
+    private class MarkReadTask extends AsyncTask<Void, Void, Boolean> {
+        private final TimelineTypeEnum timelineType;
+        private final List<Long> userIds;
+        private final long firstVisibleItemId;
+
+        MarkReadTask(TimelineTypeEnum timelineType, List<Long> userIds, long firstVisibleItemId) {
+            this.timelineType = timelineType;
+            this.userIds = userIds;
+            this.firstVisibleItemId = firstVisibleItemId;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            long readDate = MyProvider.msgIdToLongColumnValue(Msg.SENT_DATE, firstVisibleItemId);
+            boolean moved = false;
+            for (long userId : userIds) {
+                moved |= ReadMarker.markRead(userId, timelineType, readDate);
+            }
+            return moved;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean moved) {
+            if (moved) {
+                Intent intent = new Intent(MyService.ACTION_APPWIDGET_UPDATE);
+                intent.putExtra(IntentExtra.EXTRA_MSGTYPE.key, MyService.CommandEnum.NOTIFY_CLEAR.save());
+                sendBroadcast(intent);
+                if (!mIsFinishing) {
+                    new UnreadCountLoader().execute();
+                }
+            }
+            markReadTask = markReadNext;
+            markReadNext = null;
+            if (markReadTask != null) {
+                markReadTask.execute();
+            }
+        }
+    }
+
+    /**
+     * If the User scrolled down to a gap of the timeline, see {@link TimelineGap},
+     * messages of the gap are requested to be downloaded
+     */
+    private void fillGapsIfReached(final long lastVisibleItemId) {
+        if (mIsSearchMode || !mTimelineType.hasPosition() || lastVisibleItemId <= 0
+                || lastVisibleItemId == gapsCheckedItemId || gapsCheckTask != null || areGapFillsPending()) {
+            return;
+        }
+        List<MyAccount> accounts = new ArrayList<MyAccount>();
+        long selectedUserId = 0;
+        if (mIsTimelineCombined) {
+            accounts.addAll(Arrays.asList(MyAccount.list()));
+        } else {
+            MyAccount ma = MyAccount.fromUserId(mCurrentMyAccountUserId);
+            if (ma == null) {
+                return;
+            }
+            accounts.add(ma);
+            if (mTimelineType == TimelineTypeEnum.USER) {
+                selectedUserId = mSelectedUserId;
+            }
+        }
+        gapsCheckedItemId = lastVisibleItemId;
+        gapsCheckTask = new GapsCheckTask(mTimelineType, accounts, selectedUserId, lastVisibleItemId);
+        gapsCheckTask.execute();
+    }
+
+    private boolean areGapFillsPending() {
+        if (gapFillsPending > 0 && SystemClock.elapsedRealtime() - gapFillsSentAt
+                > MyPreferences.getBatchingWindowMs() + GAP_FILLS_TIMEOUT_MS) {
+            MyLog.v(TAG, "Results of " + gapFillsPending + " gap fills were not received in time");
+            gapFillsPending = 0;
+        }
+        return gapFillsPending > 0;
+    }
+
+    private class GapsCheckTask extends AsyncTask<Void, Void, List<MyAccount>> {
+        private final TimelineTypeEnum timelineType;
+        private final List<MyAccount> accounts;
+        private final long userIdOfTimeline;
+        private final long lastVisibleItemId;
+
+        GapsCheckTask(TimelineTypeEnum timelineType, List<MyAccount> accounts, long userIdOfTimeline,
+                long lastVisibleItemId) {
+            this.timelineType = timelineType;
+            this.accounts = accounts;
+            this.userIdOfTimeline = userIdOfTimeline;
+            this.lastVisibleItemId = lastVisibleItemId;
+        }
+
+        @Override
+        protected List<MyAccount> doInBackground(Void... params) {
+            long itemDate = MyProvider.msgIdToLongColumnValue(Msg.SENT_DATE, lastVisibleItemId);
+            List<MyAccount> reached = new ArrayList<MyAccount>();
+            for (MyAccount ma : accounts) {
+                long userId = (userIdOfTimeline == 0 ? ma.getUserId() : userIdOfTimeline);
+                if (TimelineGap.isReached(timelineType, userId, itemDate)) {
+                    MyLog.v(TAG, "Gap reached in " + timelineType.save() + " for " + ma.getAccountName());
+                    reached.add(ma);
+                }
+            }
+            return reached;
+        }
+
+        @Override
+        protected void onPostExecute(List<MyAccount> reached) {
+            gapsCheckTask = null;
+            if (mIsFinishing) {
+                return;
+            }
+            for (MyAccount ma : reached) {
+                gapFillsPending++;
+                gapFillsSentAt = SystemClock.elapsedRealtime();
+                MyServiceManager.sendCommand(new CommandData(CommandEnum.FILL_GAPS,
+                        ma.getAccountName(), timelineType, userIdOfTimeline));
+            }
+        }
     }
 
     private void forgetListPosition() {
@@ -604,11 +869,28 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             clearNotifications();
             if (!isLoading()) {
                 saveListPosition();
+                saveSnapshot();
             }
         }        
         positionRestored = false;
     }
    
+    /**
+     * Remember top rows of the list to show them immediately next time
+     */
+    private void saveSnapshot() {
+        if (listSnapshot == null || mCursor == null || mCursor.isClosed()) {
+            return;
+        }
+        final TimelineSnapshot snapshot = listSnapshot.withRowsOf(mCursor);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.save();
+            }
+        }, TAG + ".saveSnapshot").start();
+    }
+   
     /**
      *  Cancel notifications of loading timeline
      *  They were set in 
@@ -636,12 +918,17 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
     public void onDestroy() {
         MyLog.v(TAG,"onDestroy, instanceId=" + instanceId);
         super.onDestroy();
+        cancelPrefetch();
         if (mCursor != null && !mCursor.isClosed()) {
             mCursor.close();
         }
         if (serviceConnector != null) {
             serviceConnector.unregisterReceiver(this);
         }
+        if (cacheObserver != null) {
+            getContentResolver().unregisterContentObserver(cacheObserver);
+            cacheObserver = null;
+        }
     }
 
     @Override
@@ -665,7 +952,8 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                         getString(MyDatabase.TimelineTypeEnum.MENTIONS.resId()),
                         getString(MyDatabase.TimelineTypeEnum.DIRECT.resId()),
                         getString(MyDatabase.TimelineTypeEnum.USER.resId()),
-                        getString(MyDatabase.TimelineTypeEnum.FOLLOWING_USER.resId())
+                        getString(MyDatabase.TimelineTypeEnum.FOLLOWING_USER.resId()),
+                        getString(MyDatabase.TimelineTypeEnum.TAG.resId())
                 };
                 builder.setItems(timelines, new DialogInterface.OnClickListener() {
                     @Override
@@ -695,6 +983,11 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                             case 5:
                                 switchTimelineActivity(MyDatabase.TimelineTypeEnum.FOLLOWING_USER, mIsTimelineCombined, mCurrentMyAccountUserId);
                                 break;
+
+                            case 6:
+                                // The tag is entered in the search box
+                                startTimelineSearch(MyDatabase.TimelineTypeEnum.TAG, "#");
+                                break;
                         }
                     }
                 });
@@ -814,6 +1107,9 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 saveListPosition();
                 setIsLoading(true);
                 queryListData(true);
+            } else if (prefetchThresholdRows > 0 && visibleItemCount > 0
+                    && (firstVisibleItem + visibleItemCount >= totalItemCount - prefetchThresholdRows)) {
+                queryListData(true, true);
             }
         }
     }
@@ -822,6 +1118,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
     public void onScrollStateChanged(AbsListView view, int scrollState) {
         switch (scrollState) {
             case OnScrollListener.SCROLL_STATE_IDLE:
+                fillGapsIfReached(view.getItemIdAtPosition(view.getLastVisiblePosition()));
                 break;
             case OnScrollListener.SCROLL_STATE_TOUCH_SCROLL:
                 break;
@@ -839,9 +1136,10 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
      * @param rightText Right title part
      */
     public void updateTitle(String rightText) {
-        String timelinename = getString(mTimelineType.resId());
-        Button timelineTypeButton = (Button) findViewById(R.id.timelineTypeButton);
-        timelineTypeButton.setText(timelinename + (mIsSearchMode ? " *" : ""));
+        showTimelineName();
+        if (!mIsSearchMode && ReadMarker.isCounted(mTimelineType)) {
+            new UnreadCountLoader().execute();
+        }
         
         // Show current account info on the left button
         Button selectAccountButton = (Button) findViewById(R.id.selectAccountButton);
@@ -864,6 +1162,50 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
         }
     }
 
+    /**
+     * The name of the timeline with the number of its unread messages, as it was counted last time
+     */
+    private void showTimelineName() {
+        String timelinename = getString(mTimelineType.resId());
+        if (!mIsSearchMode && mUnreadCount > 0 && mUnreadCountKey.equals(unreadCountKey())) {
+            timelinename += " (" + mUnreadCount + ")";
+        }
+        Button timelineTypeButton = (Button) findViewById(R.id.timelineTypeButton);
+        timelineTypeButton.setText(timelinename + (mIsSearchMode ? " *" : ""));
+    }
+
+    private long unreadCountUserId() {
+        return mIsTimelineCombined ? 0 : mCurrentMyAccountUserId;
+    }
+
+    private String unreadCountKey() {
+        return mTimelineType.save() + "/" + unreadCountUserId();
+    }
+
+    /**
+     * Counts unread messages of the timeline off the UI thread, see {@link ReadMarker#getUnreadCount(long, TimelineTypeEnum)}
+     */
+    private class UnreadCountLoader extends AsyncTask<Void, Void, Integer> {
+        private final long userId = unreadCountUserId();
+        private final TimelineTypeEnum timelineType = mTimelineType;
+        private final String key = unreadCountKey();
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return ReadMarker.getUnreadCount(userId, timelineType);
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            if (mIsFinishing) {
+                return;
+            }
+            mUnreadCount = count;
+            mUnreadCountKey = key;
+            showTimelineName();
+        }
+    }
+
     /**
      * Updates the activity title.
      */
@@ -946,6 +1288,15 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 }
             }
         }
+        if (mTimelineType == TimelineTypeEnum.TAG) {
+            if (!TextUtils.isEmpty(mQueryString) && !mQueryString.trim().startsWith("#")) {
+                mQueryString = "#" + mQueryString.trim();
+            }
+            if (!BodyEntities.isHashtag(mQueryString)) {
+                // Nothing to show in the tag timeline, so the query is searched for in the Home timeline
+                mTimelineType = TimelineTypeEnum.HOME;
+            }
+        }
         if (mTimelineType == TimelineTypeEnum.UNKNOWN) {
             /* Set default values */
             mTimelineType = TimelineTypeEnum.HOME;
@@ -1011,6 +1362,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
         noMoreItems = false;
         accountUserIdToActAs = 0;
 
+        cancelPrefetch();
         queryListData(false);
         
         if (mTweetEditor.isStateLoaded()) {
@@ -1038,17 +1390,76 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
         }
         queryListDataInProgress = false;
     }
+    /**
+     * Identifies the query, so the prefetched cursor is used only for the same 
+     * Account, timeline, search query and number of rows 
+     */
+    private String newPrefetchKey(int nMessages) {
+        return mCurrentMyAccountUserId + ";" + mTimelineType.save() + ";" + mIsTimelineCombined
+                + ";" + mSelectedUserId + ";" + mQueryString + ";" + nMessages;
+    }
+
+    /**
+     * Forget the next page queried ahead of time (or being queried)
+     */
+    private void cancelPrefetch() {
+        if (prefetchTask != null) {
+            prefetchTask.cancel(false);
+            prefetchTask = null;
+        }
+        if (prefetchedCursor != null) {
+            if (!prefetchedCursor.isClosed()) {
+                prefetchedCursor.close();
+            }
+            prefetchedCursor = null;
+        }
+        prefetchedKey = "";
+    }
+    
+    /**
+     * The cursor from the {@link TimelineCache} cannot requery itself,
+     * so we query the list again on change of the data, while the list shows cached rows.
+     * One observer for the Activity, it is registered once
+     */
+    private void reloadOnChange() {
+        if (cacheObserver != null) {
+            return;
+        }
+        cacheObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                if (isListFromCache && !mIsFinishing && positionRestored && !isLoading()) {
+                    MyLog.v(TAG, "Reloading the list from the cache on change");
+                    isListFromCache = false;
+                    // Don't wait for the cache's own observer
+                    TimelineCache.invalidate();
+                    saveListPosition();
+                    queryListData(false);
+                }
+            }
+        };
+        getContentResolver().registerContentObserver(MyProvider.TIMELINE_URI, true, cacheObserver);
+    }
+    
     /**
      * Prepare query to the ContentProvider (to the database) and load the visible List of
      * messages with this data
      * This is done asynchronously.
      * This method should be called from UI thread only.
      * 
-     * @param otherThread This method is being accessed from other thread
      * @param loadOneMorePage true - load one more page of messages, false - reload the same page
      */
     protected void queryListData(boolean loadOneMorePage_in) {
+        queryListData(loadOneMorePage_in, false);
+    }
+    
+    /**
+     * @param prefetch_in true - only query the next page in background and keep it 
+     *  for the subsequent {@link #queryListData(boolean)}. The list is not changed
+     */
+    private void queryListData(boolean loadOneMorePage_in, boolean prefetch_in) {
         final boolean loadOneMorePage = loadOneMorePage_in;
+        final boolean prefetch = prefetch_in;
 
         /**
          * Here we do all the work 
@@ -1063,6 +1474,22 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             String sortOrder = MyDatabase.Msg.DEFAULT_SORT_ORDER;
             
             Cursor cursor;
+            /**
+             * Empty if the query cannot be reused 
+             */
+            String prefetchKey = "";
+            /**
+             * Empty if the result of this query shouldn't be cached 
+             */
+            String cacheKey = "";
+            String cacheSignature = "";
+            long cacheGeneration = 0;
+            boolean fromCache = false;
+            /**
+             * Shown until the query is done, see {@link #onProgressUpdate(Void...)}
+             */
+            boolean loadSnapshot = false;
+            TimelineSnapshot snapshot = null;
 
             @Override
             protected void onPreExecute() {
@@ -1077,7 +1504,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 // Id of the last (oldest) tweet to retrieve
                 long lastItemId = -1;
 
-                if (!TextUtils.isEmpty(mQueryString)) {
+                if (!TextUtils.isEmpty(mQueryString) && !prefetch) {
                     // Record the query string in the recent queries
                     // of the Suggestion Provider
                     SearchRecentSuggestions suggestions = new SearchRecentSuggestions(TimelineActivity.this,
@@ -1085,8 +1512,19 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                             TimelineSearchSuggestionProvider.MODE);
                     suggestions.saveRecentQuery(mQueryString, null);
 
-                    contentUri = MyProvider.getTimelineSearchUri(mCurrentMyAccountUserId, mTimelineType,
-                            mIsTimelineCombined, mQueryString);
+                    if (BodyEntities.isHashtag(mQueryString)) {
+                        // Messages with the tag are read from the tag index instead of the text search,
+                        // in the TAG timeline they are read from all timelines
+                        contentUri = MyProvider.getTimelineTagUri(mCurrentMyAccountUserId, mTimelineType,
+                                mIsTimelineCombined, mQueryString);
+                    } else {
+                        contentUri = MyProvider.getTimelineSearchUri(mCurrentMyAccountUserId, mTimelineType,
+                                mIsTimelineCombined, mQueryString);
+                    }
+                }
+                if (mTimelineType == TimelineTypeEnum.USER) {
+                    // Messages of the selected User are selected by the MyProvider
+                    contentUri = MyProvider.getUserTimelineUri(contentUri, mSelectedUserId);
                 }
 
                 if (!contentUri.equals(intent.getData())) {
@@ -1099,54 +1537,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
 
                     /* TODO: Other conditions... */
                     sa.clear();
-
-                    // TODO: Move these selections to the {@link MyProvider} ?!
-                    switch (mTimelineType) {
-                        case HOME:
-                            // In the Home of the combined timeline we see ALL loaded
-                            // messages, even those that we downloaded
-                            // not as Home timeline of any Account
-                            if (!mIsTimelineCombined) {
-                                sa.addSelection(MyDatabase.MsgOfUser.SUBSCRIBED + " = ?", new String[] {
-                                        "1"
-                                });
-                            }
-                            break;
-                        case MENTIONS:
-                            sa.addSelection(MyDatabase.MsgOfUser.MENTIONED + " = ?", new String[] {
-                                    "1"
-                            });
-                            /*
-                             * We already figured this out and set {@link MyDatabase.MsgOfUser.MENTIONED}:
-                             * sa.addSelection(MyDatabase.Msg.BODY + " LIKE ?" ...
-                             */
-                            break;
-                        case FAVORITES:
-                            sa.addSelection(MyDatabase.MsgOfUser.FAVORITED + " = ?", new String[] {
-                                    "1"
-                            });
-                            break;
-                        case DIRECT:
-                            sa.addSelection(MyDatabase.MsgOfUser.DIRECTED + " = ?", new String[] {
-                                    "1"
-                            });
-                            break;
-                        case USER:
-                            // Reblogs are included also
-                            sa.addSelection(MyDatabase.Msg.AUTHOR_ID + " = ? OR "
-                                    + MyDatabase.Msg.SENDER_ID + " = ? OR "
-                                    + "("
-                                    + User.LINKED_USER_ID + " = ? AND "
-                                    + MyDatabase.MsgOfUser.REBLOGGED + " = 1"
-                                    + ")",
-                                    new String[] {
-                                            Long.toString(mSelectedUserId), Long.toString(mSelectedUserId),
-                                            Long.toString(mSelectedUserId)
-                                    });
-                            break;
-                        default:
-                            break;
-                    }
+                    addTimelineSelection(sa, mTimelineType, mIsTimelineCombined);
                 }
 
                 if (!positionRestored) {
@@ -1177,6 +1568,33 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                         nMessages = PAGE_SIZE;
                     }
                     sortOrder += " LIMIT 0," + nMessages;
+                    if (loadOneMorePage) {
+                        prefetchKey = newPrefetchKey(nMessages);
+                    }
+                }
+                if (!prefetch) {
+                    if (prefetchedCursor != null && prefetchKey.length() > 0 
+                            && prefetchKey.equals(prefetchedKey)) {
+                        MyLog.v(TAG, "queryListData; using prefetched cursor");
+                        cursor = prefetchedCursor;
+                        prefetchedCursor = null;
+                        prefetchedKey = "";
+                    }
+                    cancelPrefetch();
+                    if (!loadOneMorePage) {
+                        cacheKey = TimelineCache.keyOf(mCurrentMyAccountUserId, mTimelineType.save(), 
+                                mIsTimelineCombined, mSelectedUserId, mQueryString);
+                        cacheSignature = contentUri + ";" + sa.selection + ";" 
+                                + Arrays.toString(sa.selectionArgs) + ";" + sortOrder;
+                        cacheGeneration = TimelineCache.getGeneration();
+                        if (cursor == null) {
+                            cursor = TimelineCache.get(cacheKey, cacheSignature);
+                            if (cursor != null) {
+                                fromCache = true;
+                            }
+                        }
+                        loadSnapshot = (cursor == null && mCursor == null && TextUtils.isEmpty(mQueryString));
+                    }
                 }
 
                 // This is for testing pruneOldRecords
@@ -1190,12 +1608,39 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 // }
             }
 
+            /**
+             * Show top rows of the timeline saved earlier,
+             * until the real query is done
+             */
+            @Override
+            protected void onProgressUpdate(Void... values) {
+                if (snapshot != null && mCursor == null && !mIsFinishing) {
+                    MyLog.v(TAG, "queryListData; showing snapshot, " + snapshot.rows.size() + " rows, "
+                            + Double.valueOf((System.nanoTime() - startTime)/1.0E6).longValue() + " ms");
+                    mCursor = snapshot.toCursor();
+                    createAdapters();
+                }
+            }
+
             @Override
             protected Void doInBackground(Void... params) {
-                for (int attempt=0; attempt<3; attempt++) {
+                if (cursor != null) {
+                    // Already prefetched
+                    return null;
+                }
+                if (loadSnapshot) {
+                    snapshot = TimelineSnapshot.load(cacheKey);
+                    if (snapshot != null && !snapshot.isEmpty() && !isCancelled()) {
+                        publishProgress();
+                    }
+                }
+                for (int attempt=0; attempt<3 && !isCancelled(); attempt++) {
                     try {
                         cursor = getContentResolver().query(contentUri, PROJECTION, sa.selection,
                                 sa.selectionArgs, sortOrder);
+                        if (cacheKey.length() > 0) {
+                            TimelineCache.put(TimelineActivity.this, cacheKey, cacheSignature, cursor, cacheGeneration);
+                        }
                         break;
                     } catch (IllegalStateException e) {
                         Log.d(TAG, "Attempt " + attempt + " to prepare cursor: " + e.getMessage());
@@ -1210,8 +1655,19 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 return null;
             }
 
+            @Override
+            protected void onCancelled() {
+                if (cursor != null && !cursor.isClosed()) {
+                    cursor.close();
+                }
+            }
+            
             @Override
             protected void onPostExecute(Void result) {
+                if (prefetch) {
+                    onPrefetchEnded();
+                    return;
+                }
                 boolean doRestorePosition = true;
                 if (cursor != null && !mIsFinishing) {
                     boolean cursorSet = false;
@@ -1222,6 +1678,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                                 MyLog.v(TAG, "On changing Cursor");
                                 ((SimpleCursorAdapter) getListAdapter()).changeCursor(cursor);
                                 mCursor = cursor;
+                                isListFromCache = false;
                             } else {
                                 noMoreItems = true;
                                 doRestorePosition = false;
@@ -1237,6 +1694,16 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                         }
                         mCursor = cursor;
                         createAdapters();
+                        isListFromCache = fromCache;
+                        if (fromCache) {
+                            reloadOnChange();
+                        }
+                    }
+                    if (cacheKey.length() > 0 && TextUtils.isEmpty(mQueryString)) {
+                        listSnapshot = TimelineSnapshot.of(mCurrentMyAccountUserId, mTimelineType,
+                                mIsTimelineCombined, mSelectedUserId);
+                    } else {
+                        listSnapshot = null;
                     }
                 }
                 
@@ -1267,15 +1734,53 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                             }
                             break;
                         default:
-                            if ( MyProvider.userIdToLongColumnValue(User.HOME_TIMELINE_DATE, mCurrentMyAccountUserId) == 0) {
+                            if (new LatestTimelineItem(TimelineTypeEnum.HOME, mCurrentMyAccountUserId).getTimelineDownloadedDate() == 0) {
                                 // This is supposed to be a one time task.
                                 manualReload(true);
                             } 
                     }
                 }
             }
+
+            private void onPrefetchEnded() {
+                if (prefetchTask == this) {
+                    prefetchTask = null;
+                }
+                if (cursor == null) {
+                    return;
+                }
+                if (mIsFinishing || prefetchKey.length() == 0) {
+                    cursor.close();
+                } else {
+                    cancelPrefetch();
+                    prefetchedCursor = cursor;
+                    prefetchedKey = prefetchKey;
+                }
+                if (MyLog.isLoggable(TAG, Log.VERBOSE)) {
+                    Log.v(TAG, "queryListData; prefetched " + (cursor.isClosed() ? "cursor is Closed" : cursor.getCount() + " rows") 
+                            + ", " + Double.valueOf((System.nanoTime() - startTime)/1.0E6).longValue() + " ms");
+                }
+            }
         }
         
+        if (prefetch) {
+            if (queryListDataInProgress || prefetchTask != null) {
+                return;
+            }
+            if (prefetchedCursor != null && mCursor != null && !mCursor.isClosed()
+                    && prefetchedKey.equals(newPrefetchKey(mCursor.getCount() + PAGE_SIZE))) {
+                // The next page is ready already
+                return;
+            }
+            try {
+                prefetchTask = new AsyncQueryListData();
+                prefetchTask.execute();
+            } catch (Exception e) {
+                Log.e(TAG, "Error during prefetch " + e.getLocalizedMessage());
+                prefetchTask = null;
+            }
+            return;
+        }
         if (queryListDataInProgress) {
             MyLog.v(TAG, "queryListData is already in progress, skipping this request");
             return;
@@ -1821,6 +2326,11 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                     setIsLoading(false);
                 }
                 break;
+            case FILL_GAPS:
+                if (gapFillsPending > 0) {
+                    gapFillsPending--;
+                }
+                break;
             case RATE_LIMIT_STATUS:
                 if (commandData.commandResult.hourly_limit > 0) {
                     updateTitle(commandData.commandResult.remaining_hits + "/"
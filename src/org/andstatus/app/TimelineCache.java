@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.User;
+import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Small in-memory cache of the recently viewed timeline rows, so switching
+ * between timelines (e.g. Home - Mentions - Home) doesn't re-query the database.
+ * The cache lives as long as the process, because {@link TimelineActivity}
+ * is recreated on each switch.
+ * All entries are dropped on any change notification for {@link MyProvider#TIMELINE_URI}
+ * @author yvolk@yurivolkov.com
+ */
+class TimelineCache {
+    private static final String TAG = TimelineCache.class.getSimpleName();
+
+    /**
+     * Number of timelines to remember
+     */
+    static final int MAX_ENTRIES = 5;
+    /**
+     * Only the first page of the list is cached, see {@link TimelineActivity}.
+     * The next pages are queried as usual, when the User scrolls to them.
+     * Results of longer queries (e.g. of the query, which restores an old position) are not cached at all,
+     * because a cached part of them would be returned for the whole query
+     */
+    static final int MAX_ROWS = 100;
+    /**
+     * Columns of the timeline with integer values, values of other columns are copied as strings.
+     * We cannot ask the cursor for types of the values: Cursor#getType is not available before API 11
+     */
+    private static final Set<String> LONG_COLUMNS = new HashSet<String>(Arrays.asList(
+            BaseColumns._ID, Msg.IN_REPLY_TO_MSG_ID, MsgOfUser.FAVORITED, Msg.CREATED_DATE, User.LINKED_USER_ID));
+
+    private static final Object lock = new Object();
+    /**
+     * Access ordered, so the first entry is the least recently used one
+     */
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES + 1, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /**
+     * Incremented on each invalidation, so the results of queries,
+     * which started before the change, are not cached
+     */
+    private static volatile long generation = 0;
+    private static ContentObserver observer = null;
+
+    private static class Entry {
+        /**
+         * The query (selection, arguments, sort order), which produced these rows
+         */
+        String signature;
+        String[] columnNames;
+        List<Object[]> rows;
+    }
+
+    private TimelineCache() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Key of the timeline: (Account, Timeline type, is combined, selected User, search query)
+     */
+    static String keyOf(long accountUserId, String timelineType, boolean isCombined, long selectedUserId, String queryString) {
+        return accountUserId + ";" + timelineType + ";" + isCombined + ";" + selectedUserId + ";" + queryString;
+    }
+
+    static long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return null if the cache doesn't have rows of this query
+     */
+    static Cursor get(String key, String signature) {
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+            if (entry == null || !entry.signature.equals(signature)) {
+                return null;
+            }
+            MatrixCursor cursor = new MatrixCursor(entry.columnNames, entry.rows.size());
+            for (Object[] row : entry.rows) {
+                cursor.addRow(row);
+            }
+            MyLog.v(TAG, "Hit " + key + ", " + entry.rows.size() + " rows");
+            return cursor;
+        }
+    }
+
+    /**
+     * Copy rows of the cursor, if there are not more than {@link #MAX_ROWS} of them.
+     * Should be called from a background thread. The cursor position is reset to the initial one.
+     * @param generationAtStart value of {@link #getGeneration()} before the query was started
+     */
+    static void put(Context context, String key, String signature, Cursor cursor, long generationAtStart) {
+        if (cursor == null || cursor.isClosed()) {
+            return;
+        }
+        if (cursor.getCount() > MAX_ROWS) {
+            synchronized (lock) {
+                entries.remove(key);
+            }
+            MyLog.v(TAG, "Not cached " + key + ", " + cursor.getCount() + " rows");
+            return;
+        }
+        registerObserver(context);
+        Entry entry = new Entry();
+        entry.signature = signature;
+        entry.columnNames = cursor.getColumnNames();
+        entry.rows = new ArrayList<Object[]>();
+        try {
+            boolean[] longColumns = longColumnsOf(entry.columnNames);
+            while (cursor.moveToNext()) {
+                entry.rows.add(rowOf(cursor, longColumns));
+            }
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Couldn't copy rows of " + key + ": " + e.getMessage());
+            return;
+        } finally {
+            cursor.moveToPosition(-1);
+        }
+        synchronized (lock) {
+            if (generationAtStart == generation) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * @return true for the columns, which values are copied as Long, see {@link #rowOf(Cursor, boolean[])}
+     */
+    static boolean[] longColumnsOf(String[] columnNames) {
+        boolean[] longColumns = new boolean[columnNames.length];
+        for (int ind = 0; ind < columnNames.length; ind++) {
+            longColumns[ind] = LONG_COLUMNS.contains(columnNames[ind]);
+        }
+        return longColumns;
+    }
+
+    /**
+     * @return values of all columns of the current row of the cursor.
+     *   {@link MatrixCursor} converts string values back, if they are read as numbers
+     */
+    static Object[] rowOf(Cursor cursor, boolean[] longColumns) {
+        Object[] row = new Object[longColumns.length];
+        for (int ind = 0; ind < row.length; ind++) {
+            if (cursor.isNull(ind)) {
+                row[ind] = null;
+            } else if (longColumns[ind]) {
+                row[ind] = cursor.getLong(ind);
+            } else {
+                row[ind] = cursor.getString(ind);
+            }
+        }
+        return row;
+    }
+
+    static void invalidate() {
+        synchronized (lock) {
+            generation++;
+            if (!entries.isEmpty()) {
+                MyLog.v(TAG, "Invalidated " + entries.size() + " entries");
+                entries.clear();
+            }
+        }
+    }
+
+    private static void registerObserver(Context context) {
+        synchronized (lock) {
+            if (observer == null && context != null) {
+                observer = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                };
+                context.getApplicationContext().getContentResolver()
+                        .registerContentObserver(MyProvider.TIMELINE_URI, true, observer);
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.andstatus.app;
 
 import org.andstatus.app.data.DataInserter;
+import org.andstatus.app.net.CancellationToken;
 import org.andstatus.app.net.ConnectionException;
 
 /**
@@ -35,8 +36,17 @@ public abstract class TimelineDownloader {
      * The timeline is of this User, for all timeline types.
      */
     protected long userId = 0;
+
+    /**
+     * The download stops between items, when this is cancelled, committing what was downloaded
+     */
+    protected CancellationToken cancellation = CancellationToken.NONE;
     
     public static TimelineDownloader newInstance(MessageCounters counters, long userId) {
+        return newInstance(counters, userId, CancellationToken.NONE);
+    }
+
+    public static TimelineDownloader newInstance(MessageCounters counters, long userId, CancellationToken cancellation) {
         if (userId == 0) {
             throw new IllegalArgumentException(TAG + ": userId==0");
         }
@@ -52,8 +62,18 @@ public abstract class TimelineDownloader {
         }
         td.counters = counters;
         td.userId = userId;
+        td.cancellation = cancellation;
         return td;
     }
     
     public abstract void download() throws ConnectionException;
+
+    /**
+     * Download items, missing in the gaps of the timeline, see {@link org.andstatus.app.data.TimelineGap}
+     * @param toDownload Maximum number of items to download
+     * @return Number of items, which may be downloaded yet
+     */
+    public int fillGaps(int toDownload) throws ConnectionException {
+        return toDownload;
+    }
 }
@@ -24,18 +24,25 @@ import org.andstatus.app.data.LatestTimelineItem;
 import org.andstatus.app.data.LatestUserMessages;
 import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.data.MyDatabase.OidEnum;
+import org.andstatus.app.data.TimelineGap;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.net.MbTimelineItem;
 import org.andstatus.app.net.TimelinePosition;
 import org.andstatus.app.net.ConnectionException.StatusCode;
 import org.andstatus.app.util.MyLog;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 public class TimelineDownloaderMsg extends TimelineDownloader {
     private static final String TAG = TimelineDownloaderMsg.class.getSimpleName();
 
+    /**
+     * Maximum number of items to download at once
+     */
+    static final int MAX_TO_DOWNLOAD = 200;
+
     @Override
     public void download() throws ConnectionException {
         LatestTimelineItem latestTimelineItem = new LatestTimelineItem(counters.timelineType, userId);
@@ -50,56 +57,187 @@ public class TimelineDownloaderMsg extends TimelineDownloader {
             }
             MyLog.d(TAG, strLog);
         }
-        String userOid =  MyProvider.idToOid(OidEnum.USER_OID, userId, 0);
-        if (TextUtils.isEmpty(userOid)) {
-            throw new ConnectionException("User oId is not found for id=" + userId);
-        }
+        String userOid = getUserOid();
         
-        int toDownload = 200;
+        int toDownload = MAX_TO_DOWNLOAD;
+        int downloaded = 0;
+        List<TimelineGap> gaps = new ArrayList<TimelineGap>();
         TimelinePosition lastPosition = latestTimelineItem.getPosition();
         LatestUserMessages latestUserMessages = new LatestUserMessages();
-        latestTimelineItem.onTimelineDownloaded();
-        for (boolean done = false; !done || toDownload > 0; ) {
-            try {
+        boolean completed = false;
+        try {
+            for (boolean done = false; !done || toDownload > 0; ) {
+                try {
+                    cancellation.throwIfCancelled();
+                    int limit = counters.ma.getConnection().fixedDownloadLimitForApiRoutine(toDownload, 
+                            counters.timelineType.getConnectionApiRoutine()); 
+                    TimelinePosition sincePosition = lastPosition;
+                    long sinceDate = latestTimelineItem.getTimelineItemDate();
+                    List<MbTimelineItem> messages = counters.ma.getConnection().getTimeline(
+                            counters.timelineType.getConnectionApiRoutine(), lastPosition, limit, userOid);
+                    counters.pagesDownloaded++;
+                    counters.itemsParsed += messages.size();
+                    if (messages.size() < 2) {  // We may assume that we downloaded the same message...
+                        toDownload = 0;
+                    }
+                    if (messages.size() > 0) {
+                        toDownload -= messages.size();
+                        downloaded += messages.size();
+                        TimelineGap pageGap = null;
+                        if (messages.size() >= limit && !sincePosition.isEmpty()) {
+                            // The page is full, so it may not reach the item, downloaded before
+                            MbTimelineItem oldest = messages.get(0);
+                            pageGap = new TimelineGap(counters.timelineType, userId, sincePosition, sinceDate,
+                                    oldest.timelineItemPosition, oldest.timelineItemDate);
+                        }
+                        DataInserter di = new DataInserter(counters);
+                        di.beginPage();
+                        try {
+                            for (MbTimelineItem item : messages) {
+                                cancellation.throwIfCancelled();
+                                latestTimelineItem.onNewMsg(item.timelineItemPosition, item.timelineItemDate);
+                                insertItem(di, item, latestUserMessages);
+                                if (pageGap != null) {
+                                    // The gap is below the stored part of the page
+                                    gaps.add(0, pageGap);
+                                    pageGap = null;
+                                }
+                            }
+                        } finally {
+                            di.endPage();
+                        }
+                        lastPosition = latestTimelineItem.getPosition();
+                    }
+                    done = true;
+                } catch (ConnectionException e) {
+                    if (e.getStatusCode() != StatusCode.NOT_FOUND) {
+                        throw e;
+                    }
+                    counters.errors++;
+                    if (lastPosition.isEmpty()) {
+                        e.setHardError(true);
+                        throw e;
+                    }
+                    Log.d(TAG, "The timeline was not found, last position='" + lastPosition +"'");
+                    lastPosition = TimelinePosition.getEmpty();
+                    gaps.clear();
+                }
+            }
+            completed = true;
+        } finally {
+            // Stored items are committed after an error or a cancellation also,
+            // so the next download continues from the latest of them
+            if (completed) {
+                latestTimelineItem.onTimelineDownloaded();
+            }
+            latestTimelineItem.save();
+            for (TimelineGap gap : gaps) {
+                gap.save();
+            }
+            latestUserMessages.save();
+        }
+        // The rest of the limit goes to the new gaps, the newest first,
+        // so a gap is recorded only if the limit was reached before the gap was filled
+        toDownload = MAX_TO_DOWNLOAD - downloaded;
+        for (TimelineGap gap : gaps) {
+            toDownload = fillGap(gap, toDownload, userOid, latestUserMessages);
+        }
+        latestUserMessages.save();
+    }
+
+    /**
+     * The newest gaps are filled first
+     */
+    @Override
+    public int fillGaps(int toDownload) throws ConnectionException {
+        List<TimelineGap> gaps = TimelineGap.list(counters.timelineType, userId);
+        if (gaps.isEmpty()) {
+            return toDownload;
+        }
+        String userOid = getUserOid();
+        LatestUserMessages latestUserMessages = new LatestUserMessages();
+        try {
+            for (TimelineGap gap : gaps) {
+                if (toDownload <= 0) {
+                    break;
+                }
+                toDownload = fillGap(gap, toDownload, userOid, latestUserMessages);
+            }
+        } finally {
+            latestUserMessages.save();
+        }
+        return toDownload;
+    }
+
+    /**
+     * Download pages of the gap, older than its newer end, until the older end is reached
+     * or the limit is exhausted. The gap is saved in any case
+     * @return Number of items, which may be downloaded yet
+     */
+    private int fillGap(TimelineGap gap, int toDownload, String userOid, LatestUserMessages latestUserMessages)
+            throws ConnectionException {
+        MyLog.d(TAG, "Filling " + gap + ", up to " + toDownload + " items");
+        try {
+            while (toDownload > 0 && !gap.isFilled()) {
+                cancellation.throwIfCancelled();
                 int limit = counters.ma.getConnection().fixedDownloadLimitForApiRoutine(toDownload, 
                         counters.timelineType.getConnectionApiRoutine()); 
                 List<MbTimelineItem> messages = counters.ma.getConnection().getTimeline(
-                        counters.timelineType.getConnectionApiRoutine(), lastPosition, limit, userOid);
-                if (messages.size() < 2) {  // We may assume that we downloaded the same message...
-                    toDownload = 0;
-                }
-                if (messages.size() > 0) {
-                    toDownload -= messages.size();
-                    DataInserter di = new DataInserter(counters);
-                    for (MbTimelineItem item : messages) {
-                        latestTimelineItem.onNewMsg(item.timelineItemPosition, item.timelineItemDate);
-                        switch (item.getType()) {
-                            case MESSAGE:
-                                di.insertOrUpdateMsg(item.mbMessage, latestUserMessages);
-                                break;
-                            case USER:
-                                di.insertOrUpdateUser(item.mbUser);
-                                break;
-                            default:
+                        counters.timelineType.getConnectionApiRoutine(), gap.getOlderPosition(),
+                        gap.getNewerPosition(), limit, userOid);
+                counters.pagesDownloaded++;
+                counters.itemsParsed += messages.size();
+                toDownload -= messages.size();
+                MbTimelineItem oldestStored = null;
+                DataInserter di = new DataInserter(counters);
+                di.beginPage();
+                try {
+                    // The newest first, so the stored part of the page adjoins the newer end of the gap
+                    for (int ind = messages.size() - 1; ind >= 0; ind--) {
+                        MbTimelineItem item = messages.get(ind);
+                        if (gap.getNewerPosition().getPosition().equals(item.timelineItemPosition.getPosition())) {
+                            // The newer end is included by some APIs
+                            continue;
                         }
+                        if (cancellation.isCancelled()) {
+                            break;
+                        }
+                        insertItem(di, item, latestUserMessages);
+                        oldestStored = item;
                     }
-                    lastPosition = latestTimelineItem.getPosition();
-                }
-                done = true;
-            } catch (ConnectionException e) {
-                if (e.getStatusCode() != StatusCode.NOT_FOUND) {
-                    throw e;
+                } finally {
+                    di.endPage();
                 }
-                if (lastPosition.isEmpty()) {
-                    e.setHardError(true);
-                    throw e;
+                if (oldestStored != null) {
+                    gap.onOlderItemsDownloaded(oldestStored.timelineItemPosition, oldestStored.timelineItemDate);
+                } else if (!cancellation.isCancelled()) {
+                    gap.onFilled();
                 }
-                Log.d(TAG, "The timeline was not found, last position='" + lastPosition +"'");
-                lastPosition = TimelinePosition.getEmpty();
             }
+        } finally {
+            gap.save();
+        }
+        return toDownload;
+    }
+
+    private String getUserOid() throws ConnectionException {
+        String userOid =  MyProvider.idToOid(OidEnum.USER_OID, userId, 0);
+        if (TextUtils.isEmpty(userOid)) {
+            throw new ConnectionException("User oId is not found for id=" + userId);
+        }
+        return userOid;
+    }
+
+    private void insertItem(DataInserter di, MbTimelineItem item, LatestUserMessages latestUserMessages) {
+        switch (item.getType()) {
+            case MESSAGE:
+                di.insertOrUpdateMsg(item.mbMessage, latestUserMessages);
+                break;
+            case USER:
+                di.insertOrUpdateUser(item.mbUser);
+                break;
+            default:
         }
-        latestUserMessages.save();
-        latestTimelineItem.save();
     }
 
 }
@@ -60,7 +60,6 @@ public class TimelineDownloaderUser extends TimelineDownloader {
             MyLog.d(TAG, strLog);
         }
         
-        latestTimelineItem.onTimelineDownloaded();
         List<String> followedUsersOids = null;
         List<MbUser> followedUsers = null;
         LatestUserMessages lum = new LatestUserMessages();
@@ -68,6 +67,8 @@ public class TimelineDownloaderUser extends TimelineDownloader {
         DataInserter di = new DataInserter(counters);
         if (counters.ma.getConnection().isApiSupported(ApiRoutineEnum.GET_FRIENDS)) {
             followedUsers = counters.ma.getConnection().getUsersFollowedBy(userOid);
+            counters.pagesDownloaded++;
+            counters.itemsParsed += followedUsers.size();
             followedUsersOids = new ArrayList<String>();
             for (MbUser followedUser : followedUsers) {
                 followedUsersOids.add(followedUser.oid);
@@ -75,6 +76,8 @@ public class TimelineDownloaderUser extends TimelineDownloader {
             }
         } else if (counters.ma.getConnection().isApiSupported(ApiRoutineEnum.GET_FRIENDS_IDS)) {
             followedUsersOids = counters.ma.getConnection().getIdsOfUsersFollowedBy(userOid);
+            counters.pagesDownloaded++;
+            counters.itemsParsed += followedUsersOids.size();
         } else {
             throw new ConnectionException(StatusCode.UNSUPPORTED_API, ApiRoutineEnum.GET_FRIENDS 
                     + " and " + ApiRoutineEnum.GET_FRIENDS_IDS);
@@ -82,7 +85,30 @@ public class TimelineDownloaderUser extends TimelineDownloader {
         // Old list of followed users
         Set<Long> followedIds_old = MyProvider.getIdsOfUsersFollowedBy(userId);
         SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+        try {
+            updateFollowedUsers(followedUsersOids, followedIds_old, di, lum, db);
+        } finally {
+            // Users, stored before an error or a cancellation, are not downloaded again
+            lum.save();
+        }
+        
+        // Now let's remove "following" information for all users left in the Set:
+        for (long notFollowingId : followedIds_old) {
+            FollowingUserValues fu = new FollowingUserValues(userId, notFollowingId);
+            fu.setFollowed(false);
+            fu.update(db);
+        }
+        latestTimelineItem.onTimelineDownloaded();
+        latestTimelineItem.save();
+    }
+
+    /**
+     * Followed users are removed from the Set of old ones
+     */
+    private void updateFollowedUsers(List<String> followedUsersOids, Set<Long> followedIds_old, DataInserter di,
+            LatestUserMessages lum, SQLiteDatabase db) throws ConnectionException {
         for (String followedUserOid : followedUsersOids) {
+            cancellation.throwIfCancelled();
             long friendId = MyProvider.oidToId(MyDatabase.OidEnum.USER_OID, counters.ma.getOriginId(), followedUserOid);
             long msgId = 0;
             if (friendId != 0) {
@@ -102,6 +128,10 @@ public class TimelineDownloaderUser extends TimelineDownloader {
                         downloadOneMessageBy(followedUserOid,lum);
                     }
                 } catch (ConnectionException e) {
+                    if (e.getStatusCode() == StatusCode.CANCELLED) {
+                        throw e;
+                    }
+                    counters.errors++;
                     Log.w(TAG, "Failed to download the User object or his message for oid=" + followedUserOid);
                 }
             }
@@ -111,16 +141,6 @@ public class TimelineDownloaderUser extends TimelineDownloader {
                 fu.update(db);
             }
         }
-        
-        lum.save();
-        
-        // Now let's remove "following" information for all users left in the Set:
-        for (long notFollowingId : followedIds_old) {
-            FollowingUserValues fu = new FollowingUserValues(userId, notFollowingId);
-            fu.setFollowed(false);
-            fu.update(db);
-        }
-        latestTimelineItem.save();
     }
 
     private void downloadOneMessageBy(String userOid, LatestUserMessages lum) throws ConnectionException {
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.Log;
+
+import org.andstatus.app.data.MyDatabase;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.SelectionAndArgs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Top rows of a recently viewed timeline, persisted in a small binary file,
+ * so {@link TimelineActivity} can show them right after the start,
+ * before the real query to the database is done.
+ * Snapshots are written on leaving the timeline and refreshed after each sync.
+ * Only the timeline itself is stored with the rows, results of searches are never written.
+ * @author yvolk@yurivolkov.com
+ */
+class TimelineSnapshot {
+    private static final String TAG = TimelineSnapshot.class.getSimpleName();
+
+    /**
+     * Number of rows to keep: a bit more than one screen
+     */
+    static final int ROWS = 30;
+    /**
+     * Number of timelines to keep snapshots of
+     */
+    static final int MAX_FILES = 10;
+    static final String DIRECTORY = "snapshots";
+    private static final int FILE_MAGIC = 0x414E5332;
+    private static final String FILE_PREFIX = "timeline_";
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BLOB = 4;
+
+    private static final Object fileLock = new Object();
+
+    /**
+     * See {@link TimelineCache#keyOf(long, String, boolean, long, String)}
+     */
+    String key = "";
+    long writtenDate = 0;
+    /**
+     * The timeline, so the same rows may be queried again
+     */
+    long accountUserId = 0;
+    TimelineTypeEnum timelineType = TimelineTypeEnum.UNKNOWN;
+    boolean isCombined = false;
+    long selectedUserId = 0;
+    String[] columnNames = new String[] {};
+    List<Object[]> rows = new ArrayList<Object[]>();
+
+    /**
+     * @return Empty snapshot of the timeline
+     */
+    static TimelineSnapshot of(long accountUserId, TimelineTypeEnum timelineType, boolean isCombined, long selectedUserId) {
+        TimelineSnapshot snapshot = new TimelineSnapshot();
+        snapshot.accountUserId = accountUserId;
+        snapshot.timelineType = timelineType;
+        snapshot.isCombined = isCombined;
+        snapshot.selectedUserId = selectedUserId;
+        snapshot.key = TimelineCache.keyOf(accountUserId, timelineType.save(), isCombined, selectedUserId, "");
+        return snapshot;
+    }
+
+    /**
+     * Copy up to {@link #ROWS} first rows of the cursor, its position is restored
+     * @return New snapshot of the same timeline
+     */
+    TimelineSnapshot withRowsOf(Cursor cursor) {
+        TimelineSnapshot snapshot = of(accountUserId, timelineType, isCombined, selectedUserId);
+        if (cursor != null && !cursor.isClosed()) {
+            snapshot.columnNames = cursor.getColumnNames();
+            int position = cursor.getPosition();
+            try {
+                cursor.moveToPosition(-1);
+                boolean[] longColumns = TimelineCache.longColumnsOf(snapshot.columnNames);
+                while (snapshot.rows.size() < ROWS && cursor.moveToNext()) {
+                    snapshot.rows.add(TimelineCache.rowOf(cursor, longColumns));
+                }
+            } finally {
+                cursor.moveToPosition(position);
+            }
+        }
+        return snapshot;
+    }
+
+    boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(columnNames, rows.size());
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static File getFile(String key) {
+        File dir = MyPreferences.getDataFilesDir(DIRECTORY, false);
+        if (dir == null) {
+            return null;
+        }
+        return new File(dir, FILE_PREFIX + Integer.toHexString(key.hashCode()));
+    }
+
+    /**
+     * @return null if there is no snapshot of this timeline
+     */
+    static TimelineSnapshot load(String key) {
+        File file = getFile(key);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        TimelineSnapshot snapshot = null;
+        synchronized (fileLock) {
+            snapshot = fromFile(file);
+        }
+        if (snapshot != null && !snapshot.key.equals(key)) {
+            snapshot = null;
+        }
+        return snapshot;
+    }
+
+    private static TimelineSnapshot fromFile(File file) {
+        TimelineSnapshot snapshot = null;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() == FILE_MAGIC) {
+                snapshot = new TimelineSnapshot();
+                snapshot.key = getString(buffer);
+                snapshot.writtenDate = buffer.getLong();
+                snapshot.accountUserId = buffer.getLong();
+                snapshot.timelineType = TimelineTypeEnum.load(getString(buffer));
+                snapshot.isCombined = (buffer.get() != 0);
+                snapshot.selectedUserId = buffer.getLong();
+                snapshot.columnNames = new String[buffer.getInt()];
+                for (int ind = 0; ind < snapshot.columnNames.length; ind++) {
+                    snapshot.columnNames[ind] = getString(buffer);
+                }
+                int nRows = buffer.getInt();
+                for (int rowInd = 0; rowInd < nRows; rowInd++) {
+                    Object[] row = new Object[snapshot.columnNames.length];
+                    for (int ind = 0; ind < row.length; ind++) {
+                        row[ind] = getValue(buffer);
+                    }
+                    snapshot.rows.add(row);
+                }
+            } else {
+                Log.w(TAG, "Unknown format of " + file.getName());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading " + file.getName() + ": " + e.getMessage());
+            snapshot = null;
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated " + file.getName());
+            snapshot = null;
+        } catch (NegativeArraySizeException e) {
+            Log.w(TAG, "Corrupted " + file.getName());
+            snapshot = null;
+        } finally {
+            closeSilently(in);
+        }
+        return snapshot;
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static Object getValue(ByteBuffer buffer) throws IOException {
+        Object value = null;
+        byte type = buffer.get();
+        switch (type) {
+            case TYPE_LONG:
+                value = buffer.getLong();
+                break;
+            case TYPE_DOUBLE:
+                value = buffer.getDouble();
+                break;
+            case TYPE_STRING:
+                value = getString(buffer);
+                break;
+            case TYPE_BLOB:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                value = bytes;
+                break;
+            default:
+                break;
+        }
+        return value;
+    }
+
+    /**
+     * Write the snapshot to the file, replacing the previous one of the same timeline
+     */
+    void save() {
+        File file = getFile(key);
+        if (file == null) {
+            return;
+        }
+        if (isEmpty()) {
+            synchronized (fileLock) {
+                file.delete();
+            }
+            return;
+        }
+        writtenDate = System.currentTimeMillis();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        synchronized (fileLock) {
+            DataOutputStream out = null;
+            boolean ok = false;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+                out.writeInt(FILE_MAGIC);
+                putString(out, key);
+                out.writeLong(writtenDate);
+                out.writeLong(accountUserId);
+                putString(out, timelineType.save());
+                out.writeByte(isCombined ? 1 : 0);
+                out.writeLong(selectedUserId);
+                out.writeInt(columnNames.length);
+                for (String name : columnNames) {
+                    putString(out, name);
+                }
+                out.writeInt(rows.size());
+                for (Object[] row : rows) {
+                    for (Object value : row) {
+                        putValue(out, value);
+                    }
+                }
+                out.flush();
+                ok = true;
+            } catch (IOException e) {
+                Log.w(TAG, "Error writing " + tmpFile.getName() + ": " + e.getMessage());
+            } finally {
+                closeSilently(out);
+            }
+            if (ok && !tmpFile.renameTo(file)) {
+                Log.w(TAG, "Couldn't rename " + tmpFile.getName());
+                ok = false;
+            }
+            if (!ok) {
+                tmpFile.delete();
+            }
+            deleteOldFiles(file.getParentFile());
+        }
+        MyLog.v(TAG, "Saved " + key + ", " + rows.size() + " rows");
+    }
+
+    private static void putString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = (string == null ? "" : string).getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void putValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(TYPE_BLOB);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeByte(TYPE_STRING);
+            putString(out, value.toString());
+        }
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = null;
+        if (dir != null) {
+            files = dir.listFiles();
+        }
+        return (files == null ? new File[] {} : files);
+    }
+
+    /**
+     * Keep only {@link #MAX_FILES} most recent snapshots
+     */
+    private static void deleteOldFiles(File dir) {
+        File[] files = listFiles(dir);
+        if (files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long diff = rhs.lastModified() - lhs.lastModified();
+                return (diff > 0 ? 1 : (diff < 0 ? -1 : 0));
+            }
+        });
+        for (int ind = MAX_FILES; ind < files.length; ind++) {
+            if (!files[ind].delete()) {
+                Log.w(TAG, "Couldn't delete " + files[ind].getName());
+            }
+        }
+    }
+
+    /**
+     * Re-query and rewrite all existing snapshots, e.g. after new messages were downloaded.
+     * Should be called from a background thread
+     */
+    static void refreshAll(Context context) {
+        for (File file : listFiles(MyPreferences.getDataFilesDir(DIRECTORY, false))) {
+            if (!file.getName().startsWith(FILE_PREFIX) || file.getName().endsWith(".tmp")) {
+                continue;
+            }
+            TimelineSnapshot snapshot;
+            synchronized (fileLock) {
+                snapshot = fromFile(file);
+            }
+            if (snapshot == null) {
+                file.delete();
+                continue;
+            }
+            Cursor cursor = null;
+            try {
+                Uri uri = MyProvider.getTimelineUri(snapshot.accountUserId, snapshot.timelineType, snapshot.isCombined);
+                if (snapshot.timelineType == TimelineTypeEnum.USER) {
+                    uri = MyProvider.getUserTimelineUri(uri, snapshot.selectedUserId);
+                }
+                SelectionAndArgs sa = new SelectionAndArgs();
+                TimelineActivity.addTimelineSelection(sa, snapshot.timelineType, snapshot.isCombined);
+                cursor = context.getContentResolver().query(uri, snapshot.columnNames,
+                        sa.selection, sa.selectionArgs,
+                        MyDatabase.Msg.DEFAULT_SORT_ORDER + " LIMIT 0," + ROWS);
+                if (cursor != null) {
+                    snapshot.withRowsOf(cursor).save();
+                }
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Couldn't refresh " + snapshot.key + ": " + e.getMessage());
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+    }
+
+    private static void closeSilently(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                MyLog.v(TAG, "Error closing: " + e.getMessage());
+            }
+        }
+    }
+}
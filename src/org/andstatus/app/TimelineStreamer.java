@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteConstraintException;
+import android.util.Log;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.data.DataInserter;
+import org.andstatus.app.data.LatestUserMessages;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.net.ConnectionException;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.net.MbMessage;
+import org.andstatus.app.net.MessageStream;
+import org.andstatus.app.util.MyLog;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives messages of the {@link MyAccount} over the long-lived streaming connection
+ * (see {@link MyAccount#isStreaming()}) in its own thread and stores them in small batches, as they arrive.
+ * After an error or the end of the stream it connects again, waiting longer after each failed attempt.
+ * While the stream is connected, the {@link MyService} doesn't poll the streamed timelines
+ * on automatic updates, see {@link #isStreamed(TimelineTypeEnum)}.
+ * The stream doesn't deliver messages, posted while it was disconnected, so each connection
+ * is followed by one download of the streamed timelines, see {@link #onConnected()}
+ * @author yvolk@yurivolkov.com
+ */
+public class TimelineStreamer implements Runnable {
+    private static final String TAG = TimelineStreamer.class.getSimpleName();
+
+    static final int BATCH_SIZE = 20;
+    static final long RECONNECT_DELAY_MIN_MILLIS = 1000;
+    static final long RECONNECT_DELAY_MAX_MILLIS = 5 * 60 * 1000;
+
+    private final MyAccount ma;
+    private final Context context;
+
+    private volatile Thread thread = null;
+    private volatile MessageStream stream = null;
+    private volatile boolean stopped = false;
+    private volatile boolean connected = false;
+
+    public TimelineStreamer(MyAccount ma, Context context) {
+        this.ma = ma;
+        this.context = context;
+    }
+
+    /**
+     * Timelines, which messages are received over the stream
+     */
+    public static boolean isStreamed(TimelineTypeEnum timelineType) {
+        return timelineType == TimelineTypeEnum.HOME || timelineType == TimelineTypeEnum.DIRECT;
+    }
+
+    /**
+     * The delay grows twice after each failed attempt to connect
+     * @param previousMillis 0 for the first attempt
+     */
+    public static long nextReconnectDelay(long previousMillis) {
+        if (previousMillis < RECONNECT_DELAY_MIN_MILLIS) {
+            return RECONNECT_DELAY_MIN_MILLIS;
+        }
+        return Math.min(previousMillis * 2, RECONNECT_DELAY_MAX_MILLIS);
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            stopped = false;
+            thread = new Thread(this, TAG + " " + ma.getAccountName());
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        MessageStream stream1 = stream;
+        if (stream1 != null) {
+            stream1.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public MyAccount getAccount() {
+        return ma;
+    }
+
+    @Override
+    public void run() {
+        MyLog.d(TAG, "Started for " + ma.getAccountName());
+        long delay = 0;
+        while (!stopped) {
+            if (delay > 0) {
+                MyLog.v(TAG, "Reconnecting in " + delay + " ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            MessageStream stream1 = null;
+            try {
+                stream1 = open();
+                stream = stream1;
+                if (stopped) {
+                    break;
+                }
+                connected = true;
+                MyLog.d(TAG, "Connected " + ma.getAccountName());
+                onConnected();
+                for (List<MbMessage> batch = stream1.readBatch(BATCH_SIZE); batch != null && !stopped;
+                        batch = stream1.readBatch(BATCH_SIZE)) {
+                    if (!batch.isEmpty()) {
+                        onBatch(batch);
+                    }
+                }
+                MyLog.d(TAG, "The stream ended for " + ma.getAccountName());
+            } catch (ConnectionException e) {
+                if (e.getStatusCode() == StatusCode.UNSUPPORTED_API) {
+                    Log.e(TAG, ma.getAccountName() + ": " + e.toString());
+                    break;
+                }
+                Log.w(TAG, "Connecting " + ma.getAccountName() + ": " + e.toString());
+            } catch (IOException e) {
+                if (!stopped) {
+                    Log.w(TAG, "Reading the stream of " + ma.getAccountName() + ": " + e.toString());
+                }
+            } finally {
+                connected = false;
+                stream = null;
+                if (stream1 != null) {
+                    stream1.close();
+                }
+            }
+            if (stream1 != null && stream1.getLinesRead() > 0) {
+                // The stream was alive, so this is not a failed attempt
+                delay = RECONNECT_DELAY_MIN_MILLIS;
+            } else {
+                delay = nextReconnectDelay(delay);
+            }
+        }
+        connected = false;
+        MyLog.d(TAG, "Stopped for " + ma.getAccountName());
+    }
+
+    protected MessageStream open() throws ConnectionException {
+        return ma.getConnection().openMessageStream();
+    }
+
+    /**
+     * Stores the messages: a message with a recipient goes to the Direct timeline, others - to the Home timeline
+     */
+    protected void onBatch(List<MbMessage> messages) {
+        MessageCounters counters = new MessageCounters(ma, context, TimelineTypeEnum.HOME);
+        LatestUserMessages lum = new LatestUserMessages();
+        DataInserter di = new DataInserter(counters);
+        di.beginPage();
+        try {
+            for (MbMessage message : messages) {
+                counters.timelineType = (message.recipient == null ? TimelineTypeEnum.HOME : TimelineTypeEnum.DIRECT);
+                try {
+                    di.insertOrUpdateMsg(message, lum);
+                } catch (SQLiteConstraintException e) {
+                    Log.e(TAG, "Storing streamed message: " + e.toString());
+                }
+                counters.accumulate();
+            }
+        } finally {
+            di.endPage();
+        }
+        lum.save();
+        MyLog.v(TAG, messages.size() + " streamed messages stored for " + ma.getAccountName()
+                + counters.accumulatedToString());
+        onStored(counters);
+    }
+
+    /**
+     * Called after each (re)connection, in the streamer's thread. Messages, posted before it,
+     * should be downloaded from the stored positions of the streamed timelines
+     */
+    protected void onConnected() {
+    }
+
+    /**
+     * Called after each batch is stored, in the streamer's thread
+     */
+    protected void onStored(MessageCounters counters) {
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.account;
+
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable set of the persistent accounts with indexes to find them quickly.
+ * Any change creates a new instance (copy-on-write), so readers never need locks.
+ * The list of User IDs for the combined timeline is precomputed here also.
+ * @author yvolk@yurivolkov.com
+ */
+public final class AccountRegistry {
+    static final AccountRegistry EMPTY = new AccountRegistry(new ArrayList<MyAccount>());
+
+    private final List<MyAccount> accounts;
+    private final Map<Long, MyAccount> byUserId = new HashMap<Long, MyAccount>();
+    private final Map<String, MyAccount> byAccountName = new HashMap<String, MyAccount>();
+    private final Map<Long, List<MyAccount>> byOriginId = new HashMap<Long, List<MyAccount>>();
+    /**
+     * Accounts by Originating system and by lower case username, to find all accounts,
+     * mentioned in a message, during one pass over its body
+     */
+    private final Map<Long, Map<String, MyAccount>> byMentionName = new HashMap<Long, Map<String, MyAccount>>();
+
+    /**
+     * SQL condition for the User IDs of all accounts: "=id" or " IN (id1, id2...)"
+     */
+    private final String userIdsSql;
+    /**
+     * User ID of the last account in the list, 0 if there are no accounts
+     */
+    private final long lastUserId;
+
+    private AccountRegistry(Collection<MyAccount> accountsIn) {
+        accounts = Collections.unmodifiableList(new ArrayList<MyAccount>(accountsIn));
+        StringBuilder userIds = new StringBuilder();
+        long userId = 0;
+        for (MyAccount ma : accounts) {
+            if (!byUserId.containsKey(ma.getUserId())) {
+                byUserId.put(ma.getUserId(), ma);
+            }
+            if (!byAccountName.containsKey(ma.getAccountName())) {
+                byAccountName.put(ma.getAccountName(), ma);
+            }
+            List<MyAccount> ofOrigin = byOriginId.get(ma.getOriginId());
+            if (ofOrigin == null) {
+                ofOrigin = new ArrayList<MyAccount>();
+                byOriginId.put(ma.getOriginId(), ofOrigin);
+            }
+            ofOrigin.add(ma);
+            if (!TextUtils.isEmpty(ma.getUsername())) {
+                Map<String, MyAccount> mentionNames = byMentionName.get(ma.getOriginId());
+                if (mentionNames == null) {
+                    mentionNames = new HashMap<String, MyAccount>();
+                    byMentionName.put(ma.getOriginId(), mentionNames);
+                }
+                String mentionName = ma.getUsername().toLowerCase(Locale.US);
+                if (!mentionNames.containsKey(mentionName)) {
+                    mentionNames.put(mentionName, ma);
+                }
+            }
+            if (userIds.length() > 0) {
+                userIds.append(", ");
+            }
+            userId = ma.getUserId();
+            userIds.append(Long.toString(userId));
+        }
+        lastUserId = userId;
+        if (accounts.size() > 1) {
+            userIdsSql = " IN (" + userIds.toString() + ")";
+        } else {
+            userIdsSql = "=" + userId;
+        }
+    }
+
+    static AccountRegistry fromList(Collection<MyAccount> accounts) {
+        return new AccountRegistry(accounts);
+    }
+
+    AccountRegistry withAccount(MyAccount ma) {
+        List<MyAccount> list = new ArrayList<MyAccount>(accounts);
+        list.add(ma);
+        return new AccountRegistry(list);
+    }
+
+    AccountRegistry withoutAccount(MyAccount ma) {
+        List<MyAccount> list = new ArrayList<MyAccount>(accounts);
+        list.remove(ma);
+        return new AccountRegistry(list);
+    }
+
+    /**
+     * @return unmodifiable list in the order the accounts were added
+     */
+    public List<MyAccount> list() {
+        return accounts;
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+
+    /**
+     * @return null if not found
+     */
+    public MyAccount fromUserId(long userId) {
+        return byUserId.get(userId);
+    }
+
+    /**
+     * @return null if not found
+     */
+    public MyAccount fromAccountName(String accountName) {
+        return byAccountName.get(accountName);
+    }
+
+    /**
+     * @param name Username as mentioned in a message body (without "@"), case insensitive
+     * @return null if this is not a username of any account of this Originating system
+     */
+    public MyAccount fromMentionedName(long originId, String name) {
+        Map<String, MyAccount> mentionNames = byMentionName.get(originId);
+        if (mentionNames == null || name == null) {
+            return null;
+        }
+        return mentionNames.get(name.toLowerCase(Locale.US));
+    }
+
+    /**
+     * @return accounts of this Originating system, empty list if none
+     */
+    public List<MyAccount> ofOrigin(long originId) {
+        List<MyAccount> ofOrigin = byOriginId.get(originId);
+        if (ofOrigin == null) {
+            ofOrigin = Collections.emptyList();
+        }
+        return Collections.unmodifiableList(ofOrigin);
+    }
+
+    /**
+     * @return SQL condition for the User IDs of all accounts
+     *  (to be appended to a column name): "=id" or " IN (id1, id2...)"
+     */
+    public String getUserIdsSql() {
+        return userIdsSql;
+    }
+
+    /**
+     * @return User ID of the last account, 0 if there are no accounts
+     */
+    public long getLastUserId() {
+        return lastUserId;
+    }
+}
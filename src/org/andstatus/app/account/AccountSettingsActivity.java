@@ -97,6 +97,8 @@ public class AccountSettingsActivity extends PreferenceActivity implements
 
     private CheckBoxPreference mOAuth;
 
+    private CheckBoxPreference mStreaming;
+
     private EditTextPreference mEditTextUsername;
 
     private EditTextPreference mEditTextPassword;
@@ -124,6 +126,7 @@ public class AccountSettingsActivity extends PreferenceActivity implements
         
         mOriginName = (ListPreference) findPreference(MyAccount.Builder.KEY_ORIGIN_NAME);
         mOAuth = (CheckBoxPreference) findPreference(MyAccount.Builder.KEY_OAUTH);
+        mStreaming = (CheckBoxPreference) findPreference(MyAccount.Builder.KEY_STREAMING);
         mEditTextUsername = (EditTextPreference) findPreference(MyAccount.Builder.KEY_USERNAME_NEW);
         mEditTextPassword = (EditTextPreference) findPreference(Connection.KEY_PASSWORD);
         addAccountOrVerifyCredentials = findPreference(MyPreferences.KEY_VERIFY_CREDENTIALS);
@@ -245,6 +248,19 @@ public class AccountSettingsActivity extends PreferenceActivity implements
             mOAuth.setSummary("");
         }
 
+        isNeeded = ma.canStream();
+        if (ma.isStreaming() != mStreaming.isChecked()) {
+            mStreaming.setChecked(ma.isStreaming());
+        }
+        mStreaming.setEnabled(isNeeded);
+        if (isNeeded) {
+            mStreaming.setTitle(R.string.title_preference_streaming);
+            mStreaming.setSummary(ma.isStreaming() ? R.string.summary_preference_streaming_on : R.string.summary_preference_streaming_off);
+        } else {
+            mStreaming.setTitle("");
+            mStreaming.setSummary("");
+        }
+
         isNeeded = ma.getConnection().isPasswordNeeded();
         if (mEditTextPassword.getText() == null
                 || ma.getPassword().compareTo(mEditTextPassword.getText()) != 0) {
@@ -423,6 +439,12 @@ public class AccountSettingsActivity extends PreferenceActivity implements
                     showUserPreferences();
                 }
             }
+            if (key.equals(MyAccount.Builder.KEY_STREAMING)) {
+                if (state.getAccount().isStreaming() != mStreaming.isChecked()) {
+                    state.builder.setStreaming(mStreaming.isChecked());
+                    showUserPreferences();
+                }
+            }
             if (key.equals(MyAccount.Builder.KEY_USERNAME_NEW)) {
                 String usernameNew = mEditTextUsername.getText();
                 if (usernameNew.compareTo(state.getAccount().getUsername()) != 0) {
@@ -505,6 +527,8 @@ public class AccountSettingsActivity extends PreferenceActivity implements
         if (keyCode == KeyEvent.KEYCODE_BACK && event.getRepeatCount() == 0) {
             // Explicitly save MyAccount only on "Back key" 
             state.builder.save();
+            // E.g. streaming could be turned on or off
+            MyServiceManager.onAccountsChanged();
             closeAndGoBack();
         }
         if (mIsFinishing) {
@@ -16,6 +16,7 @@
 
 package org.andstatus.app.account;
 
+import org.andstatus.app.MyServiceManager;
 import org.andstatus.app.data.MyPreferences;
 
 import android.accounts.AbstractAccountAuthenticator;
@@ -147,6 +148,7 @@ public class AuthenticatorService extends Service {
                 deleted = MyAccount.delete(ma);
             }
             MyPreferences.onPreferencesChanged();
+            MyServiceManager.onAccountsChanged();
             
             final Bundle result = new Bundle();
             result.putBoolean(AccountManager.KEY_BOOLEAN_RESULT, deleted);
@@ -27,8 +27,8 @@ import android.os.Parcelable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
 
 import org.andstatus.app.R;
 import org.andstatus.app.data.DataInserter;
@@ -38,6 +38,7 @@ import org.andstatus.app.data.MyPreferences;
 import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.net.Connection;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.net.ConnectionException.StatusCode;
 import org.andstatus.app.net.MbUser;
@@ -46,6 +47,7 @@ import org.andstatus.app.origin.Origin;
 import org.andstatus.app.origin.OriginConnectionData;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SharedPreferencesUtil;
+import org.andstatus.app.util.StartupTrace;
 import org.andstatus.app.util.TriState;
 
 /**
@@ -104,6 +106,11 @@ public class MyAccount implements AccountDataReader {
          */
         public static final String KEY_OAUTH = "oauth";
 
+        /**
+         * Are messages of this MyAccount received over a long-lived streaming connection?
+         */
+        public static final String KEY_STREAMING = "streaming";
+
         /**
          * Storing version of the account data
          */
@@ -187,6 +194,7 @@ public class MyAccount implements AccountDataReader {
             myAccount.userId = myAccount.getDataLong(KEY_USER_ID, 0L);
             myAccount.userOid = myAccount.getDataString(KEY_USER_OID, "");
             myAccount.syncFrequencySeconds = myAccount.getDataLong(MyPreferences.KEY_FETCH_FREQUENCY, 0);
+            myAccount.isStreaming = myAccount.getDataBoolean(KEY_STREAMING, false);
             
             if (myAccount.version == MyDatabase.DATABASE_VERSION) {
                 fixMyAccount();
@@ -293,6 +301,7 @@ public class MyAccount implements AccountDataReader {
             myAccount.userId = myAccount.getDataLong(KEY_USER_ID, 0L);
             myAccount.userOid = myAccount.getDataString(KEY_USER_OID, "");
             myAccount.syncFrequencySeconds = myAccount.getDataLong(MyPreferences.KEY_FETCH_FREQUENCY, 0L);
+            myAccount.isStreaming = myAccount.getDataBoolean(KEY_STREAMING, false);
             setConnection();
             
             if (isPersistent() && myAccount.userId==0) {
@@ -352,8 +361,12 @@ public class MyAccount implements AccountDataReader {
 
         public void save() {
             boolean changed = saveSilently();
-            if (changed && isPersistent() && !MyPreferences.isUpgrading()) {
-                MyPreferences.onPreferencesChanged();
+            if (changed && isPersistent()) {
+                // User ID or name of the account could change
+                reindex();
+                if (!MyPreferences.isUpgrading()) {
+                    MyPreferences.onPreferencesChanged();
+                }
             }
         }
         
@@ -440,6 +453,10 @@ public class MyAccount implements AccountDataReader {
                     setDataLong(MyPreferences.KEY_FETCH_FREQUENCY, myAccount.syncFrequencySeconds); 
                     changed = true;
                 }
+                if (myAccount.isStreaming != myAccount.getDataBoolean(KEY_STREAMING, false)) {
+                    setDataBoolean(KEY_STREAMING, myAccount.isStreaming);
+                    changed = true;
+                }
                 if (myAccount.version != myAccount.getDataInt(KEY_VERSION, 0)) {
                     setDataInt(KEY_VERSION, myAccount.version);
                     changed = true;
@@ -594,6 +611,10 @@ public class MyAccount implements AccountDataReader {
                 myAccount.getConnection().setPassword(password);
             }
         }
+
+        public void setStreaming(boolean isStreaming) {
+            myAccount.isStreaming = isStreaming;
+        }
         
         private void assignUserId() {
             myAccount.userId = MyProvider.userNameToId(myAccount.getOriginId(), myAccount.getUsername());
@@ -714,6 +735,10 @@ public class MyAccount implements AccountDataReader {
     private boolean isOAuth = true;
 
     private long syncFrequencySeconds = 0;
+    /**
+     * See {@link Builder#KEY_STREAMING}
+     */
+    private boolean isStreaming = false;
     private int version = MyDatabase.DATABASE_VERSION;
     
     public enum CredentialsVerificationStatus {
@@ -857,7 +882,9 @@ public class MyAccount implements AccountDataReader {
      * Forget everything in order to reread from the sources if it will be needed
      */
     public static synchronized void forget() {
-        persistentAccounts.clear();
+        loadGeneration++;
+        accountsLoaded = false;
+        registry = AccountRegistry.EMPTY;
     }
     
     /**
@@ -876,8 +903,9 @@ public class MyAccount implements AccountDataReader {
             defaultAccountName = "";
         }
         if (ma == null) {
-            if (persistentAccounts.size() > 0) {
-                ma = persistentAccounts.iterator().next();
+            List<MyAccount> accounts = accounts();
+            if (accounts.size() > 0) {
+                ma = accounts.get(0);
             }
         }
         if (ma != null) {
@@ -918,7 +946,44 @@ public class MyAccount implements AccountDataReader {
         return 0;
     }
     
-    private static volatile List<MyAccount> persistentAccounts = new Vector<MyAccount>();
+    /**
+     * Persistent accounts. The registry is immutable, 
+     * changes are done by replacing it under the {@link #loadLock}
+     */
+    private static volatile AccountRegistry registry = AccountRegistry.EMPTY;
+    /**
+     * Accounts are loaded from the AccountManager on first use, see {@link #registry()}
+     */
+    private static volatile boolean accountsLoaded = false;
+    private static volatile Context accountsContext = null;
+    /**
+     * Incremented by {@link #forget()}, so accounts loaded before that are not used
+     */
+    private static volatile long loadGeneration = 0;
+    private static final Object loadLock = new Object();
+
+    /**
+     * @return persistent accounts, loaded if they were not loaded yet
+     */
+    public static AccountRegistry registry() {
+        if (!accountsLoaded) {
+            load();
+        }
+        return registry;
+    }
+
+    private static List<MyAccount> accounts() {
+        return registry().list();
+    }
+
+    /**
+     * Rebuild indexes of the registry after a change of some account
+     */
+    private static void reindex() {
+        synchronized (loadLock) {
+            registry = AccountRegistry.fromList(registry.list());
+        }
+    }
     
     /**
      * Get list of all persistent accounts
@@ -929,11 +994,12 @@ public class MyAccount implements AccountDataReader {
      * @return Array of users, not null 
      */
     public static MyAccount[] list() {
-        return persistentAccounts.toArray(new MyAccount[persistentAccounts.size()]);
+        List<MyAccount> accounts = accounts();
+        return accounts.toArray(new MyAccount[accounts.size()]);
     }
     
     public static int numberOfPersistentAccounts() {
-        return persistentAccounts.size();
+        return accounts().size();
     }
 
     /**
@@ -953,7 +1019,7 @@ public class MyAccount implements AccountDataReader {
 
         boolean found = false;
         String possiblyUnique = getUsername();
-        for (MyAccount persistentAccount : persistentAccounts) {
+        for (MyAccount persistentAccount : accounts()) {
             if (!persistentAccount.toString().equalsIgnoreCase(toString()) ) {
                 if (persistentAccount.getUsername().equalsIgnoreCase(possiblyUnique) ) {
                     found = true;
@@ -966,7 +1032,7 @@ public class MyAccount implements AccountDataReader {
             int indAt = uniqueName.indexOf("@");
             if (indAt > 0) {
                 possiblyUnique = uniqueName.substring(0, indAt);
-                for (MyAccount persistentAccount : persistentAccounts) {
+                for (MyAccount persistentAccount : accounts()) {
                     if (!persistentAccount.toString().equalsIgnoreCase(toString()) ) {
                         String toCompareWith = persistentAccount.getUsername();
                         indAt = toCompareWith.indexOf("@");
@@ -989,22 +1055,51 @@ public class MyAccount implements AccountDataReader {
     
     /**
      * Initialize the class. Required before first call to other methods.
+     * Accounts themselves are loaded later, on first use
      */
     public static synchronized void initialize(Context context) {
         forget();
+        accountsContext = context;
         defaultAccountName = MyPreferences.getDefaultSharedPreferences().getString(KEY_DEFAULT_ACCOUNT_NAME, "");
+    }
 
-        android.accounts.AccountManager am = AccountManager.get(context);
-        android.accounts.Account[] aa = am.getAccountsByType( AuthenticatorService.ANDROID_ACCOUNT_TYPE );
-        for (android.accounts.Account account : aa) {
-            MyAccount ma = new Builder(account).getAccount();
-            if (ma.isValid()) {
-                persistentAccounts.add(ma);
-            } else {
-                Log.e(TAG, "The account is not valid: " + ma);
+    /**
+     * Load all accounts from the AccountManager.
+     * Doesn't lock the class, so it may be done while {@link MyPreferences} are being initialized
+     */
+    private static void load() {
+        synchronized (loadLock) {
+            if (accountsLoaded) {
+                return;
             }
+            long startedAt = StartupTrace.begin();
+            long generation = loadGeneration;
+            Context context = accountsContext;
+            if (context == null) {
+                context = MyPreferences.getContext();
+            }
+            if (context == null) {
+                Log.e(TAG, "load - Was not initialized yet");
+                return;
+            }
+            List<MyAccount> accounts = new ArrayList<MyAccount>();
+            android.accounts.AccountManager am = AccountManager.get(context);
+            android.accounts.Account[] aa = am.getAccountsByType( AuthenticatorService.ANDROID_ACCOUNT_TYPE );
+            for (android.accounts.Account account : aa) {
+                MyAccount ma = new Builder(account).getAccount();
+                if (ma.isValid()) {
+                    accounts.add(ma);
+                } else {
+                    Log.e(TAG, "The account is not valid: " + ma);
+                }
+            }
+            if (generation == loadGeneration) {
+                registry = AccountRegistry.fromList(accounts);
+                accountsLoaded = true;
+            }
+            StartupTrace.end("MyAccount.load", startedAt);
+            MyLog.v(TAG, "Account list initialized, " + accounts.size() + " accounts");
         }
-        MyLog.v(TAG, "Account list initialized, " + persistentAccounts.size() + " accounts");
     }
 
     private boolean isValid() {
@@ -1020,14 +1115,7 @@ public class MyAccount implements AccountDataReader {
      * @return null if not found
      */
     public static MyAccount fromUserId(long userId) {
-        MyAccount ma = null;
-        for (MyAccount persistentAccount : persistentAccounts) {
-            if (persistentAccount.getUserId() == userId) {
-                ma = persistentAccount;
-                break;
-            }
-        }
-        return ma;
+        return registry().fromUserId(userId);
     }
 
     /**
@@ -1037,11 +1125,9 @@ public class MyAccount implements AccountDataReader {
      */
     public static MyAccount findFirstMyAccountByOriginId(long originId) {
         MyAccount ma = null;
-        for (MyAccount persistentAccount : persistentAccounts) {
-            if (persistentAccount.getOriginId() == originId) {
-                ma = persistentAccount;
-                break;
-            }
+        List<MyAccount> accounts = registry().ofOrigin(originId);
+        if (!accounts.isEmpty()) {
+            ma = accounts.get(0);
         }
         return ma;
     }
@@ -1087,12 +1173,7 @@ public class MyAccount implements AccountDataReader {
             return myAccount;
         }
 
-        for (MyAccount persistentAccount : persistentAccounts) {
-            if (persistentAccount.getAccountName().compareTo(accountName.toString()) == 0) {
-                myAccount = persistentAccount;
-                break;
-            }
-        }
+        myAccount = registry().fromAccountName(accountName.toString());
         if (myAccount == null) {
             // Try to find persisted Account which was not loaded yet
             if (!TextUtils.isEmpty(accountName.toString())) {
@@ -1102,7 +1183,9 @@ public class MyAccount implements AccountDataReader {
                 for (android.accounts.Account androidAccount : androidAccounts) {
                     if (accountName.compareTo(androidAccount.name) == 0) {
                         myAccount = new Builder(androidAccount).getAccount();
-                        persistentAccounts.add(myAccount);
+                        synchronized (loadLock) {
+                            registry = registry.withAccount(myAccount);
+                        }
                         if (!MyPreferences.isUpgrading()) {
                             MyPreferences.onPreferencesChanged();
                         }
@@ -1124,7 +1207,7 @@ public class MyAccount implements AccountDataReader {
 
         // Delete the User's object from the list
         boolean found = false;
-        for (MyAccount persistentAccount : persistentAccounts) {
+        for (MyAccount persistentAccount : accounts()) {
             if (persistentAccount.equals(ma)) {
                 found = true;
                 break;
@@ -1134,7 +1217,9 @@ public class MyAccount implements AccountDataReader {
             new Builder(ma).deleteData();
 
             // And delete the object from the list
-            persistentAccounts.remove(ma);
+            synchronized (loadLock) {
+                registry = registry.withoutAccount(ma);
+            }
 
             isDeleted = true;
             MyPreferences.onPreferencesChanged();
@@ -1166,7 +1251,7 @@ public class MyAccount implements AccountDataReader {
     
     public static void onMyPreferencesChanged() {
         long syncFrequencySeconds = MyPreferences.getSyncFrequencySeconds();
-        for (MyAccount persistentAccount : persistentAccounts) {
+        for (MyAccount persistentAccount : accounts()) {
             Builder builder = new Builder(persistentAccount);
             builder.myAccount.syncFrequencySeconds = syncFrequencySeconds;
             builder.save();
@@ -1263,6 +1348,24 @@ public class MyAccount implements AccountDataReader {
         return isOAuth;
     }
 
+    /**
+     * @return true if streaming is turned on for this account and its Connection supports it
+     */
+    public boolean isStreaming() {
+        return isStreaming && canStream();
+    }
+
+    public boolean canStream() {
+        return getConnection().isApiSupported(ApiRoutineEnum.STATUSES_USER_STREAM);
+    }
+
+    /**
+     * @return true if the system periodically syncs this account, see {@link org.andstatus.app.syncadapter.SyncAdapter}
+     */
+    public boolean isSyncedAutomatically() {
+        return isPersistent() && ContentResolver.getSyncAutomatically(androidAccount, MyProvider.AUTHORITY);
+    }
+
     public String getPassword() {
         return getConnection().getPassword();
     }
@@ -1310,24 +1413,16 @@ public class MyAccount implements AccountDataReader {
     }
     
     public int accountsOfThisOrigin() {
-        int count = 0;
-        for (MyAccount persistentAccount : persistentAccounts) {
-            if (persistentAccount.getOriginId() == this.getOriginId()) {
-                count++;
-            }
-        }
-        return count;
+        return registry().ofOrigin(this.getOriginId()).size();
     }
     
     /**
      * @return this account if there are no others
      */
     public MyAccount firstOtherAccountOfThisOrigin() {
-        for (MyAccount persistentAccount : persistentAccounts) {
-            if (persistentAccount.getOriginId() == this.getOriginId()) {
-                if (persistentAccount != this) {
-                    return persistentAccount;
-                }
+        for (MyAccount persistentAccount : registry().ofOrigin(this.getOriginId())) {
+            if (persistentAccount != this) {
+                return persistentAccount;
             }
         }
         return this;
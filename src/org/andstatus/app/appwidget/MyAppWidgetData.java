@@ -22,6 +22,8 @@ import android.util.Log;
 
 import org.andstatus.app.R;
 import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.data.ReadMarker;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SharedPreferencesUtil;
 
@@ -44,12 +46,6 @@ public class MyAppWidgetData {
 	 * */
 	public static final String PREFS_FILE_NAME = TAG;
 
-	/**
-	 * Key to store number of new tweets received
-	 */
-	private static final String PREF_NUM_HOME_TIMELINE_KEY = "num_messages";
-	private static final String PREF_NUM_MENTIONS_KEY = "num_mentions";
-	private static final String PREF_NUM_DIRECTMESSAGES_KEY = "num_directmessages";
 	/**
 	 * Words shown in a case there is nothing new
 	 */
@@ -71,8 +67,10 @@ public class MyAppWidgetData {
 
 	public String nothingPref = "";
 
-	// Numbers of new Messages accumulated
-	// TODO: GETTER AND SETTER METHODS, REMEMBER "OLD VALUE"...
+	/**
+	 * Numbers of unread messages of all accounts, they are not stored in the preferences:
+	 * they are read from the database, see {@link ReadMarker}
+	 */
 	public int numHomeTimeline = 0;
 	public int numMentions = 0;
 	public int numDirectMessages = 0;
@@ -97,17 +95,22 @@ public class MyAppWidgetData {
 	}
 
 	/**
-	 * Clear counters
+	 * Clear counters: the period of counting starts now, the numbers are those,
+	 * which are left unread
 	 */
 	public void clearCounters() {
-		numMentions = 0;
-		numDirectMessages = 0;
-		numHomeTimeline = 0;
+		loadCounters();
 		// New Tweets etc. will be since dateChecked ! 
 		dateCleared = dateChecked;
 		changed = true;
 	}
 
+	private void loadCounters() {
+		numHomeTimeline = ReadMarker.getUnreadCount(0, TimelineTypeEnum.HOME);
+		numMentions = ReadMarker.getUnreadCount(0, TimelineTypeEnum.MENTIONS);
+		numDirectMessages = ReadMarker.getUnreadCount(0, TimelineTypeEnum.DIRECT);
+	}
+
 	/**
 	 * Are there any new messages in any of timelines
 	 * @return
@@ -147,9 +150,7 @@ public class MyAppWidgetData {
 			if (dateChecked == 0) {
 				clearCounters();
 			} else {
-				numHomeTimeline = prefs.getInt(PREF_NUM_HOME_TIMELINE_KEY, 0);
-				numMentions = prefs.getInt(PREF_NUM_MENTIONS_KEY, 0);
-				numDirectMessages = prefs.getInt(PREF_NUM_DIRECTMESSAGES_KEY, 0);
+				loadCounters();
 	            dateCleared = prefs.getLong(PREF_DATECLEARED_KEY, 0);
 			}
 
@@ -174,10 +175,7 @@ public class MyAppWidgetData {
 				Log.e(TAG, "Prefs Editor was not loaded");
 			} else {
 				prefs.putString(PREF_NOTHING_KEY, nothingPref);
-				prefs.putInt(PREF_NUM_HOME_TIMELINE_KEY, numHomeTimeline);
-				prefs.putInt(PREF_NUM_MENTIONS_KEY, numMentions);
-				prefs.putInt(PREF_NUM_DIRECTMESSAGES_KEY, numDirectMessages);
-				
+
                 prefs.putLong(PREF_DATECHECKED_KEY, dateChecked);
 				prefs.putLong(PREF_DATECLEARED_KEY, dateCleared);
 				prefs.commit();
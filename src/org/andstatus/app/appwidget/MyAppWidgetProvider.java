@@ -221,21 +221,13 @@ public class MyAppWidgetProvider extends AppWidgetProvider {
 		        if (MyService.updateWidgetsOnEveryUpdate || (numSomethingReceived != 0)) {
                     data.changed = true;
 		        }
-				// Calculate new values
+				// The numbers of unread messages are loaded with the data,
+				// so we don't add numbers of received messages here
 				switch (msgType) {
 				case NOTIFY_MENTIONS:
-					data.numMentions += numSomethingReceived;
-					data.checked();
-					break;
-		
 				case NOTIFY_DIRECT_MESSAGE:
-					data.numDirectMessages += numSomethingReceived;
-                    data.checked();
-					break;
-		
 				case NOTIFY_HOME_TIMELINE:
-					data.numHomeTimeline += numSomethingReceived;
-                    data.checked();
+					data.checked();
 					break;
 		
 				case NOTIFY_CLEAR:
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.StyleSpan;
+import android.text.style.URLSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Links, mentions and hashtags of a message body. They are found once, when the message is stored
+ * (see {@link MyDatabase.Msg#BODY_ENTITIES}), so showing the message only applies ready spans.
+ * <p>
+ * The entities are stored as a compact string: one entry per entity, separated by ';',
+ * each entry is a type character ({@link #LINK}, {@link #MENTION} or {@link #HASHTAG})
+ * followed by the start and the end offsets in the body, e.g. "l0,23;m24,30;h31,40"
+ * @author yvolk@yurivolkov.com
+ */
+public final class BodyEntities {
+    public static final char LINK = 'l';
+    public static final char MENTION = 'm';
+    public static final char HASHTAG = 'h';
+    private static final String TRAILING_PUNCTUATION = ".,;:!?'\"";
+
+    private BodyEntities() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return "" if the body has no entities
+     */
+    public static String extract(String body) {
+        if (body == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        int len = body.length();
+        int ind = 0;
+        while (ind < len) {
+            int end = ind;
+            char type = 0;
+            if (isWordStart(body, ind)) {
+                char c = body.charAt(ind);
+                if (c == '@') {
+                    end = mentionEnd(body, ind + 1);
+                    type = MENTION;
+                } else if (c == '#') {
+                    end = hashtagEnd(body, ind + 1);
+                    type = HASHTAG;
+                } else if (c == 'h' || c == 'H' || c == 'w' || c == 'W') {
+                    end = linkEnd(body, ind);
+                    type = LINK;
+                }
+            }
+            if (end > ind) {
+                if (builder.length() > 0) {
+                    builder.append(';');
+                }
+                builder.append(type).append(ind).append(',').append(end);
+                ind = end;
+            } else {
+                ind++;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param entities As returned by {@link #extract(String)}
+     * @return Mentioned names without leading "@", in the order they appear in the body
+     */
+    public static List<String> mentions(String body, String entities) {
+        return entitiesOfType(body, entities, MENTION);
+    }
+
+    /**
+     * @param entities As returned by {@link #extract(String)}
+     * @return Distinct tags of the body, see {@link #toTag(String)}, in the order they appear in the body
+     */
+    public static List<String> hashtags(String body, String entities) {
+        List<String> tags = new ArrayList<String>();
+        for (String hashtag : entitiesOfType(body, entities, HASHTAG)) {
+            String tag = toTag(hashtag);
+            if (!tags.contains(tag)) {
+                tags.add(tag);
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * @return true if the whole text is one hashtag, e.g. the search query "#AndStatus"
+     */
+    public static boolean isHashtag(String text) {
+        if (text == null) {
+            return false;
+        }
+        String trimmed = text.trim();
+        return trimmed.length() > 1
+                && extract(trimmed).equals(HASHTAG + "0," + trimmed.length());
+    }
+
+    /**
+     * The form of a hashtag, in which it is stored in the {@link MyDatabase.MsgTag} table,
+     * so "#AndStatus" and "andstatus" are the same tag
+     * @return "" for null
+     */
+    public static String toTag(String hashtag) {
+        if (hashtag == null) {
+            return "";
+        }
+        String tag = hashtag.trim();
+        if (tag.startsWith("#")) {
+            tag = tag.substring(1);
+        }
+        return tag.toLowerCase(Locale.US);
+    }
+
+    /**
+     * @return Texts of the entities without the leading type character ("@" or "#")
+     */
+    private static List<String> entitiesOfType(String body, String entities, char entityType) {
+        List<String> names = new ArrayList<String>();
+        if (body == null || entities == null) {
+            return names;
+        }
+        int len = entities.length();
+        int pos = 0;
+        while (pos < len) {
+            int comma = entities.indexOf(',', pos);
+            int next = entities.indexOf(';', pos);
+            if (next < 0) {
+                next = len;
+            }
+            if (comma < 0 || comma > next) {
+                break;
+            }
+            if (entities.charAt(pos) == entityType) {
+                int start = parseInt(entities, pos + 1, comma);
+                int end = parseInt(entities, comma + 1, next);
+                if (start >= 0 && end > start + 1 && end <= body.length()) {
+                    names.add(body.substring(start + 1, end));
+                }
+            }
+            pos = next + 1;
+        }
+        return names;
+    }
+
+    private static boolean isWordStart(String body, int ind) {
+        if (ind == 0) {
+            return true;
+        }
+        char prev = body.charAt(ind - 1);
+        return !Character.isLetterOrDigit(prev) && prev != '_' && prev != '@' && prev != '#' && prev != '/';
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * "@name" or "@name@host" (Pump.io webfinger address)
+     * @return start, if this is not a mention
+     */
+    private static int mentionEnd(String body, int start) {
+        int end = start;
+        while (end < body.length() && (isNameChar(body.charAt(end)) || body.charAt(end) == '.')) {
+            end++;
+        }
+        if (end < body.length() && body.charAt(end) == '@') {
+            int hostEnd = end + 1;
+            while (hostEnd < body.length() && (isNameChar(body.charAt(hostEnd)) || body.charAt(hostEnd) == '.'
+                    || body.charAt(hostEnd) == '-')) {
+                hostEnd++;
+            }
+            if (hostEnd > end + 1) {
+                end = hostEnd;
+            }
+        }
+        while (end > start && body.charAt(end - 1) == '.') {
+            end--;
+        }
+        return (end > start ? end : start - 1);
+    }
+
+    /**
+     * @return start, if this is not a hashtag: there should be at least one letter
+     */
+    private static int hashtagEnd(String body, int start) {
+        int end = start;
+        boolean hasLetter = false;
+        while (end < body.length() && (Character.isLetterOrDigit(body.charAt(end)) || body.charAt(end) == '_')) {
+            if (!Character.isDigit(body.charAt(end))) {
+                hasLetter = true;
+            }
+            end++;
+        }
+        return (hasLetter ? end : start - 1);
+    }
+
+    /**
+     * "http://...", "https://..." or "www...."
+     * @return start, if this is not a link
+     */
+    private static int linkEnd(String body, int start) {
+        int prefixLength;
+        if (body.regionMatches(true, start, "http://", 0, 7)) {
+            prefixLength = 7;
+        } else if (body.regionMatches(true, start, "https://", 0, 8)) {
+            prefixLength = 8;
+        } else if (body.regionMatches(true, start, "www.", 0, 4)) {
+            prefixLength = 4;
+        } else {
+            return start;
+        }
+        int end = start + prefixLength;
+        boolean hasOpeningBracket = false;
+        while (end < body.length() && !Character.isWhitespace(body.charAt(end)) && body.charAt(end) != '<'
+                && body.charAt(end) != '>') {
+            if (body.charAt(end) == '(') {
+                hasOpeningBracket = true;
+            }
+            end++;
+        }
+        while (end > start + prefixLength) {
+            char c = body.charAt(end - 1);
+            if (TRAILING_PUNCTUATION.indexOf(c) >= 0 || (c == ')' && !hasOpeningBracket)) {
+                end--;
+            } else {
+                break;
+            }
+        }
+        return (end > start + prefixLength ? end : start);
+    }
+
+    /**
+     * @param entities As returned by {@link #extract(String)}. If null, they are extracted now
+     * @return The body with spans: links are clickable, mentions and hashtags are bold
+     */
+    public static Spannable toSpannable(String body, String entities) {
+        SpannableString spannable = new SpannableString(body == null ? "" : body);
+        if (body == null) {
+            return spannable;
+        }
+        if (entities == null) {
+            entities = extract(body);
+        }
+        int len = entities.length();
+        int pos = 0;
+        while (pos < len) {
+            char type = entities.charAt(pos);
+            int comma = entities.indexOf(',', pos);
+            int next = entities.indexOf(';', pos);
+            if (next < 0) {
+                next = len;
+            }
+            if (comma < 0 || comma > next) {
+                break;
+            }
+            int start = parseInt(entities, pos + 1, comma);
+            int end = parseInt(entities, comma + 1, next);
+            pos = next + 1;
+            if (start < 0 || end <= start || end > body.length()) {
+                continue;
+            }
+            switch (type) {
+                case LINK:
+                    String url = body.substring(start, end);
+                    if (url.regionMatches(true, 0, "www.", 0, 4)) {
+                        url = "http://" + url;
+                    }
+                    spannable.setSpan(new URLSpan(url), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    break;
+                case MENTION:
+                case HASHTAG:
+                    spannable.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return spannable;
+    }
+
+    /**
+     * @return -1 if not a number
+     */
+    private static int parseInt(String text, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        int value = 0;
+        for (int ind = start; ind < end; ind++) {
+            char c = text.charAt(ind);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -16,26 +16,37 @@
 
 package org.andstatus.app.data;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.andstatus.app.MessageCounters;
+import org.andstatus.app.account.AccountRegistry;
 import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.data.MyDatabase;
 import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgTag;
 import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.net.MbMessage;
 import org.andstatus.app.net.MbUser;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
 import org.andstatus.app.util.SharedPreferencesUtil;
 import org.andstatus.app.util.TriState;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.provider.BaseColumns;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -47,9 +58,23 @@ import android.util.Log;
  */
 public class DataInserter {
     private static final String TAG = DataInserter.class.getSimpleName();
+    private static final MyMetrics.Latency msgLatency = MyMetrics.latency("inserter.msg");
+    private static final MyMetrics.Counter skippedWrites = MyMetrics.counter("inserter.skipped");
 
     private ContentResolver mContentResolver;
     private MessageCounters counters;
+    /**
+     * Values, written by this inserter (usually - during one downloaded page), by message id.
+     * The same message and the same sender are met in a page many times
+     */
+    private final Map<Long, ContentValues> writtenMsgs = new HashMap<Long, ContentValues>();
+    private final Map<Long, ContentValues> writtenUsers = new HashMap<Long, ContentValues>();
+    /**
+     * The transaction of the page and statements, compiled for its first message, see {@link #beginPage()}
+     */
+    private SQLiteDatabase pageDb = null;
+    private SQLiteStatement insertTag = null;
+    private ReadMarker.PageCounter readMarker = null;
 
     public DataInserter(MyAccount ma, Context context, TimelineTypeEnum timelineType) {
         this(new MessageCounters(ma, context, timelineType));
@@ -60,8 +85,54 @@ public class DataInserter {
         mContentResolver = counters.context.getContentResolver();
     }
     
+    /**
+     * Messages of one downloaded page are written in one transaction between this and {@link #endPage()},
+     * so statements, compiled once, are reused for all of them.
+     * Without the page, each message is written as a page of its own
+     */
+    public void beginPage() {
+        pageDb = MyPreferences.getDatabase().getWritableDatabase();
+        pageDb.beginTransaction();
+        readMarker = new ReadMarker.PageCounter(pageDb);
+    }
+
+    /**
+     * Should be called in "finally" after {@link #beginPage()}.
+     * Messages, stored before an error or a cancellation, are committed also
+     */
+    public void endPage() {
+        if (pageDb == null) {
+            return;
+        }
+        if (insertTag != null) {
+            insertTag.releaseReference();
+            insertTag = null;
+        }
+        readMarker.release();
+        readMarker = null;
+        try {
+            pageDb.setTransactionSuccessful();
+        } finally {
+            pageDb.endTransaction();
+            pageDb = null;
+        }
+    }
+
     public long insertOrUpdateMsg(MbMessage message, LatestUserMessages lum) throws SQLiteConstraintException {
-        return insertOrUpdateMsgBySender(message, lum, 0);
+        boolean isOwnPage = (pageDb == null);
+        if (isOwnPage) {
+            beginPage();
+        }
+        try {
+            long startedAt = MyMetrics.now();
+            long rowId = insertOrUpdateMsgBySender(message, lum, 0);
+            msgLatency.since(startedAt);
+            return rowId;
+        } finally {
+            if (isOwnPage) {
+                endPage();
+            }
+        }
     }
     
     private long insertOrUpdateMsgBySender(MbMessage message, LatestUserMessages lum, long senderId_in) throws SQLiteConstraintException {
@@ -186,6 +257,12 @@ public class DataInserter {
                 }
                 
                 String body = message.body;
+                // Found once and used both to store and to find mentioned accounts
+                String bodyEntities = BodyEntities.extract(body);
+                /**
+                 * Flags of this message for other accounts of the same Originating system
+                 */
+                Map<Long, ContentValues> otherAccountsValues = new HashMap<Long, ContentValues>();
 
                 if (isNew) {
                     values.put(MyDatabase.Msg.CREATED_DATE, createdDate);
@@ -199,6 +276,7 @@ public class DataInserter {
                     values.put(MyDatabase.Msg.MSG_OID, rowOid);
                     values.put(MyDatabase.Msg.ORIGIN_ID, counters.ma.getOriginId());
                     values.put(MyDatabase.Msg.BODY, body);
+                    values.put(MyDatabase.Msg.BODY_ENTITIES, bodyEntities);
                 }
                 if (isNewer) {
                     // Remember the latest sent date in order to see the reblogged message 
@@ -217,6 +295,8 @@ public class DataInserter {
                         values.put(MyDatabase.MsgOfUser.DIRECTED, 1);
                         MyLog.v(TAG, "Message '" + message.oid + "' is Directed to " 
                                 + counters.ma.getAccountName() );
+                    } else if (isOtherAccount(recipientId)) {
+                        otherAccountValues(otherAccountsValues, recipientId).put(MyDatabase.MsgOfUser.DIRECTED, 1);
                     }
                 }
                 boolean mentioned = (counters.timelineType == TimelineTypeEnum.MENTIONS);
@@ -240,9 +320,7 @@ public class DataInserter {
                         }
 
                         if (message.inReplyToMessage != null) {
-                            // Type of the timeline is ALL meaning that message does not belong to this timeline
-                            DataInserter di = new DataInserter(counters);
-                            inReplyToMessageId = di.insertOrUpdateMsg(message.inReplyToMessage, lum);
+                            inReplyToMessageId = insertOrUpdateMsg(message.inReplyToMessage, lum);
                             if (message.inReplyToMessage.sender != null) {
                                 inReplyToUserId = MyProvider.oidToId(OidEnum.USER_OID, message.originId, message.inReplyToMessage.sender.oid);
                             } else if (inReplyToMessageId != 0) {
@@ -260,6 +338,10 @@ public class DataInserter {
                                 // We consider a Reply to be a Mention also?! 
                                 // ...Yes, at least as long as we don't have "Replies" timeline type 
                                 mentioned = true;
+                            } else if (isOtherAccount(inReplyToUserId)) {
+                                ContentValues otherValues = otherAccountValues(otherAccountsValues, inReplyToUserId);
+                                otherValues.put(MyDatabase.MsgOfUser.REPLIED, 1);
+                                otherValues.put(MyDatabase.MsgOfUser.MENTIONED, 1);
                             }
                         }
                         if (inReplyToMessageId != 0) {
@@ -270,14 +352,17 @@ public class DataInserter {
                 if (countIt) { 
                     counters.newMessagesCount++;
                     }
-                if (body.length() > 0) {
-                    if (!mentioned) {
-                        // Check if current user was mentioned in the text of the message
-                        if (body.length() > 0) {
-                            if (body.contains("@" + counters.ma.getUsername())) {
-                                mentioned = true;
-                            }
-                        }
+                // All accounts of this Originating system, mentioned in the text of the message
+                AccountRegistry accounts = MyAccount.registry();
+                for (String name : BodyEntities.mentions(body, bodyEntities)) {
+                    MyAccount mentionedAccount = accounts.fromMentionedName(counters.ma.getOriginId(), name);
+                    if (mentionedAccount == null) {
+                        continue;
+                    }
+                    if (mentionedAccount.getUserId() == counters.ma.getUserId()) {
+                        mentioned = true;
+                    } else {
+                        otherAccountValues(otherAccountsValues, mentionedAccount.getUserId()).put(MyDatabase.MsgOfUser.MENTIONED, 1);
                     }
                 }
                 if (mentioned) {
@@ -293,12 +378,40 @@ public class DataInserter {
                             + (isNew ? " new;" : "") 
                             + (isNewer ? " newer, sent at " + new Date(sentDate).toString() + ";" : "") );
                 }
+                // Before the write: the stored flags tell, whether the message is new for the timelines
+                readMarker.onMsgAdded(counters.ma.getUserId(), values, rowId, senderId, Math.max(sentDate, sentDate_stored));
+                for (Map.Entry<Long, ContentValues> entry : otherAccountsValues.entrySet()) {
+                    readMarker.onMsgAdded(entry.getKey(), entry.getValue(), rowId, senderId, Math.max(sentDate, sentDate_stored));
+                }
+                // The provider moves some of the values to other tables, so we remember a copy
+                ContentValues writtenValues = new ContentValues(values);
+                boolean isWritten = true;
                 if (rowId == 0) {
                     // There was no such row so add the new one
                     msgUri = mContentResolver.insert(MyProvider.getTimelineUri(counters.ma.getUserId(), MyDatabase.TimelineTypeEnum.HOME, false), values);
                     rowId = MyProvider.uriToMessageId(msgUri);
+                    counters.itemsInserted++;
+                } else if (isUnchanged(writtenMsgs, rowId, values, MyDatabase.MSG_TABLE_NAME 
+                        + " LEFT JOIN " + MyDatabase.MSGOFUSER_TABLE_NAME + " ON " 
+                        + MyDatabase.MSGOFUSER_TABLE_NAME + "." + MyDatabase.MsgOfUser.MSG_ID + "=" + rowId + " AND "
+                        + MyDatabase.MSGOFUSER_TABLE_NAME + "." + MyDatabase.MsgOfUser.USER_ID + "=" + counters.ma.getUserId()
+                        + " WHERE " + MyDatabase.MSG_TABLE_NAME + "." + BaseColumns._ID + "=" + rowId)) {
+                    onWriteSkipped("Message '" + message.oid + "'");
+                    isWritten = false;
                 } else {
                   mContentResolver.update(msgUri, values, null, null);
+                  counters.itemsUpdated++;
+                }
+                if (rowId != 0) {
+                    writtenMsgs.put(rowId, writtenValues);
+                    if (isWritten && (isNew || isNewer)) {
+                        saveTags(rowId, body, bodyEntities, isNew, Math.max(sentDate, sentDate_stored));
+                    }
+                    for (Map.Entry<Long, ContentValues> entry : otherAccountsValues.entrySet()) {
+                        MyLog.v(TAG, "Message '" + message.oid + "' " + entry.getValue().toString() + " for userId=" + entry.getKey());
+                        mContentResolver.update(MyProvider.getTimelineMsgUri(entry.getKey(), TimelineTypeEnum.ALL, false, rowId),
+                                entry.getValue(), null, null);
+                    }
                 }
                 
                 if (senderId != 0) {
@@ -320,6 +433,121 @@ public class DataInserter {
         return rowId;
     }
 
+    /**
+     * Tags of the new message, or the new sent date for the stored tags of the message,
+     * see {@link MyDatabase.MsgTag}
+     */
+    private void saveTags(long msgId, String body, String bodyEntities, boolean isNew, long sentDate) {
+        if (bodyEntities.indexOf(BodyEntities.HASHTAG) < 0) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+            if (isNew) {
+                if (insertTag == null) {
+                    insertTag = db.compileStatement("INSERT OR REPLACE INTO " + MyDatabase.MSG_TAG_TABLE_NAME
+                            + " (" + MsgTag.MSG_ID + ", " + MsgTag.TAG + ", " + MsgTag.SENT_DATE + ") VALUES (?, ?, ?)");
+                }
+                for (String tag : BodyEntities.hashtags(body, bodyEntities)) {
+                    insertTag.bindLong(1, msgId);
+                    insertTag.bindString(2, tag);
+                    insertTag.bindLong(3, sentDate);
+                    insertTag.execute();
+                }
+            } else {
+                db.execSQL("UPDATE " + MyDatabase.MSG_TAG_TABLE_NAME + " SET " + MsgTag.SENT_DATE + "=?"
+                        + " WHERE " + MsgTag.MSG_ID + "=?", new Object[] {sentDate, msgId});
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "saveTags: " + e.toString());
+        }
+    }
+
+    /**
+     * @return true if this is a User of another account of the same Originating system
+     */
+    private boolean isOtherAccount(long userId) {
+        if (userId == 0 || userId == counters.ma.getUserId()) {
+            return false;
+        }
+        MyAccount ma = MyAccount.registry().fromUserId(userId);
+        return ma != null && ma.getOriginId() == counters.ma.getOriginId();
+    }
+
+    private static ContentValues otherAccountValues(Map<Long, ContentValues> otherAccountsValues, long userId) {
+        ContentValues otherValues = otherAccountsValues.get(userId);
+        if (otherValues == null) {
+            otherValues = new ContentValues();
+            otherAccountsValues.put(userId, otherValues);
+        }
+        return otherValues;
+    }
+
+    /**
+     * Dirty check of the row before its update: the same values were already written by this inserter
+     * or they are equal to the stored ones.
+     * @param from The "FROM" and "WHERE" clauses, selecting the stored row,
+     *  which columns are named as the keys of the values
+     */
+    private boolean isUnchanged(Map<Long, ContentValues> written, long id, ContentValues values, String from) {
+        ContentValues writtenValues = written.get(id);
+        if (writtenValues != null && writtenValues.equals(values)) {
+            return true;
+        }
+        StringBuilder columns = new StringBuilder();
+        List<Object> expected = new ArrayList<Object>(values.size());
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(entry.getKey());
+            expected.add(entry.getValue());
+        }
+        if (expected.isEmpty()) {
+            return true;
+        }
+        boolean unchanged = false;
+        Cursor cursor = null;
+        try {
+            cursor = MyPreferences.getDatabase().getReadableDatabase().rawQuery(
+                    "SELECT " + columns.toString() + " FROM " + from, null);
+            if (cursor.moveToFirst()) {
+                unchanged = true;
+                for (int ind = 0; ind < expected.size(); ind++) {
+                    if (!TextUtils.equals(toStoredString(expected.get(ind)), cursor.getString(ind))) {
+                        unchanged = false;
+                        break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "isUnchanged: " + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * @return The value as SQLite returns it in a String column
+     */
+    private static String toStoredString(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? "1" : "0";
+        }
+        return value.toString();
+    }
+
+    private void onWriteSkipped(String what) {
+        counters.writesSkipped++;
+        skippedWrites.increment();
+        MyLog.v(TAG, what + " is unchanged, not written");
+    }
+
     public long insertOrUpdateUser(MbUser user) throws SQLiteConstraintException {
         LatestUserMessages lum = new LatestUserMessages();
         long userId = insertOrUpdateUser(user, lum);
@@ -403,13 +631,23 @@ public class DataInserter {
             
             // Construct the Uri to the User
             Uri userUri = MyProvider.getUserUri(counters.ma.getUserId(), userId);
+            ContentValues writtenValues = new ContentValues(values);
             if (userId == 0) {
                 // There was no such row so add new one
                 userUri = mContentResolver.insert(userUri, values);
                 userId = MyProvider.uriToUserId(userUri);
+            } else if (isUnchanged(writtenUsers, userId, values, MyDatabase.USER_TABLE_NAME 
+                    + " LEFT JOIN " + MyDatabase.FOLLOWING_USER_TABLE_NAME + " ON " 
+                    + MyDatabase.FOLLOWING_USER_TABLE_NAME + "." + MyDatabase.FollowingUser.FOLLOWING_USER_ID + "=" + userId + " AND "
+                    + MyDatabase.FOLLOWING_USER_TABLE_NAME + "." + MyDatabase.FollowingUser.USER_ID + "=" + counters.ma.getUserId()
+                    + " WHERE " + MyDatabase.USER_TABLE_NAME + "." + BaseColumns._ID + "=" + userId)) {
+                onWriteSkipped("User '" + userName + "'");
             } else {
               mContentResolver.update(userUri, values, null, null);
             }
+            if (userId != 0) {
+                writtenUsers.put(userId, writtenValues);
+            }
             if (mbUser.latestMessage != null) {
                 // This message doesn't have a sender!
                 insertOrUpdateMsgBySender(mbUser.latestMessage, lum, userId);
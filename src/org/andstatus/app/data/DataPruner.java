@@ -24,6 +24,7 @@ import android.provider.BaseColumns;
 import android.util.Log;
 
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
 import org.andstatus.app.util.SelectionAndArgs;
 
 /**
@@ -33,6 +34,9 @@ import org.andstatus.app.util.SelectionAndArgs;
 public class DataPruner {
     private static final String TAG = DataPruner.class.getSimpleName();
 
+    private static final MyMetrics.Latency pruneLatency = MyMetrics.latency("pruner.prune");
+    private static final MyMetrics.Counter deletedCounter = MyMetrics.counter("pruner.deleted");
+
     private ContentResolver mContentResolver;
     private int mDeleted = 0;
     
@@ -49,6 +53,7 @@ public class DataPruner {
      */
     public boolean prune() {
         boolean ok = true;
+        long startedAt = MyMetrics.now();
        
         mDeleted = 0;
         int nDeletedTime = 0;
@@ -71,6 +76,9 @@ public class DataPruner {
         int nDeletedSize = 0;
         int maxSize = Integer.parseInt(sp.getString(MyPreferences.KEY_HISTORY_SIZE, "2000"));
         long sinceTimestampSize = 0;
+        // Unread counts are decreased together with the deletion
+        SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+        db.beginTransaction();
         try {
             if (maxDays > 0) {
                 sinceTimestamp = System.currentTimeMillis() - maxDays * (1000L * 60 * 60 * 24);
@@ -111,11 +119,19 @@ public class DataPruner {
                     }
                 }
             }
+            if (nDeletedTime + nDeletedSize > 0) {
+                ReadMarker.recount(db);
+            }
+            db.setTransactionSuccessful();
         } catch (Exception e) {
             Log.e(TAG, "pruneOldRecords failed");
             e.printStackTrace();
+        } finally {
+            db.endTransaction();
         }
         mDeleted = nDeletedTime + nDeletedSize;
+        pruneLatency.since(startedAt);
+        deletedCounter.add(mDeleted);
         if (MyLog.isLoggable(TAG, Log.VERBOSE)) {
             Log.v(TAG,
                     "pruneOldRecords; History time=" + maxDays + " days; deleted " + nDeletedTime
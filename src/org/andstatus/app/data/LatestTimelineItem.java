@@ -16,16 +16,18 @@
 
 package org.andstatus.app.data;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.provider.BaseColumns;
-import android.text.TextUtils;
 import android.util.Log;
 
+import org.andstatus.app.data.MyDatabase.TimelineState;
 import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.net.TimelinePosition;
 import org.andstatus.app.util.MyLog;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -70,16 +72,77 @@ public class LatestTimelineItem {
             throw new IllegalArgumentException(TAG + ": userId==0");
         }
         
-        timelineDownloadedDate = MyProvider.userIdToLongColumnValue(timelineType.columnNameTimelineDate(), userId);
-        if (!TextUtils.isEmpty(timelineType.columnNameLatestTimelinePosition())) {
-            position = new TimelinePosition(MyProvider.userIdToStringColumnValue(timelineType.columnNameLatestTimelinePosition(), userId));
-            timelineItemDate = MyProvider.userIdToLongColumnValue(timelineType.columnNameLatestTimelineItemDate(), userId);
-            if (timelineItemDate == 0) {
-                position = TimelinePosition.getEmpty();
+        load();
+    }
+
+    /**
+     * The state is read with one query from the {@link MyDatabase#TIMELINE_STATE_TABLE_NAME} table,
+     * there may be no row yet
+     */
+    private void load() {
+        String sql = "SELECT " + TimelineState.DOWNLOADED_DATE
+                + ", " + TimelineState.POSITION
+                + ", " + TimelineState.ITEM_DATE
+                + " FROM " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                + " WHERE " + TimelineState.USER_ID + "=" + userId
+                + " AND " + TimelineState.TIMELINE_TYPE + "=?";
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
+            cursor = db.rawQuery(sql, new String[] {timelineType.stateKey()});
+            if (cursor.moveToFirst()) {
+                timelineDownloadedDate = cursor.getLong(0);
+                if (timelineType.hasPosition()) {
+                    timelineItemDate = cursor.getLong(2);
+                    if (timelineItemDate != 0 && !cursor.isNull(1)) {
+                        position = new TimelinePosition(cursor.getString(1));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "load: sql=" + sql + "; error=" + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
         }
     }
     
+    /**
+     * The latest {@link #getTimelineDownloadedDate()} of any of these timelines for each User,
+     * read with one query for all Users
+     * @return Dates by User id, Users without downloaded timelines are absent
+     */
+    public static Map<Long, Long> getTimelinesDownloadedDates(TimelineTypeEnum... timelineTypes) {
+        Map<Long, Long> dates = new HashMap<Long, Long>();
+        StringBuilder types = new StringBuilder();
+        String[] selectionArgs = new String[timelineTypes.length];
+        for (int ind = 0; ind < timelineTypes.length; ind++) {
+            types.append(ind == 0 ? "?" : ", ?");
+            selectionArgs[ind] = timelineTypes[ind].stateKey();
+        }
+        String sql = "SELECT " + TimelineState.USER_ID
+                + ", MAX(" + TimelineState.DOWNLOADED_DATE + ")"
+                + " FROM " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                + " WHERE " + TimelineState.TIMELINE_TYPE + " IN (" + types + ")"
+                + " GROUP BY " + TimelineState.USER_ID;
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
+            cursor = db.rawQuery(sql, selectionArgs);
+            while (cursor.moveToNext()) {
+                dates.put(cursor.getLong(0), cursor.getLong(1));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "getTimelinesDownloadedDates: sql=" + sql + "; error=" + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return dates;
+    }
+
     /**
      * @return Id of the last downloaded message from this timeline
      */
@@ -122,8 +185,7 @@ public class LatestTimelineItem {
      * Persist the info into the Database
      */
     public void save() {
-        boolean changed = timelineDateChanged || 
-                (timelineItemChanged && !TextUtils.isEmpty(timelineType.columnNameLatestTimelinePosition()));
+        boolean changed = timelineDateChanged || (timelineItemChanged && timelineType.hasPosition());
         if (MyLog.isLoggable(TAG, Log.VERBOSE)) {
             MyLog.v(TAG, "Timeline " + timelineType.save() 
                     + " for the user=" + MyProvider.userIdToName(userId) 
@@ -136,27 +198,31 @@ public class LatestTimelineItem {
             return;
         }
 
-        String sql = "";
+        // The row also holds the read marker, see ReadMarker, so we update only our columns.
+        // The read marker of a new timeline is set to the download time,
+        // so messages, sent before the first download, are read, as in ReadMarker.PageCounter
+        String sql = "INSERT OR IGNORE INTO " + MyDatabase.TIMELINE_STATE_TABLE_NAME + " ("
+                + TimelineState.USER_ID + ", "
+                + TimelineState.TIMELINE_TYPE + ", "
+                + TimelineState.READ_DATE
+                + ") VALUES (?, ?, ?)";
         try {
-            if (timelineDateChanged) {
-                sql += timelineType.columnNameTimelineDate() + "=" + timelineDownloadedDate;
-            }
-            if (timelineItemChanged && !TextUtils.isEmpty(timelineType.columnNameLatestTimelinePosition())) {
-                if (!TextUtils.isEmpty(sql)) {
-                    sql += ", ";
-                }
-                sql += timelineType.columnNameLatestTimelinePosition() + "=" 
-                + MyProvider.quoteIfNotQuoted(position.getPosition()) + ", "
-                + timelineType.columnNameLatestTimelineItemDate() + "="
-                + timelineItemDate;
-                ;
-            }
-
-            sql = "UPDATE " + MyDatabase.USER_TABLE_NAME + " SET " + sql 
-                    + " WHERE " + BaseColumns._ID + "=" + userId;
-
-            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
-            db.execSQL(sql);
+            boolean hasPosition = timelineType.hasPosition();
+            SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+            db.execSQL(sql, new Object[] {
+                    userId, timelineType.stateKey(),
+                    timelineDownloadedDate == 0 ? System.currentTimeMillis() : timelineDownloadedDate
+            });
+            sql = "UPDATE " + MyDatabase.TIMELINE_STATE_TABLE_NAME + " SET "
+                    + TimelineState.POSITION + "=?, "
+                    + TimelineState.ITEM_DATE + "=?, "
+                    + TimelineState.DOWNLOADED_DATE + "=?"
+                    + " WHERE " + TimelineState.USER_ID + "=? AND " + TimelineState.TIMELINE_TYPE + "=?";
+            db.execSQL(sql, new Object[] {
+                    hasPosition ? position.getPosition() : "", hasPosition ? timelineItemDate : 0,
+                    timelineDownloadedDate,
+                    userId, timelineType.stateKey()
+            });
             
             timelineDateChanged = false;
             timelineItemChanged = false;
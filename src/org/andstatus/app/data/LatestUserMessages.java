@@ -16,6 +16,10 @@
 
 package org.andstatus.app.data;
 
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -25,6 +29,8 @@ import java.util.Map;
  * @author yvolk@yurivolkov.com
  */
 public class LatestUserMessages {
+    private static final String TAG = LatestUserMessages.class.getSimpleName();
+
     private Map<Long, UserMsg> messages;
     public LatestUserMessages() {
         messages = new HashMap<Long, UserMsg>();
@@ -50,14 +56,38 @@ public class LatestUserMessages {
     }
     
     /**
-     * Persist all information into the database
+     * Persist all information into the database: one statement, 
+     * executed for each changed entry, in one transaction
      * @return true if succeeded for all entries
      */
     public boolean save() {
-        boolean ok = true;
+        boolean changed = false;
         for (UserMsg um : messages.values()) {
-            if (!um.save()) {
-                ok = false;
+            if (um.isChanged()) {
+                changed = true;
+                break;
+            }
+        }
+        if (!changed) {
+            return true;
+        }
+        boolean ok = false;
+        SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+        SQLiteStatement statement = null;
+        db.beginTransaction();
+        try {
+            statement = db.compileStatement(UserMsg.UPDATE_SQL);
+            for (UserMsg um : messages.values()) {
+                um.save(statement);
+            }
+            db.setTransactionSuccessful();
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, "save: " + e.toString());
+        } finally {
+            db.endTransaction();
+            if (statement != null) {
+                statement.releaseReference();
             }
         }
         return ok;
@@ -42,6 +42,15 @@ public final class MyDatabase extends SQLiteOpenHelper  {
      * This is used to check (and upgrade if necessary) 
      * existing database after application update.
      * 
+     * v.19 2013-11-09 yvolk. TimelineGap table added: ranges of timelines, not downloaded yet
+     * v.18 2013-11-08 yvolk. TimelineState table extended with the read marker and the number of unread messages
+     * v.17 2013-11-07 yvolk. Indices of the Msg table by author and by sender, for timelines of a User
+     * v.16 2013-11-06 yvolk. MsgTag table added: hashtags of messages, to browse messages by tag
+     * v.15 2013-11-05 yvolk. TimelineState table instead of the columns of the User table,
+     *      holding the positions and dates of the timelines
+     * v.14 2013-11-04 yvolk. Msg table extended with entities of the body (links, mentions, hashtags),
+     *      "via" is stored as plain text
+     * v.13 2013-11-02 yvolk. SyncRun table added to keep statistics of timeline downloads
      * v.12 2013-08-30 yvolk. Adapting for Pump.Io
      * v.11 2013-05-18 yvolk. FollowingUser table added. User table extended with a column
      *      to store the date the list of Following users was loaded.
@@ -51,13 +60,17 @@ public final class MyDatabase extends SQLiteOpenHelper  {
      *      All messages are in the same table. 
      *      Allows to have multiple User Accounts in different Originating systems (twitter.com etc. ) 
      */
-    public static final int DATABASE_VERSION = 12;
+    public static final int DATABASE_VERSION = 19;
     public static final String DATABASE_NAME = "andstatus.sqlite";
 
 	public static final String MSG_TABLE_NAME = Msg.class.getSimpleName().toLowerCase(Locale.US);
 	public static final String MSGOFUSER_TABLE_NAME = MsgOfUser.class.getSimpleName().toLowerCase(Locale.US);
 	public static final String USER_TABLE_NAME = User.class.getSimpleName().toLowerCase(Locale.US);
     public static final String FOLLOWING_USER_TABLE_NAME = FollowingUser.class.getSimpleName().toLowerCase(Locale.US);
+    public static final String SYNC_RUN_TABLE_NAME = "sync_run";
+    public static final String TIMELINE_STATE_TABLE_NAME = "timeline_state";
+    public static final String TIMELINE_GAP_TABLE_NAME = "timeline_gap";
+    public static final String MSG_TAG_TABLE_NAME = "msg_tag";
 	
 	/**
 	 * Table for both public and direct messages 
@@ -118,10 +131,15 @@ public final class MyDatabase extends SQLiteOpenHelper  {
 		 * Text of the message ("TEXT" may be reserved word so it was renamed here)
 		 */
 		public static final String BODY = "body";
+        /**
+         * Offsets of links, mentions and hashtags in the {@link #BODY}, found when the message was stored,
+         * see {@link BodyEntities}. NULL if not computed yet
+         */
+        public static final String BODY_ENTITIES = "body_entities";
 		/**
 		 * String generally describing Client's software used to post this message
 		 * It's like "User Agent" string in the browsers?!: "via ..."
-		 * (This is "source" field in tweets)
+		 * (This is "source" field in tweets, we store it as plain text)
 		 */
 		public static final String VIA = "via";
         /**
@@ -135,7 +153,7 @@ public final class MyDatabase extends SQLiteOpenHelper  {
         public static final String IN_REPLY_TO_USER_ID = "in_reply_to_user_id";
         /**
          * Date and time when the row was created in the originating system.
-         * We store it as long returned by {@link java.util.Date#parse(String) }. 
+         * We store it as milliseconds since the epoch, see {@link org.andstatus.app.util.DateParser}. 
          * NULL means the row was not retrieved from the Internet yet
          */
 		public static final String CREATED_DATE = "msg_created_date";
@@ -213,6 +231,39 @@ public final class MyDatabase extends SQLiteOpenHelper  {
         public static final String DIRECTED = "directed";
     }
 
+    /**
+     * Hashtags of messages, found when the message was stored (see {@link BodyEntities#hashtags(String, String)}),
+     * one row per tag of a message. The (tag, sent date) index allows to read a timeline of one tag
+     * without scanning bodies of all messages.
+     */
+    public static final class MsgTag {
+        /**
+         * Top tags (e.g. for suggestions): {@link #TAG} and {@link #TAG_COUNT} columns,
+         * sorted by {@link #TOP_SORT_ORDER} by default. Selections like "tag_sent_date > ?" (recent tags)
+         * and "tag >= ? AND tag < ?" (tags, starting with the typed text) are read from the index only
+         */
+        public static final Uri CONTENT_URI = Uri.parse("content://" + MyProvider.AUTHORITY + "/" + MSG_TAG_TABLE_NAME);
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/org.andstatus.provider." + MSG_TAG_TABLE_NAME;
+
+        public static final String MSG_ID =  Msg.MSG_ID;
+        /**
+         * The tag in lower case, without leading "#"
+         */
+        public static final String TAG = "tag";
+        /**
+         * Copy of the {@link Msg#SENT_DATE} of the message
+         */
+        public static final String SENT_DATE = "tag_sent_date";
+
+        /**
+         * Derived column: number of messages with this tag
+         */
+        public static final String TAG_COUNT = "tag_count";
+
+        public static final String DEFAULT_SORT_ORDER = SENT_DATE + " DESC";
+        public static final String TOP_SORT_ORDER = TAG_COUNT + " DESC";
+    }
+
 	/**
 	 * Users table (they are both senders AND recipients in the {@link Msg} table)
 	 * Some of these Users are Accounts (connected to accounts in AndStatus), 
@@ -268,7 +319,7 @@ public final class MyDatabase extends SQLiteOpenHelper  {
         public static final String URL = "url";
         /**
          * Date and time when the row was created in the originating system.
-         * We store it as long returned by {@link java.util.Date#parse(String) }. 
+         * We store it as milliseconds since the epoch, see {@link org.andstatus.app.util.DateParser}. 
          * NULL means the row was not retrieved from the Internet yet
          * (And maybe there is no such User in the originating system...)
          */
@@ -278,30 +329,6 @@ public final class MyDatabase extends SQLiteOpenHelper  {
          */
         public static final String INS_DATE = "user_ins_date";
         
-        /**
-         * Columns holding information on timelines downloaded: 
-         * last message id and last date-time the timeline was downloaded. 
-         */
-        public static final String HOME_TIMELINE_POSITION = "home_timeline_position";
-        public static final String HOME_TIMELINE_ITEM_DATE = "home_timeline_item_date";
-        public static final String HOME_TIMELINE_DATE = "home_timeline_date";
-        public static final String FAVORITES_TIMELINE_POSITION = "favorites_timeline_position";
-        public static final String FAVORITES_TIMELINE_ITEM_DATE = "favorites_timeline_item_date";
-        public static final String FAVORITES_TIMELINE_DATE = "favorites_timeline_date";
-        public static final String DIRECT_TIMELINE_POSITION = "direct_timeline_position";
-        public static final String DIRECT_TIMELINE_ITEM_DATE = "direct_timeline_item_date";
-        public static final String DIRECT_TIMELINE_DATE = "direct_timeline_date";
-        public static final String MENTIONS_TIMELINE_POSITION = "mentions_timeline_position";
-        public static final String MENTIONS_TIMELINE_ITEM_DATE = "mentions_timeline_item_date";
-        public static final String MENTIONS_TIMELINE_DATE = "mentions_timeline_date";
-        public static final String USER_TIMELINE_POSITION = "user_timeline_position";
-        public static final String USER_TIMELINE_ITEM_DATE = "user_timeline_item_date";
-        public static final String USER_TIMELINE_DATE = "user_timeline_date";
-        /**
-         * For the list ("collection") of following users 
-         * we store only the date-time of the last retrieval of the list 
-         */
-        public static final String FOLLOWING_USER_DATE = "following_user_date";
         /**
          * Id of the latest message where this User was a Sender or an Author
          */
@@ -365,6 +392,109 @@ public final class MyDatabase extends SQLiteOpenHelper  {
          */
         public static final String SENDER_FOLLOWED = "sender_followed";
     }
+
+    /**
+     * Statistics of one download of one timeline for one account,
+     * see {@link org.andstatus.app.data.SyncRun}
+     */
+    public static final class SyncRun implements BaseColumns {
+        /**
+         * User ID of the account
+         */
+        public static final String USER_ID = User.USER_ID;
+        public static final String ORIGIN_ID = Msg.ORIGIN_ID;
+        /**
+         * See {@link TimelineTypeEnum#save()}
+         */
+        public static final String TIMELINE_TYPE = "timeline_type";
+        public static final String START_DATE = "start_date";
+        public static final String END_DATE = "end_date";
+        /**
+         * Number of requests of the timeline (pages)
+         */
+        public static final String PAGES = "pages";
+        /**
+         * Size of HTTP responses
+         */
+        public static final String BYTES = "bytes";
+        public static final String ITEMS_PARSED = "items_parsed";
+        public static final String ITEMS_INSERTED = "items_inserted";
+        public static final String ITEMS_UPDATED = "items_updated";
+        public static final String ERRORS = "errors";
+        /**
+         * {@link org.andstatus.app.net.ConnectionException.StatusCode} of the error, which stopped the run,
+         * empty if there was no such error
+         */
+        public static final String STATUS_CODE = "status_code";
+        /**
+         * versionCode of the application, to compare runs before and after an upgrade
+         */
+        public static final String APP_VERSION = "app_version";
+
+        public static final String DEFAULT_SORT_ORDER = START_DATE + " DESC";
+    }
+
+    /**
+     * Information on a timeline downloaded by a User: position of the latest downloaded item
+     * and the last date-time the timeline was downloaded, see {@link org.andstatus.app.data.LatestTimelineItem},
+     * and what the User has read there, see {@link org.andstatus.app.data.ReadMarker}.
+     * One row per User and per timeline, so new timeline types don't need new columns.
+     */
+    public static final class TimelineState {
+        public static final String USER_ID = User.USER_ID;
+        /**
+         * See {@link TimelineTypeEnum#stateKey()}
+         */
+        public static final String TIMELINE_TYPE = "timeline_type";
+        /**
+         * Position of the latest downloaded timeline item.
+         * E.g. the "timeline item" is a "message" for Twitter and an "Activity" for Pump.Io.  
+         */
+        public static final String POSITION = "timeline_position";
+        /**
+         * Date of the latest downloaded timeline item
+         */
+        public static final String ITEM_DATE = "timeline_item_date";
+        /**
+         * Last date-time the timeline was successfully downloaded.
+         * For the list ("collection") of following users we store only this date
+         */
+        public static final String DOWNLOADED_DATE = "timeline_downloaded_date";
+        /**
+         * Sent date of the latest read message of the timeline: messages, sent later, are unread
+         */
+        public static final String READ_DATE = "read_date";
+        /**
+         * Number of unread messages of the timeline, maintained as messages are added and read,
+         * so it's never counted to be shown
+         */
+        public static final String UNREAD_COUNT = "unread_count";
+    }
+
+    /**
+     * A range of a timeline, which wasn't downloaded, because the download stopped
+     * before reaching the latest item downloaded earlier, see {@link org.andstatus.app.data.TimelineGap}.
+     * Items of the gap are older than the "newer" item and newer than the "older" one.
+     */
+    public static final class TimelineGap implements BaseColumns {
+        public static final String USER_ID = User.USER_ID;
+        /**
+         * See {@link TimelineTypeEnum#stateKey()}
+         */
+        public static final String TIMELINE_TYPE = "timeline_type";
+        /**
+         * Position of the item, downloaded before the gap
+         */
+        public static final String OLDER_POSITION = "older_position";
+        public static final String OLDER_DATE = "older_date";
+        /**
+         * Position of the oldest item, downloaded after the gap. Items before it are downloaded next
+         */
+        public static final String NEWER_POSITION = "newer_position";
+        public static final String NEWER_DATE = "newer_date";
+
+        public static final String DEFAULT_SORT_ORDER = NEWER_DATE + " DESC";
+    }
 	
     /**
      * ids in originating system
@@ -389,47 +519,52 @@ public final class MyDatabase extends SQLiteOpenHelper  {
         /**
          * The Timeline type is unknown
          */
-        UNKNOWN("unknown", R.string.unimplemented, User.HOME_TIMELINE_POSITION, User.HOME_TIMELINE_ITEM_DATE, User.HOME_TIMELINE_DATE, Connection.ApiRoutineEnum.DUMMY),
+        UNKNOWN("unknown", R.string.unimplemented, Connection.ApiRoutineEnum.DUMMY),
         /**
          * The Home timeline and other information (replies...).
          */
-        HOME("home", R.string.timeline_title_home, User.HOME_TIMELINE_POSITION, User.HOME_TIMELINE_ITEM_DATE, User.HOME_TIMELINE_DATE, Connection.ApiRoutineEnum.STATUSES_HOME_TIMELINE),
+        HOME("home", R.string.timeline_title_home, Connection.ApiRoutineEnum.STATUSES_HOME_TIMELINE),
         /**
          * The Mentions timeline and other information (replies...).
          */
-        MENTIONS("mentions", R.string.timeline_title_mentions, User.MENTIONS_TIMELINE_POSITION, User.MENTIONS_TIMELINE_ITEM_DATE, User.MENTIONS_TIMELINE_DATE, Connection.ApiRoutineEnum.STATUSES_MENTIONS_TIMELINE),
+        MENTIONS("mentions", R.string.timeline_title_mentions, Connection.ApiRoutineEnum.STATUSES_MENTIONS_TIMELINE),
         /**
          * Direct messages (direct dents...)
          */
-        DIRECT("direct", R.string.timeline_title_direct_messages, User.DIRECT_TIMELINE_POSITION, User.DIRECT_TIMELINE_ITEM_DATE, User.DIRECT_TIMELINE_DATE, Connection.ApiRoutineEnum.DIRECT_MESSAGES),
+        DIRECT("direct", R.string.timeline_title_direct_messages, Connection.ApiRoutineEnum.DIRECT_MESSAGES),
         /**
          * Favorites (favorited messages)
          */
-        FAVORITES("favorites", R.string.timeline_title_favorites, User.FAVORITES_TIMELINE_POSITION, User.FAVORITES_TIMELINE_ITEM_DATE, User.FAVORITES_TIMELINE_DATE, Connection.ApiRoutineEnum.DUMMY),
+        FAVORITES("favorites", R.string.timeline_title_favorites, Connection.ApiRoutineEnum.DUMMY),
         /**
          * Messages of the selected User (where he is an Author or a Sender only (e.g. for Reblog/Retweet). 
          * This User may be not the same as a user of current account ( {@link MyAccount#currentAccountName}}.
          * Moreover, the User may not be "AndStatus account" at all.
          * Hence this timeline type requires the User parameter.
          */
-        USER("user", R.string.timeline_title_user, User.USER_TIMELINE_POSITION, User.USER_TIMELINE_ITEM_DATE, User.USER_TIMELINE_DATE, Connection.ApiRoutineEnum.STATUSES_USER_TIMELINE),
+        USER("user", R.string.timeline_title_user, Connection.ApiRoutineEnum.STATUSES_USER_TIMELINE),
         /**
          * For the selected user, the timeline includes all messages of the same origin irrespectively existence
          * of the link between the message and the User. So the User may "Act" on this message.
          */
-        MESSAGESTOACT("messages_to_act", R.string.timeline_title_home, User.HOME_TIMELINE_POSITION, User.HOME_TIMELINE_ITEM_DATE, User.HOME_TIMELINE_DATE, Connection.ApiRoutineEnum.STATUSES_HOME_TIMELINE),
+        MESSAGESTOACT("messages_to_act", R.string.timeline_title_home, Connection.ApiRoutineEnum.STATUSES_HOME_TIMELINE),
         /**
          * Latest messages of every Following User (Following by this User - AndStatus account). 
          * So this is essentially a list of "Following users". 
          * The timeline doesn't have Message ID because we download User IDs only 
          * See {@link FollowingUser}
          */
-        FOLLOWING_USER("following_user", R.string.timeline_title_following_user, "", "", User.FOLLOWING_USER_DATE, Connection.ApiRoutineEnum.GET_FRIENDS_IDS),
+        FOLLOWING_USER("following_user", R.string.timeline_title_following_user, Connection.ApiRoutineEnum.GET_FRIENDS_IDS),
+        /**
+         * Messages with the hashtag from all timelines. The timeline is not downloaded, it is read from the {@link MsgTag} index.
+         * The tag is the search query of the timeline, see {@link MyProvider#getTimelineTagUri(long, TimelineTypeEnum, boolean, String)}
+         */
+        TAG("tag", R.string.timeline_title_tag, Connection.ApiRoutineEnum.DUMMY),
         /**
          * All timelines (e.g. for download of all timelines. 
          * This is generally done after addition of the new MyAccount).
          */
-        ALL("all", R.string.unimplemented, User.HOME_TIMELINE_POSITION, User.HOME_TIMELINE_ITEM_DATE, User.HOME_TIMELINE_DATE, Connection.ApiRoutineEnum.DUMMY);
+        ALL("all", R.string.unimplemented, Connection.ApiRoutineEnum.DUMMY);
         
         /**
          * code of the enum that is used in messages
@@ -439,41 +574,38 @@ public final class MyDatabase extends SQLiteOpenHelper  {
          * The id of the string resource with the localized name of this Timeline to use in UI
          */
         private int resId;
-        /**
-         * Name of the column in the {@link User} table. The column contains position
-         * of the latest downloaded timeline item 
-         * E.g. the "timeline item" is a "message" for Twitter and an "Activity" for Pump.Io.  
-         */
-        private String columnNameLatestTimelinePosition;
-        private String columnNameLatestTimelineItemDate;
-        /**
-         * Name of the column in the {@link User} table. The column contains the date when 
-         * last time this timeline was retrieved.
-         */
-        private String columnNameTimelineDate;
         /**
          * Api routine to download this timeline
          */
         private Connection.ApiRoutineEnum connectionApiRoutine;
         
-        public String columnNameLatestTimelinePosition() {
-            return columnNameLatestTimelinePosition;
+        /**
+         * Key of the row in the {@link TimelineState} table for this timeline.
+         * Some timeline types share the state of the Home timeline
+         */
+        public String stateKey() {
+            switch (this) {
+                case UNKNOWN:
+                case MESSAGESTOACT:
+                case TAG:
+                case ALL:
+                    return HOME.save();
+                default:
+                    return code;
+            }
         }
 
-        public String columnNameLatestTimelineItemDate() {
-            return columnNameLatestTimelineItemDate;
-        }
-        
-        public String columnNameTimelineDate() {
-            return columnNameTimelineDate;
+        /**
+         * @return false if only the date of the latest download is stored for this timeline,
+         *  see {@link TimelineState#POSITION}
+         */
+        public boolean hasPosition() {
+            return this != FOLLOWING_USER && this != TAG;
         }
         
-        private TimelineTypeEnum(String code, int resId, String columnNameLatestTimelinePosition, String columnNameLatestTimelineItemDate, String columnNameTimelineDate, Connection.ApiRoutineEnum connectionApiRoutine) {
+        private TimelineTypeEnum(String code, int resId, Connection.ApiRoutineEnum connectionApiRoutine) {
             this.code = code;
             this.resId = resId;
-            this.columnNameLatestTimelinePosition = columnNameLatestTimelinePosition;
-            this.columnNameLatestTimelineItemDate = columnNameLatestTimelineItemDate;
-            this.columnNameTimelineDate = columnNameTimelineDate;
             this.connectionApiRoutine = connectionApiRoutine;
         }
 
@@ -534,6 +666,7 @@ public final class MyDatabase extends SQLiteOpenHelper  {
                 + Msg.SENDER_ID + " INTEGER," 
                 + Msg.RECIPIENT_ID + " INTEGER," 
                 + Msg.BODY + " TEXT," 
+                + Msg.BODY_ENTITIES + " TEXT," 
                 + Msg.VIA + " TEXT," 
                 + Msg.URL + " TEXT," 
                 + Msg.IN_REPLY_TO_MSG_ID + " INTEGER," 
@@ -547,6 +680,14 @@ public final class MyDatabase extends SQLiteOpenHelper  {
                 + Msg.ORIGIN_ID + ", "
                 + Msg.MSG_OID
                 + ");");
+
+        db.execSQL("CREATE INDEX idx_msg_author ON " + MSG_TABLE_NAME + " (" 
+                + Msg.AUTHOR_ID
+                + ");");
+
+        db.execSQL("CREATE INDEX idx_msg_sender ON " + MSG_TABLE_NAME + " (" 
+                + Msg.SENDER_ID
+                + ");");
         
         db.execSQL("CREATE TABLE " + MSGOFUSER_TABLE_NAME + " (" 
                 + MsgOfUser.USER_ID + " INTEGER NOT NULL," 
@@ -574,22 +715,6 @@ public final class MyDatabase extends SQLiteOpenHelper  {
                 + User.URL + " TEXT," 
                 + User.CREATED_DATE + " INTEGER,"
                 + User.INS_DATE + " INTEGER NOT NULL,"
-                + User.HOME_TIMELINE_POSITION + " TEXT DEFAULT '' NOT NULL," 
-                + User.HOME_TIMELINE_ITEM_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.HOME_TIMELINE_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.FAVORITES_TIMELINE_POSITION + " TEXT DEFAULT '' NOT NULL," 
-                + User.FAVORITES_TIMELINE_ITEM_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.FAVORITES_TIMELINE_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.DIRECT_TIMELINE_POSITION + " TEXT DEFAULT '' NOT NULL," 
-                + User.DIRECT_TIMELINE_ITEM_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.DIRECT_TIMELINE_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.MENTIONS_TIMELINE_POSITION + " TEXT DEFAULT '' NOT NULL," 
-                + User.MENTIONS_TIMELINE_ITEM_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.MENTIONS_TIMELINE_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.USER_TIMELINE_POSITION + " TEXT DEFAULT '' NOT NULL," 
-                + User.USER_TIMELINE_ITEM_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.USER_TIMELINE_DATE + " INTEGER DEFAULT 0 NOT NULL," 
-                + User.FOLLOWING_USER_DATE + " INTEGER DEFAULT 0 NOT NULL," 
                 + User.USER_MSG_ID + " INTEGER DEFAULT 0 NOT NULL," 
                 + User.USER_MSG_DATE + " INTEGER DEFAULT 0 NOT NULL" 
                 + ");");
@@ -605,6 +730,66 @@ public final class MyDatabase extends SQLiteOpenHelper  {
                 + FollowingUser.USER_FOLLOWED + " BOOLEAN DEFAULT 1 NOT NULL," 
                 + " CONSTRAINT pk_followinguser PRIMARY KEY (" + FollowingUser.USER_ID + " ASC, " + FollowingUser.FOLLOWING_USER_ID + " ASC)"
                 + ");");
+
+        db.execSQL("CREATE TABLE " + SYNC_RUN_TABLE_NAME + " ("
+                + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + SyncRun.USER_ID + " INTEGER NOT NULL,"
+                + SyncRun.ORIGIN_ID + " INTEGER NOT NULL,"
+                + SyncRun.TIMELINE_TYPE + " TEXT NOT NULL,"
+                + SyncRun.START_DATE + " INTEGER NOT NULL,"
+                + SyncRun.END_DATE + " INTEGER NOT NULL,"
+                + SyncRun.PAGES + " INTEGER DEFAULT 0 NOT NULL,"
+                + SyncRun.BYTES + " INTEGER DEFAULT 0 NOT NULL,"
+                + SyncRun.ITEMS_PARSED + " INTEGER DEFAULT 0 NOT NULL,"
+                + SyncRun.ITEMS_INSERTED + " INTEGER DEFAULT 0 NOT NULL,"
+                + SyncRun.ITEMS_UPDATED + " INTEGER DEFAULT 0 NOT NULL,"
+                + SyncRun.ERRORS + " INTEGER DEFAULT 0 NOT NULL,"
+                + SyncRun.STATUS_CODE + " TEXT DEFAULT '' NOT NULL,"
+                + SyncRun.APP_VERSION + " INTEGER DEFAULT 0 NOT NULL"
+                + ");");
+
+        db.execSQL("CREATE INDEX idx_sync_run_start ON " + SYNC_RUN_TABLE_NAME + " ("
+                + SyncRun.START_DATE
+                + ");");
+
+        db.execSQL("CREATE TABLE " + TIMELINE_STATE_TABLE_NAME + " ("
+                + TimelineState.USER_ID + " INTEGER NOT NULL,"
+                + TimelineState.TIMELINE_TYPE + " TEXT NOT NULL,"
+                + TimelineState.POSITION + " TEXT DEFAULT '' NOT NULL,"
+                + TimelineState.ITEM_DATE + " INTEGER DEFAULT 0 NOT NULL,"
+                + TimelineState.DOWNLOADED_DATE + " INTEGER DEFAULT 0 NOT NULL,"
+                + TimelineState.READ_DATE + " INTEGER DEFAULT 0 NOT NULL,"
+                + TimelineState.UNREAD_COUNT + " INTEGER DEFAULT 0 NOT NULL,"
+                + " CONSTRAINT pk_timeline_state PRIMARY KEY (" + TimelineState.USER_ID + " ASC, " + TimelineState.TIMELINE_TYPE + " ASC)"
+                + ");");
+
+        db.execSQL("CREATE TABLE " + TIMELINE_GAP_TABLE_NAME + " ("
+                + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + TimelineGap.USER_ID + " INTEGER NOT NULL,"
+                + TimelineGap.TIMELINE_TYPE + " TEXT NOT NULL,"
+                + TimelineGap.OLDER_POSITION + " TEXT DEFAULT '' NOT NULL,"
+                + TimelineGap.OLDER_DATE + " INTEGER DEFAULT 0 NOT NULL,"
+                + TimelineGap.NEWER_POSITION + " TEXT DEFAULT '' NOT NULL,"
+                + TimelineGap.NEWER_DATE + " INTEGER DEFAULT 0 NOT NULL"
+                + ");");
+
+        db.execSQL("CREATE INDEX idx_timeline_gap ON " + TIMELINE_GAP_TABLE_NAME + " ("
+                + TimelineGap.USER_ID + ", "
+                + TimelineGap.TIMELINE_TYPE + ", "
+                + TimelineGap.NEWER_DATE
+                + ");");
+
+        db.execSQL("CREATE TABLE " + MSG_TAG_TABLE_NAME + " ("
+                + MsgTag.MSG_ID + " INTEGER NOT NULL,"
+                + MsgTag.TAG + " TEXT NOT NULL,"
+                + MsgTag.SENT_DATE + " INTEGER DEFAULT 0 NOT NULL,"
+                + " CONSTRAINT pk_msg_tag PRIMARY KEY (" + MsgTag.MSG_ID + " ASC, " + MsgTag.TAG + " ASC)"
+                + ");");
+
+        db.execSQL("CREATE INDEX idx_msg_tag_date ON " + MSG_TAG_TABLE_NAME + " ("
+                + MsgTag.TAG + ", "
+                + MsgTag.SENT_DATE
+                + ");");
         
     }
 
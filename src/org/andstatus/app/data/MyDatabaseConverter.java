@@ -16,10 +16,14 @@
 
 package org.andstatus.app.data;
 
+import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import org.andstatus.app.account.MyAccountConverter;
+import org.andstatus.app.util.MyHtml;
 
 class MyDatabaseConverter {
     private static final String TAG = MyDatabaseConverter.class.getSimpleName();
@@ -40,6 +44,27 @@ class MyDatabaseConverter {
         if (currentVersion == 11) {
             currentVersion = convert11to12(db, currentVersion);
         }
+        if (currentVersion == 12) {
+            currentVersion = convert12to13(db, currentVersion);
+        }
+        if (currentVersion == 13) {
+            currentVersion = convert13to14(db, currentVersion);
+        }
+        if (currentVersion == 14) {
+            currentVersion = convert14to15(db, currentVersion);
+        }
+        if (currentVersion == 15) {
+            currentVersion = convert15to16(db, currentVersion);
+        }
+        if (currentVersion == 16) {
+            currentVersion = convert16to17(db, currentVersion);
+        }
+        if (currentVersion == 17) {
+            currentVersion = convert17to18(db, currentVersion);
+        }
+        if (currentVersion == 18) {
+            currentVersion = convert18to19(db, currentVersion);
+        }
         if ( currentVersion == newVersion) {
             Log.i(TAG, "Successfully upgraded database from version " + oldVersion + " to version "
                     + newVersion + ".");
@@ -244,5 +269,309 @@ class MyDatabaseConverter {
         }
         return (ok ? versionTo : oldVersion) ;
     }
+
+    /**
+     * @return new db version, the same as old in a case of a failure
+     */
+    private int convert12to13(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 13;
+        boolean ok = false;
+        String sql = "";
+        try {
+            Log.i(TAG, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+
+            sql = "CREATE TABLE sync_run ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "user_id INTEGER NOT NULL,"
+                    + "origin_id INTEGER NOT NULL,"
+                    + "timeline_type TEXT NOT NULL,"
+                    + "start_date INTEGER NOT NULL,"
+                    + "end_date INTEGER NOT NULL,"
+                    + "pages INTEGER DEFAULT 0 NOT NULL,"
+                    + "bytes INTEGER DEFAULT 0 NOT NULL,"
+                    + "items_parsed INTEGER DEFAULT 0 NOT NULL,"
+                    + "items_inserted INTEGER DEFAULT 0 NOT NULL,"
+                    + "items_updated INTEGER DEFAULT 0 NOT NULL,"
+                    + "errors INTEGER DEFAULT 0 NOT NULL,"
+                    + "status_code TEXT DEFAULT '' NOT NULL,"
+                    + "app_version INTEGER DEFAULT 0 NOT NULL"
+                    + ");";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_sync_run_start ON sync_run (start_date)";
+            db.execSQL(sql);
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage());
+        }
+        if (ok) {
+            Log.i(TAG, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            Log.e(TAG, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return (ok ? versionTo : oldVersion) ;
+    }
+
+    /**
+     * @return new db version, the same as old in a case of a failure
+     */
+    private int convert13to14(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 14;
+        boolean ok = false;
+        String sql = "";
+        Cursor cursor = null;
+        try {
+            Log.i(TAG, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+
+            sql = "ALTER TABLE msg ADD COLUMN body_entities TEXT";
+            db.execSQL(sql);
+
+            // Entities of the stored messages and plain text "via" instead of HTML
+            sql = "SELECT _id, body, via FROM msg";
+            cursor = db.rawQuery(sql, null);
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                values.put("body_entities", BodyEntities.extract(cursor.getString(1)));
+                String via = cursor.getString(2);
+                if (via != null && (via.indexOf('<') >= 0 || via.indexOf('&') >= 0)) {
+                    values.put("via", MyHtml.toPlainText(via));
+                }
+                db.update("msg", values, "_id=" + cursor.getLong(0), null);
+            }
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        if (ok) {
+            Log.i(TAG, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            Log.e(TAG, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return (ok ? versionTo : oldVersion) ;
+    }
+
+    /**
+     * @return new db version, the same as old in a case of a failure
+     */
+    private int convert14to15(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 15;
+        boolean ok = false;
+        String sql = "";
+        try {
+            Log.i(TAG, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+
+            sql = "CREATE TABLE timeline_state (user_id INTEGER NOT NULL,timeline_type TEXT NOT NULL,"
+                    + "timeline_position TEXT DEFAULT '' NOT NULL,timeline_item_date INTEGER DEFAULT 0 NOT NULL,"
+                    + "timeline_downloaded_date INTEGER DEFAULT 0 NOT NULL,"
+                    + " CONSTRAINT pk_timeline_state PRIMARY KEY (user_id ASC, timeline_type ASC))";
+            db.execSQL(sql);
+            String[] timelineTypes = {"home", "favorites", "direct", "mentions", "user"};
+            for (String timelineType : timelineTypes) {
+                sql = "INSERT INTO timeline_state (user_id, timeline_type, timeline_position, timeline_item_date,"
+                        + " timeline_downloaded_date)"
+                        + " SELECT _id, '" + timelineType + "', " + timelineType + "_timeline_position, "
+                        + timelineType + "_timeline_item_date, " + timelineType + "_timeline_date FROM user"
+                        + " WHERE " + timelineType + "_timeline_item_date<>0 OR " + timelineType + "_timeline_date<>0";
+                db.execSQL(sql);
+            }
+            sql = "INSERT INTO timeline_state (user_id, timeline_type, timeline_downloaded_date)"
+                    + " SELECT _id, 'following_user', following_user_date FROM user WHERE following_user_date<>0";
+            db.execSQL(sql);
+
+            // DROP COLUMN is not supported so we have to recreate table
+            sql = "ALTER TABLE user RENAME TO user_old";
+            db.execSQL(sql);
+            sql="CREATE TABLE user (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "origin_id INTEGER DEFAULT 1 NOT NULL,user_oid TEXT,username TEXT NOT NULL,"
+                    + "real_name TEXT,avatar_url TEXT,avatar_blob BLOB,user_description TEXT,"
+                    + "homepage TEXT,url TEXT,user_created_date INTEGER,user_ins_date INTEGER NOT NULL,"
+                    + "user_msg_id INTEGER DEFAULT 0 NOT NULL,user_msg_date INTEGER DEFAULT 0 NOT NULL)";
+            db.execSQL(sql);
+            sql = "INSERT INTO user (_id, origin_id, user_oid, username, real_name, avatar_url, avatar_blob, user_description,"
+                    + "homepage, url, user_created_date, user_ins_date, user_msg_id, user_msg_date)"
+                    + " SELECT _id, origin_id, user_oid, username, real_name, avatar_url, avatar_blob, user_description,"
+                    + "homepage, url, user_created_date, user_ins_date, user_msg_id, user_msg_date FROM user_old";
+            db.execSQL(sql);
+            sql = "DROP TABLE user_old";
+            db.execSQL(sql);
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage());
+        }
+        if (ok) {
+            // The index was dropped together with the old table.
+            // It may be absent in old databases, so failure to create it doesn't fail the upgrade
+            sql = "CREATE UNIQUE INDEX IF NOT EXISTS idx_username ON user (origin_id, username)";
+            try {
+                db.execSQL(sql);
+            } catch (Exception e) {
+                Log.w(TAG, "SQL='" + sql + "': " + e.getMessage());
+            }
+            Log.i(TAG, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            Log.e(TAG, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return (ok ? versionTo : oldVersion) ;
+    }
+
+    /**
+     * @return new db version, the same as old in a case of a failure
+     */
+    private int convert15to16(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 16;
+        boolean ok = false;
+        String sql = "";
+        Cursor cursor = null;
+        SQLiteStatement insert = null;
+        try {
+            Log.i(TAG, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+
+            sql = "CREATE TABLE msg_tag (msg_id INTEGER NOT NULL,tag TEXT NOT NULL,"
+                    + "tag_sent_date INTEGER DEFAULT 0 NOT NULL,"
+                    + " CONSTRAINT pk_msg_tag PRIMARY KEY (msg_id ASC, tag ASC))";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msg_tag_date ON msg_tag (tag, tag_sent_date)";
+            db.execSQL(sql);
+
+            // Tags of the stored messages
+            sql = "INSERT OR REPLACE INTO msg_tag (msg_id, tag, tag_sent_date) VALUES (?, ?, ?)";
+            insert = db.compileStatement(sql);
+            sql = "SELECT _id, body, body_entities, msg_sent_date FROM msg WHERE body LIKE '%#%'";
+            cursor = db.rawQuery(sql, null);
+            while (cursor.moveToNext()) {
+                String body = cursor.getString(1);
+                String entities = cursor.isNull(2) ? BodyEntities.extract(body) : cursor.getString(2);
+                for (String tag : BodyEntities.hashtags(body, entities)) {
+                    insert.bindLong(1, cursor.getLong(0));
+                    insert.bindString(2, tag);
+                    insert.bindLong(3, cursor.getLong(3));
+                    insert.execute();
+                }
+            }
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (insert != null) {
+                insert.releaseReference();
+            }
+        }
+        if (ok) {
+            Log.i(TAG, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            Log.e(TAG, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return (ok ? versionTo : oldVersion) ;
+    }
+
+    /**
+     * @return new db version, the same as old in a case of a failure
+     */
+    private int convert16to17(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 17;
+        boolean ok = false;
+        String sql = "";
+        try {
+            Log.i(TAG, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+
+            sql = "CREATE INDEX idx_msg_author ON msg (author_id)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msg_sender ON msg (sender_id)";
+            db.execSQL(sql);
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage());
+        }
+        if (ok) {
+            Log.i(TAG, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            Log.e(TAG, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return (ok ? versionTo : oldVersion) ;
+    }
+
+    /**
+     * @return new db version, the same as old in a case of a failure
+     */
+    private int convert17to18(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 18;
+        boolean ok = false;
+        String sql = "";
+        try {
+            Log.i(TAG, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+
+            sql = "ALTER TABLE timeline_state ADD COLUMN read_date INTEGER DEFAULT 0 NOT NULL";
+            db.execSQL(sql);
+            sql = "ALTER TABLE timeline_state ADD COLUMN unread_count INTEGER DEFAULT 0 NOT NULL";
+            db.execSQL(sql);
+            // Everything, downloaded before the upgrade, is read
+            sql = "UPDATE timeline_state SET read_date=timeline_item_date";
+            db.execSQL(sql);
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage());
+        }
+        if (ok) {
+            Log.i(TAG, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            Log.e(TAG, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return (ok ? versionTo : oldVersion) ;
+    }
+
+    /**
+     * @return new db version, the same as old in a case of a failure
+     */
+    private int convert18to19(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 19;
+        boolean ok = false;
+        String sql = "";
+        try {
+            Log.i(TAG, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+
+            sql = "CREATE TABLE timeline_gap ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "user_id INTEGER NOT NULL,"
+                    + "timeline_type TEXT NOT NULL,"
+                    + "older_position TEXT DEFAULT '' NOT NULL,"
+                    + "older_date INTEGER DEFAULT 0 NOT NULL,"
+                    + "newer_position TEXT DEFAULT '' NOT NULL,"
+                    + "newer_date INTEGER DEFAULT 0 NOT NULL"
+                    + ")";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_timeline_gap ON timeline_gap (user_id, timeline_type, newer_date)";
+            db.execSQL(sql);
+            ok = true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage());
+        }
+        if (ok) {
+            Log.i(TAG, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            Log.e(TAG, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return (ok ? versionTo : oldVersion) ;
+    }
     
 }
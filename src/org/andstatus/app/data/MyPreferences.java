@@ -19,6 +19,7 @@ package org.andstatus.app.data;
 import org.andstatus.app.TimelineActivity;
 import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.StartupTrace;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -88,6 +89,10 @@ public class MyPreferences {
      * Minimum logging level for the whole application (i.e. for any tag)
      */
     public static final String KEY_MIN_LOG_LEVEL = "min_log_level";
+    /**
+     * Append HTTP requests and responses to a file, see {@link org.andstatus.app.net.HttpCapture}
+     */
+    public static final String KEY_CAPTURE_HTTP = "capture_http";
     /**
      * Use this dir: http://developer.android.com/reference/android/content/Context.html#getExternalFilesDir(java.lang.String)
      * (for API 8)
@@ -101,6 +106,19 @@ public class MyPreferences {
      * Is the timeline combined in {@link TimelineActivity} 
      */
     public static final String KEY_TIMELINE_IS_COMBINED = "timeline_is_combined";
+    /**
+     * Number of rows before the end of the list in {@link TimelineActivity}
+     * at which the next page is queried ahead of time (String with an int value), 
+     * "0" turns scroll-ahead prefetching off
+     */
+    public static final String KEY_PREFETCH_THRESHOLD_ROWS = "prefetch_threshold_rows";
+    public static final int PREFETCH_THRESHOLD_ROWS_DEFAULT = 30;
+    /**
+     * Seconds, during which deferrable background commands wait for each other
+     * in order to be executed in one burst of the radio (String with an int value), "0" turns batching off
+     */
+    public static final String KEY_BATCHING_WINDOW = "batching_window";
+    public static final int BATCHING_WINDOW_DEFAULT_SECONDS = 60;
     /**
      * Version code of last opened application (int) 
      */
@@ -152,6 +170,7 @@ public class MyPreferences {
         if (!initialized) {
             synchronized(MyPreferences.class) {
                 if (!initialized) {
+                    long startedAt = StartupTrace.begin();
                     initializedBy = initializerName;
                     Log.v(TAG, "Starting initialization by " + initializedBy);
                     if (context_in != null) {
@@ -178,6 +197,7 @@ public class MyPreferences {
                     }
                     initializedHere = initialized;
                     if (initialized) {
+                        StartupTrace.end("MyPreferences.initialize", startedAt);
                         MyLog.v(TAG, "Initialized by " + initializedBy + " context: " + context.getClass().getName());
                     } else {
                         Log.e(TAG, "Failed to initialize by " + initializedBy);
@@ -191,7 +211,7 @@ public class MyPreferences {
         if (initialized) {
             synchronized(upgradeEndTime) {
                 if (shouldTriggerDatabaseUpgrade) {
-                    triggerDatabaseUpgrade();
+                    triggerDatabaseUpgradeInBackground();
                 }
             }
         }
@@ -314,6 +334,34 @@ public class MyPreferences {
     public static long getSyncFrequencyMs() {
         return (getSyncFrequencySeconds() * MILLISECONDS);
     }
+
+    /**
+     * @return 0 if scroll-ahead prefetching is turned off
+     */
+    public static int getPrefetchThresholdRows() {
+        int rows = PREFETCH_THRESHOLD_ROWS_DEFAULT;
+        try {
+            rows = Integer.parseInt(getDefaultSharedPreferences().getString(KEY_PREFETCH_THRESHOLD_ROWS, 
+                    Integer.toString(PREFETCH_THRESHOLD_ROWS_DEFAULT)));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Wrong " + KEY_PREFETCH_THRESHOLD_ROWS + ": " + e.getMessage());
+        }
+        return (rows < 0 ? 0 : rows);
+    }
+
+    /**
+     * @return 0 if batching of the background commands is turned off
+     */
+    public static long getBatchingWindowMs() {
+        int seconds = BATCHING_WINDOW_DEFAULT_SECONDS;
+        try {
+            seconds = Integer.parseInt(getDefaultSharedPreferences().getString(KEY_BATCHING_WINDOW, 
+                    Integer.toString(BATCHING_WINDOW_DEFAULT_SECONDS)));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Wrong " + KEY_BATCHING_WINDOW + ": " + e.getMessage());
+        }
+        return (seconds < 0 ? 0 : seconds * MILLISECONDS);
+    }
     
     /**
      *  Event: Preferences have changed right now
@@ -359,6 +407,21 @@ public class MyPreferences {
         return db;
     }
     
+    /**
+     * Open (and upgrade, if needed) the database in a background thread,
+     * so the caller (usually the UI thread) is not blocked
+     */
+    public static void triggerDatabaseUpgradeInBackground() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startedAt = StartupTrace.begin();
+                triggerDatabaseUpgrade();
+                StartupTrace.end("Database open", startedAt);
+            }
+        }, TAG + ".openDatabase").start();
+    }
+    
     public static void triggerDatabaseUpgrade() {
         if (isUpgrading()) {
             MyLog.v(TAG, "Attempt to trigger database upgrade: already upgrading");
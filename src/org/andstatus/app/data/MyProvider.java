@@ -38,14 +38,17 @@ import android.provider.BaseColumns;
 import android.text.TextUtils;
 import android.util.Log;
 
+import org.andstatus.app.account.AccountRegistry;
 import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.data.MyDatabase.FollowingUser;
 import org.andstatus.app.data.MyDatabase.Msg;
 import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.MsgTag;
 import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
 import org.andstatus.app.util.SharedPreferencesUtil;
 import org.apache.http.client.UserTokenHandler;
 
@@ -70,6 +73,10 @@ public class MyProvider extends ContentProvider {
      * Projection map for the {@link MyDatabase.User} table
      */
     private static HashMap<String, String> userProjectionMap;
+    /**
+     * Projection map for the {@link MyDatabase.MsgTag} table
+     */
+    private static HashMap<String, String> tagProjectionMap;
     
     /**
      * "Authority", represented by this ContentProvider subclass 
@@ -92,6 +99,15 @@ public class MyProvider extends ContentProvider {
      * We add this path segment after the {@link #TIMELINE_URI} to form search URI 
      */
     public static final String SEARCH_SEGMENT = "search";
+    /**
+     * We add this path segment after the {@link #TIMELINE_URI} to form URI of the messages with the tag
+     */
+    public static final String TAG_SEGMENT = "tag";
+    /**
+     * Query parameter of the {@link TimelineTypeEnum#USER} timeline URI: ID of the selected User,
+     * whose messages are shown, see {@link #getUserTimelineUri(Uri, long)}
+     */
+    public static final String SELECTED_USER_PARAMETER = "su";
 
     private static final UriMatcher sUriMatcher;
     /**
@@ -117,6 +133,19 @@ public class MyProvider extends ContentProvider {
      * Matched code for the User
      */
     private static final int USER_ID = 6;
+    /**
+     * The Timeline of the messages with the tag, see {@link MyDatabase.MsgTag}
+     */
+    private static final int TIMELINE_TAG = 8;
+    /**
+     * Top tags
+     */
+    private static final int TAGS = 9;
+
+    /**
+     * Latency of {@link #query} by the matched code, filled on the first use
+     */
+    private static final MyMetrics.Latency[] queryLatencies = new MyMetrics.Latency[16];
     
     /**
      * @see android.content.ContentProvider#onCreate()
@@ -140,9 +169,13 @@ public class MyProvider extends ContentProvider {
             case MSG:
             case TIMELINE:
             case TIMELINE_SEARCH:
+            case TIMELINE_TAG:
             case MSG_COUNT:
                 return Msg.CONTENT_TYPE;
 
+            case TAGS:
+                return MsgTag.CONTENT_TYPE;
+
             case TIMELINE_MSG_ID:
                 return Msg.CONTENT_ITEM_TYPE;
 
@@ -181,6 +214,15 @@ public class MyProvider extends ContentProvider {
                             + "))";
                     sqlDesc = selectionG + (selectionArgs != null ? "; args=" + selectionArgs.toString() : "");
                     count = db.delete(MyDatabase.MSGOFUSER_TABLE_NAME, selectionG, selectionArgs);
+                    // ...and from MyDatabase.MsgTag
+                    selectionG = " EXISTS ("
+                            + "SELECT * FROM " + MyDatabase.MSG_TABLE_NAME + " WHERE ("
+                            + MyDatabase.MSG_TABLE_NAME + "." + BaseColumns._ID + "=" + MyDatabase.MSG_TAG_TABLE_NAME + "." + MsgTag.MSG_ID
+                            + ") AND ("
+                            + selection
+                            + "))";
+                    sqlDesc = selectionG + (selectionArgs != null ? "; args=" + selectionArgs.toString() : "");
+                    db.delete(MyDatabase.MSG_TAG_TABLE_NAME, selectionG, selectionArgs);
                     // Now delete messages themselves
                     sqlDesc = selection + (selectionArgs != null ? "; args=" + selectionArgs.toString() : "");
                     count = db.delete(MyDatabase.MSG_TABLE_NAME, selection, selectionArgs);
@@ -214,6 +256,9 @@ public class MyProvider extends ContentProvider {
                 count = db.delete(MyDatabase.USER_TABLE_NAME, BaseColumns._ID + "=" + userId
                         + (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : ""),
                         selectionArgs);
+                if (count > 0) {
+                    db.delete(MyDatabase.TIMELINE_STATE_TABLE_NAME, MyDatabase.TimelineState.USER_ID + "=" + userId, null);
+                }
                 break;
 
             default:
@@ -404,11 +449,15 @@ public class MyProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
+        long startedAt = MyMetrics.now();
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         boolean built = false;
         String sql = "";
+        String groupBy = null;
 
         int matchedCode = sUriMatcher.match(uri);
+        // Only a uri with a tag joins the tag index, see tablesForTimeline
+        boolean isTagged = (matchedCode == TIMELINE_TAG && !TextUtils.isEmpty(uriToTag(uri)));
         switch (matchedCode) {
             case TIMELINE:
                 qb.setDistinct(true);
@@ -460,6 +509,28 @@ public class MyProvider extends ContentProvider {
                 }
                 break;
 
+            case TIMELINE_TAG:
+                qb.setTables(tablesForTimeline(uri, projection));
+                qb.setProjectionMap(msgProjectionMap);
+                if (!isTagged) {
+                    break;
+                }
+                // The tag is the first column of the index, so only rows of this tag are read
+                if (selection != null && selection.length() > 0) {
+                    selection = " AND (" + selection + ")";
+                } else {
+                    selection = "";
+                }
+                selection = MyDatabase.MSG_TAG_TABLE_NAME + "." + MsgTag.TAG + "=?" + selection;
+                selectionArgs = addBeforeArray(selectionArgs, uriToTag(uri));
+                break;
+
+            case TAGS:
+                qb.setTables(MyDatabase.MSG_TAG_TABLE_NAME);
+                qb.setProjectionMap(tagProjectionMap);
+                groupBy = MsgTag.TAG;
+                break;
+
             case MSG:
                 qb.setTables(MyDatabase.MSG_TABLE_NAME);
                 qb.setProjectionMap(msgProjectionMap);
@@ -490,6 +561,14 @@ public class MyProvider extends ContentProvider {
                     orderBy = Msg.DEFAULT_SORT_ORDER;
                     break;
 
+                case TIMELINE_TAG:
+                    orderBy = (isTagged ? MsgTag.DEFAULT_SORT_ORDER : Msg.DEFAULT_SORT_ORDER);
+                    break;
+
+                case TAGS:
+                    orderBy = MsgTag.TOP_SORT_ORDER;
+                    break;
+
                 case MSG_COUNT:
                     orderBy = "";
                     break;
@@ -503,6 +582,9 @@ public class MyProvider extends ContentProvider {
                     throw new IllegalArgumentException("Unknown URI \"" + uri + "\"; matchedCode="
                             + matchedCode);
             }
+        } else if (isTagged && sortOrder.startsWith(Msg.DEFAULT_SORT_ORDER)) {
+            // The same order, but by the indexed copy of the sent date
+            orderBy = MsgTag.DEFAULT_SORT_ORDER + sortOrder.substring(Msg.DEFAULT_SORT_ORDER.length());
         } else {
             orderBy = sortOrder;
         }
@@ -519,13 +601,19 @@ public class MyProvider extends ContentProvider {
                      * See <a href="http://stackoverflow.com/questions/2481322/sqlitequerybuilder-buildquery-not-using-selectargs">SQLiteQueryBuilder.buildQuery not using selectArgs?</a> 
                      * and here: <a href="http://code.google.com/p/android/issues/detail?id=4467">SQLiteQueryBuilder.buildQuery ignores selectionArgs</a>
                      */
-                    sql = qb.buildQuery(projection, selection, selectionArgs, null, null, orderBy, null);
+                    sql = qb.buildQuery(projection, selection, selectionArgs, groupBy, null, orderBy, null);
                     // We cannot use this method in API 10...
                     // sql = qb.buildQuery(projection, selection, null, null, orderBy, null);
                     built = true;
                 }
                 // Here we substitute ?-s in selection with values from selectionArgs
                 c = db.rawQuery(sql, selectionArgs);
+                if (c != null) {
+                    // The query is executed lazily, when the cursor fills its window. Every caller needs
+                    // the first window anyway, so we fill it here in order to measure the query itself
+                    c.getCount();
+                    queryLatency(matchedCode).since(startedAt);
+                }
             } catch (Exception e) {
                 logQuery = true;
                 Log.e(TAG, "Database query failed");
@@ -556,6 +644,15 @@ public class MyProvider extends ContentProvider {
         return c;
     }
 
+    private static MyMetrics.Latency queryLatency(int matchedCode) {
+        MyMetrics.Latency latency = queryLatencies[matchedCode];
+        if (latency == null) {
+            latency = MyMetrics.latency("provider.query." + matchedCode);
+            queryLatencies[matchedCode] = latency;
+        }
+        return latency;
+    }
+
     /**
      * @param uri the same as uri for
      *            {@link MyProvider#query(Uri, String[], String, String[], String)}
@@ -569,24 +666,17 @@ public class MyProvider extends ContentProvider {
         long accountUserId = uriToAccountUserId(uri);
         int nAccounts = 1;
         // Allows to link to one or more accounts
-        String accountUserIds = "";
+        String accountUserIds;
         if (isCombined || accountUserId == 0) {
-            for (MyAccount ma : MyAccount.list()) {
-                if (!TextUtils.isEmpty(accountUserIds)) {
-                    accountUserIds += ", ";
-                    nAccounts += 1;
-                }
-                accountUserIds += Long.toString(ma.getUserId());
-                accountUserId = ma.getUserId();
+            // Precomputed for all accounts
+            AccountRegistry accounts = MyAccount.registry();
+            accountUserIds = accounts.getUserIdsSql();
+            if (accounts.size() > 0) {
+                accountUserId = accounts.getLastUserId();
+                nAccounts = accounts.size();
             }
-
-        } else {
-            accountUserIds = Long.toString(accountUserId);
-        }
-        if (nAccounts == 1) {
-            accountUserIds = "=" + accountUserIds;
         } else {
-            accountUserIds = " IN (" + accountUserIds + ")";
+            accountUserIds = "=" + accountUserId;
         }
 
         Collection<String> columns = new java.util.HashSet<String>(Arrays.asList(projection));
@@ -627,6 +717,20 @@ public class MyProvider extends ContentProvider {
                         + "=u1." + MyDatabase.User.USER_MSG_ID
                         + ")";
                 break;
+            case USER:
+                // Each branch is read by its own index (idx_msg_author, idx_msg_sender and pk_msgofuser),
+                // so only messages of the selected User are read, not the whole table
+                long selectedUserId = uriToSelectedUserId(uri);
+                tables = "(SELECT * FROM " + MyDatabase.MSG_TABLE_NAME + " WHERE " + BaseColumns._ID + " IN ("
+                        + "SELECT " + BaseColumns._ID + " FROM " + MyDatabase.MSG_TABLE_NAME
+                        + " WHERE " + Msg.AUTHOR_ID + "=" + selectedUserId
+                        + " UNION SELECT " + BaseColumns._ID + " FROM " + MyDatabase.MSG_TABLE_NAME
+                        + " WHERE " + Msg.SENDER_ID + "=" + selectedUserId
+                        // Reblogs are included also
+                        + " UNION SELECT " + MsgOfUser.MSG_ID + " FROM " + MyDatabase.MSGOFUSER_TABLE_NAME
+                        + " WHERE " + MsgOfUser.USER_ID + "=" + selectedUserId + " AND " + MsgOfUser.REBLOGGED + "=1"
+                        + ")) AS " + MyDatabase.MSG_TABLE_NAME;
+                break;
             case MESSAGESTOACT:
                 if (nAccounts == 1) {
                     tables = "(SELECT " + accountUserId + " AS " + MyDatabase.User.LINKED_USER_ID
@@ -637,6 +741,17 @@ public class MyProvider extends ContentProvider {
             default:
                 break;
         }
+        if (!TextUtils.isEmpty(uriToTag(uri))) {
+            String tagCondition = " ON ("
+                    + MyDatabase.MSG_TABLE_NAME + "." + BaseColumns._ID + "="
+                    + MyDatabase.MSG_TAG_TABLE_NAME + "." + MsgTag.MSG_ID + ")";
+            if (tt == TimelineTypeEnum.FOLLOWING_USER) {
+                tables += " INNER JOIN " + MyDatabase.MSG_TAG_TABLE_NAME + tagCondition;
+            } else {
+                // Messages are found by the tag index first
+                tables = MyDatabase.MSG_TAG_TABLE_NAME + " INNER JOIN " + tables + tagCondition;
+            }
+        }
 
         if (columns.contains(MyDatabase.MsgOfUser.FAVORITED)
                 || (columns.contains(MyDatabase.User.LINKED_USER_ID) && !linkedUserDefined)
@@ -820,11 +935,13 @@ public class MyProvider extends ContentProvider {
          * 6 - 7. MyDatabase.MSG_TABLE_NAME + "/" + MSG_ID  (optional, used to access specific Message)
          */
         sUriMatcher.addURI(AUTHORITY, TIMELINE_PATH + "/#/tt/*/combined/#/search/*", TIMELINE_SEARCH);
+        sUriMatcher.addURI(AUTHORITY, TIMELINE_PATH + "/#/tt/*/combined/#/" + TAG_SEGMENT + "/*", TIMELINE_TAG);
         sUriMatcher.addURI(AUTHORITY, TIMELINE_PATH + "/#/tt/*/combined/#/" + MyDatabase.MSG_TABLE_NAME + "/#", TIMELINE_MSG_ID);
         sUriMatcher.addURI(AUTHORITY, TIMELINE_PATH + "/#/tt/*/combined/#", TIMELINE);
 
         sUriMatcher.addURI(AUTHORITY, MyDatabase.MSG_TABLE_NAME + "/count", MSG_COUNT);
         sUriMatcher.addURI(AUTHORITY, MyDatabase.MSG_TABLE_NAME, MSG);
+        sUriMatcher.addURI(AUTHORITY, MyDatabase.MSG_TAG_TABLE_NAME, TAGS);
 
         /** 
          * The order of PathSegments in the URI
@@ -844,6 +961,7 @@ public class MyProvider extends ContentProvider {
         msgProjectionMap.put(Msg.SENDER_ID, Msg.SENDER_ID);
         msgProjectionMap.put(User.SENDER_NAME, User.SENDER_NAME);
         msgProjectionMap.put(Msg.BODY, Msg.BODY);
+        msgProjectionMap.put(Msg.BODY_ENTITIES, Msg.BODY_ENTITIES);
         msgProjectionMap.put(Msg.VIA, Msg.VIA);
         msgProjectionMap.put(Msg.URL, Msg.URL);
         msgProjectionMap.put(Msg.IN_REPLY_TO_MSG_ID, Msg.IN_REPLY_TO_MSG_ID);
@@ -873,18 +991,12 @@ public class MyProvider extends ContentProvider {
         userProjectionMap.put(User.CREATED_DATE, User.CREATED_DATE);
         userProjectionMap.put(User.INS_DATE, User.INS_DATE);
         
-        userProjectionMap.put(User.HOME_TIMELINE_POSITION, User.HOME_TIMELINE_POSITION);
-        userProjectionMap.put(User.HOME_TIMELINE_DATE, User.HOME_TIMELINE_DATE);
-        userProjectionMap.put(User.FAVORITES_TIMELINE_POSITION, User.FAVORITES_TIMELINE_POSITION);
-        userProjectionMap.put(User.FAVORITES_TIMELINE_DATE, User.FAVORITES_TIMELINE_DATE);
-        userProjectionMap.put(User.DIRECT_TIMELINE_POSITION, User.DIRECT_TIMELINE_POSITION);
-        userProjectionMap.put(User.DIRECT_TIMELINE_DATE, User.DIRECT_TIMELINE_DATE);
-        userProjectionMap.put(User.MENTIONS_TIMELINE_POSITION, User.MENTIONS_TIMELINE_POSITION);
-        userProjectionMap.put(User.MENTIONS_TIMELINE_DATE, User.MENTIONS_TIMELINE_DATE);
-        userProjectionMap.put(User.USER_TIMELINE_POSITION, User.USER_TIMELINE_POSITION);
-        userProjectionMap.put(User.USER_TIMELINE_DATE, User.USER_TIMELINE_DATE);
         userProjectionMap.put(User.USER_MSG_ID, User.USER_MSG_ID);
         userProjectionMap.put(User.USER_MSG_DATE, User.USER_MSG_DATE);
+
+        tagProjectionMap = new HashMap<String, String>();
+        tagProjectionMap.put(MsgTag.TAG, MsgTag.TAG);
+        tagProjectionMap.put(MsgTag.TAG_COUNT, "count(*) AS " + MsgTag.TAG_COUNT);
     }
     
     /**
@@ -1279,6 +1391,23 @@ public class MyProvider extends ContentProvider {
         return ContentUris.withAppendedId(Uri.withAppendedPath(getTimelineUri(accountUserId, timelineType, isCombined), MyDatabase.MSG_TABLE_NAME), msgId);
     }
     
+    /**
+     * @param timelineUri URI of the {@link TimelineTypeEnum#USER} timeline, built by any of the methods above
+     * @param selectedUserId The User, whose messages are shown
+     */
+    public static Uri getUserTimelineUri(Uri timelineUri, long selectedUserId) {
+        return timelineUri.buildUpon()
+                .appendQueryParameter(SELECTED_USER_PARAMETER, Long.toString(selectedUserId)).build();
+    }
+
+    /**
+     * @param tag The tag with or without leading "#", see {@link BodyEntities#toTag(String)}
+     */
+    public static Uri getTimelineTagUri(long accountUserId, MyDatabase.TimelineTypeEnum timelineType, boolean isCombined, String tag) {
+        Uri uri = Uri.withAppendedPath(getTimelineUri(accountUserId, timelineType, isCombined), TAG_SEGMENT);
+        return Uri.withAppendedPath(uri, Uri.encode(BodyEntities.toTag(tag)));
+    }
+
     public static Uri getTimelineSearchUri(long accountUserId, MyDatabase.TimelineTypeEnum timelineType, boolean isCombined, String queryString) {
         Uri uri = Uri.withAppendedPath(getTimelineUri(accountUserId, timelineType, isCombined), SEARCH_SEGMENT);
         if (!TextUtils.isEmpty(queryString)) {
@@ -1310,6 +1439,7 @@ public class MyProvider extends ContentProvider {
             switch (matchedCode) {
                 case TIMELINE:
                 case TIMELINE_SEARCH:
+                case TIMELINE_TAG:
                 case TIMELINE_MSG_ID:
                     isCombined = ( (Long.parseLong(uri.getPathSegments().get(5)) == 0) ? false : true);
             }
@@ -1329,6 +1459,7 @@ public class MyProvider extends ContentProvider {
             switch (matchedCode) {
                 case TIMELINE:
                 case TIMELINE_SEARCH:
+                case TIMELINE_TAG:
                 case TIMELINE_MSG_ID:
                     tt = MyDatabase.TimelineTypeEnum.load(uri.getPathSegments().get(3));
             }
@@ -1348,6 +1479,39 @@ public class MyProvider extends ContentProvider {
         return messageId;        
     }
     
+    /**
+     * @return The tag of the {@link #getTimelineTagUri(long, TimelineTypeEnum, boolean, String)}, "" for other URIs
+     */
+    public static String uriToTag(Uri uri) {
+        String tag = "";
+        try {
+            int matchedCode = sUriMatcher.match(uri);
+            switch (matchedCode) {
+                case TIMELINE_TAG:
+                    tag = BodyEntities.toTag(uri.getPathSegments().get(7));
+            }
+        } catch (Exception e) {}
+        return tag;        
+    }
+    
+    /**
+     * @return The selected User of the {@link #getUserTimelineUri(Uri, long)},
+     *  the account's User if it was not set
+     */
+    public static long uriToSelectedUserId(Uri uri) {
+        long userId = 0;
+        try {
+            String selectedUserId = uri.getQueryParameter(SELECTED_USER_PARAMETER);
+            if (!TextUtils.isEmpty(selectedUserId)) {
+                userId = Long.parseLong(selectedUserId);
+            }
+        } catch (Exception e) {}
+        if (userId == 0) {
+            userId = uriToAccountUserId(uri);
+        }
+        return userId;        
+    }
+    
     public static long uriToAccountUserId(Uri uri) {
         long accountUserId = 0;
         try {
@@ -1355,6 +1519,7 @@ public class MyProvider extends ContentProvider {
             switch (matchedCode) {
                 case TIMELINE:
                 case TIMELINE_SEARCH:
+                case TIMELINE_TAG:
                 case TIMELINE_MSG_ID:
                 case USERS:
                 case USER_ID:
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.TimelineState;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.util.MyLog;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Read marker of a timeline of a User and the number of unread messages of the timeline,
+ * stored in the {@link MyDatabase#TIMELINE_STATE_TABLE_NAME} table.
+ * The number is maintained when messages are added to the timeline ({@link PageCounter#onMsgAdded}),
+ * when the timeline is read ({@link #markRead}) and when old messages are pruned ({@link #recount}),
+ * so getting it is one row lookup.
+ * Messages, sent by the User, are never unread.
+ * @author yvolk@yurivolkov.com
+ */
+public final class ReadMarker {
+    private static final String TAG = ReadMarker.class.getSimpleName();
+
+    /**
+     * Timelines, for which unread messages are counted
+     */
+    public static final TimelineTypeEnum[] TIMELINE_TYPES = {
+            TimelineTypeEnum.HOME, TimelineTypeEnum.MENTIONS, TimelineTypeEnum.DIRECT
+    };
+
+    private ReadMarker() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return The {@link MsgOfUser} flag of messages of the timeline, null if unread messages of the timeline are not counted
+     */
+    private static String flagOf(TimelineTypeEnum timelineType) {
+        switch (timelineType) {
+            case HOME:
+                return MsgOfUser.SUBSCRIBED;
+            case MENTIONS:
+                return MsgOfUser.MENTIONED;
+            case DIRECT:
+                return MsgOfUser.DIRECTED;
+            default:
+                return null;
+        }
+    }
+
+    public static boolean isCounted(TimelineTypeEnum timelineType) {
+        return flagOf(timelineType) != null;
+    }
+
+    /**
+     * Counts unread messages, added by one page of the {@link DataInserter}, in its transaction.
+     * Statements are compiled for the first message and reused for the rest of the page
+     */
+    static final class PageCounter {
+        private final SQLiteDatabase db;
+        /**
+         * The read marker of a new timeline is set here, so messages, sent before the first download, are read
+         */
+        private final long downloadDate = System.currentTimeMillis();
+        private SQLiteStatement insertState = null;
+        /**
+         * By the index in the {@link ReadMarker#TIMELINE_TYPES}
+         */
+        private final SQLiteStatement[] increments = new SQLiteStatement[TIMELINE_TYPES.length];
+        /**
+         * Timelines of Users, whose rows are present in the {@link MyDatabase#TIMELINE_STATE_TABLE_NAME}
+         */
+        private final Set<String> statesPresent = new HashSet<String>();
+
+        PageCounter(SQLiteDatabase db) {
+            this.db = db;
+        }
+
+        /**
+         * Should be called before the values are written, because the message is counted only once:
+         * when the {@link MsgOfUser} flag of the timeline is being set for the first time
+         * @param userId The values are of this User
+         * @param values Values of the message for the User, see {@link MsgOfUser}
+         * @param msgId 0 for a new message
+         * @param sentDate The message is unread, if it's sent after the read marker
+         */
+        void onMsgAdded(long userId, ContentValues values, long msgId, long senderId, long sentDate) {
+            if (userId == 0 || senderId == userId) {
+                return;
+            }
+            for (int ind = 0; ind < TIMELINE_TYPES.length; ind++) {
+                TimelineTypeEnum timelineType = TIMELINE_TYPES[ind];
+                String flag = flagOf(timelineType);
+                Integer value = values.getAsInteger(flag);
+                if (value == null || value != 1) {
+                    continue;
+                }
+                try {
+                    String stateKey = timelineType.stateKey();
+                    if (statesPresent.add(userId + "/" + stateKey)) {
+                        if (insertState == null) {
+                            insertState = db.compileStatement("INSERT OR IGNORE INTO " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                                    + " (" + TimelineState.USER_ID + ", " + TimelineState.TIMELINE_TYPE + ", "
+                                    + TimelineState.READ_DATE + ") VALUES (?, ?, ?)");
+                        }
+                        insertState.bindLong(1, userId);
+                        insertState.bindString(2, stateKey);
+                        insertState.bindLong(3, downloadDate);
+                        insertState.execute();
+                    }
+                    if (increments[ind] == null) {
+                        increments[ind] = db.compileStatement("UPDATE " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                                + " SET " + TimelineState.UNREAD_COUNT + "=" + TimelineState.UNREAD_COUNT + "+1"
+                                + " WHERE " + TimelineState.USER_ID + "=?"
+                                + " AND " + TimelineState.TIMELINE_TYPE + "=?"
+                                + " AND " + TimelineState.READ_DATE + "<?"
+                                + " AND NOT EXISTS (SELECT * FROM " + MyDatabase.MSGOFUSER_TABLE_NAME
+                                + " WHERE " + MsgOfUser.MSG_ID + "=?"
+                                + " AND " + MsgOfUser.USER_ID + "=?"
+                                + " AND " + flag + "=1)");
+                    }
+                    SQLiteStatement increment = increments[ind];
+                    increment.bindLong(1, userId);
+                    increment.bindString(2, stateKey);
+                    increment.bindLong(3, sentDate);
+                    increment.bindLong(4, msgId);
+                    increment.bindLong(5, userId);
+                    increment.execute();
+                } catch (Exception e) {
+                    Log.e(TAG, "onMsgAdded: userId=" + userId + ", timeline=" + timelineType.save()
+                            + "; error=" + e.toString());
+                }
+            }
+        }
+
+        /**
+         * Should be called at the end of the page
+         */
+        void release() {
+            if (insertState != null) {
+                insertState.releaseReference();
+                insertState = null;
+            }
+            for (int ind = 0; ind < increments.length; ind++) {
+                if (increments[ind] != null) {
+                    increments[ind].releaseReference();
+                    increments[ind] = null;
+                }
+            }
+        }
+    }
+
+    private static void insertIfAbsent(SQLiteDatabase db, long userId, TimelineTypeEnum timelineType) {
+        db.execSQL("INSERT OR IGNORE INTO " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                + " (" + TimelineState.USER_ID + ", " + TimelineState.TIMELINE_TYPE + ") VALUES (?, ?)",
+                new Object[] {userId, timelineType.stateKey()});
+    }
+
+    /**
+     * Messages of the timeline, sent at the readDate and before it, are read now.
+     * The marker is never moved back, so scrolling down to older messages doesn't make newer ones unread
+     * @return true if the marker was moved
+     */
+    public static boolean markRead(long userId, TimelineTypeEnum timelineType, long readDate) {
+        String flag = flagOf(timelineType);
+        if (flag == null || userId == 0 || readDate == 0) {
+            return false;
+        }
+        boolean moved = false;
+        String sql = "SELECT " + TimelineState.READ_DATE + ", " + TimelineState.UNREAD_COUNT
+                + " FROM " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                + " WHERE " + TimelineState.USER_ID + "=" + userId
+                + " AND " + TimelineState.TIMELINE_TYPE + "=?";
+        Cursor cursor = null;
+        SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long readDateStored = 0;
+            long unreadCount = 0;
+            cursor = db.rawQuery(sql, new String[] {timelineType.stateKey()});
+            if (cursor.moveToFirst()) {
+                readDateStored = cursor.getLong(0);
+                unreadCount = cursor.getLong(1);
+            }
+            cursor.close();
+            cursor = null;
+            if (readDate > readDateStored) {
+                if (unreadCount > 0) {
+                    // Only messages, which are newer than the read one, are left to count
+                    sql = "SELECT count(*) FROM " + MyDatabase.MSGOFUSER_TABLE_NAME
+                            + " INNER JOIN " + MyDatabase.MSG_TABLE_NAME + " ON "
+                            + MyDatabase.MSG_TABLE_NAME + "." + BaseColumns._ID + "="
+                            + MyDatabase.MSGOFUSER_TABLE_NAME + "." + MsgOfUser.MSG_ID
+                            + " WHERE " + MyDatabase.MSGOFUSER_TABLE_NAME + "." + MsgOfUser.USER_ID + "=" + userId
+                            + " AND " + MyDatabase.MSGOFUSER_TABLE_NAME + "." + flag + "=1"
+                            + " AND " + MyDatabase.MSG_TABLE_NAME + "." + Msg.SENT_DATE + ">" + readDate
+                            + " AND " + MyDatabase.MSG_TABLE_NAME + "." + Msg.SENDER_ID + "<>" + userId;
+                    cursor = db.rawQuery(sql, null);
+                    unreadCount = (cursor.moveToFirst() ? cursor.getLong(0) : 0);
+                    cursor.close();
+                    cursor = null;
+                }
+                insertIfAbsent(db, userId, timelineType);
+                sql = "UPDATE " + MyDatabase.TIMELINE_STATE_TABLE_NAME + " SET "
+                        + TimelineState.READ_DATE + "=" + readDate + ", "
+                        + TimelineState.UNREAD_COUNT + "=" + unreadCount
+                        + " WHERE " + TimelineState.USER_ID + "=" + userId
+                        + " AND " + TimelineState.TIMELINE_TYPE + "=?";
+                db.execSQL(sql, new Object[] {timelineType.stateKey()});
+                moved = true;
+                if (MyLog.isLoggable(TAG, Log.VERBOSE)) {
+                    MyLog.v(TAG, "Timeline " + timelineType.save() + " of the user=" + userId
+                            + " read up to " + readDate + ", unread=" + unreadCount);
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "markRead: sql=" + sql + "; error=" + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            db.endTransaction();
+        }
+        return moved;
+    }
+
+    /**
+     * Unread messages of all timelines are counted anew, e.g. after old messages were deleted.
+     * Should be called in the transaction of the deletion
+     */
+    static void recount(SQLiteDatabase db) {
+        for (TimelineTypeEnum timelineType : TIMELINE_TYPES) {
+            String ts = MyDatabase.TIMELINE_STATE_TABLE_NAME;
+            String sql = "UPDATE " + ts + " SET " + TimelineState.UNREAD_COUNT + "=("
+                    + "SELECT count(*) FROM " + MyDatabase.MSGOFUSER_TABLE_NAME
+                    + " INNER JOIN " + MyDatabase.MSG_TABLE_NAME + " ON "
+                    + MyDatabase.MSG_TABLE_NAME + "." + BaseColumns._ID + "="
+                    + MyDatabase.MSGOFUSER_TABLE_NAME + "." + MsgOfUser.MSG_ID
+                    + " WHERE " + MyDatabase.MSGOFUSER_TABLE_NAME + "." + MsgOfUser.USER_ID + "=" + ts + "." + TimelineState.USER_ID
+                    + " AND " + MyDatabase.MSGOFUSER_TABLE_NAME + "." + flagOf(timelineType) + "=1"
+                    + " AND " + MyDatabase.MSG_TABLE_NAME + "." + Msg.SENT_DATE + ">" + ts + "." + TimelineState.READ_DATE
+                    + " AND " + MyDatabase.MSG_TABLE_NAME + "." + Msg.SENDER_ID + "<>" + ts + "." + TimelineState.USER_ID
+                    + ")"
+                    + " WHERE " + TimelineState.TIMELINE_TYPE + "=?"
+                    + " AND " + TimelineState.UNREAD_COUNT + ">0";
+            db.execSQL(sql, new Object[] {timelineType.stateKey()});
+        }
+    }
+
+    /**
+     * @param userId 0 - the sum for all Users
+     * @return Number of unread messages of the timeline
+     */
+    public static int getUnreadCount(long userId, TimelineTypeEnum timelineType) {
+        if (!isCounted(timelineType)) {
+            return 0;
+        }
+        String sql = "SELECT " + (userId == 0 ? "sum(" + TimelineState.UNREAD_COUNT + ")" : TimelineState.UNREAD_COUNT)
+                + " FROM " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                + " WHERE " + TimelineState.TIMELINE_TYPE + "=?"
+                + (userId == 0 ? "" : " AND " + TimelineState.USER_ID + "=" + userId);
+        int count = 0;
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
+            cursor = db.rawQuery(sql, new String[] {timelineType.stateKey()});
+            if (cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "getUnreadCount: sql=" + sql + "; error=" + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.andstatus.app.MessageCounters;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statistics of one download ("run") of one timeline for one account,
+ * persisted in the {@link MyDatabase.SyncRun} table.
+ * Only {@link #MAX_ROWS} latest runs are kept.
+ * @author yvolk@yurivolkov.com
+ */
+public class SyncRun {
+    private static final String TAG = SyncRun.class.getSimpleName();
+
+    /**
+     * Maximum number of runs to keep in the database
+     */
+    public static final int MAX_ROWS = 1000;
+
+    private static volatile int cachedAppVersion = -1;
+
+    public long id = 0;
+    public long userId = 0;
+    public long originId = 0;
+    public TimelineTypeEnum timelineType = TimelineTypeEnum.UNKNOWN;
+    public long startDate = 0;
+    public long endDate = 0;
+    public int pages = 0;
+    public long bytes = 0;
+    public int itemsParsed = 0;
+    public int itemsInserted = 0;
+    public int itemsUpdated = 0;
+    public int errors = 0;
+    /**
+     * Name of the {@link StatusCode}, empty if the run was not stopped by an error
+     */
+    public String statusCode = "";
+    public int appVersion = 0;
+
+    /**
+     * Aggregated runs of one Originating system
+     */
+    public static class Totals {
+        public long originId = 0;
+        public int runs = 0;
+        /**
+         * Sum of durations of the runs, in milliseconds
+         */
+        public long duration = 0;
+        public int pages = 0;
+        public long bytes = 0;
+        public int itemsParsed = 0;
+        public int itemsInserted = 0;
+        public int itemsUpdated = 0;
+        public int errors = 0;
+
+        /**
+         * @return 0 if nothing was parsed
+         */
+        public long getMillisPerItem() {
+            return (itemsParsed == 0 ? 0 : duration / itemsParsed);
+        }
+
+        @Override
+        public String toString() {
+            return "origin=" + originId + "; runs=" + runs + "; " + duration + "ms; pages=" + pages
+                    + "; bytes=" + bytes + "; parsed=" + itemsParsed + "; inserted=" + itemsInserted
+                    + "; updated=" + itemsUpdated + "; errors=" + errors;
+        }
+    }
+
+    /**
+     * New run of the {@link MessageCounters#timelineType}, started now. Raw counters are reset
+     */
+    public static SyncRun start(MessageCounters counters) {
+        counters.resetRawCounters();
+        SyncRun run = new SyncRun();
+        run.userId = counters.ma.getUserId();
+        run.originId = counters.ma.getOriginId();
+        run.timelineType = counters.timelineType;
+        run.startDate = System.currentTimeMillis();
+        run.appVersion = getAppVersion();
+        return run;
+    }
+
+    /**
+     * Take the raw counters of this run, before they are accumulated
+     * @param bytesIn Size of HTTP responses received during the run
+     */
+    public void onEnded(MessageCounters counters, long bytesIn) {
+        endDate = System.currentTimeMillis();
+        pages = counters.pagesDownloaded;
+        itemsParsed = counters.itemsParsed;
+        itemsInserted = counters.itemsInserted;
+        itemsUpdated = counters.itemsUpdated;
+        errors += counters.errors;
+        bytes = bytesIn;
+    }
+
+    /**
+     * The run was stopped by the error
+     */
+    public void onError(StatusCode statusCodeIn) {
+        errors += 1;
+        statusCode = (statusCodeIn == null ? StatusCode.UNKNOWN : statusCodeIn).name();
+    }
+
+    public long getDuration() {
+        return (endDate > startDate ? endDate - startDate : 0);
+    }
+
+    /**
+     * Insert the run into the database and delete the oldest runs above {@link #MAX_ROWS}
+     * @return true if succeeded
+     */
+    public boolean save() {
+        if (endDate == 0) {
+            endDate = System.currentTimeMillis();
+        }
+        boolean ok = false;
+        ContentValues values = new ContentValues();
+        values.put(MyDatabase.SyncRun.USER_ID, userId);
+        values.put(MyDatabase.SyncRun.ORIGIN_ID, originId);
+        values.put(MyDatabase.SyncRun.TIMELINE_TYPE, timelineType.save());
+        values.put(MyDatabase.SyncRun.START_DATE, startDate);
+        values.put(MyDatabase.SyncRun.END_DATE, endDate);
+        values.put(MyDatabase.SyncRun.PAGES, pages);
+        values.put(MyDatabase.SyncRun.BYTES, bytes);
+        values.put(MyDatabase.SyncRun.ITEMS_PARSED, itemsParsed);
+        values.put(MyDatabase.SyncRun.ITEMS_INSERTED, itemsInserted);
+        values.put(MyDatabase.SyncRun.ITEMS_UPDATED, itemsUpdated);
+        values.put(MyDatabase.SyncRun.ERRORS, errors);
+        values.put(MyDatabase.SyncRun.STATUS_CODE, statusCode);
+        values.put(MyDatabase.SyncRun.APP_VERSION, appVersion);
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+            id = db.insert(MyDatabase.SYNC_RUN_TABLE_NAME, null, values);
+            ok = (id != -1);
+            if (ok && id > MAX_ROWS) {
+                db.delete(MyDatabase.SYNC_RUN_TABLE_NAME, BaseColumns._ID + "<=" + (id - MAX_ROWS), null);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "save: " + e.toString());
+        }
+        MyLog.v(TAG, "Saved: " + this);
+        return ok;
+    }
+
+    /**
+     * @param userId User ID of the account, 0 for all accounts
+     * @param timelineType null or {@link TimelineTypeEnum#ALL} for all timelines
+     * @return the latest runs first
+     */
+    public static List<SyncRun> getLatest(long userId, TimelineTypeEnum timelineType, int limit) {
+        String where = "";
+        if (userId != 0) {
+            where = MyDatabase.SyncRun.USER_ID + "=" + userId;
+        }
+        String[] selectionArgs = null;
+        if (timelineType != null && timelineType != TimelineTypeEnum.ALL) {
+            where += (where.length() > 0 ? " AND " : "") + MyDatabase.SyncRun.TIMELINE_TYPE + "=?";
+            selectionArgs = new String[] {timelineType.save()};
+        }
+        List<SyncRun> runs = new ArrayList<SyncRun>();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
+            cursor = db.query(MyDatabase.SYNC_RUN_TABLE_NAME, null, where.length() > 0 ? where : null,
+                    selectionArgs, null, null, MyDatabase.SyncRun.DEFAULT_SORT_ORDER, Integer.toString(limit));
+            while (cursor.moveToNext()) {
+                runs.add(fromCursor(cursor));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "getLatest: " + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * To find slow Originating systems and regressions
+     * @param sinceDate Only runs started at this time or later are counted
+     * @param appVersionIn versionCode of the application, 0 for any version
+     */
+    public static List<Totals> getTotalsByOrigin(long sinceDate, int appVersionIn) {
+        String sql = "SELECT " + MyDatabase.SyncRun.ORIGIN_ID
+                + ", COUNT(*)"
+                + ", SUM(" + MyDatabase.SyncRun.END_DATE + "-" + MyDatabase.SyncRun.START_DATE + ")"
+                + ", SUM(" + MyDatabase.SyncRun.PAGES + ")"
+                + ", SUM(" + MyDatabase.SyncRun.BYTES + ")"
+                + ", SUM(" + MyDatabase.SyncRun.ITEMS_PARSED + ")"
+                + ", SUM(" + MyDatabase.SyncRun.ITEMS_INSERTED + ")"
+                + ", SUM(" + MyDatabase.SyncRun.ITEMS_UPDATED + ")"
+                + ", SUM(" + MyDatabase.SyncRun.ERRORS + ")"
+                + " FROM " + MyDatabase.SYNC_RUN_TABLE_NAME
+                + " WHERE " + MyDatabase.SyncRun.START_DATE + ">=" + sinceDate
+                + (appVersionIn == 0 ? "" : " AND " + MyDatabase.SyncRun.APP_VERSION + "=" + appVersionIn)
+                + " GROUP BY " + MyDatabase.SyncRun.ORIGIN_ID;
+        List<Totals> list = new ArrayList<Totals>();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
+            cursor = db.rawQuery(sql, null);
+            while (cursor.moveToNext()) {
+                Totals totals = new Totals();
+                totals.originId = cursor.getLong(0);
+                totals.runs = cursor.getInt(1);
+                totals.duration = cursor.getLong(2);
+                totals.pages = cursor.getInt(3);
+                totals.bytes = cursor.getLong(4);
+                totals.itemsParsed = cursor.getInt(5);
+                totals.itemsInserted = cursor.getInt(6);
+                totals.itemsUpdated = cursor.getInt(7);
+                totals.errors = cursor.getInt(8);
+                list.add(totals);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "getTotalsByOrigin: " + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return list;
+    }
+
+    private static SyncRun fromCursor(Cursor cursor) {
+        SyncRun run = new SyncRun();
+        run.id = cursor.getLong(cursor.getColumnIndex(BaseColumns._ID));
+        run.userId = cursor.getLong(cursor.getColumnIndex(MyDatabase.SyncRun.USER_ID));
+        run.originId = cursor.getLong(cursor.getColumnIndex(MyDatabase.SyncRun.ORIGIN_ID));
+        run.timelineType = TimelineTypeEnum.load(cursor.getString(cursor.getColumnIndex(MyDatabase.SyncRun.TIMELINE_TYPE)));
+        run.startDate = cursor.getLong(cursor.getColumnIndex(MyDatabase.SyncRun.START_DATE));
+        run.endDate = cursor.getLong(cursor.getColumnIndex(MyDatabase.SyncRun.END_DATE));
+        run.pages = cursor.getInt(cursor.getColumnIndex(MyDatabase.SyncRun.PAGES));
+        run.bytes = cursor.getLong(cursor.getColumnIndex(MyDatabase.SyncRun.BYTES));
+        run.itemsParsed = cursor.getInt(cursor.getColumnIndex(MyDatabase.SyncRun.ITEMS_PARSED));
+        run.itemsInserted = cursor.getInt(cursor.getColumnIndex(MyDatabase.SyncRun.ITEMS_INSERTED));
+        run.itemsUpdated = cursor.getInt(cursor.getColumnIndex(MyDatabase.SyncRun.ITEMS_UPDATED));
+        run.errors = cursor.getInt(cursor.getColumnIndex(MyDatabase.SyncRun.ERRORS));
+        run.statusCode = cursor.getString(cursor.getColumnIndex(MyDatabase.SyncRun.STATUS_CODE));
+        run.appVersion = cursor.getInt(cursor.getColumnIndex(MyDatabase.SyncRun.APP_VERSION));
+        return run;
+    }
+
+    private static int getAppVersion() {
+        if (cachedAppVersion < 0) {
+            int version = 0;
+            Context context = MyPreferences.getContext();
+            if (context != null) {
+                try {
+                    version = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+                } catch (NameNotFoundException e) {
+                    Log.w(TAG, "Unable to obtain package information: " + e.toString());
+                }
+            }
+            cachedAppVersion = version;
+        }
+        return cachedAppVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncRun [" + timelineType.save() + ", user=" + userId + ", origin=" + originId
+                + ", " + getDuration() + "ms, pages=" + pages + ", bytes=" + bytes
+                + ", parsed=" + itemsParsed + ", inserted=" + itemsInserted + ", updated=" + itemsUpdated
+                + ", errors=" + errors + (statusCode.length() > 0 ? ", " + statusCode : "") + "]";
+    }
+}
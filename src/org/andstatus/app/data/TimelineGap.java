@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.net.TimelinePosition;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of the timeline, which wasn't downloaded: the download reached its limit
+ * before it got to the {@link LatestTimelineItem}, downloaded earlier.
+ * The gap is filled from its newer end backwards, page by page, persisted in the {@link MyDatabase.TimelineGap} table.
+ * @author yvolk@yurivolkov.com
+ */
+public class TimelineGap {
+    private static final String TAG = TimelineGap.class.getSimpleName();
+
+    private long id = 0;
+    private final TimelineTypeEnum timelineType;
+    private final long userId;
+    private final TimelinePosition olderPosition;
+    private final long olderDate;
+    private TimelinePosition newerPosition;
+    private long newerDate;
+    private boolean filled = false;
+
+    /**
+     * @param olderPosition The item, downloaded before the gap
+     * @param newerPosition The oldest item, downloaded after the gap
+     */
+    public TimelineGap(TimelineTypeEnum timelineType, long userId, TimelinePosition olderPosition, long olderDate,
+            TimelinePosition newerPosition, long newerDate) {
+        this.timelineType = timelineType;
+        this.userId = userId;
+        this.olderPosition = olderPosition;
+        this.olderDate = olderDate;
+        this.newerPosition = newerPosition;
+        this.newerDate = newerDate;
+    }
+
+    /**
+     * @return Gaps of the timeline, the newest first
+     */
+    public static List<TimelineGap> list(TimelineTypeEnum timelineType, long userId) {
+        List<TimelineGap> gaps = new ArrayList<TimelineGap>();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
+            cursor = db.query(MyDatabase.TIMELINE_GAP_TABLE_NAME, null,
+                    MyDatabase.TimelineGap.USER_ID + "=" + userId + " AND " + MyDatabase.TimelineGap.TIMELINE_TYPE + "=?",
+                    new String[] {timelineType.stateKey()}, null, null, MyDatabase.TimelineGap.DEFAULT_SORT_ORDER);
+            while (cursor.moveToNext()) {
+                TimelineGap gap = new TimelineGap(timelineType, userId,
+                        new TimelinePosition(cursor.getString(cursor.getColumnIndex(MyDatabase.TimelineGap.OLDER_POSITION))),
+                        cursor.getLong(cursor.getColumnIndex(MyDatabase.TimelineGap.OLDER_DATE)),
+                        new TimelinePosition(cursor.getString(cursor.getColumnIndex(MyDatabase.TimelineGap.NEWER_POSITION))),
+                        cursor.getLong(cursor.getColumnIndex(MyDatabase.TimelineGap.NEWER_DATE)));
+                gap.id = cursor.getLong(cursor.getColumnIndex(BaseColumns._ID));
+                gaps.add(gap);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "list: " + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return gaps;
+    }
+
+    /**
+     * @param itemDate Date of an item, the User scrolled down to
+     * @return true if there is a gap above the item or at its place
+     */
+    public static boolean isReached(TimelineTypeEnum timelineType, long userId, long itemDate) {
+        String sql = "SELECT COUNT(*) FROM " + MyDatabase.TIMELINE_GAP_TABLE_NAME
+                + " WHERE " + MyDatabase.TimelineGap.USER_ID + "=" + userId
+                + " AND " + MyDatabase.TimelineGap.TIMELINE_TYPE + "=?"
+                + " AND " + MyDatabase.TimelineGap.NEWER_DATE + ">=" + itemDate;
+        boolean reached = false;
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
+            cursor = db.rawQuery(sql, new String[] {timelineType.stateKey()});
+            reached = cursor.moveToFirst() && cursor.getLong(0) > 0;
+        } catch (Exception e) {
+            Log.e(TAG, "isReached: sql=" + sql + "; error=" + e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return reached;
+    }
+
+    public TimelineTypeEnum getTimelineType() {
+        return timelineType;
+    }
+
+    public TimelinePosition getOlderPosition() {
+        return olderPosition;
+    }
+
+    public long getOlderDate() {
+        return olderDate;
+    }
+
+    /**
+     * @return Items, older than this one, are not downloaded yet
+     */
+    public TimelinePosition getNewerPosition() {
+        return newerPosition;
+    }
+
+    public long getNewerDate() {
+        return newerDate;
+    }
+
+    /**
+     * A page of items, older than the newer end of the gap, was downloaded
+     * @param position The oldest item of the page
+     */
+    public void onOlderItemsDownloaded(TimelinePosition position, long itemDate) {
+        if (itemDate <= olderDate) {
+            filled = true;
+        } else if (position != null && !position.isEmpty()) {
+            newerPosition = position;
+            newerDate = itemDate;
+        }
+    }
+
+    /**
+     * Nothing is left between the ends of the gap
+     */
+    public void onFilled() {
+        filled = true;
+    }
+
+    public boolean isFilled() {
+        return filled;
+    }
+
+    /**
+     * Persist the gap or delete it, if it was filled
+     */
+    public void save() {
+        try {
+            SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+            if (filled) {
+                if (id != 0) {
+                    db.delete(MyDatabase.TIMELINE_GAP_TABLE_NAME, BaseColumns._ID + "=" + id, null);
+                    id = 0;
+                }
+            } else {
+                ContentValues values = new ContentValues();
+                values.put(MyDatabase.TimelineGap.USER_ID, userId);
+                values.put(MyDatabase.TimelineGap.TIMELINE_TYPE, timelineType.stateKey());
+                values.put(MyDatabase.TimelineGap.OLDER_POSITION, olderPosition.getPosition());
+                values.put(MyDatabase.TimelineGap.OLDER_DATE, olderDate);
+                values.put(MyDatabase.TimelineGap.NEWER_POSITION, newerPosition.getPosition());
+                values.put(MyDatabase.TimelineGap.NEWER_DATE, newerDate);
+                if (id == 0) {
+                    id = db.insert(MyDatabase.TIMELINE_GAP_TABLE_NAME, null, values);
+                    if (id == -1) {
+                        id = 0;
+                    }
+                } else {
+                    db.update(MyDatabase.TIMELINE_GAP_TABLE_NAME, values, BaseColumns._ID + "=" + id, null);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "save: " + e.toString());
+        }
+        MyLog.v(TAG, "Saved: " + this);
+    }
+
+    @Override
+    public String toString() {
+        return "TimelineGap [" + timelineType.save() + ", user=" + userId
+                + (filled ? ", filled" : "")
+                + ", older='" + olderPosition + "' at " + olderDate
+                + ", newer='" + newerPosition + "' at " + newerDate + "]";
+    }
+}
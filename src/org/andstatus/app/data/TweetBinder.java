@@ -43,6 +43,15 @@ public class TweetBinder implements ViewBinder {
     public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
 		int colIndex = -1;
 		switch (view.getId()) {
+		case R.id.message_body:
+		    // Entities were found when the message was stored, so we only apply spans here
+		    String entities = null;
+            colIndex = cursor.getColumnIndex(Msg.BODY_ENTITIES);
+            if (colIndex > -1) {
+                entities = cursor.getString(colIndex);
+            }
+            ((TextView)view).setText(BodyEntities.toSpannable(cursor.getString(columnIndex), entities));
+            return true;
 		case R.id.message_details:
 			String messageDetails = RelativeTime.getDifference(view.getContext(), cursor.getLong(columnIndex));
             colIndex = cursor.getColumnIndex(Msg.IN_REPLY_TO_MSG_ID);
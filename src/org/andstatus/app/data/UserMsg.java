@@ -16,7 +16,7 @@
 
 package org.andstatus.app.data;
 
-import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 import android.util.Log;
 
@@ -111,12 +111,26 @@ public class UserMsg {
         }
     }
     
+    /**
+     * Updates the User unless the database already has a newer message by him.
+     * Arguments: lastMsgId, lastMsgDate, userId, lastMsgDate
+     */
+    static final String UPDATE_SQL = "UPDATE " + MyDatabase.USER_TABLE_NAME + " SET "
+            + User.USER_MSG_ID + "=?, " + User.USER_MSG_DATE + "=?"
+            + " WHERE " + BaseColumns._ID + "=? AND IFNULL(" + User.USER_MSG_DATE + ", 0)<=?";
+
+    /**
+     * @return true if there is something to save
+     */
+    boolean isChanged() {
+        return changed;
+    }
+
     /**
      * Persist the info into the Database
-     * @return true if succeeded
+     * @param statement Compiled {@link #UPDATE_SQL}, it may be reused for many Users
      */
-    public boolean save() {
-        boolean ok = true;
+    void save(SQLiteStatement statement) {
         if (MyLog.isLoggable(TAG, Log.VERBOSE)) {
             MyLog.v(TAG, "User=" + MyProvider.userIdToName(userId) 
                     + " Latest msg at " + (new Date(getLastMsgDate()).toString())
@@ -124,36 +138,13 @@ public class UserMsg {
                     );
         }
         if (!changed) {
-            return ok;
-        }
-
-        // As a precaution compare with stored values ones again
-        long msgDate = MyProvider.userIdToLongColumnValue(User.USER_MSG_DATE, userId);
-        if (msgDate > lastMsgDate) {
-            lastMsgDate = msgDate;
-            lastMsgId = MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, userId);
-            MyLog.v(TAG, "There is newer information in the database. User=" + MyProvider.userIdToName(userId) 
-                    + " Latest msg at " + (new Date(getLastMsgDate()).toString()));
-            changed = false;
-            return ok;
-        }
-
-        String sql = "";
-        try {
-            sql += User.USER_MSG_ID + "=" + lastMsgId;
-            sql += ", " + User.USER_MSG_DATE + "=" + lastMsgDate;
-
-            sql = "UPDATE " + MyDatabase.USER_TABLE_NAME + " SET " + sql 
-                    + " WHERE " + BaseColumns._ID + "=" + userId;
-
-            SQLiteDatabase db = MyPreferences.getDatabase().getReadableDatabase();
-            db.execSQL(sql);
-            
-            changed = false;
-        } catch (Exception e) {
-            ok = false;
-            Log.e(TAG, "save: sql=" + sql + "; error=" + e.toString());
+            return;
         }
-        return ok;
+        statement.bindLong(1, lastMsgId);
+        statement.bindLong(2, lastMsgDate);
+        statement.bindLong(3, userId);
+        statement.bindLong(4, lastMsgDate);
+        statement.execute();
+        changed = false;
     }
 }
@@ -97,7 +97,7 @@ class ActivitySender {
             activity.put("object", obj);
 
             ConnectionAndUrl conu = connection.getConnectionAndUrl(ApiRoutineEnum.STATUSES_UPDATE, connection.data.accountUserOid);
-            jso = conu.httpConnection.postRequest(conu.url, activity);
+            jso = conu.httpConnection.postRequest(ApiRoutineEnum.STATUSES_UPDATE, conu.url, activity);
             if (jso != null && MyLog.isLoggable(TAG, Log.VERBOSE)) {
                 MyLog.v(TAG, "verb '" + verb + "' object id='" + objectId + "' " + jso.toString(2));
             }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.util.MyLog;
+
+/**
+ * Lets another thread stop a long operation cooperatively: the HTTP request in progress is aborted,
+ * and loops over downloaded items stop between items (see {@link #throwIfCancelled()}),
+ * so the progress, made up to that moment, may be committed.
+ * The token is passed to downloaders explicitly. {@link Connection}s are shared by threads,
+ * so their requests see the token, attached to the current thread, see {@link #attach()}
+ * @author yvolk@yurivolkov.com
+ */
+public class CancellationToken {
+    private static final String TAG = CancellationToken.class.getSimpleName();
+
+    /**
+     * Is never cancelled
+     */
+    public static final CancellationToken NONE = new CancellationToken(false);
+
+    private static final ThreadLocal<CancellationToken> threadToken = new ThreadLocal<CancellationToken>();
+
+    /**
+     * The request in progress
+     */
+    public interface Abortable {
+        void abort();
+    }
+
+    private final boolean cancellable;
+    private volatile boolean cancelled = false;
+    /**
+     * Guarded by this
+     */
+    private Abortable request = null;
+
+    public CancellationToken() {
+        this(true);
+    }
+
+    private CancellationToken(boolean cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    /**
+     * @return The token, attached to the current thread, or {@link #NONE}
+     */
+    public static CancellationToken current() {
+        CancellationToken token = threadToken.get();
+        return (token == null ? NONE : token);
+    }
+
+    /**
+     * Requests, executed by the current thread, may be cancelled by this token
+     */
+    public void attach() {
+        threadToken.set(this);
+    }
+
+    public void detach() {
+        if (threadToken.get() == this) {
+            threadToken.remove();
+        }
+    }
+
+    /**
+     * May be called by any thread
+     */
+    public void cancel() {
+        if (!cancellable) {
+            return;
+        }
+        Abortable toAbort;
+        synchronized (this) {
+            cancelled = true;
+            toAbort = request;
+            request = null;
+        }
+        if (toAbort != null) {
+            MyLog.v(TAG, "Aborting the request in progress");
+            toAbort.abort();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() throws ConnectionException {
+        if (cancelled) {
+            throw new ConnectionException(StatusCode.CANCELLED, "Cancelled");
+        }
+    }
+
+    /**
+     * The request will be aborted, if the token is cancelled before {@link #onRequestEnded()}
+     * @throws ConnectionException if the token is cancelled already
+     */
+    synchronized void onRequestStarted(Abortable request) throws ConnectionException {
+        throwIfCancelled();
+        if (cancellable) {
+            this.request = request;
+        }
+    }
+
+    synchronized void onRequestEnded() {
+        request = null;
+    }
+}
@@ -27,6 +27,8 @@ import org.andstatus.app.net.ConnectionException.StatusCode;
 import org.andstatus.app.origin.Origin;
 import org.andstatus.app.origin.OriginConnectionData;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
+import org.json.JSONObject;
 
 import java.util.List;
 
@@ -93,6 +95,12 @@ public abstract class Connection {
          * not the same user. 
          */
         STATUSES_USER_TIMELINE,
+        /**
+         * Long-lived streaming connection, delivering messages of the Home timeline
+         * and Direct messages of the authenticating user as they are posted,
+         * see {@link Connection#openMessageStream()}
+         */
+        STATUSES_USER_STREAM,
         STATUSES_SHOW,
         STATUSES_UPDATE,
         STOP_FOLLOWING_USER,
@@ -115,6 +123,11 @@ public abstract class Connection {
 
     protected HttpConnection http;
     protected OriginConnectionData data;
+
+    /**
+     * Latency of parsing one timeline item by the API routine, filled on the first use
+     */
+    private static final MyMetrics.Latency[] parseLatencies = new MyMetrics.Latency[ApiRoutineEnum.values().length];
     
     protected Connection() {}
 
@@ -123,6 +136,15 @@ public abstract class Connection {
      */
     protected abstract String getApiPath1(ApiRoutineEnum routine);
 
+    protected static MyMetrics.Latency parseLatencyOf(ApiRoutineEnum routine) {
+        MyMetrics.Latency latency = parseLatencies[routine.ordinal()];
+        if (latency == null) {
+            latency = MyMetrics.latency("parse." + routine.name());
+            parseLatencies[routine.ordinal()] = latency;
+        }
+        return latency;
+    }
+
     /**
      * Full path of the API. Logged
      * @return URL or throws a ConnectionException in case the API routine is not supported
@@ -195,6 +217,13 @@ public abstract class Connection {
     public final boolean getCredentialsPresent() {
         return http.getCredentialsPresent();
     }
+
+    /**
+     * @return Total size of responses received by this connection since its creation
+     */
+    public final long getBytesReceived() {
+        return http.getBytesReceived();
+    }
     
     /**
      * Verify the user's credentials.
@@ -286,8 +315,18 @@ public abstract class Connection {
      * Universal method for several Timeline Types...
      * @param userId For the {@link ApiRoutineEnum#STATUSES_USER_TIMELINE}, null for the other timelines
      */
-    public abstract List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId)
-            throws ConnectionException;
+    public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId)
+            throws ConnectionException {
+        return getTimeline(apiRoutine, sinceId, TimelinePosition.getEmpty(), limit, userId);
+    }
+
+    /**
+     * The same as {@link #getTimeline(ApiRoutineEnum, TimelinePosition, int, String)}, but only items,
+     * older than the maxId, are requested, so a page of the timeline below the newest items may be downloaded
+     * @param maxId Empty - no restriction. Depending on the API, an item at this position may be included
+     */
+    public abstract List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId,
+            TimelinePosition maxId, int limit, String userId) throws ConnectionException;
 
     /**
      * Allows this User to follow the user specified in the userId parameter
@@ -364,6 +403,22 @@ public abstract class Connection {
 
     public void enrichConnectionData(OriginConnectionData connectionData2) { }
 
+    /**
+     * Open the {@link ApiRoutineEnum#STATUSES_USER_STREAM}. The caller should close the stream
+     */
+    public MessageStream openMessageStream() throws ConnectionException {
+        return new MessageStream(this, http.getStream(ApiRoutineEnum.STATUSES_USER_STREAM,
+                getApiPath(ApiRoutineEnum.STATUSES_USER_STREAM)));
+    }
+
+    /**
+     * Parse one event of the {@link ApiRoutineEnum#STATUSES_USER_STREAM}
+     * @return null if the event is not a message (e.g. a notice of a deleted message)
+     */
+    protected MbMessage messageFromStreamEvent(JSONObject jso) throws ConnectionException {
+        return null;
+    }
+
     public boolean userObjectHasMessage() {
         return false;
     }
@@ -83,7 +83,7 @@ public class ConnectionEmpty extends Connection {
 
     @Override
     public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId,
-            int limit, String userId) throws ConnectionException {
+            TimelinePosition maxId, int limit, String userId) throws ConnectionException {
         // TODO Auto-generated method stub
         return new ArrayList<MbTimelineItem>();
     }
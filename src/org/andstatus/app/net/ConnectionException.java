@@ -35,7 +35,11 @@ public class ConnectionException extends Exception {
         BAD_REQUEST,
         AUTHENTICATION_ERROR,
         CREDENTIALS_OF_OTHER_USER,
-        NO_CREDENTIALS_FOR_HOST;
+        NO_CREDENTIALS_FOR_HOST,
+        /**
+         * The operation was stopped, see {@link CancellationToken}
+         */
+        CANCELLED;
         
         public static StatusCode fromResponseCode(int responseCode) {
             switch (responseCode) {
@@ -86,6 +90,7 @@ public class ConnectionException extends Exception {
         this.statusCode = statusCode;
         switch (statusCode) {
             case UNKNOWN:
+            case CANCELLED:
                 break;
             default:
                 isHardError = true;
@@ -23,19 +23,16 @@ import android.util.Log;
 
 import org.andstatus.app.net.ConnectionException.StatusCode;
 import org.andstatus.app.origin.OriginConnectionData;
+import org.andstatus.app.util.DateParser;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
 import org.andstatus.app.util.TriState;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * Implementation of pump.io API: <a href="https://github.com/e14n/pump.io/blob/master/API.md">https://github.com/e14n/pump.io/blob/master/API.md</a>  
@@ -105,7 +102,8 @@ public class ConnectionPumpio extends Connection {
 
     @Override
     public MbUser verifyCredentials() throws ConnectionException {
-        JSONObject user = http.getRequest(getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
+        JSONObject user = http.getRequest(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS,
+                getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
         return userFromJson(user);
     }
 
@@ -143,27 +141,13 @@ public class ConnectionPumpio extends Connection {
         return date;
     }
     
-    /**
-     * Simple solution based on:
-     * http://stackoverflow.com/questions/2201925/converting-iso8601-compliant-string-to-java-util-date
-     */
     private static long parseDate(String date) {
-        if(date == null)
-            return new Date().getTime();
-        String datePrepared;        
-        if (date.lastIndexOf("Z") == date.length()-1) {
-            datePrepared = date.substring(0, date.length()-1) + "+0000";
-        } else {
-            datePrepared = date.replaceAll("\\+0([0-9]){1}\\:00", "+0$100");
-        }
-        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.GERMANY);
-        try {
-            long unixTime = df.parse(datePrepared).getTime();
-            return unixTime;
-        } catch (ParseException e) {
+        long unixTime = DateParser.parseIso8601(date);
+        if (unixTime == 0) {
             Log.e(TAG, "Failed to parse the date: '" + date +"'");
-            return new Date().getTime();
+            return System.currentTimeMillis();
         }
+        return unixTime;
     }
     
     @Override
@@ -197,7 +181,7 @@ public class ConnectionPumpio extends Connection {
             builder.appendQueryParameter("count",String.valueOf(fixedDownloadLimitForApiRoutine(limit, apiRoutine)));
         }
         String url = builder.build().toString();
-        JSONArray jArr = conu.httpConnection.getRequestAsArray(url);
+        JSONArray jArr = conu.httpConnection.getRequestAsArray(apiRoutine, url);
         List<MbUser> followedUsers = new ArrayList<MbUser>();
         if (jArr != null) {
             for (int index = 0; index < jArr.length(); index++) {
@@ -216,7 +200,7 @@ public class ConnectionPumpio extends Connection {
 
     @Override
     public MbMessage getMessage(String messageId) throws ConnectionException {
-        JSONObject message = http.getRequest(messageId);
+        JSONObject message = http.getRequest(ApiRoutineEnum.STATUSES_SHOW, messageId);
         return messageFromJson(message);
     }
 
@@ -321,12 +305,16 @@ public class ConnectionPumpio extends Connection {
     }
 
     @Override
-    public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId)
-            throws ConnectionException {
+    public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId,
+            TimelinePosition maxId, int limit, String userId) throws ConnectionException {
         ConnectionAndUrl conu = getConnectionAndUrl(apiRoutine, userId);
         Uri sUri = Uri.parse(conu.url);
         Uri.Builder builder = sUri.buildUpon();
-        if (!sinceId.isEmpty()) {
+        if (!maxId.isEmpty()) {
+            // The server rejects "since" together with "before", so the page before "maxId" is requested,
+            // and its items, starting from "sinceId", are skipped below
+            builder.appendQueryParameter("before", maxId.getPosition());
+        } else if (!sinceId.isEmpty()) {
             // The "since" should point to the "Activity" on the timeline, not to the message
             // Otherwise we will always get "not found"
             builder.appendQueryParameter("since", sinceId.getPosition());
@@ -335,14 +323,28 @@ public class ConnectionPumpio extends Connection {
             builder.appendQueryParameter("count",String.valueOf(fixedDownloadLimitForApiRoutine(limit, apiRoutine)));
         }
         String url = builder.build().toString();
-        JSONArray jArr = conu.httpConnection.getRequestAsArray(url);
+        JSONArray jArr = conu.httpConnection.getRequestAsArray(apiRoutine, url);
         List<MbTimelineItem> timeline = new ArrayList<MbTimelineItem>();
         if (jArr != null) {
+            MyMetrics.Latency parseLatency = parseLatencyOf(apiRoutine);
+            int newerThanSince = jArr.length();
+            if (!maxId.isEmpty() && !sinceId.isEmpty()) {
+                // The newest activities come first
+                for (int index = 0; index < jArr.length(); index++) {
+                    JSONObject activity = jArr.optJSONObject(index);
+                    if (activity != null && sinceId.getPosition().equals(activity.optString("id"))) {
+                        newerThanSince = index;
+                        break;
+                    }
+                }
+            }
             // Read the activities in chronological order
-            for (int index = jArr.length() - 1; index >= 0; index--) {
+            for (int index = newerThanSince - 1; index >= 0; index--) {
                 try {
+                    long startedAt = MyMetrics.now();
                     JSONObject jso = jArr.getJSONObject(index);
                     MbTimelineItem item = timelineItemFromJson(jso);
+                    parseLatency.since(startedAt);
                     timeline.add(item);
                 } catch (JSONException e) {
                     throw ConnectionException.loggedJsonException(TAG, e, null, "Parsing timeline");
@@ -597,7 +599,7 @@ public class ConnectionPumpio extends Connection {
     @Override
     public MbUser getUser(String userId) throws ConnectionException {
         ConnectionAndUrl conu = getConnectionAndUrl(ApiRoutineEnum.GET_USER, userId);
-        JSONObject jso = conu.httpConnection.getRequest(conu.url);
+        JSONObject jso = conu.httpConnection.getRequest(ApiRoutineEnum.GET_USER, conu.url);
         MbUser mbUser = userFromJson(jso);
         MyLog.v(TAG, "getUser '" + userId + "' " + mbUser.realName);
         return mbUser;
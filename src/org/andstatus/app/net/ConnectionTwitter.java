@@ -17,12 +17,14 @@
 package org.andstatus.app.net;
 
 import android.net.Uri;
-import android.text.Html;
 import android.text.TextUtils;
 import android.util.Log;
 
 import org.andstatus.app.origin.OriginConnectionData;
+import org.andstatus.app.util.DateParser;
+import org.andstatus.app.util.MyHtml;
 import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.MyMetrics;
 import org.andstatus.app.util.SharedPreferencesUtil;
 import org.andstatus.app.util.TriState;
 import org.json.JSONArray;
@@ -30,7 +32,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 /**
@@ -121,7 +122,8 @@ public abstract class ConnectionTwitter extends Connection {
 
     @Override
     public boolean destroyStatus(String statusId) throws ConnectionException {
-        JSONObject jso = http.postRequest(getApiPath(ApiRoutineEnum.STATUSES_DESTROY) + statusId + EXTENSION);
+        JSONObject jso = http.postRequest(ApiRoutineEnum.STATUSES_DESTROY,
+                getApiPath(ApiRoutineEnum.STATUSES_DESTROY) + statusId + EXTENSION);
         if (jso != null && MyLog.isLoggable(null, Log.VERBOSE)) {
             try {
                 Log.v(TAG, "destroyStatus response: " + jso.toString(2));
@@ -163,7 +165,7 @@ public abstract class ConnectionTwitter extends Connection {
         Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_FRIENDS_IDS));
         Uri.Builder builder = sUri.buildUpon();
         builder.appendQueryParameter("user_id", userId);
-        JSONObject jso = http.getRequest(builder.build().toString());
+        JSONObject jso = http.getRequest(ApiRoutineEnum.GET_FRIENDS_IDS, builder.build().toString());
         List<String> list = new ArrayList<String>();
         if (jso != null) {
             try {
@@ -192,33 +194,40 @@ public abstract class ConnectionTwitter extends Connection {
         Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.STATUSES_SHOW));
         Uri.Builder builder = sUri.buildUpon();
         builder.appendQueryParameter("id", messageId);
-        JSONObject message = http.getRequest(builder.build().toString());
+        JSONObject message = http.getRequest(ApiRoutineEnum.STATUSES_SHOW, builder.build().toString());
         return messageFromJson(message);
     }
 
     @Override
-    public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId)
-            throws ConnectionException {
+    public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId,
+            TimelinePosition maxId, int limit, String userId) throws ConnectionException {
         String url = this.getApiPath(apiRoutine);
         Uri sUri = Uri.parse(url);
         Uri.Builder builder = sUri.buildUpon();
         if (!sinceId.isEmpty()) {
             builder.appendQueryParameter("since_id", sinceId.getPosition());
         }
+        if (!maxId.isEmpty()) {
+            // The message with this id is included also
+            builder.appendQueryParameter("max_id", maxId.getPosition());
+        }
         if (fixedDownloadLimitForApiRoutine(limit, apiRoutine) > 0) {
             builder.appendQueryParameter("count", String.valueOf(fixedDownloadLimitForApiRoutine(limit, apiRoutine)));
         }
         if (!TextUtils.isEmpty(userId)) {
             builder.appendQueryParameter("user_id", userId);
         }
-        JSONArray jArr = http.getRequestAsArray(builder.build().toString());
+        JSONArray jArr = http.getRequestAsArray(apiRoutine, builder.build().toString());
         List<MbTimelineItem> timeline = new ArrayList<MbTimelineItem>();
         if (jArr != null) {
+            MyMetrics.Latency parseLatency = parseLatencyOf(apiRoutine);
             // Read the activities in chronological order
             for (int index = jArr.length() - 1; index >= 0; index--) {
                 try {
+                    long startedAt = MyMetrics.now();
                     JSONObject jso = jArr.getJSONObject(index);
                     MbTimelineItem item = timelineItemFromJson(jso);
+                    parseLatency.since(startedAt);
                     timeline.add(item);
                 } catch (JSONException e) {
                     throw ConnectionException.loggedJsonException(TAG, e, null, "Parsing timeline");
@@ -237,6 +246,21 @@ public abstract class ConnectionTwitter extends Connection {
         return item;
     }
 
+    /**
+     * Statuses and Direct messages of the stream are the same objects, as in the timelines,
+     * other events (friends list, deletion and limit notices...) are skipped.
+     * See https://dev.twitter.com/docs/streaming-apis/messages
+     */
+    @Override
+    protected MbMessage messageFromStreamEvent(JSONObject jso) throws ConnectionException {
+        if (jso.has("direct_message")) {
+            return messageFromJson(jso.optJSONObject("direct_message"));
+        } else if (jso.has("text") && jso.has("user")) {
+            return messageFromJson(jso);
+        }
+        return null;
+    }
+
     protected MbMessage messageFromJson(JSONObject jso) throws ConnectionException {
         if (jso == null) {
             return MbMessage.getEmpty();
@@ -253,7 +277,7 @@ public abstract class ConnectionTwitter extends Connection {
                 Long created = 0L;
                 String createdAt = jso.getString("created_at");
                 if (createdAt.length() > 0) {
-                    created = Date.parse(createdAt);
+                    created = DateParser.parseRfc822(createdAt);
                 }
                 if (created > 0) {
                     message.sentDate = created;
@@ -275,7 +299,8 @@ public abstract class ConnectionTwitter extends Connection {
                 message.rebloggedMessage = messageFromJson(rebloggedMessage);
             }
             if (jso.has("text")) {
-                message.body = Html.fromHtml(jso.getString("text")).toString().trim();
+                // Text of a tweet is not HTML, only some characters are escaped
+                message.body = MyHtml.unescape(jso.getString("text")).trim();
             }
 
             if (jso.has("recipient")) {
@@ -283,7 +308,7 @@ public abstract class ConnectionTwitter extends Connection {
                 message.recipient = userFromJson(recipient);
             }
             if (jso.has("source")) {
-                message.via = jso.getString("source");
+                message.via = MyHtml.toPlainText(jso.getString("source"));
             }
             if (jso.has("favorited")) {
                 message.favoritedByActor = TriState.fromBoolean(SharedPreferencesUtil.isTrue(jso.getString("favorited")));
@@ -368,7 +393,7 @@ public abstract class ConnectionTwitter extends Connection {
         if (jso.has("created_at")) {
             String createdAt = jso.optString("created_at");
             if (createdAt.length() > 0) {
-                user.createdDate = Date.parse(createdAt);
+                user.createdDate = DateParser.parseRfc822(createdAt);
             }
         }
         if (!jso.isNull("following")) {
@@ -396,7 +421,7 @@ public abstract class ConnectionTwitter extends Connection {
         Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_USER));
         Uri.Builder builder = sUri.buildUpon();
         builder.appendQueryParameter("user_id", userId);
-        JSONObject jso = http.getRequest(builder.build().toString());
+        JSONObject jso = http.getRequest(ApiRoutineEnum.GET_USER, builder.build().toString());
         return userFromJson(jso);
     }
     
@@ -417,7 +442,8 @@ public abstract class ConnectionTwitter extends Connection {
     
     @Override
     public MbMessage postReblog(String rebloggedId) throws ConnectionException {
-        JSONObject jso = http.postRequest(getApiPath(ApiRoutineEnum.POST_REBLOG) + rebloggedId + EXTENSION);
+        JSONObject jso = http.postRequest(ApiRoutineEnum.POST_REBLOG,
+                getApiPath(ApiRoutineEnum.POST_REBLOG) + rebloggedId + EXTENSION);
         return messageFromJson(jso);
     }
 
@@ -439,7 +465,8 @@ public abstract class ConnectionTwitter extends Connection {
      */
     @Override
     public MbRateLimitStatus rateLimitStatus() throws ConnectionException {
-        JSONObject result = http.getRequest(getApiPath(ApiRoutineEnum.ACCOUNT_RATE_LIMIT_STATUS));
+        JSONObject result = http.getRequest(ApiRoutineEnum.ACCOUNT_RATE_LIMIT_STATUS,
+                getApiPath(ApiRoutineEnum.ACCOUNT_RATE_LIMIT_STATUS));
         MbRateLimitStatus status = new MbRateLimitStatus();
         if (result != null) {
             switch (data.api) {
@@ -489,12 +516,13 @@ public abstract class ConnectionTwitter extends Connection {
      */
     @Override
     public MbUser verifyCredentials() throws ConnectionException {
-        JSONObject user = http.getRequest(getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
+        JSONObject user = http.getRequest(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS,
+                getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
         return userFromJson(user);
     }
 
     protected final JSONObject postRequest(ApiRoutineEnum apiRoutine, JSONObject formParams) throws ConnectionException {
-        return http.postRequest(getApiPath(apiRoutine), formParams);
+        return http.postRequest(apiRoutine, getApiPath(apiRoutine), formParams);
     }
     
     @Override
@@ -44,6 +44,10 @@ public class ConnectionTwitter1p1 extends ConnectionTwitter {
             case STATUSES_MENTIONS_TIMELINE:
                 url = "statuses/mentions_timeline" + EXTENSION;
                 break;
+            /** https://dev.twitter.com/docs/api/1.1/get/user */
+            case STATUSES_USER_STREAM:
+                // The Streaming API has its own host
+                return "https://userstream.twitter.com/1.1/user" + EXTENSION;
             default:
                 url = "";
         }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import oauth.signpost.OAuth;
+import oauth.signpost.exception.OAuthMessageSignerException;
+import oauth.signpost.http.HttpParameters;
+import oauth.signpost.http.HttpRequest;
+import oauth.signpost.signature.HmacSha1MessageSigner;
+import oauth.signpost.signature.OAuthMessageSigner;
+import oauth.signpost.signature.SignatureBaseString;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The same signatures as of the {@link HmacSha1MessageSigner}, but the key is prepared once
+ * for the consumer and token secrets, and every thread reuses its {@link Mac} instance,
+ * so neither the algorithm is looked up, nor the key is built for every request
+ * @author yvolk@yurivolkov.com
+ */
+class HmacSha1CachingSigner extends OAuthMessageSigner {
+    private static final long serialVersionUID = 1L;
+    private static final String MAC_NAME = "HmacSHA1";
+
+    private static final ThreadLocal<Mac> threadMac = new ThreadLocal<Mac>();
+    /**
+     * The key, the Mac of the thread is initialized with
+     */
+    private static final ThreadLocal<SecretKey> threadMacKey = new ThreadLocal<SecretKey>();
+
+    /**
+     * null - to be prepared on the next signing
+     */
+    private transient volatile SecretKey key = null;
+
+    @Override
+    public String getSignatureMethod() {
+        return "HMAC-SHA1";
+    }
+
+    @Override
+    public void setConsumerSecret(String consumerSecret) {
+        super.setConsumerSecret(consumerSecret);
+        key = null;
+    }
+
+    @Override
+    public void setTokenSecret(String tokenSecret) {
+        super.setTokenSecret(tokenSecret);
+        key = null;
+    }
+
+    @Override
+    public String sign(HttpRequest request, HttpParameters requestParams) throws OAuthMessageSignerException {
+        try {
+            Mac mac = getMac();
+            String sbs = new SignatureBaseString(request, requestParams).generate();
+            return base64Encode(mac.doFinal(sbs.getBytes(OAuth.ENCODING))).trim();
+        } catch (GeneralSecurityException e) {
+            throw new OAuthMessageSignerException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new OAuthMessageSignerException(e);
+        }
+    }
+
+    private Mac getMac() throws GeneralSecurityException, UnsupportedEncodingException {
+        SecretKey keyToUse = key;
+        if (keyToUse == null) {
+            String keyString = OAuth.percentEncode(getConsumerSecret()) + '&' + OAuth.percentEncode(getTokenSecret());
+            keyToUse = new SecretKeySpec(keyString.getBytes(OAuth.ENCODING), MAC_NAME);
+            key = keyToUse;
+        }
+        Mac mac = threadMac.get();
+        if (mac == null) {
+            mac = Mac.getInstance(MAC_NAME);
+            threadMac.set(mac);
+            threadMacKey.set(null);
+        }
+        if (threadMacKey.get() != keyToUse) {
+            mac.init(keyToUse);
+            threadMacKey.set(keyToUse);
+        }
+        return mac;
+    }
+}
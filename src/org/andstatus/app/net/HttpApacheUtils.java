@@ -21,6 +21,7 @@ import android.util.Log;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.AbortableHttpRequest;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.message.BasicNameValuePair;
@@ -94,6 +95,18 @@ class HttpApacheUtils {
         return jso;
     }
     
+    /**
+     * The request is aborted, if the {@link CancellationToken} is cancelled
+     */
+    static CancellationToken.Abortable abortable(final AbortableHttpRequest request) {
+        return new CancellationToken.Abortable() {
+            @Override
+            public void abort() {
+                request.abort();
+            }
+        };
+    }
+
     /**
      * @throws ConnectionException
      */
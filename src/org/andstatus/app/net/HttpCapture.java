@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.util.MyLog;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Opt-in capture of HTTP traffic (see {@link MyPreferences#KEY_CAPTURE_HTTP}),
+ * so real synchronization sessions may be replayed in tests and benchmarks without network access.
+ * Each request is appended to the {@link #FILE_NAME} in the "logs" directory as one line of JSON:
+ * "time", "method", "url", "status" (HTTP status code, 0 if unknown), "ok" and the response "body".
+ * Authorization is sent in headers, so it is not captured.
+ * Bodies of direct messages are not captured (the line gets "redacted": true instead),
+ * bodies longer than {@link #MAX_BODY_CHARS} are cut ("truncated": true), so such responses can't be replayed.
+ * The file is rotated at {@link #MAX_FILE_SIZE}, keeping one previous file,
+ * and both files are deleted, when the capture is turned off.
+ * @author yvolk@yurivolkov.com
+ */
+public class HttpCapture {
+    private static final String TAG = HttpCapture.class.getSimpleName();
+    public static final String FILE_NAME = "http-capture.ndjson";
+    /**
+     * The {@link #FILE_NAME} is renamed to this, when it reaches the {@link #MAX_FILE_SIZE}
+     */
+    public static final String PREVIOUS_FILE_NAME = FILE_NAME + ".1";
+    static final long MAX_FILE_SIZE = 4 * 1024 * 1024;
+    static final int MAX_BODY_CHARS = 256 * 1024;
+
+    private static volatile boolean initialized = false;
+    private static volatile boolean enabled = false;
+
+    private HttpCapture() {
+        throw new AssertionError();
+    }
+
+    public static boolean isEnabled() {
+        if (!initialized) {
+            if (!MyPreferences.isInitialized()) {
+                return false;
+            }
+            SharedPreferences sp = MyPreferences.getDefaultSharedPreferences();
+            enabled = (sp != null && sp.getBoolean(MyPreferences.KEY_CAPTURE_HTTP, false));
+            initialized = true;
+        }
+        return enabled;
+    }
+
+    /**
+     * Mark to reread from the preferences if it will be needed
+     */
+    public static void forget() {
+        initialized = false;
+    }
+
+    /**
+     * The {@link MyPreferences#KEY_CAPTURE_HTTP} was changed. Turned off, it deletes what was captured
+     */
+    public static void onPreferenceChanged() {
+        forget();
+        if (!isEnabled()) {
+            delete();
+        }
+    }
+
+    /**
+     * @return null if the directory is not available
+     */
+    public static File getFile() {
+        File dir = MyPreferences.getDataFilesDir("logs", false);
+        return (dir == null ? null : new File(dir, FILE_NAME));
+    }
+
+    static void append(String method, String url, int statusCode, boolean ok, String body) {
+        JSONObject jso = new JSONObject();
+        try {
+            jso.put("time", System.currentTimeMillis());
+            jso.put("method", method);
+            jso.put("url", url);
+            jso.put("status", statusCode);
+            jso.put("ok", ok);
+            if (isPrivate(url)) {
+                jso.put("body", "");
+                jso.put("redacted", true);
+            } else if (body != null && body.length() > MAX_BODY_CHARS) {
+                jso.put("body", body.substring(0, MAX_BODY_CHARS));
+                jso.put("truncated", true);
+            } else {
+                jso.put("body", body == null ? "" : body);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "append: " + e.toString());
+            return;
+        }
+        appendLine(jso.toString());
+    }
+
+    /**
+     * Direct messages of Twitter-like APIs and of pump.io
+     */
+    static boolean isPrivate(String url) {
+        return url != null && (url.contains("direct_messages") || url.contains("/inbox/direct"));
+    }
+
+    private static synchronized void appendLine(String line) {
+        File file = getFile();
+        if (file == null) {
+            return;
+        }
+        if (file.length() >= MAX_FILE_SIZE) {
+            File previous = new File(file.getParentFile(), PREVIOUS_FILE_NAME);
+            if ((previous.exists() && !previous.delete()) || !file.renameTo(previous)) {
+                Log.e(TAG, "Failed to rotate " + file.getAbsolutePath());
+                return;
+            }
+        }
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            out.write(line);
+            out.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append to " + file.getAbsolutePath() + ": " + e.toString());
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                MyLog.v(TAG, "Error closing " + file.getAbsolutePath() + ": " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Start the next captured session from scratch. The previous file is deleted also
+     */
+    public static synchronized boolean delete() {
+        File file = getFile();
+        if (file == null) {
+            return false;
+        }
+        File previous = new File(file.getParentFile(), PREVIOUS_FILE_NAME);
+        boolean ok = (!previous.exists() || previous.delete());
+        return (!file.exists() || file.delete()) && ok;
+    }
+}
@@ -17,15 +17,46 @@
 package org.andstatus.app.net;
 
 import org.andstatus.app.account.AccountDataWriter;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.util.MyMetrics;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
 public abstract class HttpConnection {
     protected static final Integer DEFAULT_GET_REQUEST_TIMEOUT = 15000;
     protected static final Integer DEFAULT_POST_REQUEST_TIMEOUT = 20000;
+    /**
+     * Streaming servers send keep-alive newlines every 30 seconds,
+     * so a stream, silent for this time, is stalled
+     */
+    protected static final Integer STREAM_READ_TIMEOUT = 90000;
     
     protected HttpConnectionData data;
 
+    /**
+     * Total size of responses received by this connection
+     */
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * Metrics of the requests by the API routine, filled on the first use
+     */
+    private static final RequestMetrics[] requestMetrics = new RequestMetrics[ApiRoutineEnum.values().length];
+
+    /**
+     * Size of the last response, received by the current thread, see {@link #recordRequest}
+     */
+    private static final ThreadLocal<long[]> lastResponseChars = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
     static final String USER_AGENT = "AndStatus";
  
     public void registerClient(String path) throws ConnectionException {}
@@ -52,6 +83,76 @@ public abstract class HttpConnection {
     
     protected abstract JSONArray getRequestAsArray(String path) throws ConnectionException;
 
+    final JSONObject postRequest(ApiRoutineEnum apiRoutine, String path, JSONObject jso) throws ConnectionException {
+        RequestMetrics metrics = startRequest(apiRoutine);
+        long startedAt = MyMetrics.now();
+        JSONObject result = null;
+        try {
+            result = postRequest(path, jso);
+        } finally {
+            metrics.onRequest(startedAt, result != null);
+        }
+        return result;
+    }
+
+    final JSONObject postRequest(ApiRoutineEnum apiRoutine, String path) throws ConnectionException {
+        RequestMetrics metrics = startRequest(apiRoutine);
+        long startedAt = MyMetrics.now();
+        JSONObject result = null;
+        try {
+            result = postRequest(path);
+        } finally {
+            metrics.onRequest(startedAt, result != null);
+        }
+        return result;
+    }
+
+    final JSONObject getRequest(ApiRoutineEnum apiRoutine, String path) throws ConnectionException {
+        RequestMetrics metrics = startRequest(apiRoutine);
+        long startedAt = MyMetrics.now();
+        JSONObject result = null;
+        try {
+            result = getRequest(path);
+        } finally {
+            metrics.onRequest(startedAt, result != null);
+        }
+        return result;
+    }
+
+    final JSONArray getRequestAsArray(ApiRoutineEnum apiRoutine, String path) throws ConnectionException {
+        RequestMetrics metrics = startRequest(apiRoutine);
+        long startedAt = MyMetrics.now();
+        JSONArray result = null;
+        try {
+            result = getRequestAsArray(path);
+        } finally {
+            metrics.onRequest(startedAt, result != null);
+        }
+        return result;
+    }
+
+    final InputStream getStream(ApiRoutineEnum apiRoutine, String path) throws ConnectionException {
+        RequestMetrics metrics = startRequest(apiRoutine);
+        long startedAt = MyMetrics.now();
+        InputStream result = null;
+        try {
+            result = getStream(path);
+        } finally {
+            metrics.onRequest(startedAt, result != null);
+        }
+        return result;
+    }
+
+    /**
+     * Open the long-lived connection of a streaming API
+     * @return Body of the response, which is being received while the stream is open.
+     *   Closing it closes the connection, so this may be done by another thread to stop reading
+     */
+    protected InputStream getStream(String path) throws ConnectionException {
+        throw new ConnectionException(StatusCode.UNSUPPORTED_API, "Streaming is not supported by "
+                + this.getClass().getSimpleName() + ": '" + path + "'");
+    }
+
     public abstract void clearAuthInformation();
 
     public void clearClientKeys() {
@@ -97,4 +198,63 @@ public abstract class HttpConnection {
     String getUserSecret() {
         return "";
     }
+
+    /**
+     * Count size of the response for the metrics of its API routine (see {@link RequestMetrics})
+     * and capture the response, if {@link HttpCapture#isEnabled()}
+     * @param method "GET" or "POST"
+     * @param response body of the response, may be null
+     * @param statusCode HTTP status code, 0 if unknown
+     */
+    protected void recordRequest(String method, String url, String response, int statusCode, boolean ok) {
+        long chars = (response == null ? 0 : response.length());
+        bytesReceived.addAndGet(chars);
+        lastResponseChars.get()[0] = chars;
+        if (HttpCapture.isEnabled()) {
+            HttpCapture.append(method, pathToUrl(url), statusCode, ok, response);
+        }
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private static RequestMetrics startRequest(ApiRoutineEnum apiRoutine) {
+        lastResponseChars.get()[0] = 0;
+        RequestMetrics metrics = requestMetrics[apiRoutine.ordinal()];
+        if (metrics == null) {
+            metrics = new RequestMetrics(apiRoutine);
+            requestMetrics[apiRoutine.ordinal()] = metrics;
+        }
+        return metrics;
+    }
+
+    /**
+     * Latency and size of responses (or errors) of one API routine.
+     * Resolved once, so recording of a request doesn't build names of the metrics
+     */
+    private static class RequestMetrics {
+        final MyMetrics.Latency latency;
+        /**
+         * Size of the responses in characters, as they are decoded by the connection
+         */
+        final MyMetrics.Counter chars;
+        final MyMetrics.Counter errors;
+
+        RequestMetrics(ApiRoutineEnum apiRoutine) {
+            String name = "http." + apiRoutine.name();
+            latency = MyMetrics.latency(name);
+            chars = MyMetrics.counter(name + ".chars");
+            errors = MyMetrics.counter(name + ".errors");
+        }
+
+        void onRequest(long startedAt, boolean ok) {
+            if (ok) {
+                latency.since(startedAt);
+                chars.add(lastResponseChars.get()[0]);
+            } else {
+                errors.increment();
+            }
+        }
+    }
 }
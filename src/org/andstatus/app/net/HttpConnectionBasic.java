@@ -64,7 +64,10 @@ class HttpConnectionBasic extends HttpConnection implements HttpApacheRequest  {
     public JSONObject postRequest(HttpPost postMethod) throws ConnectionException {
         JSONObject jObj = null;
         int statusCode = 0;
+        String result = null;
+        CancellationToken cancellation = CancellationToken.current();
         try {
+            cancellation.onRequestStarted(HttpApacheUtils.abortable(postMethod));
             HttpClient client = new DefaultHttpClient(new BasicHttpParams());
             postMethod.setHeader("User-Agent", HttpConnection.USER_AGENT);
             if (getCredentialsPresent()) {
@@ -74,7 +77,7 @@ class HttpConnectionBasic extends HttpConnection implements HttpApacheRequest  {
             client.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, DEFAULT_POST_REQUEST_TIMEOUT);
             HttpResponse httpResponse = client.execute(postMethod);
             statusCode = httpResponse.getStatusLine().getStatusCode();
-            String result = retrieveInputStream(httpResponse.getEntity());
+            result = retrieveInputStream(httpResponse.getEntity());
             jObj = new JSONObject(result);
             if (jObj != null) {
                 String error = jObj.optString("error");
@@ -87,10 +90,13 @@ class HttpConnectionBasic extends HttpConnection implements HttpApacheRequest  {
         } catch (JSONException e) {
             throw new ConnectionException(e);
         } catch (Exception e) {
+            cancellation.throwIfCancelled();
             Log.e(TAG, "postRequest: " + e.toString());
             throw new ConnectionException(e);
         } finally {
+            cancellation.onRequestEnded();
             postMethod.abort();
+            recordRequest("POST", postMethod.getURI().toString(), result, statusCode, jObj != null);
         }
         parseStatusCode(statusCode);
         return jObj;
@@ -122,7 +128,9 @@ class HttpConnectionBasic extends HttpConnection implements HttpApacheRequest  {
         boolean ok = false;
         int statusCode = 0;
         HttpClient client = new DefaultHttpClient(new BasicHttpParams());
+        CancellationToken cancellation = CancellationToken.current();
         try {
+            cancellation.onRequestStarted(HttpApacheUtils.abortable(getMethod));
             getMethod.setHeader("User-Agent", HttpConnection.USER_AGENT);
             getMethod.addHeader("Authorization", "Basic " + getCredentials());
             client.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, DEFAULT_GET_REQUEST_TIMEOUT);
@@ -133,10 +141,13 @@ class HttpConnectionBasic extends HttpConnection implements HttpApacheRequest  {
             jso = new JSONTokener(response);
             ok = true;
         } catch (Exception e) {
+            cancellation.throwIfCancelled();
             Log.e(TAG, "getRequest: " + e.toString());
             throw new ConnectionException(e);
         } finally {
+            cancellation.onRequestEnded();
             getMethod.abort();
+            recordRequest("GET", getMethod.getURI().toString(), response, statusCode, ok);
         }
         parseStatusCode(statusCode);
         if (!ok) {
@@ -18,6 +18,8 @@ package org.andstatus.app.net;
 
 import android.text.TextUtils;
 
+import oauth.signpost.OAuthConsumer;
+
 import org.andstatus.app.account.AccountDataWriter;
 import org.andstatus.app.net.HttpConnection;
 import org.andstatus.app.net.Connection.ApiRoutineEnum;
@@ -37,6 +39,10 @@ abstract class HttpConnectionOAuth extends HttpConnection implements OAuthConsum
     
     private String userToken;
     private String userSecret;
+    /**
+     * See {@link #getSigningConsumer()}. null - to be created on the next request
+     */
+    private volatile OAuthConsumer signingConsumer = null;
 
     @Override
     protected void setConnectionData(HttpConnectionData connectionData) {
@@ -97,7 +103,45 @@ abstract class HttpConnectionOAuth extends HttpConnection implements OAuthConsum
         synchronized (this) {
             userToken = token;
             userSecret = secret;
+            signingConsumer = null;
+        }
+    }
+
+    /**
+     * @return Consumer of the signpost library for this transport, not configured yet
+     */
+    protected abstract OAuthConsumer newConsumer(String consumerKey, String consumerSecret);
+
+    /**
+     * @return New consumer with the client keys and the User's token, if present.
+     *  It's not shared, so it may be changed, e.g. during the OAuth authorization
+     */
+    @Override
+    public final OAuthConsumer getConsumer() {
+        OAuthConsumer consumer = newConsumer(data.oauthClientKeys.getConsumerKey(),
+                data.oauthClientKeys.getConsumerSecret());
+        consumer.setMessageSigner(new HmacSha1CachingSigner());
+        if (getCredentialsPresent()) {
+            consumer.setTokenWithSecret(getUserToken(), getUserSecret());
+        }
+        return consumer;
+    }
+
+    /**
+     * The consumer, which signs all requests of this connection (i.e. of the account):
+     * it's created once and it's recreated only when the keys change.
+     * Signing is synchronized by the consumer, so it may be used by several threads.
+     * Don't change it, see {@link #getConsumer()}
+     */
+    protected OAuthConsumer getSigningConsumer() {
+        OAuthConsumer consumer = signingConsumer;
+        if (consumer == null
+                || !TextUtils.equals(consumer.getConsumerKey(), data.oauthClientKeys.getConsumerKey())
+                || !TextUtils.equals(consumer.getConsumerSecret(), data.oauthClientKeys.getConsumerSecret())) {
+            consumer = getConsumer();
+            signingConsumer = consumer;
         }
+        return consumer;
     }
 
     @Override
@@ -24,6 +24,7 @@ import oauth.signpost.commonshttp.CommonsHttpOAuthConsumer;
 import oauth.signpost.commonshttp.CommonsHttpOAuthProvider;
 
 import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.HttpResponseException;
@@ -47,6 +48,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 class HttpConnectionOAuthApache extends HttpConnectionOAuth implements HttpApacheRequest {
     private static final String TAG = HttpConnectionOAuth.class.getSimpleName();
     private HttpClient mClient;
@@ -106,17 +111,28 @@ class HttpConnectionOAuthApache extends HttpConnectionOAuth implements HttpApach
         JSONTokener jso = null;
         String response = null;
         boolean ok = false;
+        int statusCode = 0;
+        CancellationToken cancellation = CancellationToken.current();
         try {
+            cancellation.onRequestStarted(HttpApacheUtils.abortable(get));
             if (data.oauthClientKeys.areKeysPresent()) {
-                getConsumer().sign(get);
+                getSigningConsumer().sign(get);
             }
             response = mClient.execute(get, new BasicResponseHandler());
+            statusCode = 200;
             jso = new JSONTokener(response);
             ok = true;
         } catch (Exception e) {
+            cancellation.throwIfCancelled();
+            if (e instanceof HttpResponseException) {
+                statusCode = ((HttpResponseException) e).getStatusCode();
+            }
             Log.e(TAG, "Exception was caught, URL='" + get.getURI().toString() + "'");
             e.printStackTrace();
             throw new ConnectionException(e.getLocalizedMessage());
+        } finally {
+            cancellation.onRequestEnded();
+            recordRequest("GET", get.getURI().toString(), response, statusCode, ok);
         }
         if (!ok) {
             jso = null;
@@ -125,13 +141,43 @@ class HttpConnectionOAuthApache extends HttpConnectionOAuth implements HttpApach
     }
 
     @Override
-    public OAuthConsumer getConsumer() {
-        OAuthConsumer consumer = new CommonsHttpOAuthConsumer(data.oauthClientKeys.getConsumerKey(),
-                data.oauthClientKeys.getConsumerSecret());
-        if (getCredentialsPresent()) {
-            consumer.setTokenWithSecret(getUserToken(), getUserSecret());
+    protected InputStream getStream(String path) throws ConnectionException {
+        final HttpGet get = new HttpGet(pathToUrl(path));
+        HttpConnectionParams.setSoTimeout(get.getParams(), STREAM_READ_TIMEOUT);
+        boolean ok = false;
+        int statusCode = 0;
+        try {
+            if (data.oauthClientKeys.areKeysPresent()) {
+                getSigningConsumer().sign(get);
+            }
+            HttpResponse response = mClient.execute(get);
+            statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200 || response.getEntity() == null) {
+                get.abort();
+                throw ConnectionException.fromStatusCodeHttp(statusCode, "Error opening stream '" + path + "'");
+            }
+            InputStream in = new FilterInputStream(response.getEntity().getContent()) {
+                @Override
+                public void close() throws IOException {
+                    // Closing the content reads the response up to its end, which never comes
+                    get.abort();
+                }
+            };
+            ok = true;
+            return in;
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (Exception e) {
+            Log.e(TAG, "Exception was caught, URL='" + get.getURI().toString() + "'");
+            throw new ConnectionException(e.getLocalizedMessage());
+        } finally {
+            recordRequest("STREAM", get.getURI().toString(), null, statusCode, ok);
         }
-        return consumer;
+    }
+
+    @Override
+    protected OAuthConsumer newConsumer(String consumerKey, String consumerSecret) {
+        return new CommonsHttpOAuthConsumer(consumerKey, consumerSecret);
     }
     
     @Override
@@ -149,18 +195,23 @@ class HttpConnectionOAuthApache extends HttpConnectionOAuth implements HttpApach
         JSONObject jso = null;
         String response = null;
         boolean ok = false;
+        int statusCode = 0;
+        CancellationToken cancellation = CancellationToken.current();
         try {
+            cancellation.onRequestStarted(HttpApacheUtils.abortable(post));
             // Maybe we'll need this:
             // post.setParams(...);
 
             if (data.oauthClientKeys.areKeysPresent()) {
                 // sign the request to authenticate
-                getConsumer().sign(post);
+                getSigningConsumer().sign(post);
             }
             response = mClient.execute(post, new BasicResponseHandler());
+            statusCode = 200;
             jso = new JSONObject(response);
             ok = true;
         } catch (HttpResponseException e) {
+            statusCode = e.getStatusCode();
             ConnectionException e2 = ConnectionException.fromStatusCodeHttp(e.getStatusCode(), e.getLocalizedMessage());
             Log.w(TAG, e2.getLocalizedMessage());
             throw e2;
@@ -168,10 +219,14 @@ class HttpConnectionOAuthApache extends HttpConnectionOAuth implements HttpApach
             Log.w(TAG, "postRequest, response=" + (response == null ? "(null)" : response));
             throw new ConnectionException(e.getLocalizedMessage());
         } catch (Exception e) {
+            cancellation.throwIfCancelled();
             // We don't catch other exceptions because in fact it's vary difficult to tell
             // what was a real cause of it. So let's make code clearer.
             e.printStackTrace();
             throw new ConnectionException(e.getLocalizedMessage());
+        } finally {
+            cancellation.onRequestEnded();
+            recordRequest("POST", post.getURI().toString(), response, statusCode, ok);
         }
         if (!ok) {
             jso = null;
@@ -35,7 +35,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -114,16 +116,20 @@ class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
     @Override
     protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
         JSONObject result = null;
+        String responseString = null;
+        int responseCode = 0;
+        CancellationToken cancellation = CancellationToken.current();
         try {
             MyLog.v(TAG, "Posting " + (jso == null ? "(empty)" : jso.toString(2)));
         
             URL url = new URL(pathToUrl(path));
             HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            cancellation.onRequestStarted(abortable(conn));
             conn.setDoOutput(true);
             conn.setDoInput(true);
             conn.setRequestMethod("POST");
             conn.setRequestProperty("Content-Type", "application/json");
-            setAuthorization(conn, getConsumer(), false);
+            setAuthorization(conn, getSigningConsumer(), false);
             
             if (jso != null) {
                 OutputStream os = conn.getOutputStream();
@@ -137,13 +143,14 @@ class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
                 }
             }
                         
-            int responseCode = conn.getResponseCode();
+            responseCode = conn.getResponseCode();
             switch(responseCode) {
                 case 200:
-                    result = new JSONObject(HttpJavaNetUtils.readAll(conn.getInputStream()));
+                    responseString = HttpJavaNetUtils.readAll(conn.getInputStream());
+                    result = new JSONObject(responseString);
                     break;
                 default:
-                    String responseString = HttpJavaNetUtils.readAll(new InputStreamReader(conn.getErrorStream(), "UTF-8"));
+                    responseString = HttpJavaNetUtils.readAll(new InputStreamReader(conn.getErrorStream(), "UTF-8"));
                     try {
                         JSONObject jsonError = new JSONObject(responseString);
                         String error = jsonError.optString("error");
@@ -158,19 +165,18 @@ class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
         } catch (ConnectionException e) {
             throw e;
         } catch(Exception e) {
+            cancellation.throwIfCancelled();
             throw new ConnectionException("Error getting '" + path + "', " + e.toString());
+        } finally {
+            cancellation.onRequestEnded();
+            recordRequest("POST", path, responseString, responseCode, result != null);
         }
         return result;
     }
 
-    @Override public OAuthConsumer getConsumer() {
-        OAuthConsumer consumer = new DefaultOAuthConsumer(
-                data.oauthClientKeys.getConsumerKey(),
-                data.oauthClientKeys.getConsumerSecret());
-        if (getCredentialsPresent()) {
-            consumer.setTokenWithSecret(getUserToken(), getUserSecret());
-        }
-        return consumer;
+    @Override
+    protected OAuthConsumer newConsumer(String consumerKey, String consumerSecret) {
+        return new DefaultOAuthConsumer(consumerKey, consumerSecret);
     }
     
     @Override
@@ -184,19 +190,22 @@ class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
             throw new IllegalArgumentException("path is empty");
         }
         String responseString = "";
+        int responseCode = 0;
         JSONObject result = null;
+        CancellationToken cancellation = CancellationToken.current();
         try {
-            OAuthConsumer consumer = getConsumer();
+            OAuthConsumer consumer = getSigningConsumer();
             
             URL url = new URL(pathToUrl(path));
             HttpURLConnection conn;
             boolean redirected = false;
             for (boolean done=false; !done; ) {
                 conn = (HttpURLConnection) url.openConnection();
+                cancellation.onRequestStarted(abortable(conn));
                 conn.setInstanceFollowRedirects(false);
                 setAuthorization(conn, consumer, redirected);
                 conn.connect();
-                int responseCode = conn.getResponseCode();
+                responseCode = conn.getResponseCode();
                 StatusCode statusCode = StatusCode.fromResponseCode(responseCode);
                 switch(responseCode) {
                     case 200:
@@ -245,11 +254,65 @@ class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
         } catch (ConnectionException e) {
             throw e;
         } catch(Exception e) {
+            cancellation.throwIfCancelled();
             throw new ConnectionException("Error getting '" + path + "', " + e.toString());
+        } finally {
+            cancellation.onRequestEnded();
+            recordRequest("GET", path, responseString, responseCode, result != null);
         }
         return result;
     }
 
+    @Override
+    protected InputStream getStream(String path) throws ConnectionException {
+        int responseCode = 0;
+        boolean ok = false;
+        try {
+            URL url = new URL(pathToUrl(path));
+            final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(DEFAULT_GET_REQUEST_TIMEOUT);
+            conn.setReadTimeout(STREAM_READ_TIMEOUT);
+            setAuthorization(conn, getSigningConsumer(), false);
+            conn.connect();
+            responseCode = conn.getResponseCode();
+            if (responseCode != 200) {
+                conn.disconnect();
+                throw new ConnectionException(StatusCode.fromResponseCode(responseCode),
+                        "Error opening stream '" + path + "', status=" + responseCode);
+            }
+            InputStream in = new FilterInputStream(conn.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        conn.disconnect();
+                    }
+                }
+            };
+            ok = true;
+            return in;
+        } catch (ConnectionException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new ConnectionException("Error opening stream '" + path + "', " + e.toString());
+        } finally {
+            recordRequest("STREAM", path, null, responseCode, ok);
+        }
+    }
+
+    /**
+     * Disconnecting interrupts reading the response in another thread
+     */
+    private static CancellationToken.Abortable abortable(final HttpURLConnection conn) {
+        return new CancellationToken.Abortable() {
+            @Override
+            public void abort() {
+                conn.disconnect();
+            }
+        };
+    }
+
     private void setAuthorization(HttpURLConnection conn, OAuthConsumer consumer, boolean redirected)
             throws OAuthMessageSignerException, OAuthExpectationFailedException,
             OAuthCommunicationException {
@@ -259,8 +322,10 @@ class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
             } else {
                 // See http://tools.ietf.org/html/draft-prodromou-dialback-00
                 if (redirected) {
-                    consumer.setTokenWithSecret("", "");
-                    consumer.sign(conn);
+                    // Without the User's token. The shared signing consumer is not changed for this
+                    OAuthConsumer consumerWithoutToken = newConsumer(consumer.getConsumerKey(), consumer.getConsumerSecret());
+                    consumerWithoutToken.setMessageSigner(new HmacSha1CachingSigner());
+                    consumerWithoutToken.sign(conn);
                 } else {
                     conn.setRequestProperty("Authorization", "Dialback");
                     conn.setRequestProperty("host", data.hostForUserToken);
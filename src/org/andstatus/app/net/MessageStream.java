@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.util.Log;
+
+import org.andstatus.app.util.MyLog;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages, received over the long-lived streaming connection, see {@link Connection#openMessageStream()}.
+ * The stream is newline delimited JSON: one event per line, empty lines are keep-alive signals.
+ * Events are parsed as they arrive, by the same parser as messages of the timelines
+ * @author yvolk@yurivolkov.com
+ */
+public class MessageStream implements Closeable {
+    private static final String TAG = MessageStream.class.getSimpleName();
+
+    private final Connection connection;
+    private final InputStream in;
+    private final BufferedReader reader;
+    private volatile long linesRead = 0;
+
+    MessageStream(Connection connection, InputStream in) {
+        this.connection = connection;
+        this.in = in;
+        reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")), 8192);
+    }
+
+    /**
+     * Blocks until at least one message is received. Then the messages, which already arrived,
+     * are added to the batch without waiting for more
+     * @return null at the end of the stream
+     */
+    public List<MbMessage> readBatch(int maxSize) throws IOException {
+        List<MbMessage> batch = new ArrayList<MbMessage>();
+        while (batch.size() < maxSize) {
+            if (!batch.isEmpty() && !reader.ready()) {
+                break;
+            }
+            String line = reader.readLine();
+            if (line == null) {
+                return (batch.isEmpty() ? null : batch);
+            }
+            linesRead++;
+            MbMessage message = messageFromLine(line.trim());
+            if (message != null && !message.isEmpty()) {
+                batch.add(message);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return null for a keep-alive signal and for events, which are not messages
+     */
+    private MbMessage messageFromLine(String line) {
+        if (line.length() == 0) {
+            return null;
+        }
+        try {
+            return connection.messageFromStreamEvent(new JSONObject(line));
+        } catch (JSONException e) {
+            Log.w(TAG, "Skipped not a JSON event: '" + line + "'");
+        } catch (ConnectionException e) {
+            Log.w(TAG, "Skipped event: " + e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Including keep-alive signals, so it shows that the stream was alive
+     */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    /**
+     * May be called by another thread in order to stop reading
+     */
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            MyLog.v(TAG, "Error closing the stream: " + e.toString());
+        }
+    }
+}
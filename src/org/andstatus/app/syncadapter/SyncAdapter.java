@@ -21,6 +21,7 @@ package org.andstatus.app.syncadapter;
 import android.accounts.Account;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SyncResult;
 import android.os.Bundle;
@@ -76,11 +77,14 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements MyServic
             this.syncResult = syncResult;
             MyLog.d(TAG, "onPerformSync started, account=" + account.name);
             intentReceiver.registerReceiver(context);
-            commandData = new CommandData(CommandEnum.AUTOMATIC_UPDATE, account.name,
-                    TimelineTypeEnum.ALL, 0);
+            // A manual sync ("Sync now") is not deferred, see BatchingWindow
+            boolean isManual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+            commandData = new CommandData(isManual ? CommandEnum.FETCH_TIMELINE : CommandEnum.AUTOMATIC_UPDATE,
+                    account.name, TimelineTypeEnum.ALL, 0);
             MyServiceManager.sendCommand(commandData);
             synchronized (syncResult) {
                 if (!syncCompleted) {
+                    // The automatic update may wait in the batching window before it is executed
                     timer.schedule(
                         new TimerTask() {
                             @Override
@@ -91,7 +95,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements MyServic
                                     SyncAdapter.this.syncResult.notifyAll();
                                 }
                             }
-                        }, 180 * MyPreferences.MILLISECONDS);
+                        }, 180 * MyPreferences.MILLISECONDS + MyPreferences.getBatchingWindowMs());
                     syncResult.wait();
                 }
             }
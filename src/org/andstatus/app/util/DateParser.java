@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+/**
+ * Parsers of dates, which we receive from the Microblogging systems, into milliseconds since the epoch.
+ * They are called for each message and user of every downloaded page, so they don't allocate objects
+ * (unlike {@link java.text.SimpleDateFormat} and deprecated {@link java.util.Date#parse(String)}).
+ * @author yvolk@yurivolkov.com
+ */
+public final class DateParser {
+    private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+    private static final String WEEKDAYS = "montuewedthufrisatsun";
+    /**
+     * Time zone names, which may be met instead of numeric offsets, and their offsets in hours
+     */
+    private static final String[] ZONE_NAMES = {"GMT", "UTC", "UT", "Z", "EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT"};
+    private static final int[] ZONE_HOURS = {0, 0, 0, 0, -5, -4, -6, -5, -7, -6, -8, -7};
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private DateParser() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Either of the formats, supported by {@link #parseIso8601(String)} and {@link #parseRfc822(String)}
+     * @return 0 if the date couldn't be parsed
+     */
+    public static long parse(String date) {
+        if (date == null || date.length() == 0) {
+            return 0;
+        }
+        if (isDigit(date.charAt(0)) && date.length() > 10 && date.charAt(4) == '-') {
+            return parseIso8601(date);
+        }
+        return parseRfc822(date);
+    }
+
+    /**
+     * ISO 8601 date and time as used by Pump.io, e.g. "2013-09-22T06:52:03Z".
+     * Fractions of seconds and time zone offsets ("+04:00", "+0400", "+04") are supported,
+     * no time zone means UTC.
+     * @return 0 if the date couldn't be parsed
+     */
+    public static long parseIso8601(String date) {
+        if (date == null || date.length() < 19) {
+            return 0;
+        }
+        int len = date.length();
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 2);
+        int day = digits(date, 8, 2);
+        int hour = digits(date, 11, 2);
+        int minute = digits(date, 14, 2);
+        int second = digits(date, 17, 2);
+        char separator = date.charAt(10);
+        if (date.charAt(4) != '-' || date.charAt(7) != '-' || (separator != 'T' && separator != 't' && separator != ' ')
+                || date.charAt(13) != ':' || date.charAt(16) != ':') {
+            return 0;
+        }
+        int pos = 19;
+        int millis = 0;
+        if (pos < len && (date.charAt(pos) == '.' || date.charAt(pos) == ',')) {
+            pos++;
+            int count = 0;
+            while (pos < len && isDigit(date.charAt(pos))) {
+                if (count < 3) {
+                    millis = millis * 10 + (date.charAt(pos) - '0');
+                }
+                count++;
+                pos++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            for (; count < 3; count++) {
+                millis *= 10;
+            }
+        }
+        int offsetMinutes = 0;
+        if (pos < len) {
+            char c = date.charAt(pos);
+            if (c == 'Z' || c == 'z') {
+                pos++;
+            } else if (c == '+' || c == '-') {
+                int offsetHours = digits(date, pos + 1, 2);
+                pos += 3;
+                int offsetMins = 0;
+                if (pos < len && date.charAt(pos) == ':') {
+                    pos++;
+                }
+                if (pos < len) {
+                    offsetMins = digits(date, pos, 2);
+                    pos += 2;
+                }
+                if (offsetHours < 0 || offsetMins < 0) {
+                    return 0;
+                }
+                offsetMinutes = (c == '-' ? -1 : 1) * (offsetHours * 60 + offsetMins);
+            }
+        }
+        if (pos != len) {
+            return 0;
+        }
+        return toMillis(year, month, day, hour, minute, second, millis, offsetMinutes);
+    }
+
+    /**
+     * Dates of the Twitter API and StatusNet, e.g. "Sat Feb 06 15:30:10 +0000 2010",
+     * and RFC 822 / RFC 1123 dates, e.g. "Sat, 06 Feb 2010 15:30:10 GMT":
+     * the parts may go in any order, the day of week is ignored
+     * @return 0 if the date couldn't be parsed
+     */
+    public static long parseRfc822(String date) {
+        if (date == null) {
+            return 0;
+        }
+        int len = date.length();
+        int year = -1;
+        int month = -1;
+        int day = -1;
+        int hour = -1;
+        int minute = -1;
+        int second = 0;
+        int offsetMinutes = 0;
+        int pos = 0;
+        while (pos < len) {
+            char c = date.charAt(pos);
+            if (isSeparator(c)) {
+                pos++;
+                continue;
+            }
+            int end = pos;
+            while (end < len && !isSeparator(date.charAt(end))) {
+                end++;
+            }
+            int tokenLength = end - pos;
+            if (isLetter(c)) {
+                int monthIndex = (tokenLength >= 3 ? monthIndex(date, pos) : -1);
+                if (monthIndex >= 0) {
+                    month = monthIndex + 1;
+                } else {
+                    int zoneIndex = zoneIndex(date, pos, tokenLength);
+                    if (zoneIndex >= 0) {
+                        offsetMinutes = ZONE_HOURS[zoneIndex] * 60;
+                    } else if (!isWeekday(date, pos, tokenLength)) {
+                        return 0;
+                    }
+                }
+            } else if (c == '+' || c == '-') {
+                int offsetHours = digits(date, pos + 1, 2);
+                int offsetMins = 0;
+                if (tokenLength == 5) {
+                    offsetMins = digits(date, pos + 3, 2);
+                } else if (tokenLength == 6 && date.charAt(pos + 3) == ':') {
+                    offsetMins = digits(date, pos + 4, 2);
+                } else if (tokenLength != 3) {
+                    return 0;
+                }
+                if (offsetHours < 0 || offsetMins < 0) {
+                    return 0;
+                }
+                offsetMinutes = (c == '-' ? -1 : 1) * (offsetHours * 60 + offsetMins);
+            } else if (isDigit(c)) {
+                if (tokenLength >= 5 && date.charAt(pos + 2) == ':') {
+                    hour = digits(date, pos, 2);
+                    minute = digits(date, pos + 3, 2);
+                    if (tokenLength == 8 && date.charAt(pos + 5) == ':') {
+                        second = digits(date, pos + 6, 2);
+                    } else if (tokenLength != 5) {
+                        return 0;
+                    }
+                } else if (tokenLength == 4) {
+                    year = digits(date, pos, 4);
+                } else if (tokenLength <= 2) {
+                    int value = digits(date, pos, tokenLength);
+                    if (day < 0) {
+                        day = value;
+                    } else if (year < 0) {
+                        // Two digit year of RFC 822
+                        year = value + (value < 50 ? 2000 : 1900);
+                    } else {
+                        return 0;
+                    }
+                } else {
+                    return 0;
+                }
+            } else {
+                return 0;
+            }
+            pos = end;
+        }
+        return toMillis(year, month, day, hour, minute, second, 0, offsetMinutes);
+    }
+
+    /**
+     * @return 0 if any value is out of range
+     */
+    static long toMillis(int year, int month, int day, int hour, int minute, int second, int millis, int offsetMinutes) {
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return 0;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute - offsetMinutes) * 60 + second) * 1000 + millis;
+    }
+
+    /**
+     * Days since 1970-01-01 in the proleptic Gregorian calendar,
+     * see <a href="http://howardhinnant.github.io/date_algorithms.html">chrono-Compatible Low-Level Date Algorithms</a>
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        int y = (month <= 2 ? year - 1 : year);
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * @return -1 if there are not enough digits
+     */
+    private static int digits(String date, int start, int count) {
+        if (start < 0 || start + count > date.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int ind = start; ind < start + count; ind++) {
+            char c = date.charAt(ind);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int monthIndex(String date, int start) {
+        for (int ind = 0; ind < 12; ind++) {
+            if (date.regionMatches(true, start, MONTHS, ind * 3, 3)) {
+                return ind;
+            }
+        }
+        return -1;
+    }
+
+    private static int zoneIndex(String date, int start, int length) {
+        for (int ind = 0; ind < ZONE_NAMES.length; ind++) {
+            if (ZONE_NAMES[ind].length() == length && date.regionMatches(true, start, ZONE_NAMES[ind], 0, length)) {
+                return ind;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWeekday(String date, int start, int length) {
+        if (length >= 3) {
+            for (int ind = 0; ind < 7; ind++) {
+                if (date.regionMatches(true, start, WEEKDAYS, ind * 3, 3)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == ',' || c == '\t';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+/**
+ * Lightweight replacement of {@link android.text.Html#fromHtml(String)} for texts,
+ * which are not really HTML: text of a tweet (only character entities are escaped)
+ * and "source" of a tweet (one link)
+ * @author yvolk@yurivolkov.com
+ */
+public final class MyHtml {
+    private static final String[] ENTITY_NAMES = {"amp", "lt", "gt", "quot", "apos", "nbsp"};
+    private static final char[] ENTITY_CHARS = {'&', '<', '>', '"', '\'', ' '};
+
+    private MyHtml() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Tags are removed, character entities are decoded, whitespace is trimmed
+     * @return "" for null
+     */
+    public static String toPlainText(String html) {
+        if (html == null) {
+            return "";
+        }
+        if (html.indexOf('<') < 0) {
+            return unescape(html).trim();
+        }
+        StringBuilder builder = new StringBuilder(html.length());
+        boolean inTag = false;
+        for (int ind = 0; ind < html.length(); ind++) {
+            char c = html.charAt(ind);
+            if (inTag) {
+                if (c == '>') {
+                    inTag = false;
+                }
+            } else if (c == '<') {
+                inTag = true;
+            } else {
+                builder.append(c);
+            }
+        }
+        return unescape(builder.toString()).trim();
+    }
+
+    /**
+     * Decodes named (&amp;amp; &amp;lt; &amp;gt; &amp;quot; &amp;apos; &amp;nbsp;)
+     * and numeric character entities. Unknown entities are left as is
+     * @return the same instance, if there is nothing to decode
+     */
+    public static String unescape(String text) {
+        if (text == null) {
+            return "";
+        }
+        int ampersand = text.indexOf('&');
+        if (ampersand < 0) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        builder.append(text, 0, ampersand);
+        int ind = ampersand;
+        while (ind < text.length()) {
+            char c = text.charAt(ind);
+            int semicolon = (c == '&' ? text.indexOf(';', ind + 1) : -1);
+            if (semicolon > ind + 1 && semicolon - ind <= 10) {
+                int decoded = decodeEntity(text, ind + 1, semicolon);
+                if (decoded >= 0) {
+                    builder.appendCodePoint(decoded);
+                    ind = semicolon + 1;
+                    continue;
+                }
+            }
+            builder.append(c);
+            ind++;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return -1 if the entity is unknown
+     */
+    private static int decodeEntity(String text, int start, int end) {
+        if (text.charAt(start) == '#') {
+            int radix = 10;
+            int pos = start + 1;
+            if (pos < end && (text.charAt(pos) == 'x' || text.charAt(pos) == 'X')) {
+                radix = 16;
+                pos++;
+            }
+            if (pos == end) {
+                return -1;
+            }
+            int value = 0;
+            for (; pos < end; pos++) {
+                int digit = Character.digit(text.charAt(pos), radix);
+                if (digit < 0) {
+                    return -1;
+                }
+                value = value * radix + digit;
+                if (value > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            return value;
+        }
+        for (int ind = 0; ind < ENTITY_NAMES.length; ind++) {
+            String name = ENTITY_NAMES[ind];
+            if (name.length() == end - start && text.regionMatches(start, name, 0, name.length())) {
+                return ENTITY_CHARS[ind];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process registry of named counters, gauges and latency histograms.
+ * A metric is created on the first request of its name; callers on hot paths
+ * should keep the returned object (e.g. in a static field),
+ * so recording a value doesn't allocate anything.
+ * Values are kept in memory only and may be dumped as JSON, see {@link #toJson()}
+ * @author yvolk@yurivolkov.com
+ */
+public class MyMetrics {
+    private static final String TAG = MyMetrics.class.getSimpleName();
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private static final Map<String, Latency> latencies = new ConcurrentHashMap<String, Latency>();
+
+    private MyMetrics() {
+        throw new AssertionError();
+    }
+
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Last reported value, e.g. size of a queue
+     */
+    public static final class Gauge {
+        private volatile long value = 0;
+
+        public void set(long valueIn) {
+            value = valueIn;
+        }
+
+        public long get() {
+            return value;
+        }
+    }
+
+    /**
+     * Histogram of durations with fixed bucket bounds, in microseconds
+     */
+    public static final class Latency {
+        static final long[] BUCKET_BOUNDS_MICROS = {
+                100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000,
+                250000, 500000, 1000000, 2500000, 5000000, 10000000, 30000000
+        };
+        /**
+         * The last bucket is for values above the largest bound
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        /**
+         * @param startedAtNanos value of {@link MyMetrics#now()} at the start of the measured operation
+         */
+        public void since(long startedAtNanos) {
+            record((System.nanoTime() - startedAtNanos) / 1000);
+        }
+
+        public void record(long micros) {
+            if (micros < 0) {
+                micros = 0;
+            }
+            int ind = 0;
+            while (ind < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[ind]) {
+                ind++;
+            }
+            buckets.incrementAndGet(ind);
+            count.incrementAndGet();
+            sumMicros.addAndGet(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @param fraction e.g. 0.99 for the 99th percentile
+         * @return upper bound of the bucket, where the percentile falls, in microseconds
+         *  (the maximum value for the last bucket), 0 if nothing was recorded
+         */
+        public long percentile(double fraction) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long accumulated = 0;
+            for (int ind = 0; ind < BUCKET_BOUNDS_MICROS.length; ind++) {
+                accumulated += buckets.get(ind);
+                if (accumulated >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MICROS[ind], maxMicros.get());
+                }
+            }
+            return maxMicros.get();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject jso = new JSONObject();
+            long total = count.get();
+            jso.put("count", total);
+            jso.put("mean_us", total == 0 ? 0 : sumMicros.get() / total);
+            jso.put("p50_us", percentile(0.5));
+            jso.put("p90_us", percentile(0.9));
+            jso.put("p99_us", percentile(0.99));
+            jso.put("max_us", maxMicros.get());
+            return jso;
+        }
+    }
+
+    /**
+     * @return start time of an operation to pass to {@link Latency#since(long)}
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    public static Counter counter(String name) {
+        Counter metric = counters.get(name);
+        if (metric == null) {
+            synchronized (counters) {
+                metric = counters.get(name);
+                if (metric == null) {
+                    metric = new Counter();
+                    counters.put(name, metric);
+                }
+            }
+        }
+        return metric;
+    }
+
+    public static Gauge gauge(String name) {
+        Gauge metric = gauges.get(name);
+        if (metric == null) {
+            synchronized (gauges) {
+                metric = gauges.get(name);
+                if (metric == null) {
+                    metric = new Gauge();
+                    gauges.put(name, metric);
+                }
+            }
+        }
+        return metric;
+    }
+
+    public static Latency latency(String name) {
+        Latency metric = latencies.get(name);
+        if (metric == null) {
+            synchronized (latencies) {
+                metric = latencies.get(name);
+                if (metric == null) {
+                    metric = new Latency();
+                    latencies.put(name, metric);
+                }
+            }
+        }
+        return metric;
+    }
+
+    /**
+     * @return All metrics sorted by name: {"counters":{...}, "gauges":{...}, "latencies":{...}}
+     */
+    public static JSONObject toJson() {
+        JSONObject jso = new JSONObject();
+        try {
+            JSONObject jsoCounters = new JSONObject();
+            for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+                jsoCounters.put(entry.getKey(), entry.getValue().get());
+            }
+            jso.put("counters", jsoCounters);
+            JSONObject jsoGauges = new JSONObject();
+            for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()) {
+                jsoGauges.put(entry.getKey(), entry.getValue().get());
+            }
+            jso.put("gauges", jsoGauges);
+            JSONObject jsoLatencies = new JSONObject();
+            for (Map.Entry<String, Latency> entry : new TreeMap<String, Latency>(latencies).entrySet()) {
+                jsoLatencies.put(entry.getKey(), entry.getValue().toJson());
+            }
+            jso.put("latencies", jsoLatencies);
+        } catch (JSONException e) {
+            MyLog.d(TAG, "toJson", e);
+        }
+        return jso;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timing of the application startup stages (preferences, accounts, database, service queues...).
+ * Each stage is logged when it ends, and its last duration is kept for the {@link #summary()}
+ * @author yvolk@yurivolkov.com
+ */
+public class StartupTrace {
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    private static final long processStartedAt = SystemClock.elapsedRealtime();
+    private static final Map<String, Long> stages = new LinkedHashMap<String, Long>();
+
+    private StartupTrace() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return start time of a stage to pass to {@link #end(String, long)}
+     */
+    public static long begin() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @param stage Name of the stage
+     * @param startedAt value returned by {@link #begin()}
+     * @return duration of the stage in milliseconds
+     */
+    public static long end(String stage, long startedAt) {
+        long now = SystemClock.elapsedRealtime();
+        long duration = now - startedAt;
+        synchronized (stages) {
+            stages.put(stage, duration);
+        }
+        if (MyLog.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, stage + " took " + duration + " ms, ended " + (now - processStartedAt) + " ms after start");
+        }
+        return duration;
+    }
+
+    /**
+     * @return Durations of all stages in milliseconds, in the order they were first reported
+     */
+    public static String summary() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (stages) {
+            for (Map.Entry<String, Long> entry : stages.entrySet()) {
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(entry.getKey() + "=" + entry.getValue() + "ms");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.MyService.CommandEnum;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+
+import java.util.List;
+
+/**
+ * Deferred commands are released together, and wakeups, saved by this, are counted
+ * @author yvolk@yurivolkov.com
+ */
+public class BatchingWindowTest extends InstrumentationTestCase {
+    private static final long WINDOW = 60000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initialize(this);
+    }
+
+    public void testDeferrable() {
+        assertTrue(BatchingWindow.isDeferrable(new CommandData(CommandEnum.AUTOMATIC_UPDATE, "",
+                TimelineTypeEnum.ALL, 0)));
+        assertTrue(BatchingWindow.isDeferrable(new CommandData(CommandEnum.FILL_GAPS, "",
+                TimelineTypeEnum.HOME, 0)));
+        assertFalse("The User waits for it", BatchingWindow.isDeferrable(new CommandData(CommandEnum.FETCH_TIMELINE, "",
+                TimelineTypeEnum.HOME, 0)));
+        assertFalse(BatchingWindow.isDeferrable(null));
+    }
+
+    public void testOwnBurst() {
+        BatchingWindow window = new BatchingWindow();
+        long wakeups = BatchingWindow.getWakeups();
+        long saved = BatchingWindow.getWakeupsSaved();
+
+        assertTrue(window.defer(new CommandData(CommandEnum.AUTOMATIC_UPDATE, "", TimelineTypeEnum.ALL, 0), 1000, WINDOW));
+        assertEquals("The first command opens the window", 1000 + WINDOW, window.getClosesAt());
+        assertTrue(window.defer(new CommandData(CommandEnum.FILL_GAPS, "", TimelineTypeEnum.HOME, 0), 20000, WINDOW));
+        assertFalse("Duplicated", window.defer(new CommandData(CommandEnum.FILL_GAPS, "", TimelineTypeEnum.HOME, 0),
+                30000, WINDOW));
+        assertEquals("Later commands don't move the end of the window", 1000 + WINDOW, window.getClosesAt());
+        assertFalse(window.isDue(1000 + WINDOW - 1));
+        assertTrue(window.isDue(1000 + WINDOW));
+
+        List<CommandData> commands = window.release(false);
+        assertEquals(2, commands.size());
+        assertEquals(CommandEnum.AUTOMATIC_UPDATE, commands.get(0).command);
+        assertTrue(window.isEmpty());
+        assertEquals(0, window.getClosesAt());
+        assertFalse(window.isDue(1000 + WINDOW));
+        assertEquals("One wakeup for the burst", wakeups + 1, BatchingWindow.getWakeups());
+        assertEquals("Second command didn't wake the radio", saved + 1, BatchingWindow.getWakeupsSaved());
+
+        assertTrue("Nothing to release", window.release(false).isEmpty());
+        assertEquals(wakeups + 1, BatchingWindow.getWakeups());
+    }
+
+    public void testAlongWithOtherWork() {
+        BatchingWindow window = new BatchingWindow();
+        long wakeups = BatchingWindow.getWakeups();
+        long saved = BatchingWindow.getWakeupsSaved();
+
+        window.defer(new CommandData(CommandEnum.AUTOMATIC_UPDATE, "", TimelineTypeEnum.ALL, 0), 1000, WINDOW);
+        window.defer(new CommandData(CommandEnum.FILL_GAPS, "", TimelineTypeEnum.MENTIONS, 0), 2000, WINDOW);
+        assertEquals(2, window.release(true).size());
+        assertEquals("The radio is on anyway", wakeups, BatchingWindow.getWakeups());
+        assertEquals(saved + 2, BatchingWindow.getWakeupsSaved());
+
+        window.skip(new CommandData(CommandEnum.AUTOMATIC_UPDATE, "", TimelineTypeEnum.ALL, 0));
+        assertEquals(saved + 3, BatchingWindow.getWakeupsSaved());
+
+        window.defer(new CommandData(CommandEnum.AUTOMATIC_UPDATE, "", TimelineTypeEnum.ALL, 0), 3000, WINDOW);
+        assertEquals(1, window.takeAll().size());
+        assertTrue(window.isEmpty());
+        assertEquals("Persisted commands are not counted", saved + 3, BatchingWindow.getWakeupsSaved());
+    }
+
+    public void testPullIn() {
+        BatchingWindow window = new BatchingWindow();
+        window.defer(new CommandData(CommandEnum.FILL_GAPS, "", TimelineTypeEnum.HOME, 0), 1000, WINDOW);
+        window.release(false);
+        assertFalse("No automatic update in the burst", window.takePullIn());
+
+        window.defer(new CommandData(CommandEnum.AUTOMATIC_UPDATE, "/twitter", TimelineTypeEnum.ALL, 0), 2000, WINDOW);
+        window.release(false);
+        assertTrue(window.takePullIn());
+        assertFalse("Only once for the burst", window.takePullIn());
+
+        window.onPulledIn("/identi.ca", 3000);
+        assertFalse("Not pulled in", window.takePulledIn("/twitter", 4000, WINDOW));
+        assertTrue(window.takePulledIn("/identi.ca", 4000, WINDOW));
+        assertFalse("The next sync is not skipped", window.takePulledIn("/identi.ca", 5000, WINDOW));
+
+        window.onPulledIn("/identi.ca", 3000);
+        assertFalse("Too old", window.takePulledIn("/identi.ca", 3001 + WINDOW, WINDOW));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.MyService.CommandEnum;
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.data.LatestTimelineItem;
+import org.andstatus.app.data.MyDatabase;
+import org.andstatus.app.data.MyDatabase.TimelineState;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.net.MbUser;
+import org.andstatus.app.origin.Origin.OriginEnum;
+import org.andstatus.app.util.TriState;
+
+/**
+ * A burst with an automatic update pulls in other accounts, which are due, and only their next syncs are skipped
+ * @author yvolk@yurivolkov.com
+ */
+public class MyServiceBatchingTest extends InstrumentationTestCase {
+    private Context context;
+    private String batchingWindowStored;
+    private MyAccount ma;
+    private MyAccount maDue;
+    private BatchingService service;
+
+    /**
+     * The Service is not started, the test calls its methods directly
+     */
+    private static class BatchingService extends MyService {
+        BatchingService(Context context) {
+            attachBaseContext(context);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = TestSuite.initialize(this);
+        batchingWindowStored = MyPreferences.getDefaultSharedPreferences().getString(MyPreferences.KEY_BATCHING_WINDOW, null);
+        MyPreferences.getDefaultSharedPreferences().edit().putString(MyPreferences.KEY_BATCHING_WINDOW, "60").commit();
+
+        ma = addAccount(OriginEnum.TWITTER, "144771645", "t131t");
+        maDue = addAccount(OriginEnum.PUMPIO, "acct:firstTestUser@identi.ca", "firstTestUser@identi.ca");
+        MyPreferences.onPreferencesChanged();
+        MyPreferences.initialize(context, this);
+        ma = MyAccount.fromAccountName(ma.getAccountName());
+        maDue = MyAccount.fromAccountName(maDue.getAccountName());
+        assertTrue("Synced automatically", maDue.isSyncedAutomatically());
+
+        LatestTimelineItem latest = new LatestTimelineItem(TimelineTypeEnum.HOME, ma.getUserId());
+        latest.onTimelineDownloaded();
+        latest.save();
+        MyPreferences.getDatabase().getWritableDatabase().execSQL("UPDATE " + MyDatabase.TIMELINE_STATE_TABLE_NAME
+                + " SET " + TimelineState.DOWNLOADED_DATE + "=0"
+                + " WHERE " + TimelineState.USER_ID + "=" + maDue.getUserId());
+
+        service = new BatchingService(context);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Cancels the alarm
+        service.releaseDeferredCommands(true);
+        MyPreferences.getDefaultSharedPreferences().edit().putString(MyPreferences.KEY_BATCHING_WINDOW,
+                batchingWindowStored).commit();
+        super.tearDown();
+    }
+
+    private MyAccount addAccount(OriginEnum originEnum, String userOid, String userName) throws Exception {
+        MbUser mbUser = MbUser.fromOriginAndUserOid(originEnum.getId(), userOid);
+        mbUser.userName = userName;
+        MyAccount.Builder builder = MyAccount.Builder.newOrExistingFromAccountName("/" + originEnum.getName(), TriState.TRUE);
+        builder.setUserTokenWithSecret("sampleUserTokenFor" + mbUser.userName, "sampleUserSecretFor" + mbUser.userName);
+        builder.onVerifiedCredentials(mbUser, null);
+        assertTrue("Account is persistent", builder.isPersistent());
+        return builder.getAccount();
+    }
+
+    private CommandData autoUpdate(MyAccount ma) {
+        return new CommandData(CommandEnum.AUTOMATIC_UPDATE, ma.getAccountName(), TimelineTypeEnum.ALL, 0);
+    }
+
+    public void testPullInAndSkip() {
+        assertTrue("Deferred", service.deferCommand(autoUpdate(ma)));
+        assertTrue(service.mCommands.isEmpty());
+        service.releaseDeferredCommands(false);
+        assertTrue(service.mCommands.contains(autoUpdate(ma)));
+        service.pullInDueAccounts();
+        assertTrue("Due account is pulled in", service.mCommands.contains(autoUpdate(maDue)));
+        // The burst is executed
+        service.mCommands.clear();
+
+        long saved = BatchingWindow.getWakeupsSaved();
+        assertTrue(service.deferCommand(autoUpdate(maDue)));
+        assertTrue("Sync of the pulled in account is skipped", service.mBatchingWindow.isEmpty());
+        assertEquals(saved + 1, BatchingWindow.getWakeupsSaved());
+
+        assertTrue(service.deferCommand(autoUpdate(maDue)));
+        assertFalse("Only the first sync is skipped", service.mBatchingWindow.isEmpty());
+        assertTrue("Not pulled in", service.deferCommand(autoUpdate(ma)));
+        service.releaseDeferredCommands(true);
+        assertTrue(service.mCommands.contains(autoUpdate(maDue)));
+        assertTrue(service.mCommands.contains(autoUpdate(ma)));
+    }
+
+    public void testManualSyncIsNotDeferred() {
+        CommandData syncNow = new CommandData(CommandEnum.FETCH_TIMELINE, maDue.getAccountName(), TimelineTypeEnum.ALL, 0);
+        assertFalse(service.deferCommand(syncNow));
+        assertTrue(service.mBatchingWindow.isEmpty());
+    }
+
+    public void testNoPullInWithoutAutomaticUpdate() {
+        CommandData fillGaps = new CommandData(CommandEnum.FILL_GAPS, ma.getAccountName(), TimelineTypeEnum.HOME, 0);
+        assertTrue(service.deferCommand(fillGaps));
+        service.releaseDeferredCommands(false);
+        service.pullInDueAccounts();
+        assertEquals(1, service.mCommands.size());
+        assertTrue(service.mCommands.contains(fillGaps));
+        service.mCommands.clear();
+
+        assertTrue(service.deferCommand(autoUpdate(maDue)));
+        assertFalse("Not skipped", service.mBatchingWindow.isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.text.Spannable;
+import android.text.style.StyleSpan;
+import android.text.style.URLSpan;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class BodyEntitiesTest extends TestCase {
+
+    public void testExtract() {
+        assertEquals("", BodyEntities.extract(null));
+        assertEquals("", BodyEntities.extract("No entities here, email a@b.com, #123 is not a tag"));
+        assertEquals("m3,14;l53,76",
+                BodyEntities.extract("RT @AndStatus1: This AndStatus application was built https://t.co/aktpA1VuMS."));
+        assertEquals("Pump.io address, link in brackets, hashtag", "m0,16;l21,42;h47,57",
+                BodyEntities.extract("@t131t@identi.ca see www.example.com/a_(b) and #AndStatus"));
+        assertEquals("Trailing punctuation", "l1,15;h17,21;m23,28", BodyEntities.extract("(http://x.org/y) #tag, @user."));
+    }
+
+    public void testMentions() {
+        String body = "@t131t, @AndStatus@identi.ca: see #user and mail@example.com";
+        assertEquals(Arrays.asList("t131t", "AndStatus@identi.ca"),
+                BodyEntities.mentions(body, BodyEntities.extract(body)));
+        assertTrue("No entities", BodyEntities.mentions(body, "").isEmpty());
+        assertTrue("Wrong entities are ignored", BodyEntities.mentions(body, "m5,500;m;x1,2").isEmpty());
+    }
+
+    public void testHashtags() {
+        String body = "#AndStatus for @t131t, see #Pump_io and #andstatus, not #123";
+        assertEquals(Arrays.asList("andstatus", "pump_io"), BodyEntities.hashtags(body, BodyEntities.extract(body)));
+        assertEquals("andstatus", BodyEntities.toTag(" #AndStatus"));
+        assertTrue(BodyEntities.isHashtag("#AndStatus "));
+        assertFalse(BodyEntities.isHashtag("#AndStatus and more"));
+        assertFalse(BodyEntities.isHashtag("#"));
+        assertFalse(BodyEntities.isHashtag(null));
+    }
+
+    public void testToSpannable() {
+        String body = "@t131t see http://andstatus.org/ #AndStatus";
+        Spannable spannable = BodyEntities.toSpannable(body, BodyEntities.extract(body));
+        assertEquals(body, spannable.toString());
+        URLSpan[] links = spannable.getSpans(0, body.length(), URLSpan.class);
+        assertEquals(1, links.length);
+        assertEquals("http://andstatus.org/", links[0].getURL());
+        assertEquals(2, spannable.getSpans(0, body.length(), StyleSpan.class).length);
+
+        assertEquals("Extracted if not stored", 1,
+                BodyEntities.toSpannable(body, null).getSpans(0, body.length(), URLSpan.class).length);
+        assertEquals("Wrong entities are ignored", 0,
+                BodyEntities.toSpannable(body, "l5,500;x;h").getSpans(0, body.length(), Object.class).length);
+    }
+}
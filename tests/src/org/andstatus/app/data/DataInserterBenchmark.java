@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.TestSuite;
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.net.MbMessage;
+import org.andstatus.app.net.MbUser;
+import org.andstatus.app.origin.Origin;
+import org.andstatus.app.util.Benchmark;
+import org.andstatus.app.util.SelectionAndArgs;
+import org.andstatus.app.util.TriState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of storing a page of messages with {@link DataInserter}:
+ * new messages (insert path) and the same messages again (lookup and "is it newer" decisions, update path).
+ * The database of the application under test is used. See results in the log ("Benchmark" tag).
+ * @author yvolk@yurivolkov.com
+ */
+public class DataInserterBenchmark extends InstrumentationTestCase {
+    private static final int PAGE_SIZE = 200;
+    /**
+     * Each warm-up and measured iteration of the insert path needs its own page of new messages
+     */
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int ITERATIONS = 15;
+    private static final String OID_PREFIX = "https://identi.ca/api/note/benchmark";
+
+    private Context context;
+    private MyAccount ma;
+    private MbUser accountMbUser;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = TestSuite.initialize(this);
+
+        accountMbUser = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), "acct:t131t@identi.ca");
+        accountMbUser.userName = "t131t@identi.ca";
+        MyAccount.Builder builder = MyAccount.Builder.newOrExistingFromAccountName("/" + Origin.OriginEnum.PUMPIO.getName(), TriState.TRUE);
+        builder.setUserTokenWithSecret("sampleUserTokenFor" + accountMbUser.userName, "sampleUserSecretFor" + accountMbUser.userName);
+        builder.onVerifiedCredentials(accountMbUser, null);
+        assertTrue("Account is persistent", builder.isPersistent());
+        ma = builder.getAccount();
+        deleteBenchmarkMessages();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteBenchmarkMessages();
+        super.tearDown();
+    }
+
+    private void deleteBenchmarkMessages() {
+        SelectionAndArgs sa = new SelectionAndArgs();
+        sa.addSelection(MyDatabase.Msg.MSG_OID + " LIKE ?", new String[] {
+            OID_PREFIX + "%"
+        });
+        context.getContentResolver().delete(MyDatabase.Msg.CONTENT_URI, sa.selection, sa.selectionArgs);
+    }
+
+    private List<MbMessage> newPage(int pageIndex) {
+        List<MbMessage> page = new ArrayList<MbMessage>();
+        for (int ind = 0; ind < PAGE_SIZE; ind++) {
+            int userIndex = ind % 10;
+            MbUser author = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), "acct:benchmark" + userIndex + "@identi.ca");
+            author.userName = "benchmark" + userIndex + "@identi.ca";
+            author.actor = accountMbUser;
+            MbMessage message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), OID_PREFIX + pageIndex + "_" + ind);
+            message.body = "Benchmark message " + ind + " of page " + pageIndex + ", mentioning @t131t@identi.ca";
+            message.sentDate = 1383000000000L + pageIndex * PAGE_SIZE + ind;
+            message.via = "Benchmark";
+            message.sender = author;
+            message.actor = accountMbUser;
+            page.add(message);
+        }
+        return page;
+    }
+
+    public void testInsertAndUpdate() throws Exception {
+        final List<List<MbMessage>> pages = new ArrayList<List<MbMessage>>();
+        for (int ind = 0; ind < WARM_UP_ITERATIONS + ITERATIONS; ind++) {
+            pages.add(newPage(ind));
+        }
+        final int[] pageIndex = {0};
+        Benchmark.Operation insertPage = new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                DataInserter di = new DataInserter(ma, context, TimelineTypeEnum.HOME);
+                LatestUserMessages lum = new LatestUserMessages();
+                for (MbMessage message : pages.get(pageIndex[0] % pages.size())) {
+                    assertTrue(di.insertOrUpdateMsg(message, lum) != 0);
+                }
+                lum.save();
+                pageIndex[0]++;
+            }
+        };
+        Benchmark.Result inserted = Benchmark.run("DataInserter, new " + PAGE_SIZE + " messages",
+                WARM_UP_ITERATIONS, ITERATIONS, insertPage);
+        // All the pages are stored now, so each next iteration takes a stored page
+        Benchmark.Result updated = Benchmark.run("DataInserter, the same " + PAGE_SIZE + " messages",
+                WARM_UP_ITERATIONS, ITERATIONS, insertPage);
+        assertTrue(inserted.toString(), inserted.getOpsPerSecond() > 0);
+        assertTrue(updated.toString(), updated.getOpsPerSecond() > 0);
+    }
+}
@@ -10,6 +10,7 @@ import org.andstatus.app.TestSuite;
 import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.account.MyAccount.Builder;
 import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.MsgTag;
 import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.data.MyPreferences;
 import org.andstatus.app.data.MyDatabase.Msg;
@@ -18,6 +19,7 @@ import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.net.MbMessage;
 import org.andstatus.app.net.MbUser;
+import org.andstatus.app.net.TimelinePosition;
 import org.andstatus.app.origin.Origin;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SelectionAndArgs;
@@ -29,6 +31,8 @@ public class DataInserterTest extends InstrumentationTestCase {
     private static final String TAG = DataInserterTest.TAG + "." + Builder.class.getSimpleName();
     private Context context;
     private MbUser accountMbUser;
+    private MbUser firstMbUser;
+    private long firstAccountUserId;
     private final String accountUserOid = "acct:t131t@identi.ca";
     private String accountName;
     private long accountUserId;
@@ -39,10 +43,11 @@ public class DataInserterTest extends InstrumentationTestCase {
         context = TestSuite.initialize(this);
 
         String firstUserName = "firstTestUser@identi.ca";
-        MbUser firstMbUser  = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), 
+        firstMbUser  = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), 
                 "acct:" + firstUserName);
         firstMbUser.userName = firstUserName;
         MyAccount.Builder builderFirst = addAccount(firstMbUser);
+        firstAccountUserId = builderFirst.getAccount().getUserId();
         MyLog.v(TAG, firstUserName + " added, id=" + builderFirst.getAccount().getUserId());
 
         long accountUserId_existing = MyProvider.oidToId(OidEnum.USER_OID, firstMbUser.originId, firstMbUser.oid);
@@ -296,5 +301,235 @@ public class DataInserterTest extends InstrumentationTestCase {
         assertTrue("Message " + messageId + " is direct", cursor.getInt(2) == 1);
         cursor.close();
     }
-    
+
+    public void testMessageForOtherAccount() throws ConnectionException {
+        String mentionOid = "https://pumpity.net/api/comment/kdDFs8dfjkWErtyMentionsFirst";
+        String directOid = "https://pumpity.net/api/comment/kdDFs8dfjkWErtyDirectToFirst";
+        deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), mentionOid);
+        deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), directOid);
+        MyAccount ma = MyAccount.fromAccountName(accountName);
+        assertTrue("Other account is not the current one", firstAccountUserId != ma.getUserId());
+
+        String username = "talker@pumpity.net";
+        MbUser sender = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), "acct:" + username);
+        sender.userName = username;
+        DataInserter di = new DataInserter(ma, context, TimelineTypeEnum.HOME);
+
+        MbMessage message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), mentionOid);
+        message.body = "Hi @" + firstMbUser.userName + ", the message is downloaded by another account";
+        message.sentDate = 13312700000L;
+        message.sender = sender;
+        message.actor = accountMbUser;
+        long mentionId = di.insertOrUpdateMsg(message);
+        assertTrue("Message added", mentionId != 0);
+        assertEquals("Mentioned", 1, msgOfUserFlag(firstAccountUserId, mentionId, MsgOfUser.MENTIONED));
+        assertEquals("Not directed", 0, msgOfUserFlag(firstAccountUserId, mentionId, MsgOfUser.DIRECTED));
+
+        message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), directOid);
+        message.body = "This is a private message";
+        message.sentDate = 13312700001L;
+        message.sender = sender;
+        message.actor = accountMbUser;
+        message.recipient = firstMbUser;
+        long directId = di.insertOrUpdateMsg(message);
+        assertTrue("Message added", directId != 0);
+        assertEquals("Directed", 1, msgOfUserFlag(firstAccountUserId, directId, MsgOfUser.DIRECTED));
+        assertEquals("Not directed to the current account", 0, msgOfUserFlag(ma.getUserId(), directId, MsgOfUser.DIRECTED));
+    }
+
+    /**
+     * @return 0 if the flag is not set or there is no such row
+     */
+    private long msgOfUserFlag(long userId, long msgId, String column) {
+        Cursor cursor = MyPreferences.getDatabase().getReadableDatabase().rawQuery("SELECT " + column
+                + " FROM " + MyDatabase.MSGOFUSER_TABLE_NAME
+                + " WHERE " + MsgOfUser.USER_ID + "=" + userId + " AND " + MsgOfUser.MSG_ID + "=" + msgId, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testUnchangedItemsAreNotWritten() throws ConnectionException {
+        String messageOid = "https://pumpity.net/api/comment/dfSDJKdf34jkJHsdfsdnewpage";
+        deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), messageOid);
+        MyAccount ma = MyAccount.fromAccountName(accountName);
+
+        String username = "samesender@pumpity.net";
+        MbUser sender = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), "acct:" + username);
+        sender.userName = username;
+        sender.url = "http://pumpity.net/samesender";
+        sender.actor = accountMbUser;
+
+        MbMessage message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), messageOid);
+        message.body = "The same message, downloaded twice";
+        message.sentDate = 13312799000L;
+        message.via = "SameClient";
+        message.sender = sender;
+        message.actor = accountMbUser;
+
+        MessageCounters counters = new MessageCounters(ma, context, TimelineTypeEnum.HOME);
+        DataInserter di = new DataInserter(counters);
+        long messageId = di.insertOrUpdateMsg(message);
+        assertTrue( "Message added", messageId != 0);
+        int updated = counters.itemsUpdated;
+        int skipped = counters.writesSkipped;
+
+        assertEquals(messageId, di.insertOrUpdateMsg(message));
+        assertEquals("Message is not updated again", updated, counters.itemsUpdated);
+        assertTrue("Sender and message are skipped", counters.writesSkipped >= skipped + 2);
+        skipped = counters.writesSkipped;
+
+        DataInserter di2 = new DataInserter(counters);
+        assertEquals(messageId, di2.insertOrUpdateMsg(message));
+        assertEquals("Stored values are compared by the new inserter", updated, counters.itemsUpdated);
+        assertTrue("Sender and message are skipped by the new inserter", counters.writesSkipped >= skipped + 2);
+
+        message.via = "OtherClient";
+        assertEquals(messageId, di2.insertOrUpdateMsg(message));
+        assertEquals("Changed message is written", updated + 1, counters.itemsUpdated);
+        assertEquals(message.via, MyProvider.msgIdToStringColumnValue(Msg.VIA, messageId));
+    }
+
+    public void testLatestUserMessagesAndTimelineItem() throws ConnectionException {
+        MyAccount ma = MyAccount.fromAccountName(accountName);
+        DataInserter di = new DataInserter(ma, context, TimelineTypeEnum.HOME);
+        long[] userIds = new long[2];
+        for (int ind = 0; ind < userIds.length; ind++) {
+            String username = "latest" + ind + "@pumpity.net";
+            MbUser user = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), "acct:" + username);
+            user.userName = username;
+            userIds[ind] = di.insertOrUpdateUser(user);
+            assertTrue("User " + username + " added", userIds[ind] != 0);
+        }
+
+        LatestUserMessages lum = new LatestUserMessages();
+        lum.onNewUserMsg(new UserMsg(userIds[0], 101, 13312800000L));
+        lum.onNewUserMsg(new UserMsg(userIds[0], 102, 13312700000L));
+        lum.onNewUserMsg(new UserMsg(userIds[1], 103, 13312900000L));
+        assertTrue("Saved", lum.save());
+        assertEquals(101, MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, userIds[0]));
+        assertEquals(13312800000L, MyProvider.userIdToLongColumnValue(User.USER_MSG_DATE, userIds[0]));
+        assertEquals(103, MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, userIds[1]));
+
+        lum = new LatestUserMessages();
+        lum.onNewUserMsg(new UserMsg(userIds[0], 104, 13312600000L));
+        assertTrue("Saved", lum.save());
+        assertEquals("Newer message is not overwritten", 101, MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, userIds[0]));
+
+        LatestTimelineItem item = new LatestTimelineItem(TimelineTypeEnum.HOME, userIds[0]);
+        item.onNewMsg(new TimelinePosition("https://pumpity.net/api/activity/latest"), 13312800000L);
+        item.onTimelineDownloaded();
+        item.save();
+        LatestTimelineItem loaded = new LatestTimelineItem(TimelineTypeEnum.HOME, userIds[0]);
+        assertEquals(item.getPosition().getPosition(), loaded.getPosition().getPosition());
+        assertEquals(13312800000L, loaded.getTimelineItemDate());
+        assertEquals(item.getTimelineDownloadedDate(), loaded.getTimelineDownloadedDate());
+        assertEquals("Shares the state of the Home timeline", item.getPosition().getPosition(),
+                new LatestTimelineItem(TimelineTypeEnum.MESSAGESTOACT, userIds[0]).getPosition().getPosition());
+
+        LatestTimelineItem following = new LatestTimelineItem(TimelineTypeEnum.FOLLOWING_USER, userIds[0]);
+        following.onTimelineDownloaded();
+        following.save();
+        assertEquals(following.getTimelineDownloadedDate(),
+                new LatestTimelineItem(TimelineTypeEnum.FOLLOWING_USER, userIds[0]).getTimelineDownloadedDate());
+        assertEquals("Home position is kept", item.getPosition().getPosition(),
+                new LatestTimelineItem(TimelineTypeEnum.HOME, userIds[0]).getPosition().getPosition());
+    }
+
+    public void testTaggedMessage() throws ConnectionException {
+        String messageOid = "https://pumpity.net/api/comment/tagged1";
+        deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), messageOid);
+        MyAccount ma = MyAccount.fromAccountName(accountName);
+
+        MbMessage message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), messageOid);
+        message.body = "Tags #AndStatus, #PumpIo and #andstatus again";
+        message.sentDate = 13312900000L;
+        message.sender = accountMbUser;
+        message.actor = accountMbUser;
+        long messageId = new DataInserter(ma, context, TimelineTypeEnum.HOME).insertOrUpdateMsg(message);
+        assertTrue( "Message added", messageId != 0);
+
+        Uri uri = MyProvider.getTimelineTagUri(ma.getUserId(), TimelineTypeEnum.HOME, false, "#andStatus");
+        assertEquals("andstatus", MyProvider.uriToTag(uri));
+        Cursor cursor = context.getContentResolver().query(uri, new String[] {Msg._ID}, null, null, Msg.DEFAULT_SORT_ORDER);
+        assertEquals("The message is found once by its tag", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(messageId, cursor.getLong(0));
+        cursor.close();
+
+        cursor = context.getContentResolver().query(MsgTag.CONTENT_URI, new String[] {MsgTag.TAG, MsgTag.TAG_COUNT},
+                MsgTag.TAG + "=?", new String[] {"pumpio"}, null);
+        assertTrue("Top tags", cursor.moveToFirst());
+        assertTrue(cursor.getInt(1) > 0);
+        cursor.close();
+
+        deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), messageOid);
+        cursor = context.getContentResolver().query(uri, new String[] {Msg._ID}, null, null, null);
+        assertEquals("Tags are deleted with the message", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testUnreadCount() throws ConnectionException {
+        MyAccount ma = MyAccount.fromAccountName(accountName);
+        String username = "unread@pumpity.net";
+        MbUser somebody = MbUser.fromOriginAndUserOid(Origin.OriginEnum.PUMPIO.getId(), "acct:" + username);
+        somebody.userName = username;
+        somebody.actor = accountMbUser;
+        String[] messageOids = {
+                "https://pumpity.net/api/comment/unread1",
+                "https://pumpity.net/api/comment/unread2",
+                "https://pumpity.net/api/comment/unread3"
+        };
+        for (String messageOid : messageOids) {
+            deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), messageOid);
+        }
+        // Sent dates are later than of any message, read before
+        long sentDate = System.currentTimeMillis() + 3600000L;
+
+        ReadMarker.markRead(ma.getUserId(), TimelineTypeEnum.HOME, sentDate - 1000);
+        assertEquals("Nothing unread", 0, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+        MbMessage message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), messageOids[0]);
+        message.body = "The first unread message";
+        message.sentDate = sentDate;
+        message.sender = somebody;
+        message.actor = accountMbUser;
+        new DataInserter(ma, context, TimelineTypeEnum.HOME).insertOrUpdateMsg(message);
+        assertEquals("The message is unread", 1, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+        new DataInserter(ma, context, TimelineTypeEnum.HOME).insertOrUpdateMsg(message);
+        assertEquals("The message is counted once", 1, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+        assertTrue("Unread of all accounts", ReadMarker.getUnreadCount(0, TimelineTypeEnum.HOME) >= 1);
+        assertEquals("Not in Mentions", 0, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.MENTIONS));
+
+        message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), messageOids[1]);
+        message.body = "The second unread message";
+        message.sentDate = sentDate + 1000;
+        message.sender = somebody;
+        message.actor = accountMbUser;
+        new DataInserter(ma, context, TimelineTypeEnum.HOME).insertOrUpdateMsg(message);
+        assertEquals(2, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+
+        assertTrue("Marker moved", ReadMarker.markRead(ma.getUserId(), TimelineTypeEnum.HOME, sentDate));
+        assertEquals("Only the newer message is unread", 1, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+        assertFalse("Marker is not moved back", ReadMarker.markRead(ma.getUserId(), TimelineTypeEnum.HOME, sentDate - 500));
+
+        message = MbMessage.fromOriginAndOid(Origin.OriginEnum.PUMPIO.getId(), messageOids[2]);
+        message.body = "The message, which is older than the read marker";
+        message.sentDate = sentDate - 500;
+        message.sender = somebody;
+        message.actor = accountMbUser;
+        new DataInserter(ma, context, TimelineTypeEnum.HOME).insertOrUpdateMsg(message);
+        assertEquals("The older message is read", 1, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+
+        deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), messageOids[1]);
+        ReadMarker.recount(MyPreferences.getDatabase().getWritableDatabase());
+        assertEquals("The deleted message is not counted", 0, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+
+        assertTrue(ReadMarker.markRead(ma.getUserId(), TimelineTypeEnum.HOME, sentDate + 1000));
+        assertEquals("All read", 0, ReadMarker.getUnreadCount(ma.getUserId(), TimelineTypeEnum.HOME));
+        for (String messageOid : messageOids) {
+            deleteOldMessage(Origin.OriginEnum.PUMPIO.getId(), messageOid);
+        }
+    }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.andstatus.app.data.MyDatabase.FollowingUser;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.MsgTag;
+import org.andstatus.app.data.MyDatabase.User;
+
+import java.util.Random;
+
+/**
+ * Fills the "msg", "msgofuser", "msg_tag", "user" and "followinguser" tables with synthetic data
+ * directly (not through the {@link DataInserter}), so the database looks like
+ * the one of a user, who has several accounts and has been using the application for a long time:
+ * <ul>
+ * <li>a few users send most of the messages,</li>
+ * <li>some messages are reblogs and replies to earlier messages,</li>
+ * <li>each account follows some of the users, is mentioned, has favorites and direct messages.</li>
+ * </ul>
+ * The same seed generates the same data. All rows have oids with the {@link #OID_PREFIX},
+ * so they may be deleted by {@link #delete(long)}
+ * @author yvolk@yurivolkov.com
+ */
+public class LargeDatabaseGenerator {
+    private static final String TAG = LargeDatabaseGenerator.class.getSimpleName();
+    public static final String OID_PREFIX = "largedb-";
+    private static final long MESSAGE_INTERVAL_MILLIS = 60000;
+
+    private final long originId;
+    private final long[] accountUserIds;
+    private final Random random;
+
+    private int messagesCount = 20000;
+    private int usersCount = 2000;
+    private int followingCount = 300;
+    private int reblogsPercent = 10;
+    private int repliesPercent = 15;
+    private int mentionsPercent = 5;
+    private int favoritesPercent = 2;
+    private int directedPercent = 1;
+
+    private long[] userIds = new long[0];
+    private long[] messageIds = new long[0];
+    /**
+     * [account index][user index]
+     */
+    private boolean[][] followed = new boolean[0][0];
+    private long elapsedMillis = 0;
+
+    /**
+     * @param accountUserIds {@link MyDatabase.User#USER_ID}s of accounts, which see the messages.
+     *  Use ids of existing {@link org.andstatus.app.account.MyAccount}s to have data in combined timelines
+     */
+    public LargeDatabaseGenerator(long originId, long[] accountUserIds, long seed) {
+        this.originId = originId;
+        this.accountUserIds = accountUserIds.clone();
+        random = new Random(seed);
+    }
+
+    public LargeDatabaseGenerator setMessagesCount(int messagesCount) {
+        this.messagesCount = messagesCount;
+        return this;
+    }
+
+    public LargeDatabaseGenerator setUsersCount(int usersCount) {
+        this.usersCount = usersCount;
+        if (followingCount > usersCount) {
+            followingCount = usersCount;
+        }
+        return this;
+    }
+
+    /**
+     * @param followingCount Number of users, followed by each account
+     */
+    public LargeDatabaseGenerator setFollowingCount(int followingCount) {
+        this.followingCount = Math.min(followingCount, usersCount);
+        return this;
+    }
+
+    /**
+     * Shares of messages in percents. Mentions, favorites and direct messages are per account
+     */
+    public LargeDatabaseGenerator setPercents(int reblogs, int replies, int mentions, int favorites, int directed) {
+        reblogsPercent = reblogs;
+        repliesPercent = replies;
+        mentionsPercent = mentions;
+        favoritesPercent = favorites;
+        directedPercent = directed;
+        return this;
+    }
+
+    public int getMessagesCount() {
+        return messagesCount;
+    }
+
+    public long getUserId(int index) {
+        return userIds[index];
+    }
+
+    /**
+     * @return the most active sender
+     */
+    public long getTopUserId() {
+        return userIds[0];
+    }
+
+    public long getMessageId(int index) {
+        return messageIds[index];
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Index of a sender: the first users send most of the messages
+     */
+    private int nextUserIndex() {
+        double value = random.nextDouble();
+        return (int) (usersCount * value * value * value);
+    }
+
+    private boolean chance(int percent) {
+        return random.nextInt(100) < percent;
+    }
+
+    public void generate() {
+        long startedAt = System.currentTimeMillis();
+        userIds = new long[usersCount];
+        messageIds = new long[messagesCount];
+        followed = new boolean[accountUserIds.length][usersCount];
+        SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            insertUsers(db, startedAt);
+            insertFollowing(db);
+            insertMessages(db, startedAt);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        elapsedMillis = System.currentTimeMillis() - startedAt;
+        Log.i(TAG, "Generated " + messagesCount + " messages of " + usersCount + " users for "
+                + accountUserIds.length + " accounts in " + elapsedMillis + " ms");
+    }
+
+    private void insertUsers(SQLiteDatabase db, long now) {
+        ContentValues values = new ContentValues();
+        for (int ind = 0; ind < usersCount; ind++) {
+            values.clear();
+            values.put(User.ORIGIN_ID, originId);
+            values.put(User.USER_OID, OID_PREFIX + "user" + ind);
+            values.put(User.USERNAME, OID_PREFIX + "user" + ind);
+            values.put(User.REAL_NAME, "Large database user " + ind);
+            values.put(User.INS_DATE, now);
+            userIds[ind] = db.insertOrThrow(MyDatabase.USER_TABLE_NAME, null, values);
+        }
+    }
+
+    /**
+     * Each account follows a random subset of users, always including the most active ones
+     */
+    private void insertFollowing(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        for (int indAccount = 0; indAccount < accountUserIds.length; indAccount++) {
+            for (int ind = 0; ind < followingCount; ind++) {
+                int userIndex = (ind < followingCount / 2 ? ind : random.nextInt(usersCount));
+                if (followed[indAccount][userIndex]) {
+                    continue;
+                }
+                followed[indAccount][userIndex] = true;
+                values.clear();
+                values.put(FollowingUser.USER_ID, accountUserIds[indAccount]);
+                values.put(FollowingUser.FOLLOWING_USER_ID, userIds[userIndex]);
+                values.put(FollowingUser.USER_FOLLOWED, 1);
+                db.insertWithOnConflict(MyDatabase.FOLLOWING_USER_TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+        }
+    }
+
+    private void insertMessages(SQLiteDatabase db, long now) {
+        ContentValues values = new ContentValues();
+        long[] latestMessageOfUser = new long[usersCount];
+        long[] latestDateOfUser = new long[usersCount];
+        int[] authorIndexes = new int[messagesCount];
+        for (int ind = 0; ind < messagesCount; ind++) {
+            long sentDate = now - (messagesCount - ind) * MESSAGE_INTERVAL_MILLIS;
+            int senderIndex = nextUserIndex();
+            int authorIndex = senderIndex;
+            boolean reblog = chance(reblogsPercent);
+            if (reblog) {
+                authorIndex = nextUserIndex();
+            }
+            authorIndexes[ind] = authorIndex;
+            values.clear();
+            values.put(Msg.ORIGIN_ID, originId);
+            values.put(Msg.MSG_OID, OID_PREFIX + "msg" + ind);
+            values.put(Msg.AUTHOR_ID, userIds[authorIndex]);
+            values.put(Msg.SENDER_ID, userIds[senderIndex]);
+            String body = "Large database message " + ind + " of user " + authorIndex
+                    + (ind % 3 == 0 ? ", see http://andstatus.org/" + ind : "")
+                    + (ind % 5 == 0 ? " #Tag" + (ind % 20) : "");
+            values.put(Msg.BODY, body);
+            values.put(Msg.BODY_ENTITIES, BodyEntities.extract(body));
+            values.put(Msg.VIA, "LargeDatabaseGenerator");
+            if (ind > 0 && chance(repliesPercent)) {
+                int inReplyTo = ind - 1 - random.nextInt(Math.min(ind, 100));
+                values.put(Msg.IN_REPLY_TO_MSG_ID, messageIds[inReplyTo]);
+                values.put(Msg.IN_REPLY_TO_USER_ID, userIds[authorIndexes[inReplyTo]]);
+            }
+            int directedTo = -1;
+            if (accountUserIds.length > 0 && chance(directedPercent)) {
+                directedTo = random.nextInt(accountUserIds.length);
+                values.put(Msg.RECIPIENT_ID, accountUserIds[directedTo]);
+            }
+            values.put(Msg.CREATED_DATE, sentDate);
+            values.put(Msg.SENT_DATE, sentDate);
+            values.put(Msg.INS_DATE, now);
+            messageIds[ind] = db.insertOrThrow(MyDatabase.MSG_TABLE_NAME, null, values);
+            for (String tag : BodyEntities.hashtags(body, values.getAsString(Msg.BODY_ENTITIES))) {
+                values.clear();
+                values.put(MsgTag.MSG_ID, messageIds[ind]);
+                values.put(MsgTag.TAG, tag);
+                values.put(MsgTag.SENT_DATE, sentDate);
+                db.insertOrThrow(MyDatabase.MSG_TAG_TABLE_NAME, null, values);
+            }
+            latestMessageOfUser[senderIndex] = messageIds[ind];
+            latestDateOfUser[senderIndex] = sentDate;
+
+            for (int indAccount = 0; indAccount < accountUserIds.length; indAccount++) {
+                values.clear();
+                if (followed[indAccount][senderIndex]) {
+                    values.put(MsgOfUser.SUBSCRIBED, 1);
+                }
+                if (chance(mentionsPercent)) {
+                    values.put(MsgOfUser.MENTIONED, 1);
+                }
+                if (chance(favoritesPercent)) {
+                    values.put(MsgOfUser.FAVORITED, 1);
+                }
+                if (directedTo == indAccount) {
+                    values.put(MsgOfUser.DIRECTED, 1);
+                }
+                if (reblog && chance(reblogsPercent)) {
+                    values.put(MsgOfUser.REBLOGGED, 1);
+                    values.put(MsgOfUser.REBLOG_OID, OID_PREFIX + "reblog" + ind + "_" + indAccount);
+                }
+                if (values.size() > 0) {
+                    values.put(MsgOfUser.USER_ID, accountUserIds[indAccount]);
+                    values.put(MsgOfUser.MSG_ID, messageIds[ind]);
+                    db.insertOrThrow(MyDatabase.MSGOFUSER_TABLE_NAME, null, values);
+                }
+            }
+        }
+        for (int ind = 0; ind < usersCount; ind++) {
+            if (latestMessageOfUser[ind] != 0) {
+                values.clear();
+                values.put(User.USER_MSG_ID, latestMessageOfUser[ind]);
+                values.put(User.USER_MSG_DATE, latestDateOfUser[ind]);
+                db.update(MyDatabase.USER_TABLE_NAME, values, BaseColumns._ID + "=" + userIds[ind], null);
+            }
+        }
+    }
+
+    /**
+     * Delete all generated rows of the origin
+     */
+    public static void delete(long originId) {
+        SQLiteDatabase db = MyPreferences.getDatabase().getWritableDatabase();
+        String messages = "SELECT " + BaseColumns._ID + " FROM " + MyDatabase.MSG_TABLE_NAME
+                + " WHERE " + Msg.ORIGIN_ID + "=" + originId
+                + " AND " + Msg.MSG_OID + " LIKE '" + OID_PREFIX + "%'";
+        String users = "SELECT " + BaseColumns._ID + " FROM " + MyDatabase.USER_TABLE_NAME
+                + " WHERE " + User.ORIGIN_ID + "=" + originId
+                + " AND " + User.USER_OID + " LIKE '" + OID_PREFIX + "%'";
+        db.beginTransaction();
+        try {
+            db.delete(MyDatabase.MSGOFUSER_TABLE_NAME, MsgOfUser.MSG_ID + " IN (" + messages + ")", null);
+            db.delete(MyDatabase.MSG_TAG_TABLE_NAME, MsgTag.MSG_ID + " IN (" + messages + ")", null);
+            db.delete(MyDatabase.MSG_TABLE_NAME, BaseColumns._ID + " IN (" + messages + ")", null);
+            db.delete(MyDatabase.FOLLOWING_USER_TABLE_NAME, FollowingUser.FOLLOWING_USER_ID + " IN (" + users + ")", null);
+            db.delete(MyDatabase.USER_TABLE_NAME, BaseColumns._ID + " IN (" + users + ")", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import org.andstatus.app.TestSuite;
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.MsgTag;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.data.MyDatabase.User;
+import org.andstatus.app.net.MbUser;
+import org.andstatus.app.origin.Origin.OriginEnum;
+import org.andstatus.app.util.MyMetrics;
+import org.andstatus.app.util.SelectionAndArgs;
+import org.andstatus.app.util.TriState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latency of {@link MyProvider#query(Uri, String[], String, String[], String)} for each URI shape
+ * and each timeline type, as the TimelineActivity queries them, on the database,
+ * filled by the {@link LargeDatabaseGenerator}.
+ * p50 and p99 are logged with the "Benchmark" tag.
+ * @author yvolk@yurivolkov.com
+ */
+public class ProviderQueryBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "Benchmark";
+    private static final int MESSAGES_COUNT = 20000;
+    private static final int USERS_COUNT = 2000;
+    private static final int WARM_UP = 3;
+    private static final int ITERATIONS = 30;
+    /**
+     * The same as TimelineActivity uses
+     */
+    private static final String[] PROJECTION = new String[] {
+            Msg._ID, User.AUTHOR_NAME, Msg.BODY, Msg.BODY_ENTITIES, Msg.IN_REPLY_TO_MSG_ID, User.IN_REPLY_TO_NAME,
+            User.RECIPIENT_NAME,
+            MsgOfUser.FAVORITED, Msg.CREATED_DATE,
+            User.LINKED_USER_ID
+    };
+    private static final String SORT_ORDER = Msg.DEFAULT_SORT_ORDER + " LIMIT 0,100";
+
+    private Context context;
+    private MyAccount ma;
+    private LargeDatabaseGenerator generator;
+    private final List<String> report = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = TestSuite.initialize(this);
+
+        MbUser mbUser = MbUser.fromOriginAndUserOid(OriginEnum.TWITTER.getId(), "144771645");
+        mbUser.userName = "t131t";
+        MyAccount.Builder builder = MyAccount.Builder.newOrExistingFromAccountName("/" + OriginEnum.TWITTER.getName(), TriState.TRUE);
+        builder.setUserTokenWithSecret("sampleUserTokenFor" + mbUser.userName, "sampleUserSecretFor" + mbUser.userName);
+        builder.onVerifiedCredentials(mbUser, null);
+        assertTrue("Account is persistent", builder.isPersistent());
+        ma = builder.getAccount();
+
+        List<Long> ids = new ArrayList<Long>();
+        for (MyAccount account : MyAccount.list()) {
+            if (account.getOriginId() == OriginEnum.TWITTER.getId()) {
+                ids.add(account.getUserId());
+            }
+        }
+        long[] accountUserIds = new long[ids.size()];
+        for (int ind = 0; ind < accountUserIds.length; ind++) {
+            accountUserIds[ind] = ids.get(ind);
+        }
+        LargeDatabaseGenerator.delete(OriginEnum.TWITTER.getId());
+        generator = new LargeDatabaseGenerator(OriginEnum.TWITTER.getId(), accountUserIds, 20131101L)
+                .setMessagesCount(MESSAGES_COUNT).setUsersCount(USERS_COUNT);
+        generator.generate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        LargeDatabaseGenerator.delete(OriginEnum.TWITTER.getId());
+        super.tearDown();
+    }
+
+    /**
+     * Selection of the timeline, the same as in the TimelineActivity
+     */
+    private SelectionAndArgs timelineSelection(TimelineTypeEnum timelineType, boolean isCombined) {
+        SelectionAndArgs sa = new SelectionAndArgs();
+        switch (timelineType) {
+            case HOME:
+                if (!isCombined) {
+                    sa.addSelection(MsgOfUser.SUBSCRIBED + " = ?", new String[] {"1"});
+                }
+                break;
+            case MENTIONS:
+                sa.addSelection(MsgOfUser.MENTIONED + " = ?", new String[] {"1"});
+                break;
+            case FAVORITES:
+                sa.addSelection(MsgOfUser.FAVORITED + " = ?", new String[] {"1"});
+                break;
+            case DIRECT:
+                sa.addSelection(MsgOfUser.DIRECTED + " = ?", new String[] {"1"});
+                break;
+            default:
+                break;
+        }
+        return sa;
+    }
+
+    /**
+     * @return number of rows of the last query
+     */
+    private int measure(String name, Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        long[] micros = new long[ITERATIONS];
+        int rows = -1;
+        for (int ind = -WARM_UP; ind < ITERATIONS; ind++) {
+            long startedAt = MyMetrics.now();
+            Cursor cursor = context.getContentResolver().query(uri, projection, selection, selectionArgs, sortOrder);
+            assertNotNull(name + ": cursor", cursor);
+            try {
+                rows = cursor.getCount();
+                if (cursor.moveToFirst()) {
+                    do {
+                        cursor.getLong(0);
+                    } while (cursor.moveToNext());
+                }
+            } finally {
+                cursor.close();
+            }
+            if (ind >= 0) {
+                micros[ind] = (MyMetrics.now() - startedAt) / 1000;
+            }
+        }
+        Arrays.sort(micros);
+        String line = name + ": rows=" + rows
+                + ", p50=" + micros[(int) Math.ceil(ITERATIONS * 0.5) - 1]
+                + " us, p99=" + micros[(int) Math.ceil(ITERATIONS * 0.99) - 1] + " us";
+        Log.i(TAG, line);
+        report.add(line);
+        return rows;
+    }
+
+    public void testQueries() {
+        long accountUserId = ma.getUserId();
+        long selectedUserId = generator.getTopUserId();
+        TimelineTypeEnum[] timelineTypes = {
+                TimelineTypeEnum.HOME, TimelineTypeEnum.MENTIONS, TimelineTypeEnum.FAVORITES,
+                TimelineTypeEnum.DIRECT, TimelineTypeEnum.USER, TimelineTypeEnum.MESSAGESTOACT,
+                TimelineTypeEnum.FOLLOWING_USER
+        };
+        for (boolean isCombined : new boolean[] {false, true}) {
+            for (TimelineTypeEnum timelineType : timelineTypes) {
+                SelectionAndArgs sa = timelineSelection(timelineType, isCombined);
+                Uri uri = MyProvider.getTimelineUri(accountUserId, timelineType, isCombined);
+                if (timelineType == TimelineTypeEnum.USER) {
+                    uri = MyProvider.getUserTimelineUri(uri, selectedUserId);
+                }
+                int rows = measure("timeline " + timelineType.save() + (isCombined ? ", combined" : ""),
+                        uri, PROJECTION, sa.selection, sa.selectionArgs, SORT_ORDER);
+                if (timelineType == TimelineTypeEnum.HOME || timelineType == TimelineTypeEnum.USER) {
+                    assertTrue(timelineType.save() + " timeline is not empty", rows > 0);
+                }
+            }
+        }
+        SelectionAndArgs sa = new SelectionAndArgs();
+        sa.addSelection(Msg.AUTHOR_ID + " = ? OR " + Msg.SENDER_ID + " = ? OR "
+                + "(" + User.LINKED_USER_ID + " = ? AND " + MsgOfUser.REBLOGGED + " = 1)",
+                new String[] {
+                        Long.toString(selectedUserId), Long.toString(selectedUserId), Long.toString(selectedUserId)
+                });
+        assertEquals("User timeline has the same messages as the selection, which was used before",
+                measure("user selection, combined", MyProvider.getTimelineUri(accountUserId, TimelineTypeEnum.HOME, true),
+                        PROJECTION, sa.selection, sa.selectionArgs, Msg.DEFAULT_SORT_ORDER),
+                measure("user timeline, combined", MyProvider.getUserTimelineUri(
+                        MyProvider.getTimelineUri(accountUserId, TimelineTypeEnum.USER, true), selectedUserId),
+                        PROJECTION, null, null, Msg.DEFAULT_SORT_ORDER));
+        measure("timeline search", MyProvider.getTimelineSearchUri(accountUserId, TimelineTypeEnum.HOME, true, "andstatus.org/1"),
+                PROJECTION, null, null, SORT_ORDER);
+        int tagRows = measure("timeline tag search", MyProvider.getTimelineSearchUri(accountUserId, TimelineTypeEnum.HOME, true, "#tag5"),
+                PROJECTION, null, null, SORT_ORDER);
+        assertEquals("Tag timeline and tag search", tagRows,
+                measure("timeline tag", MyProvider.getTimelineTagUri(accountUserId, TimelineTypeEnum.HOME, true, "#Tag5"),
+                PROJECTION, null, null, SORT_ORDER));
+        measure("top tags", MsgTag.CONTENT_URI, new String[] {MsgTag.TAG, MsgTag.TAG_COUNT}, null, null,
+                MsgTag.TOP_SORT_ORDER + " LIMIT 0,10");
+        int rows = measure("timeline message", MyProvider.getTimelineMsgUri(accountUserId, TimelineTypeEnum.HOME, true,
+                generator.getMessageId(MESSAGES_COUNT / 2)), PROJECTION, null, null, null);
+        assertEquals("One message", 1, rows);
+        measure("messages count", Msg.CONTENT_COUNT_URI, null, Msg.SENDER_ID + "=" + selectedUserId, null, null);
+        measure("messages", Msg.CONTENT_URI, new String[] {Msg._ID, Msg.BODY},
+                Msg.SENDER_ID + "=" + selectedUserId, null, Msg.DEFAULT_SORT_ORDER);
+        measure("users", ContentUris.withAppendedId(User.CONTENT_URI, accountUserId),
+                new String[] {User._ID, User.USERNAME}, null, null, null);
+        rows = measure("user", MyProvider.getUserUri(accountUserId, selectedUserId),
+                new String[] {User._ID, User.USERNAME}, null, null, null);
+        assertEquals("One user", 1, rows);
+        Log.i(TAG, "Database of " + MESSAGES_COUNT + " messages generated in " + generator.getElapsedMillis()
+                + " ms; " + report.size() + " queries measured");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.MessageCounters;
+import org.andstatus.app.TestSuite;
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.net.MbUser;
+import org.andstatus.app.origin.Origin.OriginEnum;
+import org.andstatus.app.util.TriState;
+
+import java.util.List;
+
+/**
+ * Each run counts only its own work, even if the previous run failed before its counters were accumulated
+ * @author yvolk@yurivolkov.com
+ */
+public class SyncRunTest extends InstrumentationTestCase {
+    private Context context;
+    private MyAccount ma;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = TestSuite.initialize(this);
+
+        MbUser mbUser = MbUser.fromOriginAndUserOid(OriginEnum.TWITTER.getId(), "144771645");
+        mbUser.userName = "t131t";
+        MyAccount.Builder builder = MyAccount.Builder.newOrExistingFromAccountName("/" + OriginEnum.TWITTER.getName(), TriState.TRUE);
+        builder.setUserTokenWithSecret("sampleUserTokenFor" + mbUser.userName, "sampleUserSecretFor" + mbUser.userName);
+        builder.onVerifiedCredentials(mbUser, null);
+        assertTrue("Account is persistent", builder.isPersistent());
+        ma = builder.getAccount();
+    }
+
+    public void testCountersOfFailedRunAreNotCarriedOver() {
+        MessageCounters counters = new MessageCounters(ma, context, TimelineTypeEnum.HOME);
+        SyncRun failedRun = SyncRun.start(counters);
+        counters.pagesDownloaded = 3;
+        counters.itemsParsed = 60;
+        counters.itemsInserted = 20;
+        counters.itemsUpdated = 5;
+        counters.errors = 1;
+        failedRun.onError(StatusCode.AUTHENTICATION_ERROR);
+        failedRun.onEnded(counters, 1000);
+        // The download threw, so the counters were not accumulated
+
+        counters.timelineType = TimelineTypeEnum.MENTIONS;
+        SyncRun run = SyncRun.start(counters);
+        assertEquals(TimelineTypeEnum.MENTIONS, run.timelineType);
+        assertEquals(ma.getUserId(), run.userId);
+        assertEquals("Pages are reset when the run starts", 0, counters.pagesDownloaded);
+        assertEquals(0, counters.errors);
+        counters.pagesDownloaded++;
+        counters.itemsParsed += 2;
+        counters.itemsInserted++;
+        run.onEnded(counters, 100);
+        assertEquals(1, run.pages);
+        assertEquals(2, run.itemsParsed);
+        assertEquals(1, run.itemsInserted);
+        assertEquals(0, run.itemsUpdated);
+        assertEquals("Errors of the failed run", 0, run.errors);
+        assertEquals("", run.statusCode);
+        assertEquals(100, run.bytes);
+
+        assertTrue(run.save());
+        List<SyncRun> runs = SyncRun.getLatest(ma.getUserId(), TimelineTypeEnum.MENTIONS, 1);
+        assertEquals(1, runs.size());
+        assertEquals(run.id, runs.get(0).id);
+        assertEquals(1, runs.get(0).pages);
+        assertEquals(2, runs.get(0).itemsParsed);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.TestSuite;
+import org.andstatus.app.account.AccountDataReaderEmpty;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.origin.Origin.OriginEnum;
+import org.andstatus.app.origin.OriginConnectionData;
+import org.andstatus.app.util.Benchmark;
+import org.andstatus.app.util.TriState;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Throughput and allocations of timeline parsing and of URL building,
+ * based on the fixtures of {@link ConnectionTwitterTest} and {@link ConnectionPumpioTest}
+ * scaled to pages of 20 and 200 items. See results in the log ("Benchmark" tag).
+ * @author yvolk@yurivolkov.com
+ */
+public class ConnectionBenchmark extends InstrumentationTestCase {
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+    private static final int[] PAGE_SIZES = {20, 200};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initialize(this);
+    }
+
+    private Connection newConnection(OriginEnum originEnum, String host) throws Exception {
+        OriginConnectionData connectionData = originEnum.newOrigin().getConnectionData(TriState.UNKNOWN);
+        connectionData.dataReader = new AccountDataReaderEmpty();
+        Connection connection = connectionData.connectionClass.newInstance();
+        connection.enrichConnectionData(connectionData);
+        connectionData.httpConnectionClass = HttpConnectionMock.class;
+        connection.setAccountData(connectionData);
+        connection.http.data.host = host;
+        connection.http.data.oauthClientKeys = OAuthClientKeys.fromConnectionData(connection.http.data);
+        return connection;
+    }
+
+    /**
+     * @return Copy of the fixture with its "items" repeated up to the page size
+     */
+    static JSONObject scaledPage(JSONObject fixture, int pageSize) throws Exception {
+        JSONArray items = fixture.getJSONArray("items");
+        JSONArray scaled = new JSONArray();
+        for (int ind = 0; ind < pageSize; ind++) {
+            scaled.put(items.get(ind % items.length()));
+        }
+        JSONObject page = new JSONObject(fixture.toString());
+        page.put("items", scaled);
+        return page;
+    }
+
+    public void testTwitterTimelineParsing() throws Exception {
+        final Connection connection = newConnection(OriginEnum.TWITTER, "twitter.com");
+        JSONObject fixture = RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(),
+                org.andstatus.app.tests.R.raw.home_timeline);
+        for (final int pageSize : PAGE_SIZES) {
+            ((HttpConnectionMock) connection.http).setResponse(scaledPage(fixture, pageSize));
+            Benchmark.Result result = Benchmark.run("Twitter timeline, " + pageSize + " items",
+                    WARM_UP_ITERATIONS, ITERATIONS, new Benchmark.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            assertEquals(pageSize, connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE,
+                                    TimelinePosition.getEmpty(), pageSize, "144771645").size());
+                        }
+                    });
+            assertTrue(result.toString(), result.getOpsPerSecond() > 0);
+        }
+    }
+
+    public void testPumpioTimelineParsing() throws Exception {
+        final Connection connection = newConnection(OriginEnum.PUMPIO, "identi.ca");
+        JSONObject fixture = RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(),
+                org.andstatus.app.tests.R.raw.user_t131t_inbox);
+        for (final int pageSize : PAGE_SIZES) {
+            ((HttpConnectionMock) connection.http).setResponse(scaledPage(fixture, pageSize));
+            Benchmark.Result result = Benchmark.run("Pump.io timeline, " + pageSize + " items",
+                    WARM_UP_ITERATIONS, ITERATIONS, new Benchmark.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE,
+                                    TimelinePosition.getEmpty(), pageSize, "acct:t131t@identi.ca");
+                        }
+                    });
+            assertTrue(result.toString(), result.getOpsPerSecond() > 0);
+        }
+    }
+
+    public void testUrlBuilding() throws Exception {
+        final Connection connection = newConnection(OriginEnum.TWITTER, "twitter.com");
+        Benchmark.Result result = Benchmark.run("getApiPath and Uri building",
+                WARM_UP_ITERATIONS * 100, ITERATIONS * 100, new Benchmark.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        Uri.Builder builder = Uri.parse(connection.getApiPath(ApiRoutineEnum.STATUSES_HOME_TIMELINE)).buildUpon();
+                        builder.appendQueryParameter("since_id", "380925803053449216");
+                        builder.appendQueryParameter("count", "200");
+                        connection.http.pathToUrl(builder.build().toString());
+                    }
+                });
+        assertTrue(result.toString(), result.getOpsPerSecond() > 0);
+    }
+}
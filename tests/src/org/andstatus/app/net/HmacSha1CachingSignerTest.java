@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import junit.framework.TestCase;
+
+import oauth.signpost.OAuth;
+import oauth.signpost.basic.UrlStringRequestAdapter;
+import oauth.signpost.http.HttpParameters;
+import oauth.signpost.http.HttpRequest;
+import oauth.signpost.signature.HmacSha1MessageSigner;
+import oauth.signpost.signature.OAuthMessageSigner;
+
+/**
+ * Signatures of the {@link HmacSha1CachingSigner} are the same as of the signpost's {@link HmacSha1MessageSigner}
+ * @author yvolk@yurivolkov.com
+ */
+public class HmacSha1CachingSignerTest extends TestCase {
+
+    private static String sign(OAuthMessageSigner signer, String url, String nonce) throws Exception {
+        HttpRequest request = new UrlStringRequestAdapter(url);
+        HttpParameters params = new HttpParameters();
+        params.put(OAuth.OAUTH_CONSUMER_KEY, "consumerkey1", true);
+        params.put(OAuth.OAUTH_TOKEN, "token1", true);
+        params.put(OAuth.OAUTH_SIGNATURE_METHOD, signer.getSignatureMethod(), true);
+        params.put(OAuth.OAUTH_TIMESTAMP, "1383900000", true);
+        params.put(OAuth.OAUTH_NONCE, nonce, true);
+        params.put(OAuth.OAUTH_VERSION, "1.0", true);
+        return signer.sign(request, params);
+    }
+
+    public void testSameSignatures() throws Exception {
+        HmacSha1MessageSigner expected = new HmacSha1MessageSigner();
+        HmacSha1CachingSigner signer = new HmacSha1CachingSigner();
+        for (OAuthMessageSigner s : new OAuthMessageSigner[] {expected, signer}) {
+            s.setConsumerSecret("consumer secret&1");
+            s.setTokenSecret("tokensecret1");
+        }
+        for (int ind = 0; ind < 3; ind++) {
+            String url = "https://api.twitter.com/1.1/statuses/home_timeline.json?count=200&since_id=" + ind;
+            assertEquals(url, sign(expected, url, "nonce" + ind), sign(signer, url, "nonce" + ind));
+        }
+
+        expected.setTokenSecret("");
+        signer.setTokenSecret("");
+        String url = "https://identi.ca/api/user/t131t/inbox";
+        assertEquals("The key is prepared again for the new secret", sign(expected, url, "nonce"), sign(signer, url, "nonce"));
+    }
+
+    public void testSeveralSigners() throws Exception {
+        HmacSha1CachingSigner signer1 = new HmacSha1CachingSigner();
+        signer1.setConsumerSecret("secret1");
+        HmacSha1CachingSigner signer2 = new HmacSha1CachingSigner();
+        signer2.setConsumerSecret("secret2");
+        String url = "https://identi.ca/api/user/t131t/inbox";
+        String signature1 = sign(signer1, url, "nonce");
+        assertFalse("The thread's Mac is initialized with the key of the signer",
+                signature1.equals(sign(signer2, url, "nonce")));
+        assertEquals(signature1, sign(signer1, url, "nonce"));
+    }
+}
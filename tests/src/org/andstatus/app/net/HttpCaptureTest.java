@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.TestSuite;
+import org.andstatus.app.account.AccountDataReaderEmpty;
+import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.net.Connection.ApiEnum;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.origin.Origin.OriginEnum;
+import org.andstatus.app.origin.OriginConnectionData;
+import org.andstatus.app.util.TriState;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HttpCaptureTest extends InstrumentationTestCase {
+    private static final String HOST = "api.twitter.com";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initialize(this);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setCaptureEnabled(false);
+        HttpConnectionSimulator.setSimulator(null);
+        HttpConnectionReplay.setSession(null);
+        super.tearDown();
+    }
+
+    private void setCaptureEnabled(boolean enabled) {
+        MyPreferences.getDefaultSharedPreferences().edit().putBoolean(MyPreferences.KEY_CAPTURE_HTTP, enabled).commit();
+        HttpCapture.forget();
+        assertEquals(enabled, HttpCapture.isEnabled());
+    }
+
+    private Connection newConnection(Class<? extends HttpConnection> httpConnectionClass) throws Exception {
+        OriginConnectionData connectionData = OriginEnum.TWITTER.newOrigin().getConnectionData(TriState.UNKNOWN);
+        connectionData.dataReader = new AccountDataReaderEmpty();
+        Connection connection = connectionData.connectionClass.newInstance();
+        connection.enrichConnectionData(connectionData);
+        connectionData.httpConnectionClass = httpConnectionClass;
+        connection.setAccountData(connectionData);
+        connection.http.data.host = HOST;
+        return connection;
+    }
+
+    /**
+     * The same sequence of requests for capturing and for replaying
+     * @return oids of downloaded messages and "404" for the failed request
+     */
+    private List<String> downloadSession(Connection connection, MicroblogSimulator simulator) throws Exception {
+        List<String> oids = new ArrayList<String>();
+        TimelinePosition position = TimelinePosition.getEmpty();
+        for (int ind = 0; ind < 3; ind++) {
+            if (simulator != null) {
+                simulator.publish(50);
+            }
+            try {
+                for (MbTimelineItem item : connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE,
+                        position, 200, "")) {
+                    oids.add(item.mbMessage.oid);
+                    position = item.timelineItemPosition;
+                }
+            } catch (ConnectionException e) {
+                assertEquals(StatusCode.NOT_FOUND, e.getStatusCode());
+                oids.add("404");
+            }
+        }
+        return oids;
+    }
+
+    public void testCaptureAndReplay() throws Exception {
+        assertTrue("Previous capture deleted", HttpCapture.delete());
+        setCaptureEnabled(true);
+        MicroblogSimulator simulator = new MicroblogSimulator(ApiEnum.TWITTER1P1, HOST, 1000000L)
+                .setMessagesCount(150).setFailures(3, 404);
+        HttpConnectionSimulator.setSimulator(simulator);
+        List<String> captured = downloadSession(newConnection(HttpConnectionSimulator.class), simulator);
+        setCaptureEnabled(false);
+        assertEquals("50 + 50 messages and one failure", 101, captured.size());
+        assertEquals("404", captured.get(100));
+
+        HttpConnectionReplay.Session session = HttpConnectionReplay.Session.fromFile(HttpCapture.getFile());
+        assertEquals("Captured requests", 3, session.size());
+        HttpConnectionReplay.setSession(session);
+        Connection connection = newConnection(HttpConnectionReplay.class);
+        List<String> replayed = downloadSession(connection, null);
+        assertEquals("Replayed the same", captured, replayed);
+        assertTrue("Bytes counted on replay", connection.getBytesReceived() > 0);
+        try {
+            connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE, TimelinePosition.getEmpty(), 200, "");
+            fail("Not captured request should fail");
+        } catch (ConnectionException e) {
+            assertEquals(StatusCode.UNKNOWN, e.getStatusCode());
+        }
+    }
+
+    public void testPrivateAndLongBodies() throws Exception {
+        assertTrue(HttpCapture.delete());
+        setCaptureEnabled(true);
+        HttpCapture.append("GET", "https://" + HOST + "/1.1/direct_messages.json", 200, true, "[{\"text\":\"secret\"}]");
+        StringBuilder longBody = new StringBuilder();
+        while (longBody.length() <= HttpCapture.MAX_BODY_CHARS) {
+            longBody.append("0123456789");
+        }
+        HttpCapture.append("GET", "https://" + HOST + "/1.1/statuses/home_timeline.json", 200, true, longBody.toString());
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(HttpCapture.getFile()), "UTF-8"));
+        try {
+            JSONObject jso = new JSONObject(reader.readLine());
+            assertEquals("", jso.getString("body"));
+            assertTrue(jso.getBoolean("redacted"));
+            jso = new JSONObject(reader.readLine());
+            assertEquals(HttpCapture.MAX_BODY_CHARS, jso.getString("body").length());
+            assertTrue(jso.getBoolean("truncated"));
+        } finally {
+            reader.close();
+        }
+
+        MyPreferences.getDefaultSharedPreferences().edit().putBoolean(MyPreferences.KEY_CAPTURE_HTTP, false).commit();
+        HttpCapture.onPreferenceChanged();
+        assertFalse("Deleted, when turned off", HttpCapture.getFile().exists());
+    }
+}
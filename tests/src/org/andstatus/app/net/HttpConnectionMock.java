@@ -6,10 +6,31 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
 public class HttpConnectionMock extends HttpConnection {
     private static final String TAG = HttpConnectionMock.class.getSimpleName();
     private JSONObject postedObject = null;
     private JSONObject responseObject = null;
+    private String streamUrl = "";
+
+    /**
+     * @param url of a local stub server, which is opened instead of the streaming API
+     */
+    public void setStreamUrl(String url) {
+        streamUrl = url;
+    }
+
+    @Override
+    protected InputStream getStream(String path) throws ConnectionException {
+        try {
+            return new URL(streamUrl).openStream();
+        } catch (IOException e) {
+            throw new ConnectionException("Error opening stream '" + streamUrl + "'", e);
+        }
+    }
 
     public void setResponse(JSONObject jso) {
         responseObject = jso;
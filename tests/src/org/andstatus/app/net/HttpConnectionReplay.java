@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.text.TextUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * {@link HttpConnection}, which serves responses, captured by the {@link HttpCapture}, back:
+ * responses to the same method and URL are returned in the order they were captured,
+ * so the same sequence of requests gets exactly the same responses, without network access.
+ * The session is static, because {@link Connection} creates its HttpConnections by class.
+ * @author yvolk@yurivolkov.com
+ */
+public class HttpConnectionReplay extends HttpConnection {
+    private static volatile Session session = null;
+
+    public static class Session {
+        private final Map<String, LinkedList<JSONObject>> responses = new HashMap<String, LinkedList<JSONObject>>();
+        private int size = 0;
+
+        public static Session fromFile(File file) throws IOException {
+            return fromInputStream(new FileInputStream(file));
+        }
+
+        /**
+         * @param in lines, appended by the {@link HttpCapture}. The stream is closed
+         */
+        public static Session fromInputStream(InputStream in) throws IOException {
+            Session session = new Session();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (TextUtils.isEmpty(line.trim())) {
+                        continue;
+                    }
+                    JSONObject exchange = new JSONObject(line);
+                    String key = keyOf(exchange.getString("method"), exchange.getString("url"));
+                    LinkedList<JSONObject> list = session.responses.get(key);
+                    if (list == null) {
+                        list = new LinkedList<JSONObject>();
+                        session.responses.put(key, list);
+                    }
+                    list.add(exchange);
+                    session.size++;
+                }
+            } catch (JSONException e) {
+                throw new IOException("Wrong line of the captured session: " + e.getMessage());
+            } finally {
+                reader.close();
+            }
+            return session;
+        }
+
+        private static String keyOf(String method, String url) {
+            return method + " " + url;
+        }
+
+        /**
+         * @return number of captured requests
+         */
+        public int size() {
+            return size;
+        }
+
+        synchronized JSONObject next(String method, String url) throws ConnectionException {
+            LinkedList<JSONObject> list = responses.get(keyOf(method, url));
+            if (list == null || list.isEmpty()) {
+                throw new ConnectionException("Not captured: " + method + " " + url);
+            }
+            return list.removeFirst();
+        }
+    }
+
+    public static void setSession(Session sessionIn) {
+        session = sessionIn;
+    }
+
+    private Object request(String method, String path) throws ConnectionException {
+        Session current = session;
+        if (current == null) {
+            throw new ConnectionException("No captured session");
+        }
+        String url = pathToUrl(path);
+        JSONObject exchange = current.next(method, url);
+        String body = exchange.optString("body");
+        int statusCode = exchange.optInt("status");
+        boolean ok = exchange.optBoolean("ok");
+        recordRequest(method, url, body, statusCode, ok);
+        if (!ok || statusCode >= 300) {
+            throw ConnectionException.fromStatusCodeHttp(statusCode, "Captured error " + statusCode + ": " + method + " " + url);
+        }
+        try {
+            return new JSONTokener(body).nextValue();
+        } catch (JSONException e) {
+            throw new ConnectionException("Captured non-JSON response: " + method + " " + url);
+        }
+    }
+
+    @Override
+    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
+        return toJsonObject(request("POST", path));
+    }
+
+    @Override
+    protected JSONObject postRequest(String path) throws ConnectionException {
+        return toJsonObject(request("POST", path));
+    }
+
+    @Override
+    protected JSONObject getRequest(String path) throws ConnectionException {
+        return toJsonObject(request("GET", path));
+    }
+
+    @Override
+    protected JSONArray getRequestAsArray(String path) throws ConnectionException {
+        Object response = request("GET", path);
+        if (response instanceof JSONArray) {
+            return (JSONArray) response;
+        }
+        if (response instanceof JSONObject && ((JSONObject) response).has("items")) {
+            try {
+                return ((JSONObject) response).getJSONArray("items");
+            } catch (JSONException e) {
+                throw new ConnectionException("'items' is not an array?!");
+            }
+        }
+        throw new ConnectionException("No array was returned");
+    }
+
+    private JSONObject toJsonObject(Object response) throws ConnectionException {
+        if (response instanceof JSONObject) {
+            return (JSONObject) response;
+        }
+        throw new ConnectionException("Array was returned instead of an object");
+    }
+
+    @Override
+    public void registerClient(String path) throws ConnectionException {
+        // Client keys are not needed to replay
+    }
+
+    @Override
+    public void clearAuthInformation() {
+        // Nothing to clear
+    }
+
+    @Override
+    public boolean getCredentialsPresent() {
+        return true;
+    }
+}
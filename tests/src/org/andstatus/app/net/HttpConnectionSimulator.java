@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * {@link HttpConnection}, which sends all requests to the current {@link MicroblogSimulator}.
+ * The simulator is static, because {@link Connection} creates its HttpConnections
+ * by class (e.g. for other hosts of Pump.io)
+ * @author yvolk@yurivolkov.com
+ */
+public class HttpConnectionSimulator extends HttpConnection {
+    private static volatile MicroblogSimulator simulator = null;
+
+    public static void setSimulator(MicroblogSimulator simulatorIn) {
+        simulator = simulatorIn;
+    }
+
+    /**
+     * Replace HttpConnection of the connection (e.g. of an existing account) with the simulator's one
+     */
+    public static void install(Connection connection, MicroblogSimulator simulatorIn) {
+        setSimulator(simulatorIn);
+        HttpConnection http = new HttpConnectionSimulator();
+        http.setConnectionData(connection.http.data);
+        connection.http = http;
+    }
+
+    private Object request(String method, String path, JSONObject jso) throws ConnectionException {
+        MicroblogSimulator current = simulator;
+        if (current == null) {
+            throw new ConnectionException("No simulator");
+        }
+        String url = pathToUrl(path);
+        String responseString = null;
+        int statusCode = 0;
+        try {
+            Object response = current.handle(method, url, jso);
+            responseString = response.toString();
+            statusCode = 200;
+            return response;
+        } catch (ConnectionException e) {
+            statusCode = (e.getStatusCode() == StatusCode.NOT_FOUND ? 404 : 500);
+            throw e;
+        } finally {
+            recordRequest(method, url, responseString, statusCode, statusCode == 200);
+        }
+    }
+
+    @Override
+    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
+        return toJsonObject(request("POST", path, jso));
+    }
+
+    @Override
+    protected JSONObject postRequest(String path) throws ConnectionException {
+        return toJsonObject(request("POST", path, null));
+    }
+
+    @Override
+    protected JSONObject getRequest(String path) throws ConnectionException {
+        return toJsonObject(request("GET", path, null));
+    }
+
+    @Override
+    protected JSONArray getRequestAsArray(String path) throws ConnectionException {
+        Object response = request("GET", path, null);
+        if (response instanceof JSONArray) {
+            return (JSONArray) response;
+        }
+        try {
+            return ((JSONObject) response).getJSONArray("items");
+        } catch (JSONException e) {
+            throw new ConnectionException("No array was returned", e);
+        }
+    }
+
+    private JSONObject toJsonObject(Object response) throws ConnectionException {
+        if (response instanceof JSONObject) {
+            return (JSONObject) response;
+        }
+        throw new ConnectionException("Array was returned instead of an object");
+    }
+
+    @Override
+    public void registerClient(String path) throws ConnectionException {
+        // Any client is welcome
+    }
+
+    @Override
+    public void clearAuthInformation() {
+        // Nothing to clear
+    }
+
+    @Override
+    public boolean getCredentialsPresent() {
+        return true;
+    }
+}
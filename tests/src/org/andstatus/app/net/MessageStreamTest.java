@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.TestSuite;
+import org.andstatus.app.TimelineStreamer;
+import org.andstatus.app.account.AccountDataReaderEmpty;
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.origin.Origin;
+import org.andstatus.app.origin.Origin.OriginEnum;
+import org.andstatus.app.origin.OriginConnectionData;
+import org.andstatus.app.util.TriState;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the stream, served by a local stub server, as {@link Connection#openMessageStream()} does
+ * @author yvolk@yurivolkov.com
+ */
+public class MessageStreamTest extends InstrumentationTestCase {
+    private static final String[] EVENTS = {
+            "{\"friends\":[144771645,100]}",
+            tweet("1001", "First streamed message"),
+            "",
+            tweet("1002", "Second streamed message"),
+            "{\"delete\":{\"status\":{\"id_str\":\"1001\",\"user_id_str\":\"100\"}}}",
+            "not a JSON",
+            tweet("1003", "Third streamed message"),
+            "{\"direct_message\":{\"id_str\":\"2001\",\"text\":\"Direct streamed message\","
+                    + "\"created_at\":\"Sat Nov 09 10:05:00 +0000 2013\","
+                    + "\"sender\":{\"id_str\":\"100\",\"screen_name\":\"streamer1\"},"
+                    + "\"recipient\":{\"id_str\":\"144771645\",\"screen_name\":\"t131t\"}}}"
+    };
+    private static final int MESSAGES_COUNT = 4;
+
+    private Connection connection;
+    private HttpConnectionMock httpConnection;
+    private ServerSocket serverSocket;
+    private Thread server;
+    private volatile int connectionsServed = 0;
+
+    private static String tweet(String oid, String text) {
+        return "{\"id_str\":\"" + oid + "\",\"text\":\"" + text + "\","
+                + "\"created_at\":\"Sat Nov 09 10:00:00 +0000 2013\","
+                + "\"user\":{\"id_str\":\"100\",\"screen_name\":\"streamer1\"}}";
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initialize(this);
+
+        Origin origin = OriginEnum.TWITTER.newOrigin();
+        OriginConnectionData connectionData = origin.getConnectionData(TriState.UNKNOWN);
+        connectionData.accountUserOid = "144771645";
+        connectionData.accountUsername = "t131t";
+        connectionData.dataReader = new AccountDataReaderEmpty();
+        connection = connectionData.connectionClass.newInstance();
+        connection.enrichConnectionData(connectionData);
+        connectionData.httpConnectionClass = HttpConnectionMock.class;
+        connection.setAccountData(connectionData);
+        httpConnection = (HttpConnectionMock) connection.http;
+
+        serverSocket = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+        server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        });
+        server.start();
+        httpConnection.setStreamUrl("http://127.0.0.1:" + serverSocket.getLocalPort() + "/1.1/user.json");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        serverSocket.close();
+        server.join(5000);
+        super.tearDown();
+    }
+
+    /**
+     * Each connection gets all the events, the rest of them - after a pause, and then the stream ends
+     */
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            Socket socket = null;
+            try {
+                socket = serverSocket.accept();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                for (String line = reader.readLine(); line != null && line.length() > 0; line = reader.readLine()) {
+                    // Skip headers of the request
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nConnection: close\r\n\r\n".getBytes("UTF-8"));
+                for (int ind = 0; ind < EVENTS.length; ind++) {
+                    out.write((EVENTS[ind] + "\r\n").getBytes("UTF-8"));
+                    if (ind == 3) {
+                        out.flush();
+                        Thread.sleep(500);
+                    }
+                }
+                out.flush();
+                connectionsServed++;
+            } catch (IOException e) {
+                // The server socket is closed
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Ignored
+                    }
+                }
+            }
+        }
+    }
+
+    public void testReadBatches() throws Exception {
+        assertTrue("Streaming is supported", connection.isApiSupported(ApiRoutineEnum.STATUSES_USER_STREAM));
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            MessageStream stream = connection.openMessageStream();
+            List<MbMessage> messages = new ArrayList<MbMessage>();
+            try {
+                List<MbMessage> batch = stream.readBatch(1);
+                assertEquals("Batch size is limited", 1, batch.size());
+                messages.addAll(batch);
+                for (batch = stream.readBatch(20); batch != null; batch = stream.readBatch(20)) {
+                    assertFalse("Batch is not empty", batch.isEmpty());
+                    messages.addAll(batch);
+                }
+                assertEquals("Lines read, attempt " + attempt, EVENTS.length, stream.getLinesRead());
+            } finally {
+                stream.close();
+            }
+            assertEquals("Messages of the attempt " + attempt + ": " + messages, MESSAGES_COUNT, messages.size());
+            assertEquals("1001", messages.get(0).oid);
+            assertEquals("Second streamed message", messages.get(1).body);
+            assertEquals("streamer1", messages.get(2).sender.userName);
+            assertNull("Not a direct message", messages.get(2).recipient);
+            MbMessage direct = messages.get(3);
+            assertEquals("2001", direct.oid);
+            assertNotNull("Direct message has a recipient", direct.recipient);
+            assertEquals("144771645", direct.recipient.oid);
+        }
+        assertEquals("Reconnected", 2, connectionsServed);
+    }
+
+    /**
+     * Messages, posted while the stream was disconnected, are downloaded after each connection
+     */
+    public void testCatchUpOnEachConnection() throws Exception {
+        MbUser mbUser = MbUser.fromOriginAndUserOid(OriginEnum.TWITTER.getId(), "144771645");
+        mbUser.userName = "t131t";
+        MyAccount.Builder builder = MyAccount.Builder.newOrExistingFromAccountName("/" + OriginEnum.TWITTER.getName(), TriState.TRUE);
+        builder.setUserTokenWithSecret("sampleUserTokenFor" + mbUser.userName, "sampleUserSecretFor" + mbUser.userName);
+        builder.onVerifiedCredentials(mbUser, null);
+
+        final List<Integer> storedBeforeCatchUps = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger messagesStored = new AtomicInteger();
+        TimelineStreamer streamer = new TimelineStreamer(builder.getAccount(), getInstrumentation().getTargetContext()) {
+            @Override
+            protected MessageStream open() throws ConnectionException {
+                return connection.openMessageStream();
+            }
+
+            @Override
+            protected void onConnected() {
+                storedBeforeCatchUps.add(messagesStored.get());
+            }
+
+            @Override
+            protected void onBatch(List<MbMessage> messages) {
+                messagesStored.addAndGet(messages.size());
+            }
+        };
+        streamer.start();
+        try {
+            for (int ind = 0; ind < 100 && messagesStored.get() < 2 * MESSAGES_COUNT; ind++) {
+                Thread.sleep(100);
+            }
+        } finally {
+            streamer.stop();
+        }
+        assertEquals("Messages of two connections", 2 * MESSAGES_COUNT, messagesStored.get());
+        assertTrue("Catch up after the reconnection: " + storedBeforeCatchUps, storedBeforeCatchUps.size() >= 2);
+        assertEquals("Catch up before messages of the connection", 0, storedBeforeCatchUps.get(0).intValue());
+        assertEquals(MESSAGES_COUNT, storedBeforeCatchUps.get(1).intValue());
+    }
+
+    public void testReconnectDelay() {
+        long delay = TimelineStreamer.nextReconnectDelay(0);
+        assertEquals(1000, delay);
+        delay = TimelineStreamer.nextReconnectDelay(delay);
+        assertEquals(2000, delay);
+        for (int ind = 0; ind < 20; ind++) {
+            delay = TimelineStreamer.nextReconnectDelay(delay);
+        }
+        assertEquals("The delay is limited", 5 * 60 * 1000, delay);
+    }
+}
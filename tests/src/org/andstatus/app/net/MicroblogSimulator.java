@@ -0,0 +1,702 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import org.andstatus.app.net.Connection.ApiEnum;
+import org.andstatus.app.util.MyLog;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * In-memory microblogging server for offline sync and load tests.
+ * Serves timeline, user, friends and post endpoints of the Twitter 1.1, StatusNet
+ * and Pump.io APIs (as they are used by our {@link Connection} implementations)
+ * from a generated dataset, so paging ("since", "count", "max_id"), friends lists and errors
+ * are really exercised. See {@link HttpConnectionSimulator}.
+ * <p>
+ * Messages are not stored: the message with the given index is generated on demand,
+ * so datasets of 10k+ messages and thousands of friends cost nothing to create.
+ * Only the first {@link #getPublished()} messages are visible, so new messages may
+ * "arrive" between synchronizations: see {@link #publish(int)}.
+ * <p>
+ * {@link HttpConnection} has no access to response headers, so the rate limit
+ * ("X-Rate-Limit-*" headers of a real server) is exposed as the simulator's state
+ * and through the "rate_limit_status" endpoint.
+ * @author yvolk@yurivolkov.com
+ */
+public class MicroblogSimulator {
+    private static final String TAG = MicroblogSimulator.class.getSimpleName();
+
+    /** Message indexes below this are messages, user indexes are added to it */
+    private static final long USER_INDEX_OFFSET = 900000;
+    private static final long MILLIS_BETWEEN_MESSAGES = 60000;
+
+    private final ApiEnum api;
+    private final String host;
+    private final long idBase;
+    private final long startDate;
+
+    private int messagesCount = 1000;
+    private int usersCount = 50;
+    private int friendsCount = 50;
+    private int maxPageSize = 200;
+    private long latencyMillis = 0;
+    private int failEveryNthRequest = 0;
+    private int failuresSetAtRequest = 0;
+    private int failureStatusCode = 500;
+    private int rateLimit = 0;
+    private long rateLimitWindowMillis = 15 * 60 * 1000;
+    private String accountUserOid = "";
+    private String accountUserName = "";
+
+    private int published = 0;
+    private final Map<Integer, String> postedBodies = new HashMap<Integer, String>();
+
+    private int requestsCount = 0;
+    private int failedRequestsCount = 0;
+    private int itemsServed = 0;
+    private int rateLimitRemaining = 0;
+    private long rateLimitResetAt = 0;
+
+    /**
+     * @param idBase Numeric IDs of messages and users of this dataset start from this number,
+     *  use different bases to avoid clashes with data of other tests
+     */
+    public MicroblogSimulator(ApiEnum api, String host, long idBase) {
+        this.api = api;
+        this.host = host;
+        this.idBase = idBase;
+        startDate = new Date().getTime() - 100L * 24 * 60 * 60 * 1000;
+    }
+
+    public MicroblogSimulator setMessagesCount(int messagesCount) {
+        this.messagesCount = messagesCount;
+        return this;
+    }
+
+    public MicroblogSimulator setUsersCount(int usersCount) {
+        this.usersCount = usersCount;
+        return this;
+    }
+
+    /** First "friendsCount" users are followed by the account user */
+    public MicroblogSimulator setFriendsCount(int friendsCount) {
+        this.friendsCount = friendsCount;
+        if (usersCount < friendsCount) {
+            usersCount = friendsCount;
+        }
+        return this;
+    }
+
+    public MicroblogSimulator setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+        return this;
+    }
+
+    public MicroblogSimulator setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param failEveryNthRequest 0 - no failures, counting from the next request
+     * @param failureStatusCode HTTP status code of the failure, e.g. 404 or 500
+     */
+    public synchronized MicroblogSimulator setFailures(int failEveryNthRequest, int failureStatusCode) {
+        failuresSetAtRequest = requestsCount;
+        this.failEveryNthRequest = failEveryNthRequest;
+        this.failureStatusCode = failureStatusCode;
+        return this;
+    }
+
+    /**
+     * @param rateLimit Number of requests allowed per window, 0 - unlimited
+     */
+    public synchronized MicroblogSimulator setRateLimit(int rateLimit, long windowMillis) {
+        this.rateLimit = rateLimit;
+        this.rateLimitWindowMillis = windowMillis;
+        rateLimitRemaining = rateLimit;
+        rateLimitResetAt = 0;
+        return this;
+    }
+
+    /**
+     * The user of the synchronized account: author of posted messages, mentioned in every fifth message
+     */
+    public MicroblogSimulator setAccountUser(String accountUserOid, String accountUserName) {
+        this.accountUserOid = accountUserOid;
+        this.accountUserName = accountUserName;
+        return this;
+    }
+
+    /**
+     * Make next "count" messages of the dataset visible
+     * @return number of visible messages
+     */
+    public synchronized int publish(int count) {
+        published = Math.min(messagesCount, published + count);
+        return published;
+    }
+
+    public synchronized int getPublished() {
+        return published;
+    }
+
+    public synchronized int getRequestsCount() {
+        return requestsCount;
+    }
+
+    public synchronized int getFailedRequestsCount() {
+        return failedRequestsCount;
+    }
+
+    public synchronized int getItemsServed() {
+        return itemsServed;
+    }
+
+    public synchronized int getRateLimitRemaining() {
+        return rateLimitRemaining;
+    }
+
+    public synchronized long getRateLimitResetAt() {
+        return rateLimitResetAt;
+    }
+
+    public String messageOid(int index) {
+        if (api == ApiEnum.PUMPIO) {
+            return "https://" + host + "/api/activity/sim" + (idBase + index);
+        }
+        return String.valueOf(idBase + index);
+    }
+
+    /**
+     * @param userIndex -1 for the account user
+     */
+    public String userOid(int userIndex) {
+        if (userIndex < 0) {
+            return accountUserOid;
+        }
+        if (api == ApiEnum.PUMPIO) {
+            return "acct:" + userName(userIndex);
+        }
+        return String.valueOf(idBase + USER_INDEX_OFFSET + userIndex);
+    }
+
+    private String userName(int userIndex) {
+        if (userIndex < 0) {
+            return accountUserName;
+        }
+        if (api == ApiEnum.PUMPIO) {
+            return "simuser" + userIndex + "@" + host;
+        }
+        return "simuser" + userIndex;
+    }
+
+    /**
+     * Oid of the message, as it is stored in the database:
+     * Pump.io message is identified by its note, not by the "post" activity
+     */
+    private String noteOid(int index) {
+        if (api == ApiEnum.PUMPIO) {
+            return "https://" + host + "/api/note/sim" + (idBase + index);
+        }
+        return messageOid(index);
+    }
+
+    /**
+     * Common prefix of oids of all stored messages of this dataset, e.g. to delete them after a test.
+     * Assumes that the idBase is a multiple of a million
+     */
+    public String messageOidPrefix() {
+        String oid = noteOid(0);
+        return oid.substring(0, oid.length() - 6);
+    }
+
+    /**
+     * @return JSONObject or JSONArray
+     */
+    synchronized Object handle(String method, String url, JSONObject posted) throws ConnectionException {
+        requestsCount++;
+        simulateLatency();
+        checkRateLimit(url);
+        if (failEveryNthRequest > 0 && (requestsCount - failuresSetAtRequest) % failEveryNthRequest == 0) {
+            failedRequestsCount++;
+            throw ConnectionException.fromStatusCodeHttp(failureStatusCode,
+                    "Simulated failure " + failureStatusCode + " of the request " + requestsCount + ": " + url);
+        }
+        Uri uri = Uri.parse(url);
+        String path = endpointPath(uri);
+        if (api == ApiEnum.PUMPIO && !TextUtils.isEmpty(uri.getQueryParameter("since"))
+                && !TextUtils.isEmpty(uri.getQueryParameter("before"))) {
+            // As the Pump.io server does
+            throw ConnectionException.fromStatusCodeHttp(400, "Can't have both 'since' and 'before': " + url);
+        }
+        try {
+            Object response;
+            if (api == ApiEnum.PUMPIO) {
+                response = handlePumpio(method, path, uri, posted);
+            } else {
+                response = handleTwitter(method, path, uri, posted);
+            }
+            if (response == null) {
+                throw ConnectionException.fromStatusCodeHttp(404, "Not found: " + method + " " + url);
+            }
+            return response;
+        } catch (JSONException e) {
+            throw ConnectionException.loggedJsonException(TAG, e, posted, method + " " + url);
+        }
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkRateLimit(String url) throws ConnectionException {
+        if (rateLimit <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= rateLimitResetAt) {
+            rateLimitRemaining = rateLimit;
+            rateLimitResetAt = now + rateLimitWindowMillis;
+        }
+        if (url.contains("rate_limit_status")) {
+            return;
+        }
+        if (rateLimitRemaining <= 0) {
+            failedRequestsCount++;
+            throw new ConnectionException("Simulated 429 Too Many Requests, reset at "
+                    + new Date(rateLimitResetAt) + ": " + url);
+        }
+        rateLimitRemaining--;
+    }
+
+    /**
+     * @return Path without the host, the "basic path" of the API, parameters and extension
+     */
+    private static String endpointPath(Uri uri) {
+        String path = uri.getPath();
+        if (path == null) {
+            path = "";
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        for (String prefix : new String[] {"1.1/", "api/", "1/"}) {
+            if (path.startsWith(prefix)) {
+                path = path.substring(prefix.length());
+                break;
+            }
+        }
+        if (path.endsWith(".json")) {
+            path = path.substring(0, path.length() - ".json".length());
+        }
+        return path;
+    }
+
+    private Object handleTwitter(String method, String path, Uri uri, JSONObject posted) throws JSONException {
+        if (method.equals("POST")) {
+            if (path.equals("statuses/update")) {
+                return twitterMessage(post(posted.optString("status")));
+            }
+            return null;
+        }
+        if (path.equals("statuses/home_timeline")) {
+            return twitterTimeline(uri, -1, false);
+        } else if (path.equals("statuses/mentions_timeline") || path.equals("statuses/mentions")) {
+            return twitterTimeline(uri, -1, true);
+        } else if (path.equals("statuses/user_timeline")) {
+            return twitterTimeline(uri, userIndexOf(uri.getQueryParameter("user_id")), false);
+        } else if (path.equals("statuses/show")) {
+            int index = messageIndexOf(uri.getQueryParameter("id"));
+            return (index < 0 ? null : twitterMessage(index));
+        } else if (path.equals("users/show")) {
+            int userIndex = userIndexOf(uri.getQueryParameter("user_id"));
+            return (userIndex < 0 ? null : twitterUser(userIndex, true));
+        } else if (path.equals("friends/ids")) {
+            JSONArray ids = new JSONArray();
+            for (int userIndex = 0; userIndex < friendsCount; userIndex++) {
+                ids.put(userOid(userIndex));
+            }
+            itemsServed += ids.length();
+            if (api == ApiEnum.STATUSNET_TWITTER) {
+                return ids;
+            }
+            JSONObject jso = new JSONObject();
+            jso.put("ids", ids);
+            return jso;
+        } else if (path.equals("application/rate_limit_status") || path.equals("account/rate_limit_status")) {
+            return twitterRateLimitStatus();
+        }
+        return null;
+    }
+
+    private JSONArray twitterTimeline(Uri uri, int userIndex, boolean mentionsOnly) throws JSONException {
+        JSONArray jArr = new JSONArray();
+        int minIndex = messageIndexOf(uri.getQueryParameter("since_id")) + 1;
+        int maxIndex = published - 1;
+        String maxId = uri.getQueryParameter("max_id");
+        if (!TextUtils.isEmpty(maxId)) {
+            maxIndex = Math.min(maxIndex, messageIndexOf(maxId));
+        }
+        int count = pageSize(uri.getQueryParameter("count"));
+        for (int index = maxIndex; index >= minIndex && jArr.length() < count; index--) {
+            if (userIndex >= 0 && authorOf(index) != userIndex) {
+                continue;
+            }
+            if (mentionsOnly && !isMention(index)) {
+                continue;
+            }
+            jArr.put(twitterMessage(index));
+        }
+        itemsServed += jArr.length();
+        return jArr;
+    }
+
+    private JSONObject twitterMessage(int index) throws JSONException {
+        JSONObject jso = new JSONObject();
+        jso.put("id", idBase + index);
+        jso.put("id_str", messageOid(index));
+        jso.put("created_at", rfc822(messageDate(index)));
+        jso.put("text", body(index));
+        jso.put("source", "Simulator");
+        jso.put("favorited", false);
+        int replyTo = inReplyTo(index);
+        if (replyTo >= 0) {
+            jso.put("in_reply_to_status_id_str", messageOid(replyTo));
+            jso.put("in_reply_to_user_id_str", userOid(authorOf(replyTo)));
+            jso.put("in_reply_to_screen_name", userName(authorOf(replyTo)));
+        }
+        jso.put("user", twitterUser(authorOf(index), false));
+        return jso;
+    }
+
+    private JSONObject twitterUser(int userIndex, boolean withStatus) throws JSONException {
+        JSONObject jso = new JSONObject();
+        jso.put("id_str", userOid(userIndex));
+        jso.put("screen_name", userName(userIndex));
+        jso.put("name", (userIndex < 0 ? "Account user" : "Simulated user " + userIndex));
+        jso.put("description", "Generated by " + TAG);
+        jso.put("url", "http://" + host + "/" + userName(userIndex));
+        jso.put("profile_image_url", "http://" + host + "/avatar/" + userIndex + ".png");
+        jso.put("created_at", rfc822(startDate - MILLIS_BETWEEN_MESSAGES * (userIndex + 1)));
+        jso.put("following", userIndex >= 0 && userIndex < friendsCount);
+        if (withStatus) {
+            int latest = latestMessageOf(userIndex);
+            if (latest >= 0) {
+                JSONObject status = twitterMessage(latest);
+                status.remove("user");
+                jso.put("status", status);
+            }
+        }
+        return jso;
+    }
+
+    private JSONObject twitterRateLimitStatus() throws JSONException {
+        int limit = (rateLimit > 0 ? rateLimit : 1000);
+        int remaining = (rateLimit > 0 ? rateLimitRemaining : limit);
+        JSONObject jso = new JSONObject();
+        if (api == ApiEnum.TWITTER1P1) {
+            JSONObject limitObject = new JSONObject();
+            limitObject.put("limit", limit);
+            limitObject.put("remaining", remaining);
+            limitObject.put("reset", rateLimitResetAt / 1000);
+            JSONObject statuses = new JSONObject();
+            statuses.put("/statuses/home_timeline", limitObject);
+            JSONObject resources = new JSONObject();
+            resources.put("statuses", statuses);
+            jso.put("resources", resources);
+        } else {
+            jso.put("hourly_limit", limit);
+            jso.put("remaining_hits", remaining);
+            jso.put("reset_time_in_seconds", rateLimitResetAt / 1000);
+        }
+        return jso;
+    }
+
+    private Object handlePumpio(String method, String path, Uri uri, JSONObject posted) throws JSONException {
+        if (path.equals("whoami")) {
+            return pumpioPerson(-1);
+        }
+        String[] segments = path.split("/");
+        if (segments.length != 3 || !segments[0].equals("user")) {
+            return null;
+        }
+        String nickname = segments[1];
+        String collection = segments[2];
+        if (method.equals("POST")) {
+            if (collection.equals("feed") && posted != null) {
+                return pumpioPosted(posted);
+            }
+            return null;
+        }
+        if (collection.equals("inbox")) {
+            return pumpioTimeline(uri, -1);
+        } else if (collection.equals("feed")) {
+            return pumpioTimeline(uri, userIndexOfNickname(nickname));
+        } else if (collection.equals("following")) {
+            JSONArray items = new JSONArray();
+            int count = pageSize(uri.getQueryParameter("count"));
+            for (int userIndex = 0; userIndex < friendsCount && items.length() < count; userIndex++) {
+                items.put(pumpioPerson(userIndex));
+            }
+            itemsServed += items.length();
+            return collection(items, friendsCount);
+        } else if (collection.equals("profile")) {
+            int userIndex = userIndexOfNickname(nickname);
+            return (userIndex < 0 && !nickname.equals(nicknameOf(accountUserName)) ? null : pumpioPerson(userIndex));
+        }
+        return null;
+    }
+
+    private JSONObject pumpioTimeline(Uri uri, int userIndex) throws JSONException {
+        JSONArray items = new JSONArray();
+        int minIndex = messageIndexOf(uri.getQueryParameter("since")) + 1;
+        int maxIndex = published - 1;
+        String before = uri.getQueryParameter("before");
+        if (!TextUtils.isEmpty(before)) {
+            maxIndex = Math.min(maxIndex, messageIndexOf(before) - 1);
+        }
+        int count = pageSize(uri.getQueryParameter("count"));
+        for (int index = maxIndex; index >= minIndex && items.length() < count; index--) {
+            if (userIndex >= 0 && authorOf(index) != userIndex) {
+                continue;
+            }
+            items.put(pumpioActivity(index));
+        }
+        itemsServed += items.length();
+        return collection(items, published);
+    }
+
+    private JSONObject collection(JSONArray items, int totalItems) throws JSONException {
+        JSONObject jso = new JSONObject();
+        jso.put("objectType", "collection");
+        jso.put("totalItems", totalItems);
+        jso.put("items", items);
+        return jso;
+    }
+
+    private JSONObject pumpioActivity(int index) throws JSONException {
+        JSONObject activity = new JSONObject();
+        activity.put("id", messageOid(index));
+        activity.put("objectType", "activity");
+        activity.put("verb", "post");
+        activity.put("updated", iso8601(messageDate(index)));
+        activity.put("actor", pumpioPerson(authorOf(index)));
+        JSONObject generator = new JSONObject();
+        generator.put("displayName", "Simulator");
+        activity.put("generator", generator);
+
+        JSONObject note = new JSONObject();
+        note.put("id", noteOid(index));
+        note.put("objectType", inReplyTo(index) >= 0 ? "comment" : "note");
+        note.put("content", body(index));
+        note.put("published", iso8601(messageDate(index)));
+        note.put("url", "https://" + host + "/" + nicknameOf(userName(authorOf(index))) + "/note/sim" + (idBase + index));
+        note.put("author", pumpioPerson(authorOf(index)));
+        int replyTo = inReplyTo(index);
+        if (replyTo >= 0) {
+            JSONObject inReplyTo = new JSONObject();
+            inReplyTo.put("id", noteOid(replyTo));
+            inReplyTo.put("objectType", "note");
+            note.put("inReplyTo", inReplyTo);
+        }
+        activity.put("object", note);
+        return activity;
+    }
+
+    /**
+     * @param userIndex -1 for the account user
+     */
+    private JSONObject pumpioPerson(int userIndex) throws JSONException {
+        String userName = userName(userIndex);
+        JSONObject jso = new JSONObject();
+        jso.put("id", "acct:" + userName);
+        jso.put("objectType", "person");
+        jso.put("displayName", (userIndex < 0 ? "Account user" : "Simulated user " + userIndex));
+        jso.put("summary", "Generated by " + TAG);
+        jso.put("url", "https://" + host + "/" + nicknameOf(userName));
+        jso.put("updated", iso8601(startDate));
+        JSONObject image = new JSONObject();
+        image.put("url", "https://" + host + "/avatar/" + nicknameOf(userName) + ".png");
+        jso.put("image", image);
+        return jso;
+    }
+
+    private JSONObject pumpioPosted(JSONObject posted) throws JSONException {
+        JSONObject activity = new JSONObject(posted.toString());
+        JSONObject obj = activity.optJSONObject("object");
+        if ("post".equals(activity.optString("verb")) && obj != null && obj.has("content")) {
+            int index = post(obj.getString("content"));
+            activity.put("id", messageOid(index));
+            obj.put("id", noteOid(index));
+            obj.put("published", iso8601(messageDate(index)));
+        } else {
+            activity.put("id", "https://" + host + "/api/activity/sim" + (idBase + messagesCount + requestsCount));
+        }
+        activity.put("updated", iso8601(new Date().getTime()));
+        return activity;
+    }
+
+    /**
+     * Message, posted by the account user, becomes the newest message of the dataset
+     * @return its index
+     */
+    private int post(String body) {
+        int index = published;
+        if (index >= messagesCount) {
+            messagesCount = index + 1;
+        }
+        published++;
+        postedBodies.put(index, body);
+        MyLog.v(TAG, "Posted message " + index + ": '" + body + "'");
+        return index;
+    }
+
+    private int pageSize(String count) {
+        int size = 20;
+        if (!TextUtils.isEmpty(count)) {
+            try {
+                size = Integer.parseInt(count);
+            } catch (NumberFormatException e) {
+                MyLog.v(TAG, "Wrong count: '" + count + "'");
+            }
+        }
+        return Math.max(1, Math.min(size, maxPageSize));
+    }
+
+    /**
+     * @return -1 if the oid is empty or doesn't belong to this dataset
+     */
+    private int messageIndexOf(String oid) {
+        if (TextUtils.isEmpty(oid)) {
+            return -1;
+        }
+        String digits = oid;
+        int ind = oid.lastIndexOf("/sim");
+        if (ind >= 0) {
+            digits = oid.substring(ind + "/sim".length());
+        }
+        try {
+            long index = Long.parseLong(digits) - idBase;
+            return (index < 0 || index >= published ? -1 : (int) index);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int userIndexOf(String oid) {
+        if (TextUtils.isEmpty(oid)) {
+            return -1;
+        }
+        try {
+            long index = Long.parseLong(oid) - idBase - USER_INDEX_OFFSET;
+            return (index < 0 || index >= usersCount ? -1 : (int) index);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int userIndexOfNickname(String nickname) {
+        if (nickname.startsWith("simuser")) {
+            try {
+                int index = Integer.parseInt(nickname.substring("simuser".length()));
+                return (index < usersCount ? index : -1);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static String nicknameOf(String userName) {
+        int ind = userName.indexOf('@');
+        return (ind < 0 ? userName : userName.substring(0, ind));
+    }
+
+    /**
+     * @return -1 for messages of the account user
+     */
+    private int authorOf(int index) {
+        return (postedBodies.containsKey(index) ? -1 : index % usersCount);
+    }
+
+    private int latestMessageOf(int userIndex) {
+        for (int index = published - 1; index >= 0; index--) {
+            if (authorOf(index) == userIndex) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isMention(int index) {
+        return !TextUtils.isEmpty(accountUserName) && index % 5 == 0;
+    }
+
+    private int inReplyTo(int index) {
+        return (index > 0 && index % 7 == 0 && authorOf(index) >= 0 ? index - 1 : -1);
+    }
+
+    private String body(int index) {
+        if (postedBodies.containsKey(index)) {
+            return postedBodies.get(index);
+        }
+        StringBuilder builder = new StringBuilder();
+        if (isMention(index)) {
+            builder.append("@" + accountUserName + " ");
+        }
+        builder.append("Simulated message " + index + " of " + TAG);
+        if (index % 3 == 0) {
+            builder.append(", see <a href=\"http://example.com/" + index + "\">http://example.com/" + index + "</a>");
+        }
+        return builder.toString();
+    }
+
+    private long messageDate(int index) {
+        return startDate + MILLIS_BETWEEN_MESSAGES * index;
+    }
+
+    private static String rfc822(long date) {
+        SimpleDateFormat df = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return df.format(new Date(date));
+    }
+
+    private static String iso8601(long date) {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return df.format(new Date(date));
+    }
+}
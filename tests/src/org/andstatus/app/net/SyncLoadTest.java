@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import org.andstatus.app.CommandData;
+import org.andstatus.app.MessageCounters;
+import org.andstatus.app.MyService;
+import org.andstatus.app.MyService.CommandEnum;
+import org.andstatus.app.MyServiceListener;
+import org.andstatus.app.MyServiceManager;
+import org.andstatus.app.MyServiceReceiver;
+import org.andstatus.app.TestSuite;
+import org.andstatus.app.TimelineDownloader;
+import org.andstatus.app.account.AccountDataReaderEmpty;
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.data.MyDatabase;
+import org.andstatus.app.data.MyPreferences;
+import org.andstatus.app.data.MyDatabase.TimelineTypeEnum;
+import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.data.SyncRun;
+import org.andstatus.app.data.TimelineGap;
+import org.andstatus.app.net.Connection.ApiEnum;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.origin.Origin.OriginEnum;
+import org.andstatus.app.origin.OriginConnectionData;
+import org.andstatus.app.util.MyMetrics;
+import org.andstatus.app.util.SelectionAndArgs;
+import org.andstatus.app.util.TriState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end synchronization of accounts against the {@link MicroblogSimulator}:
+ * commands are sent to the {@link MyService} by the {@link MyServiceManager}, and the test checks
+ * what the Service itself reports: the broadcast {@link CommandData#commandResult} and the {@link SyncRun}s,
+ * which the Service keeps in the "sync_run" table. 10k messages and 5k friends are synced
+ * without access to a real server, but the Service executes commands only while the device is online.
+ * Results are logged with the "Benchmark" tag.
+ * @author yvolk@yurivolkov.com
+ */
+public class SyncLoadTest extends InstrumentationTestCase {
+    private static final String TAG = "Benchmark";
+    private static final int MESSAGES_COUNT = 10000;
+    private static final int FRIENDS_COUNT = 5000;
+    private static final int MESSAGES_PER_SYNC = 200;
+    private static final long COMMAND_TIMEOUT_MILLIS = 120000;
+
+    private Context context;
+    private MicroblogSimulator simulator = null;
+    private String batchingWindowStored;
+    private final CommandResults results = new CommandResults();
+    private MyServiceReceiver serviceReceiver;
+
+    /**
+     * Commands, which were executed by the {@link MyService}, as it broadcasts them
+     */
+    private static class CommandResults implements MyServiceListener {
+        private final List<CommandData> executed = new ArrayList<CommandData>();
+
+        @Override
+        public synchronized void onReceive(CommandData commandData) {
+            executed.add(commandData);
+            notifyAll();
+        }
+
+        synchronized void clear() {
+            executed.clear();
+        }
+
+        /**
+         * @return the executed command with its result or null on timeout
+         */
+        synchronized CommandData waitFor(CommandData commandData, long timeoutMillis) throws InterruptedException {
+            long waitUntil = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                int index = executed.indexOf(commandData);
+                if (index >= 0) {
+                    return executed.remove(index);
+                }
+                long millisLeft = waitUntil - System.currentTimeMillis();
+                if (millisLeft <= 0) {
+                    return null;
+                }
+                wait(millisLeft);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = TestSuite.initialize(this);
+        // Commands of the test are executed at once
+        batchingWindowStored = MyPreferences.getDefaultSharedPreferences().getString(MyPreferences.KEY_BATCHING_WINDOW, null);
+        MyPreferences.getDefaultSharedPreferences().edit().putString(MyPreferences.KEY_BATCHING_WINDOW, "0").commit();
+        serviceReceiver = new MyServiceReceiver(results);
+        serviceReceiver.registerReceiver(context);
+        MyServiceManager.setServiceAvailable();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        MyServiceManager.stopService();
+        MyServiceManager.setServiceUnavailable();
+        serviceReceiver.unregisterReceiver(context);
+        MyPreferences.getDefaultSharedPreferences().edit().putString(MyPreferences.KEY_BATCHING_WINDOW,
+                batchingWindowStored).commit();
+        HttpConnectionSimulator.setSimulator(null);
+        if (simulator != null) {
+            SelectionAndArgs sa = new SelectionAndArgs();
+            sa.addSelection(MyDatabase.Msg.MSG_OID + " LIKE ?", new String[] {
+                simulator.messageOidPrefix() + "%"
+            });
+            context.getContentResolver().delete(MyDatabase.Msg.CONTENT_URI, sa.selection, sa.selectionArgs);
+        }
+        super.tearDown();
+    }
+
+    /**
+     * IDs of each run are different and growing, as they are for a real server
+     */
+    private static long newIdBase() {
+        return (System.currentTimeMillis() / 1000) * 1000000L;
+    }
+
+    private Connection newConnection(OriginEnum originEnum, String host) throws Exception {
+        OriginConnectionData connectionData = originEnum.newOrigin().getConnectionData(TriState.UNKNOWN);
+        connectionData.dataReader = new AccountDataReaderEmpty();
+        Connection connection = connectionData.connectionClass.newInstance();
+        connection.enrichConnectionData(connectionData);
+        connectionData.httpConnectionClass = HttpConnectionSimulator.class;
+        connection.setAccountData(connectionData);
+        connection.http.data.host = host;
+        return connection;
+    }
+
+    /**
+     * @return the instance of the account, which the {@link MyService} uses,
+     *  so the simulator may be installed into its connection
+     */
+    private MyAccount addAccount(OriginEnum originEnum, String userOid, String userName) throws ConnectionException {
+        MbUser mbUser = MbUser.fromOriginAndUserOid(originEnum.getId(), userOid);
+        mbUser.userName = userName;
+        MyAccount.Builder builder = MyAccount.Builder.newOrExistingFromAccountName("/" + originEnum.getName(), TriState.TRUE);
+        builder.setUserTokenWithSecret("sampleUserTokenFor" + userName, "sampleUserSecretFor" + userName);
+        builder.onVerifiedCredentials(mbUser, null);
+        assertTrue("Account is persistent", builder.isPersistent());
+        MyPreferences.onPreferencesChanged();
+        MyPreferences.initialize(context, this);
+        MyAccount ma = MyAccount.fromAccountName(builder.getAccount().getAccountName());
+        assertTrue("Account " + userName + " has UserId", ma.getUserId() != 0);
+        return ma;
+    }
+
+    /**
+     * Send the command to the {@link MyService} and wait till it is executed
+     * @return the executed command with its result
+     */
+    private CommandData execute(MyAccount ma, CommandEnum command, TimelineTypeEnum timelineType) throws InterruptedException {
+        CommandData commandData = new CommandData(command, ma.getAccountName(), timelineType, 0);
+        results.clear();
+        MyServiceManager.sendCommand(commandData);
+        CommandData executed = results.waitFor(commandData, COMMAND_TIMEOUT_MILLIS);
+        assertNotNull("Not executed in " + COMMAND_TIMEOUT_MILLIS + " ms: " + commandData, executed);
+        return executed;
+    }
+
+    /**
+     * Sync one timeline of the account by the {@link MyService}
+     * @return the run, which the Service recorded
+     */
+    private SyncRun sync(MyAccount ma, CommandEnum command, TimelineTypeEnum timelineType) throws InterruptedException {
+        long lastRunId = getLastRunId(ma, timelineType);
+        CommandData executed = execute(ma, command, timelineType);
+        assertTrue("The run is recorded for " + executed, getLastRunId(ma, timelineType) > lastRunId);
+        SyncRun run = SyncRun.getLatest(ma.getUserId(), timelineType, 1).get(0);
+        assertEquals("Error of " + executed + " is recorded in " + run, executed.commandResult.hasError(),
+                run.statusCode.length() > 0);
+        return run;
+    }
+
+    private SyncRun sync(MyAccount ma, TimelineTypeEnum timelineType) throws InterruptedException {
+        return sync(ma, CommandEnum.FETCH_TIMELINE, timelineType);
+    }
+
+    private static long getLastRunId(MyAccount ma, TimelineTypeEnum timelineType) {
+        List<SyncRun> runs = SyncRun.getLatest(ma.getUserId(), timelineType, 1);
+        return (runs.isEmpty() ? 0 : runs.get(0).id);
+    }
+
+    public void testTwitterPaging() throws Exception {
+        simulator = new MicroblogSimulator(ApiEnum.TWITTER1P1, "api.twitter.com", newIdBase())
+                .setMessagesCount(500);
+        HttpConnectionSimulator.setSimulator(simulator);
+        Connection connection = newConnection(OriginEnum.TWITTER, "api.twitter.com");
+        simulator.publish(500);
+
+        List<MbTimelineItem> timeline = connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE,
+                TimelinePosition.getEmpty(), 200, "");
+        assertEquals("Full page", 200, timeline.size());
+        assertEquals("Newest message is the last", simulator.messageOid(499), timeline.get(199).mbMessage.oid);
+
+        timeline = connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE,
+                new TimelinePosition(simulator.messageOid(479)), 200, "");
+        assertEquals("Messages after 'since_id'", 20, timeline.size());
+        assertEquals("Oldest message after 'since_id'", simulator.messageOid(480), timeline.get(0).mbMessage.oid);
+
+        timeline = connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE,
+                new TimelinePosition(simulator.messageOid(99)), new TimelinePosition(simulator.messageOid(299)), 50, "");
+        assertEquals("Page before 'max_id'", 50, timeline.size());
+        assertEquals("'max_id' is included", simulator.messageOid(299), timeline.get(49).mbMessage.oid);
+        assertEquals(simulator.messageOid(250), timeline.get(0).mbMessage.oid);
+
+        timeline = connection.getTimeline(ApiRoutineEnum.STATUSES_USER_TIMELINE,
+                TimelinePosition.getEmpty(), 200, simulator.userOid(3));
+        assertEquals("Messages of one of 50 users", 10, timeline.size());
+        assertEquals(simulator.userOid(3), timeline.get(0).mbMessage.sender.oid);
+
+        simulator.setFailures(2, 404);
+        connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE, TimelinePosition.getEmpty(), 20, "");
+        try {
+            connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE, TimelinePosition.getEmpty(), 20, "");
+            fail("Failure expected");
+        } catch (ConnectionException e) {
+            assertEquals(StatusCode.NOT_FOUND, e.getStatusCode());
+        }
+        assertEquals(1, simulator.getFailedRequestsCount());
+        simulator.setFailures(0, 0);
+
+        simulator.setRateLimit(2, 60000);
+        connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE, TimelinePosition.getEmpty(), 20, "");
+        connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE, TimelinePosition.getEmpty(), 20, "");
+        assertEquals(0, connection.rateLimitStatus().remaining);
+        try {
+            connection.getTimeline(ApiRoutineEnum.STATUSES_HOME_TIMELINE, TimelinePosition.getEmpty(), 20, "");
+            fail("Rate limit expected");
+        } catch (ConnectionException e) {
+            assertEquals(StatusCode.UNKNOWN, e.getStatusCode());
+        }
+    }
+
+    public void testTwitterLoad() throws Exception {
+        MyAccount ma = addAccount(OriginEnum.TWITTER, "144771645", "t131t");
+        simulator = new MicroblogSimulator(ApiEnum.TWITTER1P1, "api.twitter.com", newIdBase())
+                .setMessagesCount(MESSAGES_COUNT).setFriendsCount(FRIENDS_COUNT)
+                .setAccountUser(ma.getUserOid(), ma.getUsername());
+        HttpConnectionSimulator.install(ma.getConnection(), simulator);
+
+        long startedAt = MyMetrics.now();
+        int inserted = 0;
+        while (simulator.getPublished() < MESSAGES_COUNT) {
+            simulator.publish(MESSAGES_PER_SYNC);
+            inserted += sync(ma, TimelineTypeEnum.HOME).itemsInserted;
+        }
+        long homeMillis = (MyMetrics.now() - startedAt) / 1000000;
+        Log.i(TAG, "Twitter home timeline: " + MESSAGES_COUNT + " messages in " + homeMillis + " ms, "
+                + simulator.getRequestsCount() + " requests");
+        assertTrue("Inserted " + inserted + " of " + MESSAGES_COUNT, inserted >= MESSAGES_COUNT);
+
+        startedAt = MyMetrics.now();
+        int requestsBefore = simulator.getRequestsCount();
+        sync(ma, TimelineTypeEnum.FOLLOWING_USER);
+        long friendsMillis = (MyMetrics.now() - startedAt) / 1000000;
+        Log.i(TAG, "Twitter following: " + FRIENDS_COUNT + " friends in " + friendsMillis + " ms, "
+                + (simulator.getRequestsCount() - requestsBefore) + " requests");
+        assertEquals("Friends stored", FRIENDS_COUNT, MyProvider.getIdsOfUsersFollowedBy(ma.getUserId()).size());
+        Log.i(TAG, "Metrics: " + MyMetrics.toJson().toString());
+    }
+
+    /**
+     * After a long offline period the sync stops at its limit, leaving a gap,
+     * which is filled later, see {@link TimelineGap}
+     */
+    public void testPumpioGaps() throws Exception {
+        MyAccount ma = addAccount(OriginEnum.PUMPIO, "acct:t131t@identi.ca", "t131t@identi.ca");
+        for (TimelineGap gap : TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId())) {
+            gap.onFilled();
+            gap.save();
+        }
+        simulator = new MicroblogSimulator(ApiEnum.PUMPIO, "identi.ca", newIdBase())
+                .setMessagesCount(1000).setAccountUser(ma.getUserOid(), ma.getUsername());
+        HttpConnectionSimulator.install(ma.getConnection(), simulator);
+
+        simulator.publish(20);
+        int inserted = sync(ma, TimelineTypeEnum.HOME).itemsInserted;
+        assertEquals("First sync", 20, inserted);
+        assertTrue("No gaps", TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId()).isEmpty());
+
+        simulator.publish(400);
+        inserted += sync(ma, TimelineTypeEnum.HOME).itemsInserted;
+        assertEquals("Sync is limited", 20 + MESSAGES_PER_SYNC, inserted);
+        List<TimelineGap> gaps = TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId());
+        assertEquals("Gap recorded", 1, gaps.size());
+        TimelineGap gap = gaps.get(0);
+        assertFalse("Older end of the gap", gap.getOlderPosition().isEmpty());
+        assertTrue("The gap is partially filled", gap.getNewerDate() > gap.getOlderDate());
+        assertTrue("Gap is reached", TimelineGap.isReached(TimelineTypeEnum.HOME, ma.getUserId(), gap.getNewerDate()));
+
+        inserted += sync(ma, CommandEnum.FILL_GAPS, TimelineTypeEnum.HOME).itemsInserted;
+        assertEquals("All messages downloaded", 420, inserted);
+        assertTrue("The gap is filled", TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId()).isEmpty());
+    }
+
+    /**
+     * Filling of the gap is cancelled by another thread. What was downloaded is kept,
+     * and the next run of the Service continues from there.
+     * The cancelled fill runs in the test itself, because the Service cancels its commands only
+     * when it is forced to stop
+     */
+    public void testPumpioCancelledFill() throws Exception {
+        MyAccount ma = addAccount(OriginEnum.PUMPIO, "acct:t131t@identi.ca", "t131t@identi.ca");
+        for (TimelineGap gap : TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId())) {
+            gap.onFilled();
+            gap.save();
+        }
+        simulator = new MicroblogSimulator(ApiEnum.PUMPIO, "identi.ca", newIdBase())
+                .setMessagesCount(1000).setAccountUser(ma.getUserOid(), ma.getUsername())
+                .setLatencyMillis(50);
+        HttpConnectionSimulator.install(ma.getConnection(), simulator);
+        simulator.publish(20);
+        int inserted = sync(ma, TimelineTypeEnum.HOME).itemsInserted;
+        simulator.publish(400);
+        inserted += sync(ma, TimelineTypeEnum.HOME).itemsInserted;
+        List<TimelineGap> gaps = TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId());
+        assertEquals("Gap recorded", 1, gaps.size());
+        long newerDate = gaps.get(0).getNewerDate();
+
+        final CancellationToken cancellation = new CancellationToken();
+        final int requestsBefore = simulator.getRequestsCount();
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (simulator.getRequestsCount() < requestsBefore + 3) {
+                        Thread.sleep(5);
+                    }
+                } catch (InterruptedException e) {
+                    // Cancel now
+                }
+                cancellation.cancel();
+            }
+        });
+        canceller.start();
+        MessageCounters counters = new MessageCounters(ma, context, TimelineTypeEnum.HOME);
+        try {
+            TimelineDownloader.newInstance(counters, ma.getUserId(), cancellation).fillGaps(1000);
+            fail("Cancellation expected");
+        } catch (ConnectionException e) {
+            assertEquals(StatusCode.CANCELLED, e.getStatusCode());
+        }
+        canceller.join();
+        inserted += counters.itemsInserted;
+        gaps = TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId());
+        assertEquals("The gap is left", 1, gaps.size());
+        assertTrue("Progress is kept", gaps.get(0).getNewerDate() < newerDate);
+
+        inserted += sync(ma, CommandEnum.FILL_GAPS, TimelineTypeEnum.HOME).itemsInserted;
+        assertEquals("All messages downloaded", 420, inserted);
+        assertTrue("The gap is filled", TimelineGap.list(TimelineTypeEnum.HOME, ma.getUserId()).isEmpty());
+    }
+
+    public void testPumpioLoadWithFailures() throws Exception {
+        MyAccount ma = addAccount(OriginEnum.PUMPIO, "acct:t131t@identi.ca", "t131t@identi.ca");
+        simulator = new MicroblogSimulator(ApiEnum.PUMPIO, "identi.ca", newIdBase())
+                .setMessagesCount(MESSAGES_COUNT / 10).setFriendsCount(200)
+                .setAccountUser(ma.getUserOid(), ma.getUsername())
+                .setLatencyMillis(5).setFailures(7, 500);
+        HttpConnectionSimulator.install(ma.getConnection(), simulator);
+
+        int syncs = 0;
+        int failedSyncs = 0;
+        while (simulator.getPublished() < MESSAGES_COUNT / 10) {
+            simulator.publish(20);
+            syncs++;
+            if (execute(ma, CommandEnum.FETCH_TIMELINE, TimelineTypeEnum.HOME).commandResult.hasError()) {
+                failedSyncs++;
+            }
+        }
+        Log.i(TAG, "Pump.io home timeline: " + syncs + " syncs, " + failedSyncs + " failed, "
+                + simulator.getRequestsCount() + " requests");
+        assertTrue("Some syncs failed", failedSyncs > 0);
+        assertTrue("Some syncs succeeded", failedSyncs < syncs);
+        assertEquals("Failures of the simulator are seen by the app", simulator.getFailedRequestsCount(), failedSyncs);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Minimal micro-benchmark harness for instrumentation tests:
+ * warm-up iterations, which results are thrown away, then measured iterations on the current thread.
+ * Reports throughput, the median time of an iteration (it is less affected by single slow iterations,
+ * e.g. by a garbage collection) and allocation rate (using the per-thread allocation counters of {@link Debug}),
+ * all results are logged with the "Benchmark" tag, so they can be filtered from logcat.
+ * @author yvolk@yurivolkov.com
+ */
+public class Benchmark {
+    private static final String TAG = Benchmark.class.getSimpleName();
+
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    public static class Result {
+        public String name;
+        public int iterations;
+        public long elapsedNanos;
+        public long allocatedBytes;
+        public long allocatedObjects;
+        /**
+         * Time of each measured iteration
+         */
+        public long[] iterationNanos;
+
+        public double getOpsPerSecond() {
+            return (elapsedNanos == 0 ? 0 : iterations * 1e9 / elapsedNanos);
+        }
+
+        public long getMicrosPerOp() {
+            return (iterations == 0 ? 0 : elapsedNanos / 1000 / iterations);
+        }
+
+        public long getMedianMicrosPerOp() {
+            if (iterationNanos == null || iterationNanos.length == 0) {
+                return 0;
+            }
+            long[] sorted = iterationNanos.clone();
+            Arrays.sort(sorted);
+            int middle = sorted.length / 2;
+            long median = (sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2);
+            return median / 1000;
+        }
+
+        public long getBytesPerOp() {
+            return (iterations == 0 ? 0 : allocatedBytes / iterations);
+        }
+
+        public long getObjectsPerOp() {
+            return (iterations == 0 ? 0 : allocatedObjects / iterations);
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + String.format("%.1f", getOpsPerSecond()) + " ops/s, "
+                    + getMicrosPerOp() + " us/op, median " + getMedianMicrosPerOp() + " us/op, "
+                    + getBytesPerOp() + " B/op, "
+                    + getObjectsPerOp() + " allocs/op (" + iterations + " iterations)";
+        }
+    }
+
+    private Benchmark() {
+        throw new AssertionError();
+    }
+
+    public static Result run(String name, int warmUpIterations, int iterations, Operation operation) throws Exception {
+        for (int ind = 0; ind < warmUpIterations; ind++) {
+            operation.run();
+        }
+        System.gc();
+
+        Result result = new Result();
+        result.name = name;
+        result.iterations = iterations;
+        result.iterationNanos = new long[iterations];
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long startedAt = System.nanoTime();
+        try {
+            long iterationStartedAt = startedAt;
+            for (int ind = 0; ind < iterations; ind++) {
+                operation.run();
+                long now = System.nanoTime();
+                result.iterationNanos[ind] = now - iterationStartedAt;
+                iterationStartedAt = now;
+            }
+        } finally {
+            result.elapsedNanos = System.nanoTime() - startedAt;
+            Debug.stopAllocCounting();
+            result.allocatedBytes = Debug.getThreadAllocSize();
+            result.allocatedObjects = Debug.getThreadAllocCount();
+        }
+        Log.i(TAG, result.toString());
+        return result;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.net.RawResourceReader;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parity of the {@link DateParser} with the parsers, which were used before it
+ * ({@link Date#parse(String)} for Twitter, {@link SimpleDateFormat} for Pump.io),
+ * and its speed on the dates of the Twitter and Pump.io fixtures. See results in the log ("Benchmark" tag).
+ * @author yvolk@yurivolkov.com
+ */
+public class DateParserBenchmark extends InstrumentationTestCase {
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int ITERATIONS = 50;
+    private static final int RANDOM_DATES = 2000;
+
+    private List<String> twitterDates;
+    private List<String> pumpioDates;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        twitterDates = datesOfFixture(org.andstatus.app.tests.R.raw.home_timeline, "created_at");
+        pumpioDates = datesOfFixture(org.andstatus.app.tests.R.raw.user_t131t_inbox, "(?:published|updated)");
+        assertTrue("Twitter dates in the fixture", twitterDates.size() > 0);
+        assertTrue("Pump.io dates in the fixture", pumpioDates.size() > 0);
+    }
+
+    private List<String> datesOfFixture(int resourceId, String fieldRegex) throws Exception {
+        String fixture = RawResourceReader.getStringResource(getInstrumentation().getContext(), resourceId);
+        List<String> dates = new ArrayList<String>();
+        Matcher matcher = Pattern.compile("\"" + fieldRegex + "\"\\s*:\\s*\"([^\"]+)\"").matcher(fixture);
+        while (matcher.find()) {
+            dates.add(matcher.group(1));
+        }
+        return dates;
+    }
+
+    /**
+     * The way ConnectionPumpio parsed dates before
+     */
+    private static long parseIso8601Old(String date) throws ParseException {
+        String datePrepared;
+        if (date.lastIndexOf("Z") == date.length()-1) {
+            datePrepared = date.substring(0, date.length()-1) + "+0000";
+        } else {
+            datePrepared = date.replaceAll("\\+0([0-9]){1}\\:00", "+0$100");
+        }
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.GERMANY).parse(datePrepared).getTime();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long parseRfc822Old(String date) {
+        return Date.parse(date);
+    }
+
+    public void testParity() throws Exception {
+        for (String date : twitterDates) {
+            assertEquals(date, parseRfc822Old(date), DateParser.parseRfc822(date));
+            assertEquals(date, parseRfc822Old(date), DateParser.parse(date));
+        }
+        for (String date : pumpioDates) {
+            assertEquals(date, parseIso8601Old(date), DateParser.parseIso8601(date));
+            assertEquals(date, parseIso8601Old(date), DateParser.parse(date));
+        }
+
+        SimpleDateFormat twitterFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+        SimpleDateFormat rfc1123Format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        SimpleDateFormat iso8601Format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US);
+        rfc1123Format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Random random = new Random(20131102L);
+        for (int ind = 0; ind < RANDOM_DATES; ind++) {
+            long millis = (long) (random.nextDouble() * 2000000000L) * 1000;
+            TimeZone timeZone = TimeZone.getTimeZone(ind % 2 == 0 ? "UTC" : "Europe/Moscow");
+            twitterFormat.setTimeZone(timeZone);
+            iso8601Format.setTimeZone(timeZone);
+            String date = twitterFormat.format(new Date(millis));
+            assertEquals(date, millis, DateParser.parseRfc822(date));
+            date = rfc1123Format.format(new Date(millis));
+            assertEquals(date, millis, DateParser.parseRfc822(date));
+            date = iso8601Format.format(new Date(millis));
+            assertEquals(date, millis, DateParser.parseIso8601(date));
+        }
+
+        assertEquals(1379832723000L, DateParser.parseIso8601("2013-09-22T06:52:03Z"));
+        assertEquals(1379832723123L, DateParser.parseIso8601("2013-09-22T06:52:03.123Z"));
+        assertEquals(1379832723000L, DateParser.parseIso8601("2013-09-22T10:52:03+04:00"));
+        assertEquals(1379832723000L, DateParser.parseIso8601("2013-09-22T01:52:03-0500"));
+        assertEquals(0, DateParser.parse(null));
+        assertEquals(0, DateParser.parse(""));
+        assertEquals(0, DateParser.parseIso8601("2013-09-22"));
+        assertEquals(0, DateParser.parseIso8601("2013-13-22T06:52:03Z"));
+        assertEquals(0, DateParser.parseRfc822("Sat Foo 06 15:30:10 +0000 2010"));
+        assertEquals(0, DateParser.parseRfc822("Sat Feb 06 +0000 2010"));
+    }
+
+    public void testSpeed() throws Exception {
+        final String[] twitter = twitterDates.toArray(new String[twitterDates.size()]);
+        final String[] pumpio = pumpioDates.toArray(new String[pumpioDates.size()]);
+        final long[] sum = {0};
+
+        Benchmark.Result rfc822Old = Benchmark.run("Date.parse, " + twitter.length + " Twitter dates",
+                WARM_UP_ITERATIONS, ITERATIONS, new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                for (String date : twitter) {
+                    sum[0] += parseRfc822Old(date);
+                }
+            }
+        });
+        Benchmark.Result rfc822 = Benchmark.run("DateParser, " + twitter.length + " Twitter dates",
+                WARM_UP_ITERATIONS, ITERATIONS, new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                for (String date : twitter) {
+                    sum[0] += DateParser.parseRfc822(date);
+                }
+            }
+        });
+        Benchmark.Result iso8601Old = Benchmark.run("SimpleDateFormat, " + pumpio.length + " Pump.io dates",
+                WARM_UP_ITERATIONS, ITERATIONS, new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                for (String date : pumpio) {
+                    sum[0] += parseIso8601Old(date);
+                }
+            }
+        });
+        Benchmark.Result iso8601 = Benchmark.run("DateParser, " + pumpio.length + " Pump.io dates",
+                WARM_UP_ITERATIONS, ITERATIONS, new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                for (String date : pumpio) {
+                    sum[0] += DateParser.parseIso8601(date);
+                }
+            }
+        });
+        assertTrue(sum[0] != 0);
+
+        assertTrue(rfc822 + " vs " + rfc822Old, rfc822.elapsedNanos < rfc822Old.elapsedNanos);
+        assertTrue(iso8601 + " vs " + iso8601Old, iso8601.elapsedNanos < iso8601Old.elapsedNanos);
+        assertEquals("No allocations: " + rfc822, 0, rfc822.getObjectsPerOp());
+        assertEquals("No allocations: " + iso8601, 0, iso8601.getObjectsPerOp());
+    }
+}
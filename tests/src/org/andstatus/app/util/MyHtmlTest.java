@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+import junit.framework.TestCase;
+
+public class MyHtmlTest extends TestCase {
+
+    public void testToPlainText() {
+        assertEquals("", MyHtml.toPlainText(null));
+        assertEquals("web", MyHtml.toPlainText("web"));
+        assertEquals("AndStatus & co", MyHtml.toPlainText(
+                "<a href=\"http://andstatus.org/andstatus/\" rel=\"nofollow\">AndStatus &amp; co</a>"));
+    }
+
+    public void testUnescape() {
+        String text = "Nothing to decode";
+        assertSame(text, MyHtml.unescape(text));
+        assertEquals("a <b> 'c' \"d\" &foo; & &amp", MyHtml.unescape("a &lt;b&gt; &#39;c&#x27; &quot;d&quot; &foo; & &amp"));
+    }
+}
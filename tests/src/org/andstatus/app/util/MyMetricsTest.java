@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2013 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+public class MyMetricsTest extends TestCase {
+
+    public void testSameMetricByName() {
+        String name = "test.counter." + System.nanoTime();
+        MyMetrics.Counter counter = MyMetrics.counter(name);
+        assertSame(counter, MyMetrics.counter(name));
+        counter.increment();
+        counter.add(4);
+        assertEquals(5, MyMetrics.counter(name).get());
+    }
+
+    public void testLatencyPercentiles() {
+        MyMetrics.Latency latency = MyMetrics.latency("test.latency." + System.nanoTime());
+        assertEquals(0, latency.percentile(0.5));
+        for (int ind = 0; ind < 98; ind++) {
+            latency.record(200);
+        }
+        latency.record(40000);
+        latency.record(3000000);
+        assertEquals(100, latency.getCount());
+        assertEquals(250, latency.percentile(0.5));
+        assertEquals(50000, latency.percentile(0.99));
+        assertEquals(3000000, latency.percentile(1.0));
+    }
+
+    public void testToJson() throws Exception {
+        String name = "test.gauge." + System.nanoTime();
+        MyMetrics.gauge(name).set(7);
+        JSONObject jso = MyMetrics.toJson();
+        assertEquals(7, jso.getJSONObject("gauges").getLong(name));
+        assertTrue(jso.has("counters"));
+        assertTrue(jso.has("latencies"));
+    }
+}